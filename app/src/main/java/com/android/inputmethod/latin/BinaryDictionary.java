@@ -19,7 +19,9 @@ import helium314.keyboard.latin.common.ComposedData;
 import helium314.keyboard.latin.common.Constants;
 import helium314.keyboard.latin.common.FileUtils;
 import helium314.keyboard.latin.common.InputPointers;
+import helium314.keyboard.latin.common.PackedWords;
 import helium314.keyboard.latin.common.StringUtils;
+import helium314.keyboard.latin.common.WordFilter;
 import helium314.keyboard.latin.makedict.DictionaryHeader;
 import helium314.keyboard.latin.makedict.FormatSpec.DictionaryOptions;
 import helium314.keyboard.latin.makedict.UnsupportedFormatException;
@@ -84,6 +86,36 @@ public final class BinaryDictionary extends Dictionary {
 
     private final SparseArray<DicTraverseSession> mDicTraverseSessions = new SparseArray<>();
 
+    // Buffers for lookups, which are done from several threads (e.g. input logic and spell checker).
+    private static final class LookupBuffers {
+        final int[] mWordCodePoints = new int[DICTIONARY_MAX_WORD_LENGTH];
+        int mWordCodePointCount;
+        final int[][] mPrevWordCodePointArrays =
+                new int[MAX_PREV_WORD_COUNT_FOR_N_GRAM][DICTIONARY_MAX_WORD_LENGTH];
+        final int[] mPrevWordCodePointCounts = new int[MAX_PREV_WORD_COUNT_FOR_N_GRAM];
+        final boolean[] mIsBeginningOfSentenceArray = new boolean[MAX_PREV_WORD_COUNT_FOR_N_GRAM];
+
+        // Returns the code points of word and sets mWordCodePointCount. Words that are too long
+        // for the buffer are not in the dictionary anyway, but they are still looked up.
+        int[] toCodePoints(final CharSequence word) {
+            if (Character.codePointCount(word, 0, word.length()) > DICTIONARY_MAX_WORD_LENGTH) {
+                final int[] codePoints = StringUtils.toCodePointArray(word);
+                mWordCodePointCount = codePoints.length;
+                return codePoints;
+            }
+            mWordCodePointCount = StringUtils.copyCodePointsAndReturnCodePointCount(mWordCodePoints,
+                    word, 0, word.length(), false);
+            return mWordCodePoints;
+        }
+    }
+
+    private static final ThreadLocal<LookupBuffers> sLookupBuffers = new ThreadLocal<LookupBuffers>() {
+        @Override
+        protected LookupBuffers initialValue() {
+            return new LookupBuffers();
+        }
+    };
+
     // TODO: There should be a way to remove used DicTraverseSession objects from
     // {@code mDicTraverseSessions}.
     private DicTraverseSession getTraverseSession(final int traverseSessionId) {
@@ -164,10 +196,14 @@ public final class BinaryDictionary extends Dictionary {
     private static native boolean flushWithGCNative(long dict, String filePath);
     private static native void closeNative(long dict);
     private static native int getFormatVersionNative(long dict);
-    private static native int getProbabilityNative(long dict, int[] word);
-    private static native int getMaxProbabilityOfExactMatchesNative(long dict, int[] word);
+    private static native int getProbabilityNative(long dict, int[] word, int wordLength);
+    private static native int getMaxProbabilityOfExactMatchesNative(long dict, int[] word,
+            int wordLength);
+    private static native void getProbabilitiesNative(long dict, int[] codePoints,
+            int[] wordStarts, int wordCount, int[] outProbabilities);
     private static native int getNgramProbabilityNative(long dict, int[][] prevWordCodePointArrays,
-            boolean[] isBeginningOfSentenceArray, int[] word);
+            int[] prevWordCodePointCounts, boolean[] isBeginningOfSentenceArray, int prevWordCount,
+            int[] word, int wordLength);
     private static native void getWordPropertyNative(long dict, int[] word,
             boolean isBeginningOfSentence, int[] outCodePoints, boolean[] outFlags,
             int[] outProbabilityInfo, ArrayList<int[][]> outNgramPrevWordsArray,
@@ -176,11 +212,13 @@ public final class BinaryDictionary extends Dictionary {
             ArrayList<int[]> outShortcutTargets, ArrayList<Integer> outShortcutProbabilities);
     private static native int getNextWordNative(long dict, int token, int[] outCodePoints,
             boolean[] outIsBeginningOfSentence);
+    private static native long[] getWordHashesNative(long dict);
     private static native void getSuggestionsNative(long dict, long proximityInfo,
             long traverseSession, int[] xCoordinates, int[] yCoordinates, int[] times,
             int[] pointerIds, int[] inputCodePoints, int inputSize, int[] suggestOptions,
-            int[][] prevWordCodePointArrays, boolean[] isBeginningOfSentenceArray,
-            int prevWordCount, int[] outputSuggestionCount, int[] outputCodePoints,
+            int[][] prevWordCodePointArrays, int[] prevWordCodePointCounts,
+            boolean[] isBeginningOfSentenceArray, int prevWordCount,
+            int[] outputSuggestionCount, int[] outputCodePoints,
             int[] outputScores, int[] outputIndices, int[] outputTypes,
             int[] outputAutoCommitFirstWordConfidence,
             float[] inOutWeightOfLangModelVsSpatialModel);
@@ -256,10 +294,33 @@ public final class BinaryDictionary extends Dictionary {
         if (!isValidDictionary()) {
             return null;
         }
+        final ArrayList<SuggestedWordInfo> suggestions = new ArrayList<>();
+        if (!getSuggestions(composedData, ngramContext, proximityInfoHandle,
+                settingsValuesForSuggestion, sessionId, weightForLocale,
+                inOutWeightOfLangModelVsSpatialModel, suggestions)) {
+            return null;
+        }
+        return suggestions;
+    }
+
+    /**
+     * Same as {@link #getSuggestions(ComposedData, NgramContext, long, SettingsValuesForSuggestion,
+     * int, float, float[])}, but adds the suggestions to outSuggestions.
+     * @return whether suggestions could be searched
+     */
+    public boolean getSuggestions(final ComposedData composedData,
+            final NgramContext ngramContext, final long proximityInfoHandle,
+            final SettingsValuesForSuggestion settingsValuesForSuggestion,
+            final int sessionId, final float weightForLocale,
+            final float[] inOutWeightOfLangModelVsSpatialModel,
+            @NonNull final ArrayList<SuggestedWordInfo> outSuggestions) {
+        if (!isValidDictionary()) {
+            return false;
+        }
         final DicTraverseSession session = getTraverseSession(sessionId);
         Arrays.fill(session.mInputCodePoints, Constants.NOT_A_CODE);
         ngramContext.outputToArray(session.mPrevWordCodePointArrays,
-                session.mIsBeginningOfSentenceArray);
+                session.mPrevWordCodePointCounts, session.mIsBeginningOfSentenceArray);
         final InputPointers inputPointers = composedData.mInputPointers;
         final boolean isGesture = composedData.mIsBatchMode;
         final int inputSize;
@@ -268,7 +329,7 @@ public final class BinaryDictionary extends Dictionary {
                     composedData.copyCodePointsExceptTrailingSingleQuotesAndReturnCodePointCount(
                         session.mInputCodePoints);
             if (inputSize < 0) {
-                return null;
+                return false;
             }
         } else {
             inputSize = inputPointers.getPointerSize();
@@ -288,11 +349,12 @@ public final class BinaryDictionary extends Dictionary {
         }
         // TOOD: Pass multiple previous words information for n-gram.
         getSuggestionsNative(mNativeDict, proximityInfoHandle,
-                getTraverseSession(sessionId).getSession(), inputPointers.getXCoordinates(),
+                session.getSession(), inputPointers.getXCoordinates(),
                 inputPointers.getYCoordinates(), inputPointers.getTimes(),
                 inputPointers.getPointerIds(), session.mInputCodePoints, inputSize,
                 session.mNativeSuggestOptions.getOptions(), session.mPrevWordCodePointArrays,
-                session.mIsBeginningOfSentenceArray, ngramContext.getPrevWordCount(),
+                session.mPrevWordCodePointCounts, session.mIsBeginningOfSentenceArray,
+                Math.min(ngramContext.getPrevWordCount(), MAX_PREV_WORD_COUNT_FOR_N_GRAM),
                 session.mOutputSuggestionCount, session.mOutputCodePoints, session.mOutputScores,
                 session.mSpaceIndices, session.mOutputTypes,
                 session.mOutputAutoCommitFirstWordConfidence,
@@ -302,7 +364,7 @@ public final class BinaryDictionary extends Dictionary {
                     session.mInputOutputWeightOfLangModelVsSpatialModel[0];
         }
         final int count = session.mOutputSuggestionCount[0];
-        final ArrayList<SuggestedWordInfo> suggestions = new ArrayList<>();
+        outSuggestions.ensureCapacity(outSuggestions.size() + count);
         for (int j = 0; j < count; ++j) {
             final int start = j * DICTIONARY_MAX_WORD_LENGTH;
             int len = 0;
@@ -311,7 +373,7 @@ public final class BinaryDictionary extends Dictionary {
                 ++len;
             }
             if (len > 0) {
-                suggestions.add(new SuggestedWordInfo(
+                outSuggestions.add(new SuggestedWordInfo(
                         new String(session.mOutputCodePoints, start, len),
                         "" /* prevWordsContext */,
                         (int)(session.mOutputScores[j] * weightForLocale),
@@ -321,7 +383,7 @@ public final class BinaryDictionary extends Dictionary {
                         session.mOutputAutoCommitFirstWordConfidence[0]));
             }
         }
-        return suggestions;
+        return true;
     }
 
     public boolean isValidDictionary() {
@@ -339,36 +401,90 @@ public final class BinaryDictionary extends Dictionary {
 
     @Override
     public int getFrequency(final String word) {
+        return getFrequency((CharSequence) word);
+    }
+
+    /** Same as {@link #getFrequency(String)}, without allocating. */
+    public int getFrequency(final CharSequence word) {
         if (TextUtils.isEmpty(word)) {
             return NOT_A_PROBABILITY;
         }
-        final int[] codePoints = StringUtils.toCodePointArray(word);
-        return getProbabilityNative(mNativeDict, codePoints);
+        final LookupBuffers buffers = sLookupBuffers.get();
+        final int[] codePoints = buffers.toCodePoints(word);
+        return getFrequency(codePoints, buffers.mWordCodePointCount);
+    }
+
+    /** Returns the probability of the word in the first codePointCount code points. */
+    public int getFrequency(final int[] codePoints, final int codePointCount) {
+        if (codePointCount <= 0) {
+            return NOT_A_PROBABILITY;
+        }
+        return getProbabilityNative(mNativeDict, codePoints, codePointCount);
+    }
+
+    /** Gets the frequencies of all words in a single native call. */
+    @Override
+    public void getFrequencies(final PackedWords words, final int[] outFrequencies) {
+        final int wordCount = words.getWordCount();
+        if (wordCount == 0) {
+            return;
+        }
+        getProbabilitiesNative(mNativeDict, words.getCodePoints(), words.getWordStarts(), wordCount,
+                outFrequencies);
+    }
+
+    @Override
+    public void isValidWords(final PackedWords words, final boolean[] outIsValid) {
+        isValidWordsByFrequency(words, outIsValid);
     }
 
     @Override
     public int getMaxFrequencyOfExactMatches(final String word) {
+        return getMaxFrequencyOfExactMatches((CharSequence) word);
+    }
+
+    /** Same as {@link #getMaxFrequencyOfExactMatches(String)}, without allocating. */
+    public int getMaxFrequencyOfExactMatches(final CharSequence word) {
         if (TextUtils.isEmpty(word)) {
             return NOT_A_PROBABILITY;
         }
-        final int[] codePoints = StringUtils.toCodePointArray(word);
-        return getMaxProbabilityOfExactMatchesNative(mNativeDict, codePoints);
+        final LookupBuffers buffers = sLookupBuffers.get();
+        final int[] codePoints = buffers.toCodePoints(word);
+        return getMaxFrequencyOfExactMatches(codePoints, buffers.mWordCodePointCount);
+    }
+
+    public int getMaxFrequencyOfExactMatches(final int[] codePoints, final int codePointCount) {
+        if (codePointCount <= 0) {
+            return NOT_A_PROBABILITY;
+        }
+        return getMaxProbabilityOfExactMatchesNative(mNativeDict, codePoints, codePointCount);
     }
 
-    public boolean isValidNgram(final NgramContext ngramContext, final String word) {
+    public boolean isValidNgram(final NgramContext ngramContext, final CharSequence word) {
         return getNgramProbability(ngramContext, word) != NOT_A_PROBABILITY;
     }
 
-    public int getNgramProbability(final NgramContext ngramContext, final String word) {
+    public int getNgramProbability(final NgramContext ngramContext, final CharSequence word) {
         if (!ngramContext.isValid() || TextUtils.isEmpty(word)) {
             return NOT_A_PROBABILITY;
         }
-        final int[][] prevWordCodePointArrays = new int[ngramContext.getPrevWordCount()][];
-        final boolean[] isBeginningOfSentenceArray = new boolean[ngramContext.getPrevWordCount()];
-        ngramContext.outputToArray(prevWordCodePointArrays, isBeginningOfSentenceArray);
-        final int[] wordCodePoints = StringUtils.toCodePointArray(word);
-        return getNgramProbabilityNative(mNativeDict, prevWordCodePointArrays,
-                isBeginningOfSentenceArray, wordCodePoints);
+        final LookupBuffers buffers = sLookupBuffers.get();
+        final int[] codePoints = buffers.toCodePoints(word);
+        return getNgramProbability(ngramContext, codePoints, buffers.mWordCodePointCount);
+    }
+
+    public int getNgramProbability(final NgramContext ngramContext, final int[] codePoints,
+            final int codePointCount) {
+        if (!ngramContext.isValid() || codePointCount <= 0) {
+            return NOT_A_PROBABILITY;
+        }
+        final LookupBuffers buffers = sLookupBuffers.get();
+        ngramContext.outputToArray(buffers.mPrevWordCodePointArrays,
+                buffers.mPrevWordCodePointCounts, buffers.mIsBeginningOfSentenceArray);
+        return getNgramProbabilityNative(mNativeDict, buffers.mPrevWordCodePointArrays,
+                buffers.mPrevWordCodePointCounts, buffers.mIsBeginningOfSentenceArray,
+                Math.min(ngramContext.getPrevWordCount(), MAX_PREV_WORD_COUNT_FOR_N_GRAM),
+                codePoints, codePointCount);
     }
 
     public WordProperty getWordProperty(final String word, final boolean isBeginningOfSentence) {
@@ -426,6 +542,15 @@ public final class BinaryDictionary extends Dictionary {
                 getWordProperty(word, isBeginningOfSentence[0]), nextToken);
     }
 
+    /**
+     * Returns the {@link WordFilter#hash} of every word in the dictionary. This iterates the
+     * dictionary like {@link #getNextWordProperty}, so it must not be called concurrently.
+     */
+    public long[] getWordHashes() {
+        final long[] hashes = getWordHashesNative(mNativeDict);
+        return hashes == null ? new long[0] : hashes;
+    }
+
     // Add a unigram entry to binary dictionary with unigram attributes in native code.
     public boolean addUnigramEntry(final String word, final int probability,
             final String shortcutTarget, final int shortcutProbability,
@@ -477,6 +602,23 @@ public final class BinaryDictionary extends Dictionary {
         return true;
     }
 
+    // Remove an n-gram entry from the binary dictionary in native code.
+    public boolean removeNgramEntry(final NgramContext ngramContext, final String word) {
+        if (!ngramContext.isValid() || TextUtils.isEmpty(word)) {
+            return false;
+        }
+        final int[][] prevWordCodePointArrays = new int[ngramContext.getPrevWordCount()][];
+        final boolean[] isBeginningOfSentenceArray = new boolean[ngramContext.getPrevWordCount()];
+        ngramContext.outputToArray(prevWordCodePointArrays, isBeginningOfSentenceArray);
+        final int[] wordCodePoints = StringUtils.toCodePointArray(word);
+        if (!removeNgramEntryNative(mNativeDict, prevWordCodePointArrays,
+                isBeginningOfSentenceArray, wordCodePoints)) {
+            return false;
+        }
+        mHasUpdated = true;
+        return true;
+    }
+
     // Update entries for the word occurrence with the ngramContext.
     public boolean updateEntriesForWordWithNgramContext(@NonNull final NgramContext ngramContext,
             final String word, final boolean isValidWord, final int count, final int timestamp) {
@@ -21,7 +21,9 @@ public final class DicTraverseSession {
     public final int[] mInputCodePoints =
             new int[DecoderSpecificConstants.DICTIONARY_MAX_WORD_LENGTH];
     public final int[][] mPrevWordCodePointArrays =
-            new int[DecoderSpecificConstants.MAX_PREV_WORD_COUNT_FOR_N_GRAM][];
+            new int[DecoderSpecificConstants.MAX_PREV_WORD_COUNT_FOR_N_GRAM][DecoderSpecificConstants.DICTIONARY_MAX_WORD_LENGTH];
+    public final int[] mPrevWordCodePointCounts =
+            new int[DecoderSpecificConstants.MAX_PREV_WORD_COUNT_FOR_N_GRAM];
     public final boolean[] mIsBeginningOfSentenceArray =
             new boolean[DecoderSpecificConstants.MAX_PREV_WORD_COUNT_FOR_N_GRAM];
     public final int[] mOutputSuggestionCount = new int[1];
@@ -9,6 +9,8 @@ package helium314.keyboard.keyboard;
 import android.app.KeyguardManager;
 import android.content.Context;
 import android.os.Build;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.text.InputType;
 import android.view.inputmethod.EditorInfo;
 
@@ -21,13 +23,19 @@ import helium314.keyboard.keyboard.internal.keyboard_parser.RawKeyboardParser;
 import helium314.keyboard.latin.RichInputMethodManager;
 import helium314.keyboard.latin.RichInputMethodSubtype;
 import helium314.keyboard.latin.settings.Settings;
+import helium314.keyboard.latin.utils.ExecutorUtils;
 import helium314.keyboard.latin.utils.InputTypeUtils;
 import helium314.keyboard.latin.utils.Log;
 import helium314.keyboard.latin.utils.ResourceUtils;
 import helium314.keyboard.latin.utils.ScriptUtils;
 
-import java.lang.ref.SoftReference;
-import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
@@ -48,17 +56,55 @@ public final class KeyboardLayoutSet {
     private final Params mParams;
     public final LocaleKeyboardInfos mLocaleKeyboardInfos;
 
-    // How many layouts we forcibly keep in cache. This only includes ALPHABET (default) and
-    // ALPHABET_AUTOMATIC_SHIFTED layouts - other layouts may stay in memory in the map of
-    // soft-references, but we forcibly cache this many alphabetic/auto-shifted layouts.
-    private static final int FORCIBLE_CACHE_SIZE = 4;
-    // By construction of soft references, anything that is also referenced somewhere else
-    // will stay in the cache. So we forcibly keep some references in an array to prevent
-    // them from disappearing from sKeyboardCache.
-    private static final Keyboard[] sForcibleKeyboardCache = new Keyboard[FORCIBLE_CACHE_SIZE];
-    private static final HashMap<KeyboardId, SoftReference<Keyboard>> sKeyboardCache = new HashMap<>();
+    // Keyboards are kept in a least recently used cache until their estimated size exceeds this
+    // budget, so symbols and other layouts are not rebuilt after being dropped by the GC.
+    // The cache is cleared when memory is low, see LatinIME.onTrimMemory.
+    private static final long KEYBOARD_CACHE_BUDGET_BYTES = 4 * 1024 * 1024;
+    // rough estimates for the size of a key, including labels and the popup key specs
+    private static final int ESTIMATED_BYTES_PER_KEY = 400;
+    private static final int ESTIMATED_BYTES_PER_POPUP_KEY = 100;
+    // wait this long after the main thread is idle before building other keyboards of the layout set
+    private static final long PREWARM_DELAY_MILLIS = 200;
+
+    // Keyboards are built on the main thread and when prewarming in background. Building is not
+    // thread-safe (e.g. sUniqueKeysCache, RawKeyboardParser), so it's synchronized using this lock,
+    // as is access to the cache.
+    private static final Object sLock = new Object();
+    private static final LinkedHashMap<KeyboardId, CachedKeyboard> sKeyboardCache =
+            new LinkedHashMap<>(16, 0.75f, true);
+    private static long sKeyboardCacheBytes;
     @NonNull
     private static final UniqueKeysCache sUniqueKeysCache = UniqueKeysCache.newInstance();
+    // incremented whenever keyboards are prewarmed for a new layout set or the cache is cleared,
+    // to stop outdated prewarming
+    private static final AtomicInteger sPrewarmGeneration = new AtomicInteger();
+    private static final int NOT_PREWARMING = -1;
+
+    // instrumentation, synchronized using sLock
+    private static int sCacheHitCount;
+    private static int sCacheMissCount;
+    private static int sPrewarmedCount;
+    private static final int ELEMENT_COUNT = KeyboardId.ELEMENT_EMOJI_BOTTOM_ROW + 1;
+    private static final int[] sBuildCounts = new int[ELEMENT_COUNT];
+    private static final long[] sBuildTimeNanos = new long[ELEMENT_COUNT];
+    private static final long[] sMaxBuildTimeNanos = new long[ELEMENT_COUNT];
+
+    private static final class CachedKeyboard {
+        final Keyboard mKeyboard;
+        final long mEstimatedBytes;
+
+        CachedKeyboard(final Keyboard keyboard) {
+            mKeyboard = keyboard;
+            long bytes = 0;
+            for (final Key key : keyboard.getSortedKeys()) {
+                bytes += ESTIMATED_BYTES_PER_KEY;
+                final Object[] popupKeys = key.getPopupKeys();
+                if (popupKeys != null)
+                    bytes += (long) popupKeys.length * ESTIMATED_BYTES_PER_POPUP_KEY;
+            }
+            mEstimatedBytes = bytes;
+        }
+    }
 
     public static final class KeyboardLayoutSetException extends RuntimeException {
         public final KeyboardId mKeyboardId;
@@ -101,9 +147,52 @@ public final class KeyboardLayoutSet {
     }
 
     private static void clearKeyboardCache() {
-        sKeyboardCache.clear();
-        sUniqueKeysCache.clear();
-        RawKeyboardParser.INSTANCE.clearCache();
+        sPrewarmGeneration.incrementAndGet();
+        synchronized (sLock) {
+            sKeyboardCache.clear();
+            sKeyboardCacheBytes = 0;
+            sUniqueKeysCache.clear();
+            RawKeyboardParser.INSTANCE.clearCache();
+        }
+    }
+
+    /** Returns how often a keyboard was found in the cache. */
+    public static int getCacheHitCount() {
+        synchronized (sLock) {
+            return sCacheHitCount;
+        }
+    }
+
+    /** Returns how often a keyboard had to be built because it was not in the cache. */
+    public static int getCacheMissCount() {
+        synchronized (sLock) {
+            return sCacheMissCount;
+        }
+    }
+
+    /** Returns the number of keyboards built in background before they were requested. */
+    public static int getPrewarmedCount() {
+        synchronized (sLock) {
+            return sPrewarmedCount;
+        }
+    }
+
+    /** Returns the keyboard cache counters and build times per element, for LatinIME.dump. */
+    public static String dump() {
+        final StringBuilder sb = new StringBuilder();
+        synchronized (sLock) {
+            sb.append("Keyboard cache: ").append(sKeyboardCache.size()).append(" keyboards, ")
+                    .append(sKeyboardCacheBytes).append(" bytes, ").append(sCacheHitCount).append(" hits, ")
+                    .append(sCacheMissCount).append(" misses, ").append(sPrewarmedCount).append(" prewarmed\n");
+            for (int elementId = 0; elementId < ELEMENT_COUNT; elementId++) {
+                final int count = sBuildCounts[elementId];
+                if (count == 0) continue;
+                sb.append(String.format(Locale.ROOT, "  %s: %d built, average %.2f ms, max %.2f ms\n",
+                        KeyboardId.elementIdToName(elementId), count,
+                        sBuildTimeNanos[elementId] / 1e6 / count, sMaxBuildTimeNanos[elementId] / 1e6));
+            }
+        }
+        return sb.toString();
     }
 
     KeyboardLayoutSet(final Context context, @NonNull final Params params) {
@@ -114,6 +203,57 @@ public final class KeyboardLayoutSet {
 
     @NonNull
     public Keyboard getKeyboard(final int baseKeyboardLayoutSetElementId) {
+        final KeyboardId id = getKeyboardId(baseKeyboardLayoutSetElementId);
+        try {
+            return getKeyboard(id, NOT_PREWARMING);
+        } catch (final RuntimeException e) {
+            Log.e(TAG, "Can't create keyboard: " + id, e);
+            throw new KeyboardLayoutSetException(e, id);
+        }
+    }
+
+    /**
+     * Builds the other keyboards of this layout set in background once the main thread is idle,
+     * so switching e.g. to symbols doesn't need to build the keyboard on the main thread.
+     * Should be called on the main thread after showing the initial keyboard.
+     */
+    public void prewarmKeyboards() {
+        if (mParams.mIsSpellChecker) return;
+        final int generation = sPrewarmGeneration.incrementAndGet();
+        final LinkedHashSet<KeyboardId> ids = new LinkedHashSet<>();
+        // symbols first, as they are most likely to be needed next
+        for (final int elementId : new int[] { KeyboardId.ELEMENT_SYMBOLS, KeyboardId.ELEMENT_SYMBOLS_SHIFTED,
+                KeyboardId.ELEMENT_ALPHABET, KeyboardId.ELEMENT_ALPHABET_AUTOMATIC_SHIFTED,
+                KeyboardId.ELEMENT_ALPHABET_MANUAL_SHIFTED, KeyboardId.ELEMENT_ALPHABET_SHIFT_LOCKED,
+                KeyboardId.ELEMENT_NUMPAD }) {
+            ids.add(getKeyboardId(elementId)); // element ids that are the same for the current mode are only added once
+        }
+        final Runnable startPrewarming = () -> ExecutorUtils.getBackgroundExecutor(ExecutorUtils.KEYBOARD)
+                .schedule(() -> prewarmNextKeyboard(ids.iterator(), generation), PREWARM_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        if (Looper.myLooper() != null) {
+            Looper.myQueue().addIdleHandler(() -> {
+                startPrewarming.run();
+                return false;
+            });
+        } else {
+            startPrewarming.run();
+        }
+    }
+
+    // builds one keyboard per task, so the main thread never needs to wait long for the lock
+    private void prewarmNextKeyboard(final Iterator<KeyboardId> ids, final int generation) {
+        if (!ids.hasNext() || generation != sPrewarmGeneration.get()) return;
+        final KeyboardId id = ids.next();
+        try {
+            if (getKeyboard(id, generation) == null) return;
+        } catch (final RuntimeException e) {
+            Log.w(TAG, "Can't prewarm keyboard: " + id, e);
+            return;
+        }
+        ExecutorUtils.getBackgroundExecutor(ExecutorUtils.KEYBOARD).execute(() -> prewarmNextKeyboard(ids, generation));
+    }
+
+    private KeyboardId getKeyboardId(final int baseKeyboardLayoutSetElementId) {
         final int keyboardLayoutSetElementId;
         switch (mParams.mMode) {
             case KeyboardId.MODE_PHONE -> {
@@ -133,53 +273,61 @@ public final class KeyboardLayoutSet {
         // attribute in a keyboard_layout_set XML file.  Also each keyboard layout XML resource is
         // specified as an elementKeyboard attribute in the file.
         // The KeyboardId is an internal key for a Keyboard object.
-
-        final KeyboardId id = new KeyboardId(keyboardLayoutSetElementId, mParams);
-        try {
-            return getKeyboard(id);
-        } catch (final RuntimeException e) {
-            Log.e(TAG, "Can't create keyboard: " + id, e);
-            throw new KeyboardLayoutSetException(e, id);
-        }
+        return new KeyboardId(keyboardLayoutSetElementId, mParams);
     }
 
-    @NonNull
-    private Keyboard getKeyboard(final KeyboardId id) {
-        final SoftReference<Keyboard> ref = sKeyboardCache.get(id);
-        final Keyboard cachedKeyboard = (ref == null) ? null : ref.get();
-        if (cachedKeyboard != null) {
-            if (DEBUG_CACHE) {
-                Log.d(TAG, "keyboard cache size=" + sKeyboardCache.size() + ": HIT  id=" + id);
+    /**
+     * Returns the keyboard from the cache, or builds and caches it. When prewarming, the
+     * generation is checked again with the lock held, and null is returned if it's outdated.
+     * Otherwise a keyboard of this outdated layout set could end up in the cleared cache.
+     */
+    @Nullable
+    private Keyboard getKeyboard(final KeyboardId id, final int prewarmGeneration) {
+        final boolean isPrewarming = prewarmGeneration != NOT_PREWARMING;
+        synchronized (sLock) {
+            if (isPrewarming && prewarmGeneration != sPrewarmGeneration.get()) {
+                return null;
+            }
+            final CachedKeyboard cachedKeyboard = sKeyboardCache.get(id);
+            if (cachedKeyboard != null) {
+                if (!isPrewarming) sCacheHitCount++;
+                if (DEBUG_CACHE) {
+                    Log.d(TAG, "keyboard cache size=" + sKeyboardCache.size() + ": HIT  id=" + id);
+                }
+                return cachedKeyboard.mKeyboard;
             }
-            return cachedKeyboard;
-        }
 
-        final KeyboardBuilder<KeyboardParams> builder =
-                new KeyboardBuilder<>(mContext, new KeyboardParams(sUniqueKeysCache));
-        sUniqueKeysCache.setEnabled(id.isAlphabetKeyboard());
-        builder.load(id);
-        if (mParams.mDisableTouchPositionCorrectionDataForTest) {
-            builder.disableTouchPositionCorrectionDataForTest();
-        }
-        final Keyboard keyboard = builder.build();
-        sKeyboardCache.put(id, new SoftReference<>(keyboard));
-        if ((id.mElementId == KeyboardId.ELEMENT_ALPHABET
-                || id.mElementId == KeyboardId.ELEMENT_ALPHABET_AUTOMATIC_SHIFTED)
-                && !mParams.mIsSpellChecker) {
-            // We only forcibly cache the primary, "ALPHABET", layouts.
-            for (int i = sForcibleKeyboardCache.length - 1; i >= 1; --i) {
-                sForcibleKeyboardCache[i] = sForcibleKeyboardCache[i - 1];
+            final long startTime = SystemClock.elapsedRealtimeNanos();
+            final KeyboardBuilder<KeyboardParams> builder =
+                    new KeyboardBuilder<>(mContext, new KeyboardParams(sUniqueKeysCache));
+            sUniqueKeysCache.setEnabled(id.isAlphabetKeyboard());
+            builder.load(id);
+            if (mParams.mDisableTouchPositionCorrectionDataForTest) {
+                builder.disableTouchPositionCorrectionDataForTest();
+            }
+            final Keyboard keyboard = builder.build();
+            final long buildTime = SystemClock.elapsedRealtimeNanos() - startTime;
+            if (isPrewarming) sPrewarmedCount++;
+            else sCacheMissCount++;
+            sBuildCounts[id.mElementId]++;
+            sBuildTimeNanos[id.mElementId] += buildTime;
+            sMaxBuildTimeNanos[id.mElementId] = Math.max(sMaxBuildTimeNanos[id.mElementId], buildTime);
+
+            final CachedKeyboard newCachedKeyboard = new CachedKeyboard(keyboard);
+            sKeyboardCache.put(id, newCachedKeyboard);
+            sKeyboardCacheBytes += newCachedKeyboard.mEstimatedBytes;
+            // remove least recently used keyboards, but always keep the new one
+            final Iterator<Map.Entry<KeyboardId, CachedKeyboard>> iterator = sKeyboardCache.entrySet().iterator();
+            while (sKeyboardCacheBytes > KEYBOARD_CACHE_BUDGET_BYTES && sKeyboardCache.size() > 1) {
+                sKeyboardCacheBytes -= iterator.next().getValue().mEstimatedBytes;
+                iterator.remove();
             }
-            sForcibleKeyboardCache[0] = keyboard;
             if (DEBUG_CACHE) {
-                Log.d(TAG, "forcing caching of keyboard with id=" + id);
+                Log.d(TAG, "keyboard cache size=" + sKeyboardCache.size() + ", " + sKeyboardCacheBytes + " bytes: "
+                        + (isPrewarming ? "PREWARM" : "LOAD") + " id=" + id + " in " + buildTime / 1000 + " µs");
             }
+            return keyboard;
         }
-        if (DEBUG_CACHE) {
-            Log.d(TAG, "keyboard cache size=" + sKeyboardCache.size() + ": "
-                    + ((ref == null) ? "LOAD" : "GCed") + " id=" + id);
-        }
-        return keyboard;
     }
 
     public String getScript() {
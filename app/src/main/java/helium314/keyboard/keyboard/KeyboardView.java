@@ -40,7 +40,9 @@ import helium314.keyboard.latin.suggestions.MoreSuggestions;
 import helium314.keyboard.latin.suggestions.PopupSuggestionsView;
 import helium314.keyboard.latin.utils.TypefaceUtils;
 
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.WeakHashMap;
 
 /** A view that renders a virtual {@link Keyboard}. */
 // todo: this ThemeStyle-dependent stuff really should not be in here!
@@ -95,6 +97,10 @@ public class KeyboardView extends View {
     @NonNull
     private final Paint mPaint = new Paint();
     private final Paint.FontMetrics mFontMetrics = new Paint.FontMetrics();
+    /** Draw plans of keys by keyboard, so keyboards that are shown again don't need to be measured again */
+    private final WeakHashMap<Keyboard, HashMap<Key, KeyDrawPlan>> mKeyDrawPlans = new WeakHashMap<>();
+    /** The value of {@link #mShowsHints} used for the draw plans */
+    private boolean mKeyDrawPlansShowHints;
 
     public KeyboardView(final Context context, final AttributeSet attrs) {
         this(context, attrs, R.attr.keyboardViewStyle);
@@ -181,7 +187,11 @@ public class KeyboardView extends View {
         }
 
         mKeyboard = keyboard;
-        mKeyScaleForText = (float) Math.sqrt(1 / Settings.getInstance().getCurrent().mKeyboardHeightScale);
+        final float keyScaleForText = (float) Math.sqrt(1 / Settings.getInstance().getCurrent().mKeyboardHeightScale);
+        if (keyScaleForText != mKeyScaleForText) {
+            mKeyDrawPlans.clear();
+            mKeyScaleForText = keyScaleForText;
+        }
         final int scaledKeyHeight = (int) ((keyboard.mMostCommonKeyHeight - keyboard.mVerticalGap) * mKeyScaleForText);
         mKeyDrawParams.updateParams(scaledKeyHeight, mKeyVisualAttributes);
         mKeyDrawParams.updateParams(scaledKeyHeight, keyboard.mKeyVisualAttributes);
@@ -210,6 +220,7 @@ public class KeyboardView extends View {
 
     protected void updateKeyDrawParams(final int keyHeight) {
         mKeyDrawParams.updateParams(keyHeight, mKeyVisualAttributes);
+        mKeyDrawPlans.clear();
     }
 
     @Override
@@ -276,6 +287,10 @@ public class KeyboardView extends View {
         }
 
         mShowsHints = Settings.getInstance().getCurrent().mShowsHints;
+        if (mShowsHints != mKeyDrawPlansShowHints) {
+            mKeyDrawPlans.clear();
+            mKeyDrawPlansShowHints = mShowsHints;
+        }
         final float scale = Settings.getInstance().getCurrent().mKeyboardHeightScale;
         mIconScaleFactor = scale < 0.8f ? scale + 0.2f : 1f;
         final Paint paint = mPaint;
@@ -324,9 +339,14 @@ public class KeyboardView extends View {
         final int keyDrawY = key.getY() + getPaddingTop();
         canvas.translate(keyDrawX, keyDrawY);
 
-        final KeyVisualAttributes attr = key.getVisualAttributes();
-        // don't use the raw key height, linear font scaling with height is too extreme
-        final KeyDrawParams params = mKeyDrawParams.mayCloneAndUpdateParams((int) (key.getHeight() * mKeyScaleForText), attr);
+        final KeyDrawPlan plan = getKeyDrawPlans().get(key);
+        final KeyDrawParams params;
+        if (plan != null) {
+            params = plan.mParams;
+        } else {
+            // don't use the raw key height, linear font scaling with height is too extreme
+            params = mKeyDrawParams.mayCloneAndUpdateParams((int) (key.getHeight() * mKeyScaleForText), key.getVisualAttributes());
+        }
         params.mAnimAlpha = Constants.Color.ALPHA_OPAQUE;
 
         if (!key.isSpacer()) {
@@ -370,51 +390,18 @@ public class KeyboardView extends View {
             @NonNull final Paint paint, @NonNull final KeyDrawParams params) {
         final int keyWidth = key.getDrawWidth();
         final int keyHeight = key.getHeight();
-        final float centerX = keyWidth * 0.5f;
-        final float centerY = keyHeight * 0.5f;
+        final KeyDrawPlan plan = getKeyDrawPlan(key, paint, params);
 
         // Draw key label.
         final Keyboard keyboard = getKeyboard();
         final Drawable icon = (keyboard == null) ? null
                 : key.getIcon(keyboard.mIconsSet, params.mAnimAlpha);
-        float labelX = centerX;
-        float labelBaseline = centerY;
         final String label = key.getLabel();
         if (label != null) {
-            paint.setTypeface(key.selectTypeface(params));
-            paint.setTextSize(key.selectTextSize(params));
-            final float labelCharHeight = TypefaceUtils.getReferenceCharHeight(paint);
-            final float labelCharWidth = TypefaceUtils.getReferenceCharWidth(paint);
-
-            // Vertical label text alignment.
-            labelBaseline = centerY + labelCharHeight / 2.0f;
-
-            // Horizontal label text alignment
-            if (key.isAlignLabelOffCenter() && mShowsHints) {
-                // The label is placed off center of the key. Currently used only on "phone number" layout
-                // to have letter hints shown nicely. We don't want to align it off center if hints are off.
-                // use a non-negative number to avoid label starting left of the letter for high keyboard scale on holo phone layout
-                labelX = Math.max(0f, centerX + params.mLabelOffCenterRatio * labelCharWidth);
-                paint.setTextAlign(Align.LEFT);
-            } else {
-                labelX = centerX;
-                paint.setTextAlign(Align.CENTER);
-            }
-            if (key.needsAutoXScale()) {
-                final int width;
-                if (key.needsToKeepBackgroundAspectRatio(mDefaultKeyLabelFlags)) {
-                    // make sure the text stays inside bounds of background drawable
-                    Drawable bg = key.selectBackgroundDrawable(mKeyBackground, mFunctionalKeyBackground, mSpacebarBackground, mActionKeyBackground);
-                    width = Math.min(bg.getBounds().bottom, bg.getBounds().right);
-                } else width = keyWidth;
-                final float ratio = Math.min(1.0f, (width * MAX_LABEL_RATIO) / TypefaceUtils.getStringWidth(label, paint));
-                if (key.needsAutoScale()) {
-                    final float autoSize = paint.getTextSize() * ratio;
-                    paint.setTextSize(autoSize);
-                } else {
-                    paint.setTextScaleX(ratio);
-                }
-            }
+            paint.setTypeface(plan.mLabelTypeface);
+            paint.setTextSize(plan.mLabelSize);
+            paint.setTextScaleX(plan.mLabelScaleX);
+            paint.setTextAlign(plan.mLabelAlign);
 
             if (key.isEnabled()) {
                 if (StringUtils.mightBeEmoji(label))
@@ -435,7 +422,7 @@ public class KeyboardView extends View {
                 paint.clearShadowLayer();
             }
             blendAlpha(paint, params.mAnimAlpha);
-            canvas.drawText(label, 0, label.length(), labelX, labelBaseline, paint);
+            canvas.drawText(label, 0, label.length(), plan.mLabelX, plan.mLabelBaseline, paint);
             // Turn off drop shadow and reset x-scale.
             paint.clearShadowLayer();
             paint.setTextScaleX(1.0f);
@@ -444,11 +431,142 @@ public class KeyboardView extends View {
         // Draw hint label.
         final String hintLabel = key.getHintLabel();
         if (hintLabel != null && mShowsHints) {
-            paint.setTextSize(key.selectHintTextSize(params));
+            paint.setTextSize(plan.mHintSize);
             paint.setColor(key.selectHintTextColor(params));
             // TODO: Should add a way to specify type face for hint letters
             paint.setTypeface(Typeface.DEFAULT_BOLD);
             blendAlpha(paint, params.mAnimAlpha);
+            paint.setTextAlign(plan.mHintAlign);
+            canvas.drawText(hintLabel, 0, hintLabel.length(), plan.mHintX, plan.mHintBaseline, paint);
+        }
+
+        // Draw key icon.
+        if (label == null && icon != null) {
+            final int iconWidth;
+            if (key.getCode() == Constants.CODE_SPACE && icon instanceof NinePatchDrawable) {
+                iconWidth = (int) (keyWidth * mSpacebarIconWidthRatio * mIconScaleFactor);
+            } else {
+                iconWidth = (int) (Math.min(icon.getIntrinsicWidth(), keyWidth) * mIconScaleFactor);
+            }
+            final int iconHeight = (int) (icon.getIntrinsicHeight() * mIconScaleFactor);
+            final int iconY;
+            if (key.isAlignIconToBottom()) {
+                iconY = keyHeight - iconHeight;
+            } else {
+                iconY = (keyHeight - iconHeight) / 2; // Align vertically center.
+            }
+            final int iconX = (keyWidth - iconWidth) / 2; // Align horizontally center.
+            setKeyIconColor(key, icon, keyboard);
+            drawIcon(canvas, icon, iconX, iconY, iconWidth, iconHeight);
+        }
+
+        if (key.hasPopupHint() && key.getPopupKeys() != null) {
+            drawKeyPopupHint(key, canvas, paint, params);
+        }
+    }
+
+    @NonNull
+    private HashMap<Key, KeyDrawPlan> getKeyDrawPlans() {
+        HashMap<Key, KeyDrawPlan> plans = mKeyDrawPlans.get(mKeyboard);
+        if (plans == null) {
+            plans = new HashMap<>();
+            mKeyDrawPlans.put(mKeyboard, plans);
+        }
+        return plans;
+    }
+
+    @NonNull
+    private KeyDrawPlan getKeyDrawPlan(@NonNull final Key key, @NonNull final Paint paint,
+            @NonNull final KeyDrawParams params) {
+        final HashMap<Key, KeyDrawPlan> plans = getKeyDrawPlans();
+        KeyDrawPlan plan = plans.get(key);
+        if (plan == null) {
+            plan = new KeyDrawPlan(key, paint, params);
+            plans.put(key, plan);
+        }
+        return plan;
+    }
+
+    /**
+     * Position, size and scale of key label and hint label. Measuring the labels is expensive, so this
+     * is done only when a key is drawn for the first time, and again only if text size or hints change.
+     */
+    private final class KeyDrawPlan {
+        @NonNull final KeyDrawParams mParams;
+        final Typeface mLabelTypeface;
+        final float mLabelSize;
+        final float mLabelScaleX;
+        final Align mLabelAlign;
+        final float mLabelX;
+        final float mLabelBaseline;
+        final float mHintSize;
+        final Align mHintAlign;
+        final float mHintX;
+        final float mHintBaseline;
+
+        KeyDrawPlan(@NonNull final Key key, @NonNull final Paint paint, @NonNull final KeyDrawParams params) {
+            mParams = params;
+            final int keyWidth = key.getDrawWidth();
+            final int keyHeight = key.getHeight();
+            final float centerX = keyWidth * 0.5f;
+            final float centerY = keyHeight * 0.5f;
+
+            float labelX = centerX;
+            float labelBaseline = centerY;
+            float labelSize = 0f;
+            float labelScaleX = 1.0f;
+            Align labelAlign = Align.CENTER;
+            final String label = key.getLabel();
+            if (label != null) {
+                paint.setTypeface(key.selectTypeface(params));
+                paint.setTextSize(key.selectTextSize(params));
+                final float labelCharHeight = TypefaceUtils.getReferenceCharHeight(paint);
+                final float labelCharWidth = TypefaceUtils.getReferenceCharWidth(paint);
+
+                // Vertical label text alignment.
+                labelBaseline = centerY + labelCharHeight / 2.0f;
+
+                // Horizontal label text alignment
+                if (key.isAlignLabelOffCenter() && mShowsHints) {
+                    // The label is placed off center of the key. Currently used only on "phone number" layout
+                    // to have letter hints shown nicely. We don't want to align it off center if hints are off.
+                    // use a non-negative number to avoid label starting left of the letter for high keyboard scale on holo phone layout
+                    labelX = Math.max(0f, centerX + params.mLabelOffCenterRatio * labelCharWidth);
+                    labelAlign = Align.LEFT;
+                }
+                labelSize = paint.getTextSize();
+                if (key.needsAutoXScale()) {
+                    final int width;
+                    if (key.needsToKeepBackgroundAspectRatio(mDefaultKeyLabelFlags)) {
+                        // make sure the text stays inside bounds of background drawable
+                        Drawable bg = key.selectBackgroundDrawable(mKeyBackground, mFunctionalKeyBackground, mSpacebarBackground, mActionKeyBackground);
+                        width = Math.min(bg.getBounds().bottom, bg.getBounds().right);
+                    } else width = keyWidth;
+                    final float ratio = Math.min(1.0f, (width * MAX_LABEL_RATIO) / TypefaceUtils.getStringWidth(label, paint));
+                    if (key.needsAutoScale()) {
+                        labelSize *= ratio;
+                    } else {
+                        labelScaleX = ratio;
+                    }
+                }
+            }
+            mLabelTypeface = paint.getTypeface();
+            mLabelSize = labelSize;
+            mLabelScaleX = labelScaleX;
+            mLabelAlign = labelAlign;
+            mLabelX = labelX;
+            mLabelBaseline = labelBaseline;
+
+            final String hintLabel = key.getHintLabel();
+            if (hintLabel == null || !mShowsHints) {
+                mHintSize = 0f;
+                mHintAlign = Align.CENTER;
+                mHintX = 0f;
+                mHintBaseline = 0f;
+                return;
+            }
+            paint.setTextSize(key.selectHintTextSize(params));
+            paint.setTypeface(Typeface.DEFAULT_BOLD);
             final float labelCharHeight = TypefaceUtils.getReferenceCharHeight(paint);
             final float labelCharWidth = TypefaceUtils.getReferenceCharWidth(paint);
             final boolean isFunctionalKeyAndRoundedStyle = mColors.getThemeStyle().equals(STYLE_ROUNDED) && key.hasFunctionalBackground();
@@ -462,18 +580,18 @@ public class KeyboardView extends View {
                 } else {
                     hintBaseline = centerY + labelCharHeight / 2.0f;
                 }
-                paint.setTextAlign(Align.LEFT);
+                mHintAlign = Align.LEFT;
                 // shrink hint label before it's off the key
                 // looks bad, but still better than the alternative
                 final float ratio = Math.min(1.0f, (keyWidth - hintX) * 0.95f / TypefaceUtils.getStringWidth(hintLabel, paint));
-                final float autoSize = paint.getTextSize() * ratio;
-                paint.setTextSize(autoSize);
+                mHintSize = paint.getTextSize() * ratio;
             } else if (key.hasShiftedLetterHint()) {
                 // The hint label is placed at top-right corner of the key. Used mainly on tablet.
                 hintX = keyWidth - mKeyShiftedLetterHintPadding - labelCharWidth / 2.0f;
                 paint.getFontMetrics(mFontMetrics);
                 hintBaseline = -mFontMetrics.top;
-                paint.setTextAlign(Align.CENTER);
+                mHintAlign = Align.CENTER;
+                mHintSize = paint.getTextSize();
             } else { // key.hasHintLetter()
                 // The hint letter is placed at top-right corner of the key. Used mainly on phone.
                 final float hintDigitWidth = TypefaceUtils.getReferenceDigitWidth(paint);
@@ -482,36 +600,14 @@ public class KeyboardView extends View {
                 hintX = isFunctionalKeyAndRoundedStyle
                         ? keyWidth - hintBaseline
                         : keyWidth - mKeyHintLetterPadding - Math.max(hintDigitWidth, hintLabelWidth) / 2.0f;
-                paint.setTextAlign(Align.CENTER);
+                mHintAlign = Align.CENTER;
+                mHintSize = paint.getTextSize();
             }
             final float adjustmentY = isFunctionalKeyAndRoundedStyle
                     ? hintBaseline * 0.5f
                     : params.mHintLabelVerticalAdjustment * labelCharHeight;
-            canvas.drawText(hintLabel, 0, hintLabel.length(), hintX, hintBaseline + adjustmentY, paint);
-        }
-
-        // Draw key icon.
-        if (label == null && icon != null) {
-            final int iconWidth;
-            if (key.getCode() == Constants.CODE_SPACE && icon instanceof NinePatchDrawable) {
-                iconWidth = (int) (keyWidth * mSpacebarIconWidthRatio * mIconScaleFactor);
-            } else {
-                iconWidth = (int) (Math.min(icon.getIntrinsicWidth(), keyWidth) * mIconScaleFactor);
-            }
-            final int iconHeight = (int) (icon.getIntrinsicHeight() * mIconScaleFactor);
-            final int iconY;
-            if (key.isAlignIconToBottom()) {
-                iconY = keyHeight - iconHeight;
-            } else {
-                iconY = (keyHeight - iconHeight) / 2; // Align vertically center.
-            }
-            final int iconX = (keyWidth - iconWidth) / 2; // Align horizontally center.
-            setKeyIconColor(key, icon, keyboard);
-            drawIcon(canvas, icon, iconX, iconY, iconWidth, iconHeight);
-        }
-
-        if (key.hasPopupHint() && key.getPopupKeys() != null) {
-            drawKeyPopupHint(key, canvas, paint, params);
+            mHintX = hintX;
+            mHintBaseline = hintBaseline + adjustmentY;
         }
     }
 
@@ -601,6 +697,7 @@ public class KeyboardView extends View {
 
     public void deallocateMemory() {
         freeOffscreenBuffer();
+        mKeyDrawPlans.clear();
     }
 
     private void setKeyIconColor(Key key, Drawable icon, Keyboard keyboard) {
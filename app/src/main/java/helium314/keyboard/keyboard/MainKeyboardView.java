@@ -17,11 +17,13 @@ import android.graphics.Color;
 import android.graphics.Paint;
 import android.graphics.Paint.Align;
 import android.graphics.Typeface;
+import android.os.Looper;
 import android.util.AttributeSet;
 import android.view.LayoutInflater;
 import android.view.MotionEvent;
 import android.view.View;
 import android.view.ViewGroup;
+import android.view.inputmethod.EditorInfo;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
@@ -38,6 +40,7 @@ import helium314.keyboard.keyboard.internal.KeyDrawParams;
 import helium314.keyboard.keyboard.internal.KeyPreviewChoreographer;
 import helium314.keyboard.keyboard.internal.KeyPreviewDrawParams;
 import helium314.keyboard.keyboard.internal.KeyPreviewView;
+import helium314.keyboard.keyboard.internal.MotionEventRecorder;
 import helium314.keyboard.keyboard.internal.PopupKeySpec;
 import helium314.keyboard.keyboard.internal.NonDistinctMultitouchHelper;
 import helium314.keyboard.keyboard.internal.SlidingKeyInputDrawingPreview;
@@ -53,15 +56,17 @@ import helium314.keyboard.latin.common.CoordinateUtils;
 import helium314.keyboard.latin.define.DebugFlags;
 import helium314.keyboard.latin.settings.DebugSettings;
 import helium314.keyboard.latin.settings.Settings;
+import helium314.keyboard.latin.settings.SettingsValues;
 import helium314.keyboard.latin.utils.DeviceProtectedUtils;
+import helium314.keyboard.latin.utils.ExecutorUtils;
 import helium314.keyboard.latin.utils.LanguageOnSpacebarUtils;
 import helium314.keyboard.latin.utils.Log;
 import helium314.keyboard.latin.utils.TypefaceUtils;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
-import java.util.WeakHashMap;
 
 /** A view that is responsible for detecting key presses and touch movements. */
 public final class MainKeyboardView extends KeyboardView implements DrawingProxy,
@@ -87,6 +92,12 @@ public final class MainKeyboardView extends KeyboardView implements DrawingProxy
     private static final float LANGUAGE_ON_SPACEBAR_TEXT_SHADOW_RADIUS_DISABLED = -1.0f;
     // The minimum x-scale to fit the language name on spacebar.
     private static final float MINIMUM_XSCALE_OF_LANGUAGE_NAME = 0.8f;
+    // Text on spacebar as laid out for the current keyboard and settings, null if it needs to be laid out again.
+    @Nullable
+    private String mSpacebarText;
+    private float mSpacebarTextScaleX;
+    @Nullable
+    private SettingsValues mSpacebarTextSettingsValues;
 
     // Stuff to draw altCodeWhileTyping keys.
     private final ObjectAnimator mAltCodeKeyWhileTypingFadeoutAnimator;
@@ -108,7 +119,9 @@ public final class MainKeyboardView extends KeyboardView implements DrawingProxy
     private final Paint mBackgroundDimAlphaPaint = new Paint();
     private final View mPopupKeysKeyboardContainer;
     private final View mPopupKeysKeyboardForActionContainer;
-    private final WeakHashMap<Key, Keyboard> mPopupKeysKeyboardCache = new WeakHashMap<>();
+    private final PopupKeysKeyboardCache mPopupKeysKeyboardCache = new PopupKeysKeyboardCache();
+    // the keyboard popup keys keyboards are currently built for in background
+    private volatile Keyboard mPrebuildPopupKeysKeyboard;
     private final boolean mConfigShowPopupKeysKeyboardAtTouchedPoint;
     // More keys panel (used by both popup keys keyboard and more suggestions view)
     // TODO: Consider extending to support multiple popup keys panels
@@ -119,6 +132,10 @@ public final class MainKeyboardView extends KeyboardView implements DrawingProxy
 
     private final KeyDetector mKeyDetector;
     private final NonDistinctMultitouchHelper mNonDistinctMultitouchHelper;
+    // created when recording is enabled in debug settings, kept until saved when closing
+    @Nullable
+    private MotionEventRecorder mMotionEventRecorder;
+    private boolean mRecordMotionEvents;
 
     private final TimerHandler mTimerHandler;
     private final int mLanguageOnSpacebarHorizontalMargin;
@@ -307,11 +324,13 @@ public final class MainKeyboardView extends KeyboardView implements DrawingProxy
         mKeyDetector.setKeyboard(
                 keyboard, -getPaddingLeft(), -getPaddingTop() + getVerticalCorrection());
         PointerTracker.setKeyDetector(mKeyDetector);
-        mPopupKeysKeyboardCache.clear();
+        prebuildPopupKeysKeyboards(keyboard);
+        updateMotionEventRecording(keyboard);
 
         mSpaceKey = keyboard.getKey(Constants.CODE_SPACE);
         final int keyHeight = keyboard.mMostCommonKeyHeight - keyboard.mVerticalGap;
         mLanguageOnSpacebarTextSize = keyHeight * mLanguageOnSpacebarTextRatio;
+        mSpacebarText = null;
 
         if (AccessibilityUtils.Companion.getInstance().isAccessibilityEnabled()) {
             if (mAccessibilityDelegate == null) {
@@ -323,6 +342,17 @@ public final class MainKeyboardView extends KeyboardView implements DrawingProxy
         }
     }
 
+    // touches must not be recorded if the app asked for not learning from the input
+    private void updateMotionEventRecording(@NonNull final Keyboard keyboard) {
+        mRecordMotionEvents = DeviceProtectedUtils.getSharedPreferences(getContext())
+                .getBoolean(DebugSettings.PREF_RECORD_MOTION_EVENTS, false)
+                && !keyboard.mId.passwordInput()
+                && (keyboard.mId.mEditorInfo.imeOptions & EditorInfo.IME_FLAG_NO_PERSONALIZED_LEARNING) == 0;
+        if (mRecordMotionEvents && mMotionEventRecorder == null) {
+            mMotionEventRecorder = new MotionEventRecorder();
+        }
+    }
+
     /**
      * Enables or disables the key preview popup. This is a popup that shows a magnified
      * version of the depressed key. By default the preview is enabled.
@@ -485,23 +515,7 @@ public final class MainKeyboardView extends KeyboardView implements DrawingProxy
         if (popupKeys == null) {
             return null;
         }
-        Keyboard popupKeysKeyboard = mPopupKeysKeyboardCache.get(key);
-        if (popupKeysKeyboard == null) {
-            // {@link KeyPreviewDrawParams#mPreviewVisibleWidth} should have been set at
-            // {@link KeyPreviewChoreographer#placeKeyPreview(Key,TextView,KeyboardIconsSet,KeyDrawParams,int,int[]},
-            // though there may be some chances that the value is zero. <code>width == 0</code>
-            // will cause zero-division error at
-            // {@link PopupKeysKeyboardParams#setParameters(int,int,int,int,int,int,boolean,int)}.
-            final boolean isSinglePopupKeyWithPreview = mKeyPreviewDrawParams.isPopupEnabled()
-                    && !key.noKeyPreview() && popupKeys.length == 1
-                    && mKeyPreviewDrawParams.getVisibleWidth() > 0;
-            final PopupKeysKeyboard.Builder builder = new PopupKeysKeyboard.Builder(
-                    getContext(), key, getKeyboard(), isSinglePopupKeyWithPreview,
-                    mKeyPreviewDrawParams.getVisibleWidth(),
-                    mKeyPreviewDrawParams.getVisibleHeight(), newLabelPaint(key));
-            popupKeysKeyboard = builder.build();
-            mPopupKeysKeyboardCache.put(key, popupKeysKeyboard);
-        }
+        final Keyboard popupKeysKeyboard = getPopupKeysKeyboard(key, getKeyboard());
 
         final View container = key.hasActionKeyBackground() ? mPopupKeysKeyboardForActionContainer
                 : mPopupKeysKeyboardContainer;
@@ -530,6 +544,63 @@ public final class MainKeyboardView extends KeyboardView implements DrawingProxy
         return popupKeysKeyboardView;
     }
 
+    @NonNull
+    private PopupKeysKeyboard getPopupKeysKeyboard(@NonNull final Key key, @NonNull final Keyboard keyboard) {
+        return newPopupKeysKeyboardTask(key, keyboard).build();
+    }
+
+    // Reads everything the popup keys keyboard depends on from the view, so the returned task can
+    // be run on any thread.
+    @NonNull
+    private PopupKeysKeyboardTask newPopupKeysKeyboardTask(@NonNull final Key key,
+            @NonNull final Keyboard keyboard) {
+        // {@link KeyPreviewDrawParams#mPreviewVisibleWidth} should have been set at
+        // {@link KeyPreviewChoreographer#placeKeyPreview(Key,TextView,KeyboardIconsSet,KeyDrawParams,int,int[]},
+        // though there may be some chances that the value is zero. <code>width == 0</code>
+        // will cause zero-division error at
+        // {@link PopupKeysKeyboardParams#setParameters(int,int,int,int,int,int,boolean,int)}.
+        final boolean isSinglePopupKeyWithPreview = mKeyPreviewDrawParams.isPopupEnabled()
+                && !key.noKeyPreview() && key.getPopupKeys().length == 1
+                && mKeyPreviewDrawParams.getVisibleWidth() > 0;
+        final Context context = getContext();
+        final int keyPreviewVisibleWidth = mKeyPreviewDrawParams.getVisibleWidth();
+        final int keyPreviewVisibleHeight = mKeyPreviewDrawParams.getVisibleHeight();
+        final Paint paintToMeasure = newLabelPaint(key);
+        return () -> mPopupKeysKeyboardCache.get(context, key, keyboard, isSinglePopupKeyWithPreview,
+                keyPreviewVisibleWidth, keyPreviewVisibleHeight, paintToMeasure);
+    }
+
+    // Builds the popup keys keyboards of the keyboard in background once the UI thread is idle, so
+    // they don't need to be built on long press. Keyboards already in the cache are not rebuilt.
+    private void prebuildPopupKeysKeyboards(@NonNull final Keyboard keyboard) {
+        mPrebuildPopupKeysKeyboard = keyboard;
+        Looper.myQueue().addIdleHandler(() -> {
+            if (getKeyboard() != keyboard) return false;
+            final ArrayList<PopupKeysKeyboardTask> tasks = new ArrayList<>();
+            for (final Key key : keyboard.getSortedKeys()) {
+                if (key.getPopupKeys() != null) {
+                    tasks.add(newPopupKeysKeyboardTask(key, keyboard));
+                }
+            }
+            ExecutorUtils.getBackgroundExecutor(ExecutorUtils.KEYBOARD).execute(() -> {
+                for (final PopupKeysKeyboardTask task : tasks) {
+                    if (mPrebuildPopupKeysKeyboard != keyboard) return; // keyboard has been switched meanwhile
+                    task.build();
+                }
+            });
+            return false;
+        });
+    }
+
+    private interface PopupKeysKeyboardTask {
+        @NonNull PopupKeysKeyboard build();
+    }
+
+    /** Returns how many popup keys keyboards were built, for tests. */
+    public int getPopupKeysKeyboardBuildCount() {
+        return mPopupKeysKeyboardCache.getBuildCount();
+    }
+
     public boolean isInDraggingFinger() {
         if (isShowingPopupKeysPanel()) {
             return true;
@@ -584,6 +655,11 @@ public final class MainKeyboardView extends KeyboardView implements DrawingProxy
         if (getKeyboard() == null) {
             return false;
         }
+        // incognito mode can be toggled without setting a new keyboard
+        if (mRecordMotionEvents && mMotionEventRecorder != null
+                && !Settings.getInstance().getCurrent().mIncognitoModeEnabled) {
+            mMotionEventRecorder.record(event);
+        }
         if (mNonDistinctMultitouchHelper != null) {
             if (event.getPointerCount() > 1 && mTimerHandler.isInKeyRepeat()) {
                 // Key repeating timer will be canceled if 2 or popup keys are in action.
@@ -621,7 +697,21 @@ public final class MainKeyboardView extends KeyboardView implements DrawingProxy
 
     public void closing() {
         cancelAllOngoingEvents();
-        mPopupKeysKeyboardCache.clear();
+        saveRecordedMotionEvents();
+    }
+
+    private void saveRecordedMotionEvents() {
+        final Keyboard keyboard = getKeyboard();
+        if (mMotionEventRecorder == null || mMotionEventRecorder.isEmpty() || keyboard == null) {
+            return;
+        }
+        final File dir = getContext().getExternalFilesDir(null);
+        if (dir == null) {
+            return;
+        }
+        final File file = new File(dir, "motion_events_" + System.currentTimeMillis() + ".txt");
+        mMotionEventRecorder.save(file, keyboard.mId + ", view " + getWidth() + "x" + getHeight(),
+                -getPaddingLeft(), -getPaddingTop() + getVerticalCorrection());
     }
 
     public void onHideWindow() {
@@ -666,6 +756,9 @@ public final class MainKeyboardView extends KeyboardView implements DrawingProxy
         if (subtypeChanged) {
             KeyPreviewView.clearTextCache();
         }
+        if (subtypeChanged || languageOnSpacebarFormatType != mLanguageOnSpacebarFormatType) {
+            mSpacebarText = null;
+        }
         mLanguageOnSpacebarFormatType = languageOnSpacebarFormatType;
         mHasMultipleEnabledIMEsOrSubtypes = hasMultipleEnabledIMEsOrSubtypes;
         final ObjectAnimator animator = mLanguageOnSpacebarFadeoutAnimator;
@@ -800,16 +893,30 @@ public final class MainKeyboardView extends KeyboardView implements DrawingProxy
         paint.setTextAlign(Align.CENTER);
         paint.setTypeface(Typeface.DEFAULT);
         paint.setTextSize(mLanguageOnSpacebarTextSize);
-        final String customText = Settings.getInstance().getCurrent().mSpaceBarText;
-        final String spaceText;
-        if (!customText.isEmpty()) {
-            spaceText = customText;
-        } else if (DebugFlags.DEBUG_ENABLED) {
-            final String l = KeyboardSwitcher.getInstance().getLocaleAndConfidenceInfo();
-            spaceText = l != null ? l : layoutLanguageOnSpacebar(paint, keyboard.mId.mSubtype, width);
-        }
-        else
-            spaceText = layoutLanguageOnSpacebar(paint, keyboard.mId.mSubtype, width);
+        final SettingsValues settingsValues = Settings.getInstance().getCurrent();
+        final String customText = settingsValues.mSpaceBarText;
+        // locale and confidence info for debugging changes all the time, so it is not kept
+        if (mSpacebarText == null || mSpacebarTextSettingsValues != settingsValues
+                || (DebugFlags.DEBUG_ENABLED && customText.isEmpty())) {
+            final String spaceText;
+            if (!customText.isEmpty()) {
+                spaceText = customText;
+            } else if (DebugFlags.DEBUG_ENABLED) {
+                final String l = KeyboardSwitcher.getInstance().getLocaleAndConfidenceInfo();
+                spaceText = l != null ? l : layoutLanguageOnSpacebar(paint, keyboard.mId.mSubtype, width);
+            }
+            else
+                spaceText = layoutLanguageOnSpacebar(paint, keyboard.mId.mSubtype, width);
+            if (fitsTextIntoWidth(width, spaceText, paint)) {
+                mSpacebarTextScaleX = paint.getTextScaleX();
+            } else {
+                paint.setTextScaleX(1.0f);
+                final float textWidth = TypefaceUtils.getStringWidth(spaceText, paint);
+                mSpacebarTextScaleX = (width - mLanguageOnSpacebarHorizontalMargin * 2) / textWidth;
+            }
+            mSpacebarText = spaceText;
+            mSpacebarTextSettingsValues = settingsValues;
+        }
         // Draw language text with shadow
         final float descent = paint.descent();
         final float textHeight = -paint.ascent() + descent;
@@ -822,11 +929,8 @@ public final class MainKeyboardView extends KeyboardView implements DrawingProxy
         }
         paint.setColor(mLanguageOnSpacebarTextColor);
         paint.setAlpha(mLanguageOnSpacebarAnimAlpha);
-        if (!fitsTextIntoWidth(width, spaceText, paint)) {
-            final float textWidth = TypefaceUtils.getStringWidth(spaceText, paint);
-            paint.setTextScaleX((width - mLanguageOnSpacebarHorizontalMargin * 2) / textWidth);
-        }
-        canvas.drawText(spaceText, width / 2f, baseline - descent, paint);
+        paint.setTextScaleX(mSpacebarTextScaleX);
+        canvas.drawText(mSpacebarText, width / 2f, baseline - descent, paint);
         paint.clearShadowLayer();
         paint.setTextScaleX(1.0f);
     }
@@ -36,6 +36,7 @@ import helium314.keyboard.latin.common.InputPointers;
 import helium314.keyboard.latin.define.DebugFlags;
 import helium314.keyboard.latin.settings.Settings;
 import helium314.keyboard.latin.settings.SettingsValues;
+import helium314.keyboard.latin.utils.LatencyTracer;
 import helium314.keyboard.latin.utils.Log;
 
 import java.util.ArrayList;
@@ -203,6 +204,11 @@ public final class PointerTracker implements PointerTrackerQueue.Element,
         sGestureEnabler.setMainDictionaryAvailability(mainDictionaryAvailable);
     }
 
+    // Note that this method is called from a non-UI thread.
+    public static void setGestureDecodingTime(final int decodingTime) {
+        BatchInputArbiter.setDecodingTime(decodingTime);
+    }
+
     public static void setGestureHandlingEnabledByUser(final boolean gestureHandlingEnabledByUser) {
         sGestureEnabler.setGestureHandlingEnabledByUser(gestureHandlingEnabledByUser);
     }
@@ -1014,6 +1020,7 @@ public final class PointerTracker implements PointerTrackerQueue.Element,
         if (DEBUG_EVENT) {
             printTouchEvent("onUpEvent  :", x, y, eventTime);
         }
+        final long startTime = LatencyTracer.start();
 
         sTimerProxy.cancelUpdateBatchInputTimer(this);
         if (!sInGesture) {
@@ -1027,6 +1034,7 @@ public final class PointerTracker implements PointerTrackerQueue.Element,
         }
         onUpEventInternal(x, y, eventTime);
         sPointerTrackerQueue.remove(this);
+        LatencyTracer.end(LatencyTracer.STAGE_POINTER_UP, startTime);
     }
 
     // Let this pointer tracker know that one of newer-than-this pointer trackers got an up event.
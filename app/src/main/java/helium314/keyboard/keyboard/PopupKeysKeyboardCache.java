@@ -0,0 +1,191 @@
+// SPDX-License-Identifier: GPL-3.0-only
+
+package helium314.keyboard.keyboard;
+
+import android.content.Context;
+import android.graphics.Paint;
+import android.graphics.Typeface;
+import android.text.InputType;
+import android.util.LruCache;
+
+import androidx.annotation.NonNull;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import helium314.keyboard.keyboard.internal.PopupKeySpec;
+import helium314.keyboard.keyboard.internal.keyboard_parser.floris.KeyCode;
+
+/**
+ * Caches {@link PopupKeysKeyboard}s by the content they are built from instead of by parent key
+ * instance, so keyboards with identical popup keys are shared between shift states, keyboard
+ * reloads and subtypes. Can be used from any thread.
+ */
+public final class PopupKeysKeyboardCache {
+    private static final int MAX_SIZE = 200;
+
+    private final LruCache<CacheKey, PopupKeysKeyboard> mCache = new LruCache<>(MAX_SIZE);
+    private final AtomicInteger mBuildCount = new AtomicInteger();
+
+    /**
+     * Returns the popup keys keyboard for the key, building it if necessary.
+     * See {@link PopupKeysKeyboard.Builder} for the parameters.
+     */
+    @NonNull
+    public PopupKeysKeyboard get(@NonNull final Context context, @NonNull final Key key,
+            @NonNull final Keyboard keyboard, final boolean isSinglePopupKeyWithPreview,
+            final int keyPreviewVisibleWidth, final int keyPreviewVisibleHeight,
+            @NonNull final Paint paintToMeasure) {
+        final CacheKey cacheKey = new CacheKey(key, keyboard, isSinglePopupKeyWithPreview,
+                keyPreviewVisibleWidth, keyPreviewVisibleHeight, paintToMeasure);
+        final PopupKeysKeyboard cached = mCache.get(cacheKey);
+        if (cached != null) {
+            return cached;
+        }
+        final PopupKeysKeyboard popupKeysKeyboard = new PopupKeysKeyboard.Builder(context, key,
+                keyboard, isSinglePopupKeyWithPreview, keyPreviewVisibleWidth,
+                keyPreviewVisibleHeight, paintToMeasure).build();
+        mBuildCount.incrementAndGet();
+        mCache.put(cacheKey, popupKeysKeyboard);
+        return popupKeysKeyboard;
+    }
+
+    /** Returns how many popup keys keyboards were built because they were not in the cache. */
+    public int getBuildCount() {
+        return mBuildCount.get();
+    }
+
+    public void clear() {
+        mCache.evictAll();
+    }
+
+    // Everything PopupKeysKeyboard.Builder reads from the parent key and keyboard, and everything
+    // views and accessibility read from the keyboard id it copies. The vertical position of the key
+    // is only used when showing the popup.
+    private static final class CacheKey {
+        private final PopupKeySpec[] mPopupKeys;
+        private final int mKeyX;
+        private final int mKeyWidth;
+        private final int mPopupKeyLabelFlags;
+        private final int mPopupKeysColumnNumber;
+        private final int mPopupKeysFlags;
+        private final int mKeyboardWidth;
+        private final int mKeyboardHeight;
+        private final int mKeyboardMode;
+        private final int mImeAction;
+        // password input is not spoken by accessibility, and visible password input is
+        private final boolean mPasswordInput;
+        private final int mInputTypeClassAndVariation;
+        // only for popup keys whose description depends on the keyboard element
+        private final int mElementId;
+        private final int mPopupKeysTemplate;
+        private final int mVerticalGap;
+        private final int mMostCommonKeyHeight;
+        private final boolean mIsSinglePopupKeyWithPreview;
+        private final int mKeyPreviewVisibleWidth;
+        private final int mKeyPreviewVisibleHeight;
+        private final float mTextSize;
+        private final Typeface mTypeface;
+        private final int mHashCode;
+
+        CacheKey(final Key key, final Keyboard keyboard, final boolean isSinglePopupKeyWithPreview,
+                final int keyPreviewVisibleWidth, final int keyPreviewVisibleHeight, final Paint paint) {
+            mPopupKeys = key.getPopupKeys();
+            mKeyX = key.getX();
+            mKeyWidth = key.getWidth();
+            mPopupKeyLabelFlags = key.getPopupKeyLabelFlags();
+            mPopupKeysColumnNumber = key.getPopupKeysColumnNumber();
+            mPopupKeysFlags = (key.isPopupKeysFixedColumn() ? 1 : 0)
+                    | (key.isPopupKeysFixedOrder() ? 2 : 0)
+                    | (key.needsDividersInPopupKeys() ? 4 : 0)
+                    | (key.hasLabelsInPopupKeys() ? 8 : 0);
+            mKeyboardWidth = keyboard.mId.mWidth;
+            mKeyboardHeight = keyboard.mId.mHeight;
+            // popup keys are described differently for accessibility depending on mode and action
+            mKeyboardMode = keyboard.mId.mMode;
+            mImeAction = keyboard.mId.imeAction();
+            mPasswordInput = keyboard.mId.passwordInput();
+            mInputTypeClassAndVariation = keyboard.mId.mEditorInfo.inputType
+                    & (InputType.TYPE_MASK_CLASS | InputType.TYPE_MASK_VARIATION);
+            mElementId = hasElementDependentDescription(mPopupKeys) ? keyboard.mId.mElementId : -1;
+            mPopupKeysTemplate = keyboard.mPopupKeysTemplate;
+            mVerticalGap = keyboard.mVerticalGap;
+            mMostCommonKeyHeight = keyboard.mMostCommonKeyHeight;
+            mIsSinglePopupKeyWithPreview = isSinglePopupKeyWithPreview;
+            // the key preview size is only used for a single popup key with preview
+            mKeyPreviewVisibleWidth = isSinglePopupKeyWithPreview ? keyPreviewVisibleWidth : 0;
+            mKeyPreviewVisibleHeight = isSinglePopupKeyWithPreview ? keyPreviewVisibleHeight : 0;
+            mTextSize = paint.getTextSize();
+            mTypeface = paint.getTypeface();
+            mHashCode = Arrays.hashCode(new Object[] {
+                    Arrays.hashCode(mPopupKeys),
+                    mKeyX,
+                    mKeyWidth,
+                    mPopupKeyLabelFlags,
+                    mPopupKeysColumnNumber,
+                    mPopupKeysFlags,
+                    mKeyboardWidth,
+                    mKeyboardHeight,
+                    mKeyboardMode,
+                    mImeAction,
+                    mPasswordInput,
+                    mInputTypeClassAndVariation,
+                    mElementId,
+                    mPopupKeysTemplate,
+                    mVerticalGap,
+                    mMostCommonKeyHeight,
+                    mIsSinglePopupKeyWithPreview,
+                    mKeyPreviewVisibleWidth,
+                    mKeyPreviewVisibleHeight,
+                    mTextSize,
+                    mTypeface,
+            });
+        }
+
+        @Override
+        public int hashCode() {
+            return mHashCode;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) return true;
+            if (!(o instanceof final CacheKey other)) return false;
+            return mHashCode == other.mHashCode
+                    && mKeyX == other.mKeyX
+                    && mKeyWidth == other.mKeyWidth
+                    && mPopupKeyLabelFlags == other.mPopupKeyLabelFlags
+                    && mPopupKeysColumnNumber == other.mPopupKeysColumnNumber
+                    && mPopupKeysFlags == other.mPopupKeysFlags
+                    && mKeyboardWidth == other.mKeyboardWidth
+                    && mKeyboardHeight == other.mKeyboardHeight
+                    && mKeyboardMode == other.mKeyboardMode
+                    && mImeAction == other.mImeAction
+                    && mPasswordInput == other.mPasswordInput
+                    && mInputTypeClassAndVariation == other.mInputTypeClassAndVariation
+                    && mElementId == other.mElementId
+                    && mPopupKeysTemplate == other.mPopupKeysTemplate
+                    && mVerticalGap == other.mVerticalGap
+                    && mMostCommonKeyHeight == other.mMostCommonKeyHeight
+                    && mIsSinglePopupKeyWithPreview == other.mIsSinglePopupKeyWithPreview
+                    && mKeyPreviewVisibleWidth == other.mKeyPreviewVisibleWidth
+                    && mKeyPreviewVisibleHeight == other.mKeyPreviewVisibleHeight
+                    && mTextSize == other.mTextSize
+                    && Objects.equals(mTypeface, other.mTypeface)
+                    && Arrays.equals(mPopupKeys, other.mPopupKeys);
+        }
+
+        // see KeyCodeDescriptionMapper.getDescriptionForKey
+        private static boolean hasElementDependentDescription(final PopupKeySpec[] popupKeys) {
+            if (popupKeys == null) return false;
+            for (final PopupKeySpec spec : popupKeys) {
+                if (spec.mCode == KeyCode.SHIFT || spec.mCode == KeyCode.SYMBOL_ALPHA
+                        || spec.mCode == KeyCode.SYMBOL || spec.mCode == KeyCode.ALPHA) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
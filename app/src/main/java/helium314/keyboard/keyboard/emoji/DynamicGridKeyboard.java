@@ -23,9 +23,9 @@ import helium314.keyboard.latin.utils.JsonUtils;
 
 import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 /**
  * This is a Keyboard class where you can add keys dynamically shown in a grid layout
@@ -47,6 +47,8 @@ final class DynamicGridKeyboard extends Keyboard {
     private final ArrayDeque<Key> mPendingKeys = new ArrayDeque<>();
 
     private List<Key> mCachedGridKeys;
+    // grid keys by cell index (row * mColumnsNum + column), null for empty cells
+    private GridKey[] mGridKeysByCell = new GridKey[0];
     private final ArrayList<Integer> mEmptyColumnIndices = new ArrayList<>(4);
 
     public DynamicGridKeyboard(final SharedPreferences prefs, final Keyboard templateKeyboard,
@@ -172,6 +174,7 @@ final class DynamicGridKeyboard extends Keyboard {
             while (mGridKeys.size() > mMaxKeyCount) {
                 mGridKeys.removeLast();
             }
+            final GridKey[] keysByCell = new GridKey[getCellCount(mGridKeys.size())];
             int index = 0;
             for (final GridKey gridKey : mGridKeys) {
                 while (mEmptyColumnIndices.contains(index % mColumnsNum)) {
@@ -182,11 +185,20 @@ final class DynamicGridKeyboard extends Keyboard {
                 final int keyX1 = getKeyX1(index);
                 final int keyY1 = getKeyY1(index);
                 gridKey.updateCoordinates(keyX0, keyY0, keyX1, keyY1);
+                keysByCell[index] = gridKey;
                 index++;
             }
+            mGridKeysByCell = keysByCell;
         }
     }
 
+    // number of cells needed for keyCount keys, considering the empty spacer columns
+    private int getCellCount(final int keyCount) {
+        final int keysPerRow = mColumnsNum - mEmptyColumnIndices.size();
+        if (keyCount == 0 || keysPerRow <= 0) return keyCount;
+        return ((keyCount - 1) / keysPerRow + 1) * mColumnsNum;
+    }
+
     private void saveRecentKeys() {
         final ArrayList<Object> keys = new ArrayList<>();
         for (final Key key : mGridKeys) {
@@ -200,44 +212,36 @@ final class DynamicGridKeyboard extends Keyboard {
         Settings.writeEmojiRecentKeys(mPrefs, jsonStr);
     }
 
-    private Key getKeyByCode(final Collection<DynamicGridKeyboard> keyboards,
-            final int code) {
-        for (final DynamicGridKeyboard keyboard : keyboards) {
-            for (final Key key : keyboard.getSortedKeys()) {
-                if (key.getCode() == code) {
-                    return key;
-                }
-            }
+    private Key getKeyByCode(final Map<Integer, Key> keysByCode, final int code) {
+        final Key key = keysByCode.get(code);
+        if (key != null) {
+            return key;
         }
 
         // fall back to creating the key
         return new Key(getTemplateKey(TEMPLATE_KEY_CODE_0), null, null, Key.BACKGROUND_TYPE_EMPTY, code, null);
     }
 
-    private Key getKeyByOutputText(final Collection<DynamicGridKeyboard> keyboards,
-            final String outputText) {
-        for (final DynamicGridKeyboard keyboard : keyboards) {
-            for (final Key key : keyboard.getSortedKeys()) {
-                if (outputText.equals(key.getOutputText())) {
-                    return key;
-                }
-            }
+    private Key getKeyByOutputText(final Map<String, Key> keysByOutputText, final String outputText) {
+        final Key key = keysByOutputText.get(outputText);
+        if (key != null) {
+            return key;
         }
 
         // fall back to creating the key
         return new Key(getTemplateKey(TEMPLATE_KEY_CODE_0), null, null, Key.BACKGROUND_TYPE_EMPTY, 0, outputText);
     }
 
-    public void loadRecentKeys(final Collection<DynamicGridKeyboard> keyboards) {
+    public void loadRecentKeys(final Map<Integer, Key> keysByCode, final Map<String, Key> keysByOutputText) {
         final String str = Settings.readEmojiRecentKeys(mPrefs);
         final List<Object> keys = JsonUtils.jsonStrToList(str);
         for (final Object o : keys) {
             final Key key;
             if (o instanceof Integer) {
                 final int code = (Integer)o;
-                key = getKeyByCode(keyboards, code);
+                key = getKeyByCode(keysByCode, code);
             } else if (o instanceof final String outputText) {
-                key = getKeyByOutputText(keyboards, outputText);
+                key = getKeyByOutputText(keysByOutputText, outputText);
             } else {
                 Log.w(TAG, "Invalid object: " + o);
                 continue;
@@ -282,8 +286,20 @@ final class DynamicGridKeyboard extends Keyboard {
     @NonNull
     @Override
     public List<Key> getNearestKeys(final int x, final int y) {
-        // TODO: Calculate the nearest key index in mGridKeys from x and y.
-        return getSortedKeys();
+        // hit boxes of grid keys are exactly the grid cells, so the only candidate is the key in the touched cell
+        final int column = Math.floorDiv(x - mHorizontalGap / 2, mHorizontalStep);
+        final int row = Math.floorDiv(y - mVerticalGap / 2, mVerticalStep);
+        if (column < 0 || column >= mColumnsNum || row < 0) {
+            return Collections.emptyList();
+        }
+        final int cell = row * mColumnsNum + column;
+        synchronized (mLock) {
+            final GridKey[] keysByCell = mGridKeysByCell;
+            if (cell >= keysByCell.length || keysByCell[cell] == null) {
+                return Collections.emptyList();
+            }
+            return Collections.singletonList(keysByCell[cell]);
+        }
     }
 
     static final class GridKey extends Key {
@@ -120,6 +120,9 @@ final class EmojiCategory {
     private final int[] mCategoryTabIconId = new int[sCategoryName.length];
     private final ArrayList<CategoryProperties> mShownCategories = new ArrayList<>();
     private final ConcurrentHashMap<Long, DynamicGridKeyboard> mCategoryKeyboardMap = new ConcurrentHashMap<>();
+    // keys of all loaded category keyboards, so recent keys can be found without scanning every keyboard
+    private final HashMap<Integer, Key> mKeyByCode = new HashMap<>();
+    private final HashMap<String, Key> mKeyByOutputText = new HashMap<>();
 
     private int mCurrentCategoryId = EmojiCategory.ID_UNSPECIFIED;
     private int mCurrentCategoryPageId = 0;
@@ -168,7 +171,11 @@ final class EmojiCategory {
     }
 
     public void clearKeyboardCache() {
-        mCategoryKeyboardMap.clear();
+        synchronized (mCategoryKeyboardMap) {
+            mCategoryKeyboardMap.clear();
+            mKeyByCode.clear();
+            mKeyByOutputText.clear();
+        }
     }
 
     private void addShownCategoryId(final int categoryId) {
@@ -303,7 +310,7 @@ final class EmojiCategory {
                         mLayoutSet.getKeyboard(KeyboardId.ELEMENT_EMOJI_RECENTS),
                         mMaxRecentsKeyCount, categoryId, currentWidth);
                 mCategoryKeyboardMap.put(categoryKeyboardMapKey, kbd);
-                kbd.loadRecentKeys(mCategoryKeyboardMap.values());
+                kbd.loadRecentKeys(mKeyByCode, mKeyByOutputText);
                 return kbd;
             }
 
@@ -320,6 +327,11 @@ final class EmojiCategory {
                         break;
                     }
                     tempKeyboard.addKeyLast(emojiKey);
+                    if (emojiKey.getOutputText() != null) {
+                        mKeyByOutputText.putIfAbsent(emojiKey.getOutputText(), emojiKey);
+                    } else {
+                        mKeyByCode.putIfAbsent(emojiKey.getCode(), emojiKey);
+                    }
                 }
                 mCategoryKeyboardMap.put(getCategoryKeyboardMapKey(categoryId, pageId), tempKeyboard);
             }
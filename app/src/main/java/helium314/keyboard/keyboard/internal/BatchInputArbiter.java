@@ -31,6 +31,10 @@ public class BatchInputArbiter {
             Constants.DEFAULT_GESTURE_POINTS_CAPACITY);
     private static int sLastRecognitionPointSize = 0; // synchronized using sAggregatedPointers
     private static long sLastRecognitionTime = 0; // synchronized using sAggregatedPointers
+    // The time the dictionary needs to decode a gesture update. Updates are not requested more
+    // often than they can be decoded, as they would only pile up and delay the final result.
+    private static volatile int sDecodingTime = 0;
+    private static final int MAX_DECODING_TIME = 500; // msec
 
     private final GestureStrokeRecognitionPoints mRecognitionPoints;
 
@@ -42,6 +46,15 @@ public class BatchInputArbiter {
         mRecognitionPoints.setKeyboardGeometry(keyWidth, keyboardHeight);
     }
 
+    /**
+     * Set the time it takes to decode a gesture update, which is used as minimum interval between
+     * updates if it is longer than the configured recognition time.
+     * @param decodingTime the (average) decoding time in milliseconds.
+     */
+    public static void setDecodingTime(final int decodingTime) {
+        sDecodingTime = Math.max(0, Math.min(decodingTime, MAX_DECODING_TIME));
+    }
+
     /**
      * Calculate elapsed time since the first gesture down.
      * @param eventTime the time of this event.
@@ -138,7 +151,7 @@ public class BatchInputArbiter {
             mRecognitionPoints.appendIncrementalBatchPoints(sAggregatedPointers);
             final int size = sAggregatedPointers.getPointerSize();
             if (size > sLastRecognitionPointSize && mRecognitionPoints.hasRecognitionTimePast(
-                    moveEventTime, sLastRecognitionTime)) {
+                    moveEventTime, sLastRecognitionTime, sDecodingTime)) {
                 listener.onUpdateBatchInput(sAggregatedPointers, moveEventTime);
                 listener.onStartUpdateBatchInputTimer();
                 // The listener may change the size of the pointers (when auto-committing
@@ -296,9 +296,10 @@ public final class GestureStrokeRecognitionPoints {
     }
 
     // TODO: Make this package private
-    public boolean hasRecognitionTimePast(
-            final long currentTime, final long lastRecognitionTime) {
-        return currentTime > lastRecognitionTime + mRecognitionParams.mRecognitionMinimumTime;
+    public boolean hasRecognitionTimePast(final long currentTime,
+            final long lastRecognitionTime, final int decodingTime) {
+        return currentTime > lastRecognitionTime
+                + Math.max(mRecognitionParams.mRecognitionMinimumTime, decodingTime);
     }
 
     // TODO: Make this package private
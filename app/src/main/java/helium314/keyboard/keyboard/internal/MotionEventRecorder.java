@@ -0,0 +1,142 @@
+// SPDX-License-Identifier: GPL-3.0-only
+
+package helium314.keyboard.keyboard.internal;
+
+import android.view.InputDevice;
+import android.view.MotionEvent;
+
+import androidx.annotation.NonNull;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import helium314.keyboard.latin.utils.ExecutorUtils;
+import helium314.keyboard.latin.utils.Log;
+
+/**
+ * Records the {@link MotionEvent}s of the keyboard view including historical points, so touch
+ * handling can be replayed in tests.
+ * <p>
+ * The trace is a text file with one event per line, lines starting with # are comments:
+ * {@code downTime action metaState pointerCount historySize pointerIds...}, followed by
+ * {@code eventTime x y} for each pointer and each historical point, and finally the current point.
+ * The header contains the offset of the key detector, see {@link #KEY_DETECTOR_OFFSET}.
+ */
+public final class MotionEventRecorder {
+    private static final String TAG = MotionEventRecorder.class.getSimpleName();
+    private static final String HEADER = "# motion events 1";
+    /** Header line prefix for the key detector offset, followed by {@code x y}. */
+    public static final String KEY_DETECTOR_OFFSET = "# key detector offset ";
+    // about 5 MB of text
+    private static final int MAX_EVENTS = 50000;
+
+    private ArrayList<String> mLines = new ArrayList<>();
+
+    public void record(@NonNull final MotionEvent me) {
+        if (mLines.size() < MAX_EVENTS)
+            mLines.add(serialize(me));
+    }
+
+    public boolean isEmpty() {
+        return mLines.isEmpty();
+    }
+
+    /**
+     * Writes the recorded events in background and starts a new recording.
+     * The key detector offset is needed for detecting the same keys when replaying.
+     */
+    public void save(@NonNull final File file, @NonNull final String description,
+            final float keyDetectorOffsetX, final float keyDetectorOffsetY) {
+        final ArrayList<String> lines = mLines;
+        mLines = new ArrayList<>();
+        ExecutorUtils.getBackgroundExecutor(ExecutorUtils.KEYBOARD).execute(() -> {
+            try (BufferedWriter writer = new BufferedWriter(new FileWriter(file))) {
+                writer.write(HEADER + "\n# " + description + "\n");
+                writer.write(KEY_DETECTOR_OFFSET + keyDetectorOffsetX + " " + keyDetectorOffsetY + "\n");
+                for (final String line : lines) {
+                    writer.write(line);
+                    writer.write('\n');
+                }
+            } catch (final IOException e) {
+                Log.w(TAG, "could not write motion events", e);
+            }
+        });
+    }
+
+    @NonNull
+    public static String serialize(@NonNull final MotionEvent me) {
+        final int pointerCount = me.getPointerCount();
+        final int historySize = me.getHistorySize();
+        final StringBuilder sb = new StringBuilder();
+        sb.append(me.getDownTime()).append(' ').append(me.getAction()).append(' ').append(me.getMetaState())
+                .append(' ').append(pointerCount).append(' ').append(historySize);
+        for (int p = 0; p < pointerCount; p++) {
+            sb.append(' ').append(me.getPointerId(p));
+        }
+        for (int h = 0; h < historySize; h++) {
+            sb.append(' ').append(me.getHistoricalEventTime(h));
+            for (int p = 0; p < pointerCount; p++) {
+                sb.append(' ').append(me.getHistoricalX(p, h)).append(' ').append(me.getHistoricalY(p, h));
+            }
+        }
+        sb.append(' ').append(me.getEventTime());
+        for (int p = 0; p < pointerCount; p++) {
+            sb.append(' ').append(me.getX(p)).append(' ').append(me.getY(p));
+        }
+        return sb.toString();
+    }
+
+    /** Creates the event from a line written by {@link #serialize}, needs to be recycled by the caller. */
+    @NonNull
+    public static MotionEvent deserialize(@NonNull final String line) {
+        final String[] values = line.trim().split(" ");
+        int i = 0;
+        final long downTime = Long.parseLong(values[i++]);
+        final int action = Integer.parseInt(values[i++]);
+        final int metaState = Integer.parseInt(values[i++]);
+        final int pointerCount = Integer.parseInt(values[i++]);
+        final int historySize = Integer.parseInt(values[i++]);
+        final MotionEvent.PointerProperties[] properties = new MotionEvent.PointerProperties[pointerCount];
+        for (int p = 0; p < pointerCount; p++) {
+            properties[p] = new MotionEvent.PointerProperties();
+            properties[p].id = Integer.parseInt(values[i++]);
+            properties[p].toolType = MotionEvent.TOOL_TYPE_FINGER;
+        }
+        MotionEvent me = null;
+        for (int h = 0; h <= historySize; h++) {
+            final long eventTime = Long.parseLong(values[i++]);
+            final MotionEvent.PointerCoords[] coords = new MotionEvent.PointerCoords[pointerCount];
+            for (int p = 0; p < pointerCount; p++) {
+                coords[p] = new MotionEvent.PointerCoords();
+                coords[p].x = Float.parseFloat(values[i++]);
+                coords[p].y = Float.parseFloat(values[i++]);
+                coords[p].pressure = 1f;
+                coords[p].size = 1f;
+            }
+            if (me == null) {
+                me = MotionEvent.obtain(downTime, eventTime, action, pointerCount, properties, coords,
+                        metaState, 0, 1f, 1f, 0, 0, InputDevice.SOURCE_TOUCHSCREEN, 0);
+            } else {
+                me.addBatch(eventTime, coords, metaState);
+            }
+        }
+        return me;
+    }
+
+    /** Reads the events of a trace, they need to be recycled by the caller. */
+    @NonNull
+    public static List<MotionEvent> read(@NonNull final BufferedReader reader) throws IOException {
+        final ArrayList<MotionEvent> events = new ArrayList<>();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.isEmpty() || line.startsWith("#")) continue;
+            events.add(deserialize(line));
+        }
+        return events;
+    }
+}
@@ -0,0 +1,179 @@
+// SPDX-License-Identifier: GPL-3.0-only
+package helium314.keyboard.keyboard.internal.keyboard_parser
+
+import android.content.Context
+import helium314.keyboard.keyboard.internal.keyboard_parser.floris.AbstractKeyData
+import helium314.keyboard.latin.utils.ExecutorUtils
+import helium314.keyboard.latin.utils.Log
+import kotlinx.serialization.ExperimentalSerializationApi
+import kotlinx.serialization.builtins.ListSerializer
+import kotlinx.serialization.builtins.serializer
+import kotlinx.serialization.descriptors.SerialDescriptor
+import kotlinx.serialization.encoding.AbstractDecoder
+import kotlinx.serialization.encoding.AbstractEncoder
+import kotlinx.serialization.encoding.CompositeDecoder
+import kotlinx.serialization.encoding.CompositeEncoder
+import kotlinx.serialization.modules.SerializersModule
+import kotlinx.serialization.serializer
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.DataInput
+import java.io.DataInputStream
+import java.io.DataOutput
+import java.io.DataOutputStream
+import java.io.File
+import java.io.IOException
+
+/** A parsed layout, before it's computed for specific [KeyboardParams][helium314.keyboard.keyboard.internal.KeyboardParams]. */
+sealed interface CompiledLayout {
+    /** Rows of keys from a json layout. */
+    class Json(val rows: List<List<AbstractKeyData>>) : CompiledLayout
+    /** Rows of keys from a simple layout, each key as label followed by popup keys. */
+    class Simple(val rows: List<List<List<String>>>) : CompiledLayout
+}
+
+/**
+ * Stores parsed layouts in a compact binary form in the cache directory, so layouts don't need to be
+ * parsed again after the process is restarted or the raw layout cache is cleared.
+ * Each file starts with a format version and a key identifying the layout content, files with different
+ * version or key are ignored and replaced.
+ */
+@OptIn(ExperimentalSerializationApi::class)
+object CompiledLayoutCache {
+    private const val TAG = "CompiledLayoutCache"
+    // increase when changing the format, or the serializable layout classes
+    private const val FORMAT_VERSION = 1
+    private const val TYPE_JSON: Byte = 0
+    private const val TYPE_SIMPLE: Byte = 1
+    private const val DIR_NAME = "compiled_layouts"
+
+    private val jsonRowsSerializer = ListSerializer(ListSerializer(serializer<AbstractKeyData>()))
+    private val simpleRowsSerializer = ListSerializer(ListSerializer(ListSerializer(String.serializer())))
+
+    /** Returns the layout stored for [layoutName], or null if there is none for the given [contentKey]. */
+    fun load(context: Context, layoutName: String, contentKey: String, module: SerializersModule): CompiledLayout? {
+        val file = getFile(context, layoutName)
+        if (!file.exists()) return null
+        return try {
+            decode(file.readBytes(), contentKey, module)
+        } catch (e: Exception) {
+            // IOException, or some SerializationException if classes changed without increasing FORMAT_VERSION
+            Log.w(TAG, "could not read compiled layout $layoutName", e)
+            file.delete()
+            null
+        }
+    }
+
+    /** Writes [layout] for [layoutName] in background. */
+    fun store(context: Context, layoutName: String, contentKey: String, layout: CompiledLayout, module: SerializersModule) {
+        val file = getFile(context, layoutName)
+        ExecutorUtils.getBackgroundExecutor(ExecutorUtils.KEYBOARD).execute {
+            try {
+                val bytes = encode(layout, contentKey, module)
+                file.parentFile?.mkdirs()
+                val tmp = File(file.path + ".tmp")
+                tmp.writeBytes(bytes)
+                if (!tmp.renameTo(file)) tmp.delete()
+            } catch (e: Exception) {
+                Log.w(TAG, "could not write compiled layout $layoutName", e)
+            }
+        }
+    }
+
+    /** Returns [layout] in the format of the cache files. */
+    internal fun encode(layout: CompiledLayout, contentKey: String, module: SerializersModule): ByteArray {
+        val bytes = ByteArrayOutputStream()
+        val output = DataOutputStream(bytes)
+        output.writeInt(FORMAT_VERSION)
+        output.writeUTF(contentKey)
+        val encoder = DataOutputEncoder(output, module)
+        when (layout) {
+            is CompiledLayout.Json -> {
+                output.writeByte(TYPE_JSON.toInt())
+                encoder.encodeSerializableValue(jsonRowsSerializer, layout.rows)
+            }
+            is CompiledLayout.Simple -> {
+                output.writeByte(TYPE_SIMPLE.toInt())
+                encoder.encodeSerializableValue(simpleRowsSerializer, layout.rows)
+            }
+        }
+        return bytes.toByteArray()
+    }
+
+    /**
+     * Returns the layout encoded in [bytes], or null if it's for a different format version or [contentKey].
+     * Throws if [bytes] can't be decoded.
+     */
+    internal fun decode(bytes: ByteArray, contentKey: String, module: SerializersModule): CompiledLayout? {
+        val input = DataInputStream(ByteArrayInputStream(bytes))
+        if (input.readInt() != FORMAT_VERSION || input.readUTF() != contentKey) return null
+        val decoder = DataInputDecoder(input, module)
+        val layout = when (input.readByte()) {
+            TYPE_JSON -> CompiledLayout.Json(decoder.decodeSerializableValue(jsonRowsSerializer))
+            TYPE_SIMPLE -> CompiledLayout.Simple(decoder.decodeSerializableValue(simpleRowsSerializer))
+            else -> throw IOException("unknown layout type")
+        }
+        if (input.read() != -1) throw IOException("trailing bytes")
+        return layout
+    }
+
+    private fun getFile(context: Context, layoutName: String) =
+        File(File(context.cacheDir, DIR_NAME), layoutName.replace(File.separatorChar, '_') + ".bin")
+
+    private class DataOutputEncoder(
+        private val output: DataOutput,
+        override val serializersModule: SerializersModule
+    ) : AbstractEncoder() {
+        override fun encodeBoolean(value: Boolean) = output.writeByte(if (value) 1 else 0)
+        override fun encodeByte(value: Byte) = output.writeByte(value.toInt())
+        override fun encodeShort(value: Short) = output.writeShort(value.toInt())
+        override fun encodeInt(value: Int) = output.writeInt(value)
+        override fun encodeLong(value: Long) = output.writeLong(value)
+        override fun encodeFloat(value: Float) = output.writeFloat(value)
+        override fun encodeDouble(value: Double) = output.writeDouble(value)
+        override fun encodeChar(value: Char) = output.writeChar(value.code)
+        override fun encodeString(value: String) = output.writeUTF(value)
+        override fun encodeEnum(enumDescriptor: SerialDescriptor, index: Int) = output.writeInt(index)
+        override fun encodeNull() = encodeBoolean(false)
+        override fun encodeNotNullMark() = encodeBoolean(true)
+
+        override fun beginCollection(descriptor: SerialDescriptor, collectionSize: Int): CompositeEncoder {
+            encodeInt(collectionSize)
+            return this
+        }
+    }
+
+    private class DataInputDecoder(
+        private val input: DataInput,
+        override val serializersModule: SerializersModule,
+        private var elementsCount: Int = 0
+    ) : AbstractDecoder() {
+        private var elementIndex = 0
+
+        override fun decodeBoolean() = input.readByte().toInt() != 0
+        override fun decodeByte() = input.readByte()
+        override fun decodeShort() = input.readShort()
+        override fun decodeInt() = input.readInt()
+        override fun decodeLong() = input.readLong()
+        override fun decodeFloat() = input.readFloat()
+        override fun decodeDouble() = input.readDouble()
+        override fun decodeChar() = input.readChar()
+        override fun decodeString(): String = input.readUTF()
+        override fun decodeEnum(enumDescriptor: SerialDescriptor) = input.readInt()
+        override fun decodeNotNullMark() = decodeBoolean()
+
+        override fun decodeElementIndex(descriptor: SerialDescriptor): Int {
+            if (elementIndex == elementsCount) return CompositeDecoder.DECODE_DONE
+            return elementIndex++
+        }
+
+        override fun beginStructure(descriptor: SerialDescriptor): CompositeDecoder =
+            DataInputDecoder(input, serializersModule, descriptor.elementsCount)
+
+        // everything is written in order, and collections are prefixed with their size
+        override fun decodeSequentially() = true
+
+        override fun decodeCollectionSize(descriptor: SerialDescriptor): Int =
+            decodeInt().also { elementsCount = it }
+    }
+}
@@ -18,9 +18,11 @@ import helium314.keyboard.keyboard.internal.keyboard_parser.floris.ShiftStateSel
 import helium314.keyboard.keyboard.internal.keyboard_parser.floris.TextKeyData
 import helium314.keyboard.keyboard.internal.keyboard_parser.floris.VariationSelector
 import helium314.keyboard.keyboard.internal.keyboard_parser.floris.toTextKey
+import helium314.keyboard.latin.BuildConfig
 import helium314.keyboard.latin.common.splitOnWhitespace
 import helium314.keyboard.latin.settings.Settings
 import helium314.keyboard.latin.utils.CUSTOM_LAYOUT_PREFIX
+import helium314.keyboard.latin.utils.ChecksumCalculator
 import helium314.keyboard.latin.utils.Log
 import helium314.keyboard.latin.utils.ScriptUtils
 import helium314.keyboard.latin.utils.ScriptUtils.script
@@ -35,6 +37,9 @@ import java.io.File
 object RawKeyboardParser {
     private const val TAG = "RawKeyboardParser"
     private val rawLayoutCache = hashMapOf<String, (KeyboardParams) -> MutableList<MutableList<KeyData>>>()
+    // assets don't change while the app is running
+    private var assetLayoutFiles: Array<String>? = null
+    private var apkUpdateTime: Long? = null
 
     val symbolAndNumberLayouts = listOf(LAYOUT_SYMBOLS, LAYOUT_SYMBOLS_SHIFTED, LAYOUT_SYMBOLS_ARABIC,
         LAYOUT_NUMBER, LAYOUT_NUMPAD, LAYOUT_NUMPAD_LANDSCAPE, LAYOUT_PHONE, LAYOUT_PHONE_SYMBOLS,
@@ -72,62 +77,106 @@ object RawKeyboardParser {
     fun parseJsonString(layoutText: String): List<List<AbstractKeyData>> = florisJsonConfig.decodeFromString(layoutText.stripCommentLines())
 
     /** Parse simple layouts, defined only as rows of (normal) keys with popup keys. */
-    fun parseSimpleString(layoutText: String): List<List<KeyData>> {
+    fun parseSimpleString(layoutText: String): List<List<KeyData>> =
+        splitSimpleString(layoutText).map { row -> row.map { toKey(it) } }
+
+    // rows of keys, each key as label followed by popup keys
+    private fun splitSimpleString(layoutText: String): List<List<List<String>>> {
         val rowStrings = layoutText.replace("\r\n", "\n").split("\\n\\s*\\n".toRegex()).filter { it.isNotBlank() }
         return rowStrings.map { row ->
-            row.split("\n").mapNotNull { parseKey(it) }
+            row.split("\n").mapNotNull { if (it.isBlank()) null else it.splitOnWhitespace() }
         }
     }
 
-    private fun parseKey(key: String): KeyData? {
-        if (key.isBlank()) return null
-        val split = key.splitOnWhitespace()
-        return if (split.size == 1) split.first().toTextKey()
+    private fun toKey(split: List<String>): KeyData =
+        if (split.size == 1) split.first().toTextKey()
         else split.first().toTextKey(split.drop(1))
-    }
 
     private fun createCacheLambda(layoutName: String, context: Context): (KeyboardParams) -> MutableList<MutableList<KeyData>> {
+        val layout = loadCompiledLayout(layoutName, context)
+        if (layout is CompiledLayout.Json) {
+            val florisKeyData = layout.rows
+            return { params ->
+                florisKeyData.mapTo(mutableListOf()) { row ->
+                    row.mapNotNullTo(mutableListOf()) { it.compute(params) }
+                }
+            }
+        }
+        val simpleKeyData = (layout as CompiledLayout.Simple).rows.map { row -> row.map { toKey(it) } }
+        return { params ->
+            simpleKeyData.mapIndexedTo(mutableListOf()) { i, row ->
+                val newRow = row.toMutableList()
+                if (params.mId.isAlphabetKeyboard
+                        && params.mId.mSubtype.keyboardLayoutSetName.endsWith("+")
+                        && "$layoutName+" ==  params.mId.mSubtype.keyboardLayoutSetName
+                    ) {
+                    params.mLocaleKeyboardInfos.getExtraKeys(i+1)?.let { newRow.addAll(it) }
+                }
+                newRow
+            }
+        }
+    }
+
+    /**
+     *  Returns the parsed layout from the compiled layout cache, or parses the layout and adds it to the cache.
+     *  Layouts from assets only change with app updates, so they are identified by apk update time,
+     *  custom layouts are identified by a digest of their content.
+     */
+    private fun loadCompiledLayout(layoutName: String, context: Context): CompiledLayout {
         val layoutFileName = getLayoutFileName(layoutName, context)
-        val layoutText = if (layoutFileName.startsWith(CUSTOM_LAYOUT_PREFIX)) {
+        val module = serializersModule
+        val customLayoutText = if (layoutFileName.startsWith(CUSTOM_LAYOUT_PREFIX)) {
             try {
                 getCustomLayoutFile(layoutFileName, context).readText()
-            } catch (e: Exception) { // fall back to defaults if for some reason file is broken
+            } catch (e: Exception) {
+                Log.e(TAG, "cannot open layout $layoutName", e)
+                null
+            }
+        } else null
+        val contentKey = if (customLayoutText != null) {
+            val digest = ChecksumCalculator.checksum(customLayoutText.byteInputStream())
+                ?: return parseLayoutText(layoutName, layoutFileName, customLayoutText, context)
+            "$layoutFileName:$digest"
+        } else "$layoutFileName:${getApkUpdateTime(context)}"
+        CompiledLayoutCache.load(context, layoutName, contentKey, module)?.let { return it }
+        val layout = parseLayoutText(layoutName, layoutFileName, customLayoutText, context)
+        CompiledLayoutCache.store(context, layoutName, contentKey, layout, module)
+        return layout
+    }
+
+    private fun parseLayoutText(layoutName: String, layoutFileName: String, customLayoutText: String?, context: Context): CompiledLayout {
+        val layoutText = if (layoutFileName.startsWith(CUSTOM_LAYOUT_PREFIX)) {
+            if (customLayoutText != null) customLayoutText
+            else { // fall back to defaults if for some reason file is broken
                 val name = when {
                     layoutName.contains("functional") -> "functional_keys.json"
                     layoutName.contains("number_row") -> "number_row.txt"
                     layoutName.contains("symbols") -> "symbols.txt"
                     else -> "qwerty.txt"
                 }
-                Log.e(TAG, "cannot open layout $layoutName, falling back to $name", e)
+                Log.i(TAG, "falling back to $name for layout $layoutName")
                 context.assets.open("layouts${File.separator}$name").reader().use { it.readText() }
             }
         } else context.assets.open("layouts${File.separator}$layoutFileName").reader().use { it.readText() }
+        return compileLayout(layoutFileName, layoutText)
+    }
+
+    internal fun compileLayout(layoutFileName: String, layoutText: String): CompiledLayout {
         if (layoutFileName.endsWith(".json") || layoutFileName.startsWith(CUSTOM_LAYOUT_PREFIX)) {
             try {
-                val florisKeyData = parseJsonString(layoutText)
-                return { params ->
-                    florisKeyData.mapTo(mutableListOf()) { row ->
-                        row.mapNotNullTo(mutableListOf()) { it.compute(params) }
-                    }
-                }
+                return CompiledLayout.Json(parseJsonString(layoutText))
             } catch (_: Exception) { }
         }
         // not a json, or invalid json
-        val simpleKeyData = parseSimpleString(layoutText)
-        return { params ->
-            simpleKeyData.mapIndexedTo(mutableListOf()) { i, row ->
-                val newRow = row.toMutableList()
-                if (params.mId.isAlphabetKeyboard
-                        && params.mId.mSubtype.keyboardLayoutSetName.endsWith("+")
-                        && "$layoutName+" ==  params.mId.mSubtype.keyboardLayoutSetName
-                    ) {
-                    params.mLocaleKeyboardInfos.getExtraKeys(i+1)?.let { newRow.addAll(it) }
-                }
-                newRow
-            }
-        }
+        return CompiledLayout.Simple(splitSimpleString(layoutText))
     }
 
+    private fun getApkUpdateTime(context: Context): Long = apkUpdateTime ?: try {
+        context.packageManager.getPackageInfo(context.packageName, 0).lastUpdateTime
+    } catch (e: Exception) {
+        BuildConfig.VERSION_CODE.toLong()
+    }.also { apkUpdateTime = it }
+
     private fun getLayoutName(params: KeyboardParams, context: Context) = when (params.mId.mElementId) {
         KeyboardId.ELEMENT_SYMBOLS -> if (params.mId.locale.script() == ScriptUtils.SCRIPT_ARABIC) LAYOUT_SYMBOLS_ARABIC else LAYOUT_SYMBOLS
         KeyboardId.ELEMENT_SYMBOLS_SHIFTED -> LAYOUT_SYMBOLS_SHIFTED
@@ -158,7 +207,7 @@ object RawKeyboardParser {
             return customFiles.firstOrNull { it.startsWith(layoutName)}
                 ?: if (layoutName.contains("functional")) "functional_keys.json" else "qwerty.txt" // fallback to defaults
         }
-        val assetsFiles by lazy { context.assets.list("layouts")!! }
+        val assetsFiles by lazy { assetLayoutFiles ?: context.assets.list("layouts")!!.also { assetLayoutFiles = it } }
         return if (layoutName in symbolAndNumberLayouts) {
             customFiles.firstOrNull { it.startsWith("$CUSTOM_LAYOUT_PREFIX$layoutName.")}
                 ?: assetsFiles.first { it.startsWith(layoutName) }
@@ -205,4 +254,6 @@ object RawKeyboardParser {
             }
         }
     }
+
+    internal val serializersModule get() = florisJsonConfig.serializersModule
 }
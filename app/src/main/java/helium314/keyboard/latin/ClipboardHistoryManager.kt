@@ -11,8 +11,6 @@ import android.view.View
 import android.view.ViewGroup
 import android.view.inputmethod.EditorInfo
 import androidx.core.view.isGone
-import kotlinx.serialization.encodeToString
-import kotlinx.serialization.json.Json
 import helium314.keyboard.compat.ClipboardManagerCompat
 import helium314.keyboard.keyboard.internal.keyboard_parser.floris.KeyCode
 import helium314.keyboard.latin.common.ColorType
@@ -31,11 +29,12 @@ class ClipboardHistoryManager(
     private lateinit var clipboardManager: ClipboardManager
     private var onHistoryChangeListener: OnHistoryChangeListener? = null
     private var clipboardSuggestionView: View? = null
+    private val store by lazy { getStore(latinIME) }
 
     fun onCreate() {
         clipboardManager = latinIME.getSystemService(Context.CLIPBOARD_SERVICE) as ClipboardManager
         clipboardManager.addPrimaryClipChangedListener(this)
-        if (historyEntries.isEmpty())
+        if (!pinnedClipsLoaded)
             loadPinnedClips()
         if (Settings.readClipboardHistoryEnabled(DeviceProtectedUtils.getSharedPreferences(latinIME)))
             fetchPrimaryClip()
@@ -61,46 +60,48 @@ class ClipboardHistoryManager(
             val content = clipItem.coerceToText(latinIME)
             if (TextUtils.isEmpty(content)) return
 
-            val duplicateEntryIndex = historyEntries.indexOfFirst { it.content.toString() == content.toString() }
-            if (duplicateEntryIndex != -1) {
-                val existingEntry = historyEntries[duplicateEntryIndex]
+            val existingEntry = entriesByContent[content.toString()]
+            if (existingEntry != null) {
                 if (existingEntry.timeStamp == timeStamp) return // nothing to change (may occur frequently starting with API 30)
-                // older entry with the same text already exists, update the timestamp and re-sort the list
+                // older entry with the same text already exists, update the timestamp and move it
+                val from = indexOfEntry(existingEntry)
+                historyEntries.removeAt(from)
                 existingEntry.timeStamp = timeStamp
-                historyEntries.removeAt(duplicateEntryIndex)
-                historyEntries.add(0, existingEntry)
-                sortHistoryEntries()
-                val newIndex = historyEntries.indexOf(existingEntry)
-                onHistoryChangeListener?.onClipboardHistoryEntryMoved(duplicateEntryIndex, newIndex)
+                val to = insertEntry(existingEntry)
+                onHistoryChangeListener?.onClipboardHistoryEntryMoved(from, to)
+                if (existingEntry.isPinned)
+                    store.append(existingEntry.copy())
                 return
             }
-            if (historyEntries.any { it.content.toString() == content.toString() }) return
 
             val entry = ClipboardHistoryEntry(timeStamp, content)
-            historyEntries.add(entry)
-            sortHistoryEntries()
-            val at = historyEntries.indexOf(entry)
+            entriesByContent[content.toString()] = entry
+            unpinnedBytes += entryBytes(entry)
+            val at = insertEntry(entry)
             onHistoryChangeListener?.onClipboardHistoryEntryAdded(at)
+            trimHistory()
         }
     }
 
     fun toggleClipPinned(ts: Long) {
         val from = historyEntries.indexOfFirst { it.timeStamp == ts }
-        val historyEntry = historyEntries[from].apply {
+        val historyEntry = historyEntries.removeAt(from).apply {
             timeStamp = System.currentTimeMillis()
             isPinned = !isPinned
         }
-        sortHistoryEntries()
-        val to = historyEntries.indexOf(historyEntry)
+        unpinnedBytes += if (historyEntry.isPinned) -entryBytes(historyEntry) else entryBytes(historyEntry)
+        val to = insertEntry(historyEntry)
         onHistoryChangeListener?.onClipboardHistoryEntryMoved(from, to)
-        savePinnedClips()
+        store.append(historyEntry.copy())
+        if (!historyEntry.isPinned)
+            trimHistory()
     }
 
     fun clearHistory() {
         ClipboardManagerCompat.clearPrimaryClip(clipboardManager)
         val pos = historyEntries.indexOfFirst { !it.isPinned }
         val count = historyEntries.count { !it.isPinned }
-        historyEntries.removeAll { !it.isPinned }
+        removeUnpinnedEntries { true }
         if (onHistoryChangeListener != null) {
             onHistoryChangeListener?.onClipboardHistoryEntriesRemoved(pos, count)
         }
@@ -111,11 +112,52 @@ class ClipboardHistoryManager(
 
     fun removeEntry(index: Int) {
         if (canRemove(index))
-            historyEntries.removeAt(index)
+            forgetEntry(historyEntries.removeAt(index))
     }
 
-    private fun sortHistoryEntries() {
-        historyEntries.sort()
+    /** Inserts [entry] at its sorted position and returns that position. */
+    private fun insertEntry(entry: ClipboardHistoryEntry): Int {
+        val searchResult = historyEntries.binarySearch(entry)
+        val at = if (searchResult < 0) -searchResult - 1 else searchResult
+        historyEntries.add(at, entry)
+        return at
+    }
+
+    private fun indexOfEntry(entry: ClipboardHistoryEntry): Int {
+        val searchResult = historyEntries.binarySearch(entry)
+        // entries with equal pin state and timestamp can't be told apart by binary search
+        if (searchResult >= 0 && historyEntries[searchResult] === entry) return searchResult
+        return historyEntries.indexOfFirst { it === entry }
+    }
+
+    private fun forgetEntry(entry: ClipboardHistoryEntry) {
+        entriesByContent.remove(entry.content.toString())
+        if (!entry.isPinned)
+            unpinnedBytes -= entryBytes(entry)
+    }
+
+    private fun removeUnpinnedEntries(predicate: (ClipboardHistoryEntry) -> Boolean) {
+        historyEntries.removeAll {
+            val remove = !it.isPinned && predicate(it)
+            if (remove) forgetEntry(it)
+            remove
+        }
+    }
+
+    // remove the oldest unpinned entries if there are too many, but always keep the most recent one
+    private fun trimHistory() {
+        val settings = latinIME.mSettings.current ?: return
+        val maxEntries = settings.mClipboardHistoryMaxEntries
+        val maxBytes = settings.mClipboardHistoryMaxBytes
+        var unpinnedCount = historyEntries.size - historyEntries.indexOfFirst { !it.isPinned }.let {
+            if (it == -1) historyEntries.size else it
+        }
+        while (unpinnedCount > 1 && ((maxEntries > 0 && unpinnedCount > maxEntries) || unpinnedBytes > maxBytes)) {
+            val index = historyEntries.lastIndex // unpinned entries are at the end, oldest last
+            forgetEntry(historyEntries.removeAt(index))
+            unpinnedCount--
+            onHistoryChangeListener?.onClipboardHistoryEntriesRemoved(index, 1)
+        }
     }
 
     private fun checkClipRetentionElapsed() {
@@ -123,7 +165,7 @@ class ClipboardHistoryManager(
         if (mins <= 0) return // No retention limit
         val maxClipRetentionTime = mins * 60 * 1000L
         val now = System.currentTimeMillis()
-        historyEntries.removeAll { !it.isPinned && (now - it.timeStamp) > maxClipRetentionTime }
+        removeUnpinnedEntries { (now - it.timeStamp) > maxClipRetentionTime }
     }
 
     // We do not want to update history while user is visualizing it, so we check retention only
@@ -151,25 +193,29 @@ class ClipboardHistoryManager(
         return InputTypeUtils.isPasswordInputType(inputType)
     }
 
-    // pinned clips are stored in default shared preferences, not in device protected preferences!
+    // pinned clips are stored in credential protected storage, and read in background
     private fun loadPinnedClips() {
-        val pinnedClipString = Settings.readPinnedClipString(latinIME)
-        if (pinnedClipString.isEmpty()) return
-        val pinnedClips: List<ClipboardHistoryEntry> = Json.decodeFromString(pinnedClipString)
-        historyEntries.addAll(pinnedClips)
-        sortHistoryEntries()
-        if (onHistoryChangeListener != null) {
-            pinnedClips.forEach {
-                onHistoryChangeListener?.onClipboardHistoryEntryAdded(historyEntries.indexOf(it))
+        pinnedClipsLoaded = store.load { pinnedClips ->
+            pinnedClips.forEach { pinned ->
+                val existing = entriesByContent[pinned.content.toString()]
+                if (existing != null) {
+                    // copied again before loading finished, keep it but take the pinned state
+                    if (existing.isPinned) return@forEach
+                    val from = indexOfEntry(existing)
+                    historyEntries.removeAt(from)
+                    unpinnedBytes -= entryBytes(existing)
+                    existing.isPinned = true
+                    existing.timeStamp = maxOf(existing.timeStamp, pinned.timeStamp)
+                    onHistoryChangeListener?.onClipboardHistoryEntryMoved(from, insertEntry(existing))
+                    store.append(existing.copy())
+                    return@forEach
+                }
+                entriesByContent[pinned.content.toString()] = pinned
+                onHistoryChangeListener?.onClipboardHistoryEntryAdded(insertEntry(pinned))
             }
         }
     }
 
-    private fun savePinnedClips() {
-        val pinnedClips = Json.encodeToString(historyEntries.filter { it.isPinned })
-        Settings.writePinnedClipString(latinIME, pinnedClips)
-    }
-
     interface OnHistoryChangeListener {
         fun onClipboardHistoryEntryAdded(at: Int)
         fun onClipboardHistoryEntriesRemoved(pos: Int, count: Int)
@@ -235,7 +281,37 @@ class ClipboardHistoryManager(
     companion object {
         // store pinned clips in companion object so they survive a keyboard switch (which destroys the current instance)
         private val historyEntries: MutableList<ClipboardHistoryEntry> = ArrayList()
+        // index for finding duplicates without going through the whole history, keyed by content
+        private val entriesByContent = HashMap<String, ClipboardHistoryEntry>()
+        private var unpinnedBytes = 0L
+        private var pinnedClipsLoaded = false
+        private var sharedStore: ClipboardHistoryStore? = null
         private var dontShowCurrentSuggestion: Boolean = false
         const val RECENT_TIME_MILLIS = 3 * 60 * 1000L // 3 minutes (for clipboard suggestions)
+
+        // size in UTF-8, without encoding the content
+        private fun entryBytes(entry: ClipboardHistoryEntry): Long {
+            val content = entry.content
+            var bytes = 0L
+            var i = 0
+            while (i < content.length) {
+                val c = content[i]
+                bytes += when {
+                    c.code < 0x80 -> 1
+                    c.code < 0x800 -> 2
+                    Character.isHighSurrogate(c) && i + 1 < content.length && Character.isLowSurrogate(content[i + 1]) -> {
+                        i++
+                        4
+                    }
+                    else -> 3
+                }
+                i++
+            }
+            return bytes
+        }
+
+        // single store instance, so all writes go through the same queue
+        private fun getStore(context: Context): ClipboardHistoryStore =
+            sharedStore ?: ClipboardHistoryStore(context).also { sharedStore = it }
     }
 }
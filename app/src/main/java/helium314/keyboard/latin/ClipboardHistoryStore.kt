@@ -0,0 +1,152 @@
+// SPDX-License-Identifier: GPL-3.0-only
+
+package helium314.keyboard.latin
+
+import android.content.Context
+import android.os.Handler
+import android.os.Looper
+import androidx.core.os.UserManagerCompat
+import helium314.keyboard.latin.settings.Settings
+import helium314.keyboard.latin.utils.ExecutorUtils
+import helium314.keyboard.latin.utils.Log
+import kotlinx.serialization.encodeToString
+import kotlinx.serialization.json.Json
+import java.io.File
+import java.io.IOException
+
+/**
+ * File store for pinned clipboard entries. Each pinned change is appended as one json line, and the
+ * last line for some content wins. Unpinning rewrites the file without the entry, so like before,
+ * unpinned entries are never written to disk.
+ * All file access happens on the background executor, in the order the changes were made.
+ */
+class ClipboardHistoryStore(context: Context) {
+    private val appContext = context.applicationContext
+    private val file = File(appContext.filesDir, FILE_NAME)
+    private val pending = ArrayList<ClipboardHistoryEntry>()
+    private val fileLock = Any()
+    private var lineCount = 0
+    // content of the entries that are pinned according to the file
+    private val liveContents = HashSet<String>()
+
+    /**
+     * Reads the pinned entries in background and provides them to [onLoaded] on the main thread.
+     * Returns false if the entries can't be read yet.
+     */
+    fun load(onLoaded: (List<ClipboardHistoryEntry>) -> Unit): Boolean {
+        // pinned clips are in credential protected storage, they are not available before first unlock
+        if (!UserManagerCompat.isUserUnlocked(appContext)) return false
+        ExecutorUtils.getBackgroundExecutor(ExecutorUtils.KEYBOARD).execute {
+            val entries = synchronized(fileLock) { readEntries() }
+            Handler(Looper.getMainLooper()).post { onLoaded(entries) }
+        }
+        return true
+    }
+
+    /**
+     * Records the current state of [entry], the entry must not be modified afterwards.
+     * If it's not pinned, it's removed from the file.
+     */
+    fun append(entry: ClipboardHistoryEntry) {
+        synchronized(pending) { pending.add(entry) }
+        ExecutorUtils.getBackgroundExecutor(ExecutorUtils.KEYBOARD).execute(::writePending)
+    }
+
+    private fun writePending() {
+        if (!UserManagerCompat.isUserUnlocked(appContext)) return
+        synchronized(fileLock) {
+            val entries = synchronized(pending) { ArrayList(pending).also { pending.clear() } }
+            if (entries.isEmpty()) return // already written by a previous task
+            try {
+                if (entries.any { !it.isPinned }) {
+                    // don't leave the content of unpinned entries in the file until it's compacted
+                    compact(entries)
+                    return
+                }
+                file.appendText(entries.joinToString("") { Json.encodeToString(it) + "\n" })
+                lineCount += entries.size
+                entries.forEach { liveContents.add(it.content.toString()) }
+                if (lineCount > 2 * liveContents.size + MIN_LINES_BEFORE_COMPACTING)
+                    compact(emptyList())
+            } catch (e: IOException) {
+                Log.w(TAG, "could not write pinned clips", e)
+            }
+        }
+    }
+
+    private fun readEntries(): List<ClipboardHistoryEntry> {
+        val entries = LinkedHashMap<String, ClipboardHistoryEntry>()
+        migratePinnedClipsFromPreferences(entries)
+        if (file.exists()) {
+            try {
+                file.forEachLine { line ->
+                    if (line.isBlank()) return@forEachLine
+                    val entry = try { Json.decodeFromString<ClipboardHistoryEntry>(line) }
+                        catch (e: IllegalArgumentException) { return@forEachLine } // incomplete last line
+                    lineCount++
+                    if (entry.isPinned) entries[entry.content.toString()] = entry
+                    else entries.remove(entry.content.toString())
+                }
+            } catch (e: IOException) {
+                Log.w(TAG, "could not read pinned clips", e)
+            }
+        }
+        val result = entries.values.toList()
+        if (lineCount > result.size) writeAll(result)
+        else result.forEach { liveContents.add(it.content.toString()) }
+        return result
+    }
+
+    // pinned clips used to be stored as a single json string in default shared preferences
+    private fun migratePinnedClipsFromPreferences(entries: MutableMap<String, ClipboardHistoryEntry>) {
+        val pinnedClipString = Settings.readPinnedClipString(appContext)
+        if (pinnedClipString.isEmpty()) return
+        try {
+            val pinnedClips: List<ClipboardHistoryEntry> = Json.decodeFromString(pinnedClipString)
+            pinnedClips.forEach { entries[it.content.toString()] = it }
+            lineCount += pinnedClips.size + 1 // make sure they end up in the file
+        } catch (e: IllegalArgumentException) {
+            Log.w(TAG, "could not read pinned clips from preferences", e)
+        }
+        Settings.removePinnedClipString(appContext)
+    }
+
+    /** Rewrites the file with only the pinned entries, after applying the [changes]. */
+    private fun compact(changes: List<ClipboardHistoryEntry>) {
+        val live = LinkedHashMap<String, ClipboardHistoryEntry>()
+        val apply = { entry: ClipboardHistoryEntry ->
+            if (entry.isPinned) live[entry.content.toString()] = entry
+            else live.remove(entry.content.toString())
+        }
+        if (file.exists()) {
+            file.forEachLine { line ->
+                if (line.isBlank()) return@forEachLine
+                val entry = try { Json.decodeFromString<ClipboardHistoryEntry>(line) }
+                    catch (e: IllegalArgumentException) { return@forEachLine }
+                apply(entry)
+            }
+        }
+        changes.forEach(apply)
+        writeAll(live.values.toList())
+    }
+
+    private fun writeAll(entries: List<ClipboardHistoryEntry>) {
+        val tmp = File(file.path + ".tmp")
+        try {
+            tmp.writeText(entries.joinToString("") { Json.encodeToString(it) + "\n" })
+            if (!tmp.renameTo(file)) throw IOException("could not rename ${tmp.name}")
+            lineCount = entries.size
+            liveContents.clear()
+            entries.forEach { liveContents.add(it.content.toString()) }
+        } catch (e: IOException) {
+            Log.w(TAG, "could not compact pinned clips", e)
+            tmp.delete()
+        }
+    }
+
+    companion object {
+        private const val TAG = "ClipboardHistoryStore"
+        const val FILE_NAME = "pinned_clips.jsonl"
+        private const val MIN_LINES_BEFORE_COMPACTING = 50
+    }
+}
@@ -18,17 +18,22 @@ import androidx.annotation.Nullable;
 import com.android.inputmethod.latin.BinaryDictionary;
 
 import helium314.keyboard.latin.ContactsManager.ContactsChangedListener;
+import helium314.keyboard.latin.ContactsManager.RankedContact;
+import helium314.keyboard.latin.ContactsSyncState.TrackedContact;
 import helium314.keyboard.latin.common.StringUtils;
 import helium314.keyboard.latin.permissions.PermissionsUtil;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.Locale;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class ContactsBinaryDictionary extends ExpandableBinaryDictionary
         implements ContactsChangedListener {
     private static final String TAG = ContactsBinaryDictionary.class.getSimpleName();
     private static final String NAME = "contacts";
+    private static final String SYNC_STATE_FILE_EXTENSION = ".sync";
 
     private static final boolean DEBUG = false;
     private static final boolean DEBUG_DUMP = false;
@@ -39,10 +44,25 @@ public class ContactsBinaryDictionary extends ExpandableBinaryDictionary
     private final boolean mUseFirstLastBigrams;
     private final ContactsManager mContactsManager;
 
+    /**
+     * The contacts in the dictionary and the time they were synced, stored next to the dictionary.
+     * Only accessed with the write lock.
+     */
+    private final File mSyncStateFile;
+    @Nullable private ContactsSyncState mSyncState;
+    private final AtomicBoolean mIsSyncPending = new AtomicBoolean(false);
+
+    private interface NameEntryConsumer {
+        /** ngramContext is null if no n-gram entry should be used for the word. */
+        void accept(String word, @Nullable NgramContext ngramContext);
+    }
+
     protected ContactsBinaryDictionary(final Context context, final Locale locale,
             final File dictFile, final String name) {
         super(context, getDictName(name, locale, dictFile), locale, Dictionary.TYPE_CONTACTS,
                 dictFile);
+        mSyncStateFile = new File(getDictFile(context, getDictName(name, locale, dictFile), dictFile).getPath()
+                + SYNC_STATE_FILE_EXTENSION);
         mUseFirstLastBigrams = ContactsDictionaryUtils.useFirstLastBigramsForLocale(locale);
         mContactsManager = new ContactsManager(context);
         mContactsManager.registerForUpdates(this /* listener */);
@@ -67,36 +87,150 @@ public class ContactsBinaryDictionary extends ExpandableBinaryDictionary
      */
     @Override
     public void loadInitialContentsLocked() {
-        loadDictionaryForUriLocked(ContactsContract.Profile.CONTENT_URI);
+        // contacts changed while loading are synced again on the next change
+        final ContactsSyncState syncState = new ContactsSyncState(System.currentTimeMillis());
+        loadDictionaryForUriLocked(ContactsContract.Profile.CONTENT_URI, syncState);
         // TODO: Switch this URL to the newer ContactsContract too
-        loadDictionaryForUriLocked(Contacts.CONTENT_URI);
+        loadDictionaryForUriLocked(Contacts.CONTENT_URI, syncState);
+        // the sync state must never describe names that are not in the dictionary file yet
+        getBinaryDictionary().flushWithGCIfHasUpdated();
+        syncState.save(mSyncStateFile);
+        mSyncState = syncState;
     }
 
     /**
      * Loads data within content providers to the dictionary.
      */
-    private void loadDictionaryForUriLocked(final Uri uri) {
+    private void loadDictionaryForUriLocked(final Uri uri, final ContactsSyncState syncState) {
         if (!PermissionsUtil.checkAllPermissionsGranted(
                 mContext, Manifest.permission.READ_CONTACTS)) {
             Log.i(TAG, "No permission to read contacts. Not loading the Dictionary.");
         }
 
-        final ArrayList<String> validNames = mContactsManager.getValidNames(uri);
-        for (final String name : validNames) {
+        final int[] maxTimesContacted = new int[1];
+        final ArrayList<RankedContact> validContacts = mContactsManager.getValidContacts(uri, maxTimesContacted);
+        // the profile is not part of contacts updates, so it must never be removed from the dictionary
+        final boolean isProfile = !uri.equals(Contacts.CONTENT_URI);
+        final HashSet<String> addedNames = new HashSet<>();
+        for (final RankedContact contact : validContacts) {
+            if (addedNames.add(contact.mName)) {
+                addNameLocked(contact.mName);
+            }
+            // every contact is tracked, so the name stays while any of them exists
+            syncState.put(contact.mId, contact.mName, isProfile ? Float.MAX_VALUE : contact.getAffinity());
+        }
+        if (!isProfile) {
+            syncState.setMaxTimesContacted(maxTimesContacted[0]);
+        }
+    }
+
+    /**
+     * Adds and removes the names of contacts changed since the last sync, without recreating the
+     * dictionary. Falls back to recreating if the contacts in the dictionary are not known, or
+     * deleted contacts may not be available any more.
+     */
+    private void syncChangedContactsLocked() {
+        if (!PermissionsUtil.checkAllPermissionsGranted(
+                mContext, Manifest.permission.READ_CONTACTS)) {
+            Log.i(TAG, "No permission to read contacts. Not syncing the Dictionary.");
+            return;
+        }
+        if (mSyncState == null) {
+            mSyncState = ContactsSyncState.load(mSyncStateFile);
+        }
+        final ContactsSyncState syncState = mSyncState;
+        final long syncTime = System.currentTimeMillis();
+        if (syncState == null || !syncState.canSyncChangesAt(syncTime)) {
+            Log.i(TAG, "Contacts can't be synced incrementally, recreating the Dictionary.");
+            setNeedsToRecreate();
+            return;
+        }
+        final ArrayList<Long> deletedIds = mContactsManager.getContactIdsDeletedSince(syncState.getCheckpoint());
+        final ArrayList<RankedContact> updatedContacts = mContactsManager.getContactsUpdatedSince(syncState.getCheckpoint());
+        if (deletedIds == null || updatedContacts == null) {
+            return; // try again on the next change
+        }
+
+        final ContactsSyncState.Changes changes = syncState.applyChanges(deletedIds, updatedContacts,
+                syncTime, ContactsManager.MAX_CONTACT_NAMES);
+        if (!changes.mRemovedNames.isEmpty()) {
+            removeNamesLocked(changes.mRemovedNames, syncState);
+        }
+        for (final String name : changes.mAddedNames) {
             addNameLocked(name);
         }
-        if (uri.equals(Contacts.CONTENT_URI)) {
-            // Since we were able to add content successfully, update the local
-            // state of the manager.
-            mContactsManager.updateLocalState(validNames);
+        if (DEBUG) {
+            Log.d(TAG, "synced contacts: " + changes.mAddedNames.size() + " added, "
+                    + changes.mRemovedNames.size() + " removed");
+        }
+        getBinaryDictionary().flushWithGCIfHasUpdated();
+        syncState.save(mSyncStateFile);
+        if (!changes.isEmpty()) {
+            onContentsChangedLocked();
         }
     }
 
+    /**
+     * Removes the words and n-grams of the given names, unless they are also part of a name still
+     * in the sync state.
+     */
+    private void removeNamesLocked(final ArrayList<String> names, final ContactsSyncState syncState) {
+        final HashSet<String> remainingWords = new HashSet<>();
+        final HashSet<String> remainingNgrams = new HashSet<>();
+        for (final TrackedContact contact : syncState.getContacts()) {
+            forEachWordOfName(contact.mName, (word, ngramContext) -> {
+                remainingWords.add(word);
+                if (ngramContext != null) {
+                    remainingNgrams.add(getNgramKey(ngramContext, word));
+                }
+            });
+        }
+        final BinaryDictionary binaryDictionary = getBinaryDictionary();
+        for (final String name : names) {
+            forEachWordOfName(name, (word, ngramContext) -> {
+                if (ngramContext != null && !remainingNgrams.contains(getNgramKey(ngramContext, word))) {
+                    binaryDictionary.removeNgramEntry(ngramContext, word);
+                }
+                if (remainingWords.add(word)) { // also avoids removing the same word twice
+                    binaryDictionary.removeUnigramEntry(word);
+                }
+            });
+        }
+    }
+
+    private static String getNgramKey(final NgramContext ngramContext, final String word) {
+        return ngramContext.extractPrevWordsContext() + NgramContext.CONTEXT_SEPARATOR + word;
+    }
+
     /**
      * Adds the words in a name (e.g., firstname/lastname) to the binary dictionary along with their
      * bigrams depending on locale.
      */
     private void addNameLocked(final String name) {
+        forEachWordOfName(name, (word, ngramContext) -> {
+            if (DEBUG) {
+                Log.d(TAG, "addName " + name + ", " + word + ", "  + ngramContext);
+            }
+            runGCIfRequiredLocked(true /* mindsBlockByGC */);
+            addUnigramLocked(word, ContactsDictionaryConstants.FREQUENCY_FOR_CONTACTS,
+                    null /* shortcut */, 0 /* shortcutFreq */, false /* isNotAWord */,
+                    false /* isPossiblyOffensive */,
+                    BinaryDictionary.NOT_A_VALID_TIMESTAMP);
+            if (ngramContext != null) {
+                runGCIfRequiredLocked(true /* mindsBlockByGC */);
+                addNgramEntryLocked(ngramContext,
+                        word,
+                        ContactsDictionaryConstants.FREQUENCY_FOR_CONTACTS_BIGRAM,
+                        BinaryDictionary.NOT_A_VALID_TIMESTAMP);
+            }
+        });
+    }
+
+    /**
+     * Splits a name into the words that are added to the dictionary, and provides each word along
+     * with the n-gram context to use for it.
+     */
+    private void forEachWordOfName(final String name, final NameEntryConsumer consumer) {
         int len = StringUtils.codePointCount(name);
         NgramContext ngramContext = NgramContext.getEmptyPrevWordsContext(
                 BinaryDictionary.MAX_PREV_WORD_COUNT_FOR_N_GRAM);
@@ -113,21 +247,7 @@ public class ContactsBinaryDictionary extends ExpandableBinaryDictionary
                 // capitalization of i.
                 final int wordLen = StringUtils.codePointCount(word);
                 if (wordLen <= MAX_WORD_LENGTH && wordLen > 1) {
-                    if (DEBUG) {
-                        Log.d(TAG, "addName " + name + ", " + word + ", "  + ngramContext);
-                    }
-                    runGCIfRequiredLocked(true /* mindsBlockByGC */);
-                    addUnigramLocked(word, ContactsDictionaryConstants.FREQUENCY_FOR_CONTACTS,
-                            null /* shortcut */, 0 /* shortcutFreq */, false /* isNotAWord */,
-                            false /* isPossiblyOffensive */,
-                            BinaryDictionary.NOT_A_VALID_TIMESTAMP);
-                    if (ngramContext.isValid() && mUseFirstLastBigrams) {
-                        runGCIfRequiredLocked(true /* mindsBlockByGC */);
-                        addNgramEntryLocked(ngramContext,
-                                word,
-                                ContactsDictionaryConstants.FREQUENCY_FOR_CONTACTS_BIGRAM,
-                                BinaryDictionary.NOT_A_VALID_TIMESTAMP);
-                    }
+                    consumer.accept(word, ngramContext.isValid() && mUseFirstLastBigrams ? ngramContext : null);
                     ngramContext = ngramContext.getNextNgramContext(
                             new NgramContext.WordInfo(word));
                 }
@@ -137,6 +257,17 @@ public class ContactsBinaryDictionary extends ExpandableBinaryDictionary
 
     @Override
     public void onContactsChange() {
-        setNeedsToRecreate();
+        // a sync looks at all changes since the previous one, so there is no need to queue more than one
+        if (!mIsSyncPending.compareAndSet(false, true)) {
+            return;
+        }
+        reloadDictionaryIfRequired();
+        asyncExecuteTaskWithWriteLock(() -> {
+            mIsSyncPending.set(false);
+            if (getBinaryDictionary() == null) {
+                return;
+            }
+            syncChangedContactsLocked();
+        });
     }
 }
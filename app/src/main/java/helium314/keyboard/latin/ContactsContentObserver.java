@@ -10,7 +10,6 @@ import android.Manifest;
 import android.content.ContentResolver;
 import android.content.Context;
 import android.database.ContentObserver;
-import android.os.SystemClock;
 import android.provider.ContactsContract.Contacts;
 import helium314.keyboard.latin.utils.Log;
 
@@ -19,7 +18,6 @@ import helium314.keyboard.latin.define.DebugFlags;
 import helium314.keyboard.latin.permissions.PermissionsUtil;
 import helium314.keyboard.latin.utils.ExecutorUtils;
 
-import java.util.ArrayList;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
@@ -29,14 +27,12 @@ public class ContactsContentObserver implements Runnable {
     private static final String TAG = "ContactsContentObserver";
 
     private final Context mContext;
-    private final ContactsManager mManager;
     private final AtomicBoolean mRunning = new AtomicBoolean(false);
 
     private ContentObserver mContentObserver;
     private ContactsChangedListener mContactsChangedListener;
 
-    public ContactsContentObserver(final ContactsManager manager, final Context context) {
-        mManager = manager;
+    public ContactsContentObserver(final Context context) {
         mContext = context;
     }
 
@@ -78,46 +74,13 @@ public class ContactsContentObserver implements Runnable {
             }
             return;
         }
-        if (haveContentsChanged()) {
-            if (DebugFlags.DEBUG_ENABLED) {
-                Log.d(TAG, "run() : Contacts have changed. Notifying listeners.");
-            }
-            mContactsChangedListener.onContactsChange();
-        }
-        mRunning.set(false);
-    }
-
-    boolean haveContentsChanged() {
-        if (!PermissionsUtil.checkAllPermissionsGranted(
-                mContext, Manifest.permission.READ_CONTACTS)) {
-            Log.i(TAG, "No permission to read contacts. Marking contacts as not changed.");
-            return false;
-        }
-
-        final long startTime = SystemClock.uptimeMillis();
-        final int contactCount = mManager.getContactCount();
-        if (contactCount > ContactsDictionaryConstants.MAX_CONTACTS_PROVIDER_QUERY_LIMIT) {
-            // If there are too many contacts then return false. In this rare case it is impossible
-            // to include all of them anyways and the cost of rebuilding the dictionary is too high.
-            // TODO: Sort and check only the most recent contacts?
-            return false;
-        }
-        if (contactCount != mManager.getContactCountAtLastRebuild()) {
-            if (DebugFlags.DEBUG_ENABLED) {
-                Log.d(TAG, "haveContentsChanged() : Count changed from "
-                        + mManager.getContactCountAtLastRebuild() + " to " + contactCount);
-            }
-            return true;
-        }
-        final ArrayList<String> names = mManager.getValidNames(Contacts.CONTENT_URI);
-        if (names.hashCode() != mManager.getHashCodeAtLastRebuild()) {
-            return true;
-        }
+        // The listener only looks at contacts changed since its last sync, which is cheap.
+        // It's also fine to receive extraneous onChange events even when no name has changed.
         if (DebugFlags.DEBUG_ENABLED) {
-            Log.d(TAG, "haveContentsChanged() : No change detected in "
-                    + (SystemClock.uptimeMillis() - startTime) + " ms)");
+            Log.d(TAG, "run() : Contacts may have changed. Notifying listeners.");
         }
-        return false;
+        mContactsChangedListener.onContactsChange();
+        mRunning.set(false);
     }
 
     public void unregister() {
@@ -8,6 +8,7 @@ package helium314.keyboard.latin;
 
 import android.provider.BaseColumns;
 import android.provider.ContactsContract.Contacts;
+import android.provider.ContactsContract.DeletedContacts;
 
 /**
  * Constants related to Contacts Content Provider.
@@ -15,7 +16,7 @@ import android.provider.ContactsContract.Contacts;
 public class ContactsDictionaryConstants {
     public static final String[] PROJECTION = { BaseColumns._ID, Contacts.DISPLAY_NAME,
             Contacts.TIMES_CONTACTED, Contacts.LAST_TIME_CONTACTED, Contacts.IN_VISIBLE_GROUP };
-    public static final String[] PROJECTION_ID_ONLY = { BaseColumns._ID };
+    public static final String[] PROJECTION_DELETED = { DeletedContacts.CONTACT_ID };
 
     /**
      * Frequency for contacts information into the dictionary
@@ -23,15 +24,11 @@ public class ContactsDictionaryConstants {
     public static final int FREQUENCY_FOR_CONTACTS = 40;
     public static final int FREQUENCY_FOR_CONTACTS_BIGRAM = 90;
 
-    /**
-     *  Do not attempt to query contacts if there are more than this many entries.
-     */
-    public static final int MAX_CONTACTS_PROVIDER_QUERY_LIMIT = 10000;
-
     /**
      * Index of the column for 'name' in content providers:
      * Contacts & ContactsContract.Profile.
      */
+    public static final int ID_INDEX = 0;
     public static final int NAME_INDEX = 1;
     public static final int TIMES_CONTACTED_INDEX = 2;
     public static final int LAST_TIME_CONTACTED_INDEX = 3;
@@ -11,7 +11,11 @@ import android.database.Cursor;
 import android.database.sqlite.SQLiteException;
 import android.net.Uri;
 import android.provider.ContactsContract.Contacts;
+import android.provider.ContactsContract.DeletedContacts;
 import android.text.TextUtils;
+
+import androidx.annotation.Nullable;
+
 import helium314.keyboard.latin.utils.Log;
 
 import helium314.keyboard.latin.common.Constants;
@@ -21,7 +25,6 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashSet;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Manages all interactions with Contacts DB.
@@ -38,6 +41,7 @@ public class ContactsManager {
     public static final int MAX_CONTACT_NAMES = 200;
 
     protected static class RankedContact {
+        public final long mId;
         public final String mName;
         public final long mLastContactedTime;
         public final int mTimesContacted;
@@ -46,6 +50,8 @@ public class ContactsManager {
         private float mAffinity = 0.0f;
 
         RankedContact(final Cursor cursor) {
+            mId = cursor.getLong(
+                    ContactsDictionaryConstants.ID_INDEX);
             mName = cursor.getString(
                     ContactsDictionaryConstants.NAME_INDEX);
             mTimesContacted = cursor.getInt(
@@ -97,24 +103,12 @@ public class ContactsManager {
         void onContactsChange();
     }
 
-    /**
-     * The number of contacts observed in the most recent instance of
-     * contacts content provider.
-     */
-    private final AtomicInteger mContactCountAtLastRebuild = new AtomicInteger(0);
-
-    /**
-     * The hash code of list of valid contacts names in the most recent dictionary
-     * rebuild.
-     */
-    private final AtomicInteger mHashCodeAtLastRebuild = new AtomicInteger(0);
-
     private final Context mContext;
     private final ContactsContentObserver mObserver;
 
     public ContactsManager(final Context context) {
         mContext = context;
-        mObserver = new ContactsContentObserver(this /* ContactsManager */, context);
+        mObserver = new ContactsContentObserver(context);
     }
 
     // TODO: This was synchronized in previous version. Why?
@@ -122,81 +116,106 @@ public class ContactsManager {
         mObserver.registerObserver(listener);
     }
 
-    public int getContactCountAtLastRebuild() {
-        return mContactCountAtLastRebuild.get();
-    }
-
-    public int getHashCodeAtLastRebuild() {
-        return mHashCodeAtLastRebuild.get();
-    }
-
     /**
-     * Returns all the valid names in the Contacts DB. Callers should also
-     * call {@link #updateLocalState(ArrayList)} after they are done with result
-     * so that the manager can cache local state for determining updates.
+     * Returns the contacts with valid names in the Contacts DB, with at most
+     * {@link #MAX_CONTACT_NAMES} distinct names. All contacts of these names are returned, also
+     * if several contacts have the same name.
+     * Affinity is computed for each contact.
      * <p>
-     * These names are sorted by their affinity to the user, with favorite
+     * These contacts are sorted by their affinity to the user, with favorite
      * contacts appearing first.
+     * @param outMaxTimesContacted the highest times contacted is stored in the first element
      */
-    public ArrayList<String> getValidNames(final Uri uri) {
-        // Check all contacts since it's not possible to find out which names have changed.
-        // This is needed because it's possible to receive extraneous onChange events even when no
-        // name has changed.
-        final Cursor cursor = mContext.getContentResolver().query(uri,
-                ContactsDictionaryConstants.PROJECTION, null, null, null);
+    public ArrayList<RankedContact> getValidContacts(final Uri uri, final int[] outMaxTimesContacted) {
         final ArrayList<RankedContact> contacts = new ArrayList<>();
-        int maxTimesContacted = 0;
-        if (cursor != null) {
-            try {
-                if (cursor.moveToFirst()) {
-                    while (!cursor.isAfterLast()) {
-                        final String name = cursor.getString(
-                                ContactsDictionaryConstants.NAME_INDEX);
-                        if (isValidName(name)) {
-                            final int timesContacted = cursor.getInt(
-                                    ContactsDictionaryConstants.TIMES_CONTACTED_INDEX);
-                            if (timesContacted > maxTimesContacted) {
-                                maxTimesContacted = timesContacted;
-                            }
-                            contacts.add(new RankedContact(cursor));
-                        }
-                        cursor.moveToNext();
-                    }
-                }
-            } finally {
-                cursor.close();
-            }
-        }
+        final int maxTimesContacted = Math.max(0, queryContacts(uri, null, null, contacts, true));
+        outMaxTimesContacted[0] = maxTimesContacted;
         final long currentTime = System.currentTimeMillis();
         for (RankedContact contact : contacts) {
             contact.computeAffinity(maxTimesContacted, currentTime);
         }
         Collections.sort(contacts, new AffinityComparator());
+        // names of the contacts with highest affinity
         final HashSet<String> names = new HashSet<>();
-        for (int i = 0; i < contacts.size() && names.size() < MAX_CONTACT_NAMES; ++i) {
-            names.add(contacts.get(i).mName);
+        final ArrayList<RankedContact> validContacts = new ArrayList<>();
+        for (final RankedContact contact : contacts) {
+            if (names.contains(contact.mName)
+                    || (names.size() < MAX_CONTACT_NAMES && names.add(contact.mName))) {
+                validContacts.add(contact);
+            }
+        }
+        return validContacts;
+    }
+
+    /**
+     * Returns the contacts updated at or after the given time, including contacts whose names
+     * are not valid any more. Affinity is not computed.
+     * @return the contacts, or null if the contacts provider could not be queried
+     */
+    @Nullable
+    public ArrayList<RankedContact> getContactsUpdatedSince(final long timestamp) {
+        final ArrayList<RankedContact> contacts = new ArrayList<>();
+        final int result = queryContacts(Contacts.CONTENT_URI, Contacts.CONTACT_LAST_UPDATED_TIMESTAMP + " >= ?",
+                new String[] { Long.toString(timestamp) }, contacts, false);
+        return result < 0 ? null : contacts;
+    }
+
+    /**
+     * Returns the ids of contacts deleted at or after the given time. The contacts provider only
+     * keeps deleted contacts for {@link DeletedContacts#DAYS_KEPT_MILLISECONDS}.
+     * @return the contact ids, or null if the contacts provider could not be queried
+     */
+    @Nullable
+    public ArrayList<Long> getContactIdsDeletedSince(final long timestamp) {
+        try (Cursor cursor = mContext.getContentResolver().query(DeletedContacts.CONTENT_URI,
+                ContactsDictionaryConstants.PROJECTION_DELETED, DeletedContacts.CONTACT_DELETED_TIMESTAMP + " >= ?",
+                new String[] { Long.toString(timestamp) }, null)
+        ) {
+            if (cursor == null)
+                return null;
+            final ArrayList<Long> ids = new ArrayList<>(cursor.getCount());
+            while (cursor.moveToNext()) {
+                ids.add(cursor.getLong(0));
+            }
+            return ids;
+        } catch (final SQLiteException e) {
+            Log.e(TAG, "SQLiteException in the remote Contacts process.", e);
         }
-        return new ArrayList<>(names);
+        return null;
     }
 
     /**
-     * Returns the number of contacts in contacts content provider.
+     * Adds the contacts matching the selection to outContacts.
+     * @return the highest times contacted of the added contacts, or -1 if the query failed
      */
-    public int getContactCount() {
-        // TODO: consider switching to a rawQuery("select count(*)...") on the database if performance is a bottleneck.
-        try (Cursor cursor = mContext.getContentResolver().query(Contacts.CONTENT_URI,
-                ContactsDictionaryConstants.PROJECTION_ID_ONLY, null, null, null)
+    private int queryContacts(final Uri uri, @Nullable final String selection,
+            @Nullable final String[] selectionArgs, final ArrayList<RankedContact> outContacts,
+            final boolean validNamesOnly) {
+        int maxTimesContacted = 0;
+        try (Cursor cursor = mContext.getContentResolver().query(uri,
+                ContactsDictionaryConstants.PROJECTION, selection, selectionArgs, null)
         ) {
-            if (null == cursor)
-                return 0;
-            return cursor.getCount();
+            if (cursor == null)
+                return -1;
+            while (cursor.moveToNext()) {
+                final String name = cursor.getString(ContactsDictionaryConstants.NAME_INDEX);
+                if (validNamesOnly && !isValidName(name))
+                    continue;
+                final int timesContacted = cursor.getInt(
+                        ContactsDictionaryConstants.TIMES_CONTACTED_INDEX);
+                if (timesContacted > maxTimesContacted) {
+                    maxTimesContacted = timesContacted;
+                }
+                outContacts.add(new RankedContact(cursor));
+            }
         } catch (final SQLiteException e) {
             Log.e(TAG, "SQLiteException in the remote Contacts process.", e);
+            return -1;
         }
-        return 0;
+        return maxTimesContacted;
     }
 
-    private static boolean isValidName(final String name) {
+    public static boolean isValidName(final String name) {
         if (TextUtils.isEmpty(name) || name.indexOf(Constants.CODE_COMMERCIAL_AT) != -1) {
             return false;
         }
@@ -209,15 +228,6 @@ public class ContactsManager {
         return true;
     }
 
-    /**
-     * Updates the local state of the manager. This should be called when the callers
-     * are done with all the updates of the content provider successfully.
-     */
-    public void updateLocalState(final ArrayList<String> names) {
-        mContactCountAtLastRebuild.set(getContactCount());
-        mHashCodeAtLastRebuild.set(names.hashCode());
-    }
-
     /**
      * Performs any necessary cleanup.
      */
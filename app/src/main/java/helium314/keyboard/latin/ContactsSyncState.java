@@ -0,0 +1,229 @@
+// SPDX-License-Identifier: GPL-3.0-only
+
+package helium314.keyboard.latin;
+
+import android.provider.ContactsContract.DeletedContacts;
+
+import androidx.annotation.Nullable;
+
+import helium314.keyboard.latin.ContactsManager.RankedContact;
+import helium314.keyboard.latin.utils.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The contacts that are currently in the contacts dictionary, and the time of the last sync with
+ * the contacts provider. Persisted next to the dictionary, so after a restart only contacts changed
+ * since the checkpoint need to be added or removed.
+ * <p>
+ * All contacts with a name in the dictionary are tracked, also if several have the same name, so
+ * a name is only removed once no contact has it any more.
+ */
+class ContactsSyncState {
+    private static final String TAG = ContactsSyncState.class.getSimpleName();
+    // increase when changing the file format or what is tracked, older states are discarded
+    // version 2: all contacts of a name are tracked
+    private static final int VERSION = 2;
+
+    static class TrackedContact {
+        final String mName;
+        final float mAffinity;
+
+        TrackedContact(final String name, final float affinity) {
+            mName = name;
+            mAffinity = affinity;
+        }
+    }
+
+    /** Names to remove from and add to the dictionary after {@link #applyChanges}. */
+    static class Changes {
+        /** Removed names, the caller must keep words that are still part of a tracked name. */
+        final ArrayList<String> mRemovedNames = new ArrayList<>();
+        final ArrayList<String> mAddedNames = new ArrayList<>();
+
+        boolean isEmpty() {
+            return mRemovedNames.isEmpty() && mAddedNames.isEmpty();
+        }
+    }
+
+    private final HashMap<Long, TrackedContact> mContacts = new HashMap<>();
+    private long mCheckpoint;
+    private int mMaxTimesContacted;
+
+    ContactsSyncState(final long checkpoint) {
+        mCheckpoint = checkpoint;
+    }
+
+    /** Time of the last sync, contacts changed or deleted since then still need to be synced. */
+    long getCheckpoint() {
+        return mCheckpoint;
+    }
+
+    int getMaxTimesContacted() {
+        return mMaxTimesContacted;
+    }
+
+    void setMaxTimesContacted(final int maxTimesContacted) {
+        mMaxTimesContacted = maxTimesContacted;
+    }
+
+    @Nullable
+    TrackedContact get(final long id) {
+        return mContacts.get(id);
+    }
+
+    void put(final long id, final String name, final float affinity) {
+        mContacts.put(id, new TrackedContact(name, affinity));
+    }
+
+    Collection<TrackedContact> getContacts() {
+        return mContacts.values();
+    }
+
+    /**
+     * Whether contacts changed since the checkpoint can be synced at the given time. The contacts
+     * provider only keeps deleted contacts for a while, and the clock may have been changed.
+     */
+    boolean canSyncChangesAt(final long time) {
+        return time >= mCheckpoint && time - mCheckpoint <= DeletedContacts.DAYS_KEPT_MILLISECONDS;
+    }
+
+    /**
+     * Updates the tracked contacts with the contacts deleted and updated since the checkpoint, and
+     * sets the checkpoint to the sync time.
+     * @param maxNameCount the number of names to keep, names with lowest affinity are removed
+     */
+    Changes applyChanges(final List<Long> deletedIds, final List<RankedContact> updatedContacts,
+            final long syncTime, final int maxNameCount) {
+        final Changes changes = new Changes();
+        for (final long id : deletedIds) {
+            final TrackedContact removed = mContacts.remove(id);
+            if (removed != null) {
+                changes.mRemovedNames.add(removed.mName);
+            }
+        }
+        int maxTimesContacted = mMaxTimesContacted;
+        for (final RankedContact contact : updatedContacts) {
+            maxTimesContacted = Math.max(maxTimesContacted, contact.mTimesContacted);
+        }
+        final ArrayList<Long> addedIds = new ArrayList<>();
+        for (final RankedContact contact : updatedContacts) {
+            final TrackedContact previous = mContacts.remove(contact.mId);
+            final boolean nameChanged = previous == null || !previous.mName.equals(contact.mName);
+            if (previous != null && nameChanged) {
+                changes.mRemovedNames.add(previous.mName);
+            }
+            if (!ContactsManager.isValidName(contact.mName)) {
+                continue;
+            }
+            contact.computeAffinity(maxTimesContacted, syncTime);
+            put(contact.mId, contact.mName, contact.getAffinity());
+            if (nameChanged) {
+                addedIds.add(contact.mId);
+            }
+        }
+        for (final TrackedContact evicted : trimToNameCount(maxNameCount)) {
+            changes.mRemovedNames.add(evicted.mName);
+        }
+        for (final long id : addedIds) {
+            final TrackedContact added = mContacts.get(id);
+            if (added != null) { // null if evicted right away
+                changes.mAddedNames.add(added.mName);
+            }
+        }
+        mMaxTimesContacted = maxTimesContacted;
+        mCheckpoint = syncTime;
+        return changes;
+    }
+
+    /**
+     * Removes all contacts of the names with lowest affinity until at most maxNameCount names
+     * remain. The affinity of a name is the highest affinity of its contacts.
+     * @return the removed contacts
+     */
+    ArrayList<TrackedContact> trimToNameCount(final int maxNameCount) {
+        final HashMap<String, Float> nameAffinities = new HashMap<>();
+        for (final TrackedContact contact : mContacts.values()) {
+            final Float affinity = nameAffinities.get(contact.mName);
+            if (affinity == null || affinity < contact.mAffinity)
+                nameAffinities.put(contact.mName, contact.mAffinity);
+        }
+        final ArrayList<TrackedContact> removed = new ArrayList<>();
+        while (nameAffinities.size() > maxNameCount) {
+            Map.Entry<String, Float> lowest = null;
+            for (final Map.Entry<String, Float> entry : nameAffinities.entrySet()) {
+                if (lowest == null || entry.getValue() < lowest.getValue())
+                    lowest = entry;
+            }
+            nameAffinities.remove(lowest.getKey());
+            final Iterator<TrackedContact> iterator = mContacts.values().iterator();
+            while (iterator.hasNext()) {
+                final TrackedContact contact = iterator.next();
+                if (contact.mName.equals(lowest.getKey())) {
+                    iterator.remove();
+                    removed.add(contact);
+                }
+            }
+        }
+        return removed;
+    }
+
+    /** Returns the stored state, or null if there is none or it can't be read. */
+    @Nullable
+    static ContactsSyncState load(final File file) {
+        if (!file.exists()) return null;
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (input.readInt() != VERSION) return null;
+            final ContactsSyncState state = new ContactsSyncState(input.readLong());
+            state.mMaxTimesContacted = input.readInt();
+            final int count = input.readInt();
+            for (int i = 0; i < count; i++) {
+                final long id = input.readLong();
+                final float affinity = input.readFloat();
+                state.put(id, input.readUTF(), affinity);
+            }
+            return state;
+        } catch (final IOException e) {
+            Log.w(TAG, "could not read contacts sync state", e);
+            return null;
+        }
+    }
+
+    /** Writes the state, deletes the file if this fails so an outdated state is never used. */
+    void save(final File file) {
+        final File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            output.writeInt(VERSION);
+            output.writeLong(mCheckpoint);
+            output.writeInt(mMaxTimesContacted);
+            output.writeInt(mContacts.size());
+            for (final Map.Entry<Long, TrackedContact> entry : mContacts.entrySet()) {
+                output.writeLong(entry.getKey());
+                output.writeFloat(entry.getValue().mAffinity);
+                output.writeUTF(entry.getValue().mName);
+            }
+        } catch (final IOException e) {
+            Log.w(TAG, "could not write contacts sync state", e);
+            tmp.delete();
+            file.delete();
+            return;
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            file.delete();
+        }
+    }
+}
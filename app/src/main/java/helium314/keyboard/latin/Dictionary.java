@@ -8,6 +8,7 @@ package helium314.keyboard.latin;
 
 import helium314.keyboard.latin.SuggestedWords.SuggestedWordInfo;
 import helium314.keyboard.latin.common.ComposedData;
+import helium314.keyboard.latin.common.PackedWords;
 import helium314.keyboard.latin.settings.SettingsValuesForSuggestion;
 
 import java.util.ArrayList;
@@ -114,6 +115,40 @@ public abstract class Dictionary {
         return NOT_A_PROBABILITY;
     }
 
+    /**
+     * Gets the frequencies of several words, like {@link #getFrequency(String)} for each word.
+     * Dictionaries backed by a native dictionary look up all words in a single call.
+     * @param words the words to get the frequencies of.
+     * @param outFrequencies receives the frequency of each word, must have at least as many
+     * elements as there are words.
+     */
+    public void getFrequencies(final PackedWords words, final int[] outFrequencies) {
+        for (int i = 0; i < words.getWordCount(); i++) {
+            outFrequencies[i] = getFrequency(words.getWord(i));
+        }
+    }
+
+    /**
+     * Checks several words, like {@link #isValidWord(String)} for each word.
+     * @param words the words to check.
+     * @param outIsValid receives whether each word is valid, must have at least as many elements
+     * as there are words.
+     */
+    public void isValidWords(final PackedWords words, final boolean[] outIsValid) {
+        for (int i = 0; i < words.getWordCount(); i++) {
+            outIsValid[i] = isValidWord(words.getWord(i));
+        }
+    }
+
+    /** Implementation of {@link #isValidWords} for dictionaries where words with a frequency are valid. */
+    protected final void isValidWordsByFrequency(final PackedWords words, final boolean[] outIsValid) {
+        final int[] frequencies = new int[words.getWordCount()];
+        getFrequencies(words, frequencies);
+        for (int i = 0; i < frequencies.length; i++) {
+            outIsValid[i] = frequencies[i] != NOT_A_PROBABILITY;
+        }
+    }
+
     /**
      * Get the maximum frequency of the word.
      * @param word the word to get the maximum frequency of.
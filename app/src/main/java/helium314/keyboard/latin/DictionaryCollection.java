@@ -10,9 +10,11 @@ import helium314.keyboard.latin.utils.Log;
 
 import helium314.keyboard.latin.SuggestedWords.SuggestedWordInfo;
 import helium314.keyboard.latin.common.ComposedData;
+import helium314.keyboard.latin.common.PackedWords;
 import helium314.keyboard.latin.settings.SettingsValuesForSuggestion;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Locale;
@@ -89,6 +91,24 @@ public final class DictionaryCollection extends Dictionary {
         return maxFreq;
     }
 
+    @Override
+    public void getFrequencies(final PackedWords words, final int[] outFrequencies) {
+        final int wordCount = words.getWordCount();
+        Arrays.fill(outFrequencies, 0, wordCount, -1);
+        final int[] frequencies = new int[wordCount];
+        for (int i = mDictionaries.size() - 1; i >= 0; --i) {
+            mDictionaries.get(i).getFrequencies(words, frequencies);
+            for (int j = 0; j < wordCount; j++) {
+                outFrequencies[j] = Math.max(frequencies[j], outFrequencies[j]);
+            }
+        }
+    }
+
+    @Override
+    public void isValidWords(final PackedWords words, final boolean[] outIsValid) {
+        isValidWordsByFrequency(words, outIsValid);
+    }
+
     @Override
     public int getMaxFrequencyOfExactMatches(final String word) {
         int maxFreq = -1;
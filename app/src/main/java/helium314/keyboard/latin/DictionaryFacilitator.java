@@ -66,8 +66,36 @@ public interface DictionaryFacilitator {
 
     interface DictionaryInitializationListener {
         void onUpdateMainDictionaryAvailability(boolean isMainDictionaryAvailable);
+
+        /**
+         * Called on the thread writing the dictionary once a user or contacts dictionary was
+         * loaded or has applied changes, so words may be valid or invalid that were not before.
+         */
+        default void onDictionaryContentsChanged() {}
+    }
+
+    interface LateSuggestionsListener {
+        /**
+         * Called on a background thread when suggestions of secondary locales that missed the
+         * deadline of the latest {@link #getSuggestionResults} call allowing late suggestions are
+         * available. They will be
+         * merged into the results when that call is repeated with the same input.
+         */
+        void onLateSuggestionsAvailable();
     }
 
+    /**
+     * Sets the listener for late suggestions. Without a listener, {@link #getSuggestionResults}
+     * always waits for the suggestions of all locales.
+     */
+    void setLateSuggestionsListener(@Nullable final LateSuggestionsListener listener);
+
+    /**
+     * Returns whether the latest {@link #getSuggestionResults} call for typing left out
+     * suggestions of secondary locales that missed the deadline.
+     */
+    boolean isMissingLateSuggestions();
+
     /**
      * Called every time {@link LatinIME} starts on a new text field.
      * <p>
@@ -131,13 +159,21 @@ public interface DictionaryFacilitator {
             final int eventType);
 
     // TODO: Revise the way to fusion suggestion results.
+    /**
+     * @param allowLateSuggestions whether suggestions of secondary locales may be left out if they
+     *     miss the deadline, and be provided in a follow-up call instead. Only for updating the
+     *     suggestion strip, as auto-correction needs to know all locales that contain the word.
+     */
     @NonNull SuggestionResults getSuggestionResults(final ComposedData composedData,
             final NgramContext ngramContext, @NonNull final Keyboard keyboard,
             final SettingsValuesForSuggestion settingsValuesForSuggestion, final int sessionId,
-            final int inputStyle);
+            final int inputStyle, final boolean allowLateSuggestions);
 
     boolean isValidSpellingWord(final String word);
 
+    /** Same as {@link #isValidSpellingWord(String)} for several words, with one lookup per dictionary. */
+    void isValidSpellingWords(final String[] words, final boolean[] outIsValid);
+
     boolean isValidSuggestionWord(final String word);
 
     boolean clearUserHistoryDictionary(final Context context);
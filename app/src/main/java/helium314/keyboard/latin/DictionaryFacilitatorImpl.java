@@ -8,6 +8,8 @@ package helium314.keyboard.latin;
 
 import android.Manifest;
 import android.content.Context;
+import android.os.Build;
+import android.os.SystemClock;
 import android.provider.UserDictionary;
 import android.text.TextUtils;
 
@@ -25,30 +27,39 @@ import helium314.keyboard.latin.NgramContext.WordInfo;
 import helium314.keyboard.latin.SuggestedWords.SuggestedWordInfo;
 import helium314.keyboard.latin.common.ComposedData;
 import helium314.keyboard.latin.common.Constants;
+import helium314.keyboard.latin.common.PackedWords;
 import helium314.keyboard.latin.common.StringUtils;
 import helium314.keyboard.latin.permissions.PermissionsUtil;
 import helium314.keyboard.latin.personalization.UserHistoryDictionary;
 import helium314.keyboard.latin.settings.Settings;
 import helium314.keyboard.latin.settings.SettingsValuesForSuggestion;
 import helium314.keyboard.latin.utils.ExecutorUtils;
+import helium314.keyboard.latin.utils.LatencyTracer;
 import helium314.keyboard.latin.utils.SuggestionResults;
 
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.lang.ref.Reference;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Scanner;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * Facilitates interaction with different kinds of dictionaries. Provides APIs
@@ -64,11 +75,23 @@ public class DictionaryFacilitatorImpl implements DictionaryFacilitator {
     // HACK: This threshold is being used when adding a capitalized entry in the User History
     // dictionary.
     private static final int CAPITALIZED_FORM_MAX_PROBABILITY_FOR_INSERT = 140;
+    // Suggestions of secondary locales are only waited for until this time after the request
+    // started. If they arrive later, they are shown in a follow-up update.
+    private static final long SECONDARY_SUGGESTIONS_DEADLINE_MILLIS = 100;
+    // Marks secondary locale suggestions that were already read by the requesting thread.
+    private static final ArrayList<SuggestedWordInfo> TAKEN = new ArrayList<>();
+    // Dictionary groups of locales that are no longer used are kept loaded for some time, so
+    // switching back and forth between subtypes doesn't need to reload all dictionaries.
+    private static final int MAX_STANDBY_DICTIONARY_GROUPS = 3;
+    private static final long MAX_STANDBY_MAIN_DICTIONARIES_BYTES = 64L * 1024 * 1024;
+    private static final long STANDBY_DICTIONARY_GROUP_EXPIRY_MILLIS = TimeUnit.MINUTES.toMillis(15);
 
     private ArrayList<DictionaryGroup> mDictionaryGroups = new ArrayList<>() {{ add(new DictionaryGroup()); }};
     private volatile CountDownLatch mLatchForWaitingLoadingMainDictionaries = new CountDownLatch(0);
     // To synchronize assigning mDictionaryGroup to ensure closing dictionaries.
     private final Object mLock = new Object();
+    // recently deactivated dictionary groups, oldest first, synchronized using mLock
+    private final LinkedHashMap<Locale, StandbyDictionaryGroup> mStandbyDictionaryGroups = new LinkedHashMap<>();
     // library does not deal well with ngram history for auto-capitalized words, so we adjust the ngram
     // context to store next word suggestions for such cases
     private boolean mTryChangingWords = false;
@@ -80,6 +103,56 @@ public class DictionaryFacilitatorImpl implements DictionaryFacilitator {
     private LruCache<String, Boolean> mValidSpellingWordReadCache;
     private LruCache<String, Boolean> mValidSpellingWordWriteCache;
 
+    @Nullable private LateSuggestionsListener mLateSuggestionsListener;
+    private final AtomicInteger mLateSuggestionsRequestId = new AtomicInteger();
+    private final Object mLateSuggestionsLock = new Object();
+    @Nullable private LateSuggestions mLateSuggestions; // synchronized using mLateSuggestionsLock
+    private volatile boolean mIsMissingLateSuggestions;
+
+    // spell checker lookups are recorded separately, so they don't skew the keystroke latency
+    private final int mSuggestionsLatencyStage;
+
+    /**
+     * Suggestions of secondary locales that missed the deadline of a request, to be used when
+     * the follow-up request for the same input is made.
+     */
+    private static final class LateSuggestions {
+        final int mRequestId;
+        @NonNull final String mTypedWord;
+        @NonNull final NgramContext mNgramContext;
+        final HashMap<Locale, ArrayList<SuggestedWordInfo>> mSuggestions = new HashMap<>();
+
+        LateSuggestions(final int requestId, @NonNull final String typedWord,
+                @NonNull final NgramContext ngramContext) {
+            mRequestId = requestId;
+            mTypedWord = typedWord;
+            mNgramContext = ngramContext;
+        }
+    }
+
+    private static final class StandbyDictionaryGroup {
+        @NonNull final DictionaryGroup mGroup;
+        final long mDeactivationTime;
+        final long mMainDictionariesBytes;
+
+        StandbyDictionaryGroup(@NonNull final DictionaryGroup group) {
+            mGroup = group;
+            mDeactivationTime = SystemClock.uptimeMillis();
+            mMainDictionariesBytes = getMainDictionariesBytes(group.mMainDict);
+        }
+
+        private static long getMainDictionariesBytes(@Nullable final Dictionary dict) {
+            if (dict instanceof ReadOnlyBinaryDictionary)
+                return ((ReadOnlyBinaryDictionary) dict).getLength();
+            if (!(dict instanceof DictionaryCollection)) return 0;
+            long bytes = 0;
+            for (final Dictionary d : ((DictionaryCollection) dict).mDictionaries) {
+                bytes += getMainDictionariesBytes(d);
+            }
+            return bytes;
+        }
+    }
+
     @Override
     public void setValidSpellingWordReadCache(final LruCache<String, Boolean> cache) {
         mValidSpellingWordReadCache = cache;
@@ -113,6 +186,112 @@ public class DictionaryFacilitatorImpl implements DictionaryFacilitator {
         return TextUtils.equals(mDictionaryGroups.get(0).mAccount, account);
     }
 
+    /**
+     * Words removed by the user, stored in a file with one word per line. The file is accessed in
+     * background, one task after another, so loading, appending and rewriting can't interleave.
+     * Words are added and removed in memory right away, removals are done again after loading.
+     */
+    static final class Blacklist {
+        @Nullable private final String mFileName;
+        // concurrent because it's loaded in background
+        private final Set<String> mWords = Collections.newSetFromMap(new ConcurrentHashMap<>());
+        private final ConcurrentLinkedQueue<Runnable> mFileTasks = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean mIsFileTaskScheduled = new AtomicBoolean();
+        private volatile boolean mIsLoaded;
+
+        Blacklist(@Nullable final String fileName) {
+            mFileName = fileName;
+            mIsLoaded = fileName == null;
+        }
+
+        boolean contains(final String word) {
+            return mWords.contains(word);
+        }
+
+        void loadAsync() {
+            executeFileTask(() -> {
+                final File blacklistFile = new File(mFileName);
+                if (!blacklistFile.exists()) {
+                    blacklistFile.getParentFile().mkdirs();
+                } else {
+                    mWords.addAll(readFile());
+                }
+                mIsLoaded = true;
+            });
+        }
+
+        void add(final String word) {
+            if (!mWords.add(word) || mFileName == null)
+                return;
+            executeFileTask(() -> {
+                try (FileOutputStream fos = new FileOutputStream(mFileName, true)) {
+                    fos.write((word + "\n").getBytes(StandardCharsets.UTF_8));
+                } catch (IOException e) {
+                    Log.e(TAG, "Exception while trying to write blacklist", e);
+                }
+            });
+        }
+
+        void remove(final String word) {
+            // if not loaded yet, the word may still be added from the file
+            if ((!mWords.remove(word) && mIsLoaded) || mFileName == null)
+                return;
+            executeFileTask(() -> {
+                mWords.remove(word);
+                final ArrayList<String> words = readFile();
+                if (!words.remove(word))
+                    return;
+                try (FileOutputStream fos = new FileOutputStream(mFileName)) {
+                    for (String entry : words) {
+                        fos.write((entry + "\n").getBytes(StandardCharsets.UTF_8));
+                    }
+                } catch (IOException e) {
+                    Log.e(TAG, "Exception while trying to write blacklist" + mFileName, e);
+                }
+            });
+        }
+
+        private ArrayList<String> readFile() {
+            final ArrayList<String> words = new ArrayList<>();
+            final File blacklistFile = new File(mFileName);
+            if (!blacklistFile.exists()) return words;
+            try (Scanner scanner = new Scanner(blacklistFile, StandardCharsets.UTF_8.name()).useDelimiter("\n")) {
+                while (scanner.hasNext()) {
+                    words.add(scanner.next());
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "Exception while reading blacklist", e);
+            }
+            return words;
+        }
+
+        private void executeFileTask(final Runnable task) {
+            mFileTasks.offer(task);
+            scheduleFileTasks();
+        }
+
+        private void scheduleFileTasks() {
+            if (mIsFileTaskScheduled.compareAndSet(false, true)) {
+                ExecutorUtils.getBackgroundExecutor(ExecutorUtils.KEYBOARD).execute(this::runFileTasks);
+            }
+        }
+
+        private void runFileTasks() {
+            try {
+                Runnable task;
+                while ((task = mFileTasks.poll()) != null) {
+                    task.run();
+                }
+            } finally {
+                mIsFileTaskScheduled.set(false);
+                // continue with tasks added after the last poll
+                if (!mFileTasks.isEmpty()) {
+                    scheduleFileTasks();
+                }
+            }
+        }
+    }
+
     /**
      * A group of dictionaries that work together for a single language.
      */
@@ -137,8 +316,22 @@ public class DictionaryFacilitatorImpl implements DictionaryFacilitator {
         private int mConfidence = 1;
 
         // words cannot be removed from main dictionary, so we use a blacklist instead
-        public String blacklistFileName = null;
-        public Set<String> blacklist = new HashSet<>();
+        // shared when re-using a dictionary group
+        @NonNull public Blacklist blacklist = new Blacklist(null);
+
+        // Lookups with the same session id use the same native traverse session, so they must not
+        // run at the same time. This can happen when a secondary locale lookup missed its deadline
+        // and is still running when the next request starts.
+        private final ConcurrentHashMap<Integer, Object> mSuggestionsLocks = new ConcurrentHashMap<>();
+
+        @NonNull
+        public Object getSuggestionsLock(final int sessionId) {
+            final Object lock = mSuggestionsLocks.get(sessionId);
+            if (lock != null) return lock;
+            final Object newLock = new Object();
+            final Object existingLock = mSuggestionsLocks.putIfAbsent(sessionId, newLock);
+            return existingLock != null ? existingLock : newLock;
+        }
 
         // allow to go above max confidence, for better determination of currently preferred language
         // when decreasing confidence or getting weight factor, limit to maximum
@@ -245,6 +438,12 @@ public class DictionaryFacilitatorImpl implements DictionaryFacilitator {
     }
 
     public DictionaryFacilitatorImpl() {
+        this(false);
+    }
+
+    public DictionaryFacilitatorImpl(final boolean isForSpellChecker) {
+        mSuggestionsLatencyStage = isForSpellChecker
+                ? LatencyTracer.STAGE_SPELL_CHECKER_SUGGESTIONS : LatencyTracer.STAGE_DICTIONARY_SUGGESTIONS;
     }
 
     @Override
@@ -312,6 +511,12 @@ public class DictionaryFacilitatorImpl implements DictionaryFacilitator {
         return dict;
     }
 
+    @Nullable
+    ExpandableBinaryDictionary getSubDictForTests(@NonNull final Locale locale, @NonNull final String dictType) {
+        final DictionaryGroup dictionaryGroup = findDictionaryGroupWithLocale(mDictionaryGroups, locale);
+        return dictionaryGroup == null ? null : dictionaryGroup.getSubDict(dictType);
+    }
+
     @Nullable
     static DictionaryGroup findDictionaryGroupWithLocale(final List<DictionaryGroup> dictionaryGroups,
             @NonNull final Locale locale) {
@@ -352,17 +557,21 @@ public class DictionaryFacilitatorImpl implements DictionaryFacilitator {
         }
 
         // Gather all dictionaries by locale. We may remove some from the list to clean up later.
+        final HashMap<Locale, DictionaryGroup> existingDictionaryGroups = new HashMap<>();
         for (DictionaryGroup dictionaryGroup : mDictionaryGroups) {
-            final ArrayList<String> dictTypeForLocale = new ArrayList<>();
-            existingDictionariesToCleanup.put(dictionaryGroup.mLocale, dictTypeForLocale);
-
-            for (final String dictType : DYNAMIC_DICTIONARY_TYPES) {
-                if (dictionaryGroup.hasDict(dictType, account)) {
-                    dictTypeForLocale.add(dictType);
-                }
-            }
-            if (dictionaryGroup.hasDict(Dictionary.TYPE_MAIN, account)) {
-                dictTypeForLocale.add(Dictionary.TYPE_MAIN);
+            existingDictionaryGroups.put(dictionaryGroup.mLocale, dictionaryGroup);
+            existingDictionariesToCleanup.put(dictionaryGroup.mLocale, getLoadedDictTypes(dictionaryGroup, account));
+        }
+        // recently used dictionary groups can be re-used just like the current ones
+        if (forceReloadMainDictionary) {
+            closeStandbyDictionaryGroups();
+        } else {
+            for (final Locale locale : allLocales) {
+                if (existingDictionaryGroups.containsKey(locale)) continue;
+                final DictionaryGroup standbyGroup = takeStandbyDictionaryGroup(locale, account);
+                if (standbyGroup == null) continue;
+                existingDictionaryGroups.put(locale, standbyGroup);
+                existingDictionariesToCleanup.put(locale, getLoadedDictTypes(standbyGroup, account));
             }
         }
 
@@ -370,7 +579,7 @@ public class DictionaryFacilitatorImpl implements DictionaryFacilitator {
         final ArrayList<DictionaryGroup> newDictionaryGroups = new ArrayList<>(allLocales.size());
         for (Locale locale : allLocales) {
             // get existing dictionary group for new locale
-            final DictionaryGroup oldDictionaryGroupForLocale = findDictionaryGroupWithLocale(mDictionaryGroups, locale);
+            final DictionaryGroup oldDictionaryGroupForLocale = existingDictionaryGroups.get(locale);
             final ArrayList<String> dictTypesToCleanupForLocale = existingDictionariesToCleanup.get(locale);
             final boolean noExistingDictsForThisLocale = (null == oldDictionaryGroupForLocale);
 
@@ -398,6 +607,7 @@ public class DictionaryFacilitatorImpl implements DictionaryFacilitator {
                     subDict = oldDictionaryGroupForLocale.getSubDict(subDictType);
                     dictTypesToCleanupForLocale.remove(subDictType);
                 }
+                subDict.setContentsChangedListener(listener == null ? null : listener::onDictionaryContentsChanged);
                 subDicts.put(subDictType, subDict);
             }
             DictionaryGroup newDictGroup = new DictionaryGroup(locale, mainDict, account, subDicts);
@@ -405,22 +615,17 @@ public class DictionaryFacilitatorImpl implements DictionaryFacilitator {
 
             // load blacklist
             if (noExistingDictsForThisLocale) {
-                newDictGroup.blacklistFileName = context.getFilesDir().getAbsolutePath() + File.separator + "blacklists" + File.separator + locale.toLanguageTag() + ".txt";
-                if (!new File(newDictGroup.blacklistFileName).exists())
-                    new File(context.getFilesDir().getAbsolutePath() + File.separator + "blacklists").mkdirs();
-                newDictGroup.blacklist.addAll(readBlacklistFile(newDictGroup.blacklistFileName));
+                newDictGroup.blacklist = new Blacklist(context.getFilesDir().getAbsolutePath() + File.separator + "blacklists" + File.separator + locale.toLanguageTag() + ".txt");
+                newDictGroup.blacklist.loadAsync();
             } else {
                 // re-use if possible
-                newDictGroup.blacklistFileName = oldDictionaryGroupForLocale.blacklistFileName;
-                newDictGroup.blacklist.addAll(oldDictionaryGroupForLocale.blacklist);
+                newDictGroup.blacklist = oldDictionaryGroupForLocale.blacklist;
             }
         }
 
 
         // Replace Dictionaries.
-        final List<DictionaryGroup> oldDictionaryGroups;
         synchronized (mLock) {
-            oldDictionaryGroups = mDictionaryGroups;
             mDictionaryGroups = newDictionaryGroups;
             if (hasAtLeastOneUninitializedMainDictionary()) {
                 asyncReloadUninitializedMainDictionaries(context, allLocales, listener);
@@ -431,14 +636,26 @@ public class DictionaryFacilitatorImpl implements DictionaryFacilitator {
             listener.onUpdateMainDictionaryAvailability(hasAtLeastOneInitializedMainDictionary());
         }
 
-        // Clean up old dictionaries.
+        // Clean up old dictionaries, or keep them on standby if their locale is not used any more.
+        boolean addedStandbyGroup = false;
         for (final Locale localeToCleanUp : existingDictionariesToCleanup.keySet()) {
             final ArrayList<String> dictTypesToCleanUp = existingDictionariesToCleanup.get(localeToCleanUp);
-            final DictionaryGroup dictionarySetToCleanup = findDictionaryGroupWithLocale(oldDictionaryGroups, localeToCleanUp);
+            final DictionaryGroup dictionarySetToCleanup = existingDictionaryGroups.get(localeToCleanUp);
+            if (!forceReloadMainDictionary && !allLocales.contains(localeToCleanUp) && !dictTypesToCleanUp.isEmpty()) {
+                addStandbyDictionaryGroup(dictionarySetToCleanup);
+                addedStandbyGroup = true;
+                continue;
+            }
             for (final String dictType : dictTypesToCleanUp) {
                 dictionarySetToCleanup.closeDict(dictType);
             }
         }
+        if (addedStandbyGroup) {
+            trimStandbyDictionaryGroups();
+            // groups are only removed when the pool changes, so also check once they should have expired
+            ExecutorUtils.getBackgroundExecutor(ExecutorUtils.KEYBOARD).schedule(this::trimStandbyDictionaryGroups,
+                    STANDBY_DICTIONARY_GROUP_EXPIRY_MILLIS + 1000, TimeUnit.MILLISECONDS);
+        }
 
         if (mValidSpellingWordWriteCache != null) {
             mValidSpellingWordWriteCache.evictAll();
@@ -446,6 +663,92 @@ public class DictionaryFacilitatorImpl implements DictionaryFacilitator {
         if (mValidSpellingWordReadCache != null) {
             mValidSpellingWordReadCache.evictAll();
         }
+        synchronized (mLateSuggestionsLock) {
+            mLateSuggestions = null;
+        }
+    }
+
+    private static ArrayList<String> getLoadedDictTypes(final DictionaryGroup dictionaryGroup, @Nullable final String account) {
+        final ArrayList<String> dictTypes = new ArrayList<>();
+        for (final String dictType : DYNAMIC_DICTIONARY_TYPES) {
+            if (dictionaryGroup.hasDict(dictType, account)) {
+                dictTypes.add(dictType);
+            }
+        }
+        if (dictionaryGroup.hasDict(Dictionary.TYPE_MAIN, account)) {
+            dictTypes.add(Dictionary.TYPE_MAIN);
+        }
+        return dictTypes;
+    }
+
+    private static void closeAllDicts(final DictionaryGroup dictionaryGroup) {
+        for (final String dictType : ALL_DICTIONARY_TYPES) {
+            dictionaryGroup.closeDict(dictType);
+        }
+    }
+
+    private void addStandbyDictionaryGroup(@NonNull final DictionaryGroup dictionaryGroup) {
+        // make sure changes to the dynamic dictionaries are written
+        for (final String dictType : DYNAMIC_DICTIONARY_TYPES) {
+            final Dictionary dict = dictionaryGroup.getDict(dictType);
+            if (dict != null) dict.onFinishInput();
+        }
+        final StandbyDictionaryGroup replaced;
+        synchronized (mLock) {
+            replaced = mStandbyDictionaryGroups.remove(dictionaryGroup.mLocale);
+            mStandbyDictionaryGroups.put(dictionaryGroup.mLocale, new StandbyDictionaryGroup(dictionaryGroup));
+        }
+        if (replaced != null) closeAllDicts(replaced.mGroup);
+    }
+
+    @Nullable
+    private DictionaryGroup takeStandbyDictionaryGroup(@NonNull final Locale locale, @Nullable final String account) {
+        final StandbyDictionaryGroup standbyGroup;
+        synchronized (mLock) {
+            standbyGroup = mStandbyDictionaryGroups.remove(locale);
+        }
+        if (standbyGroup == null) return null;
+        if (TextUtils.equals(account, standbyGroup.mGroup.mAccount))
+            return standbyGroup.mGroup;
+        closeAllDicts(standbyGroup.mGroup);
+        return null;
+    }
+
+    // remove expired groups, and the oldest groups if there are too many or they are too large
+    private void trimStandbyDictionaryGroups() {
+        final ArrayList<DictionaryGroup> groupsToClose = new ArrayList<>();
+        synchronized (mLock) {
+            final long now = SystemClock.uptimeMillis();
+            long totalBytes = 0;
+            for (final StandbyDictionaryGroup standbyGroup : mStandbyDictionaryGroups.values()) {
+                totalBytes += standbyGroup.mMainDictionariesBytes;
+            }
+            final Iterator<StandbyDictionaryGroup> iterator = mStandbyDictionaryGroups.values().iterator();
+            while (iterator.hasNext()) {
+                final StandbyDictionaryGroup standbyGroup = iterator.next();
+                if (now - standbyGroup.mDeactivationTime < STANDBY_DICTIONARY_GROUP_EXPIRY_MILLIS
+                        && mStandbyDictionaryGroups.size() <= MAX_STANDBY_DICTIONARY_GROUPS
+                        && totalBytes <= MAX_STANDBY_MAIN_DICTIONARIES_BYTES)
+                    break; // all following groups are newer
+                iterator.remove();
+                totalBytes -= standbyGroup.mMainDictionariesBytes;
+                groupsToClose.add(standbyGroup.mGroup);
+            }
+        }
+        for (final DictionaryGroup dictionaryGroup : groupsToClose) {
+            closeAllDicts(dictionaryGroup);
+        }
+    }
+
+    private void closeStandbyDictionaryGroups() {
+        final ArrayList<StandbyDictionaryGroup> groupsToClose;
+        synchronized (mLock) {
+            groupsToClose = new ArrayList<>(mStandbyDictionaryGroups.values());
+            mStandbyDictionaryGroups.clear();
+        }
+        for (final StandbyDictionaryGroup standbyGroup : groupsToClose) {
+            closeAllDicts(standbyGroup.mGroup);
+        }
     }
 
     private void asyncReloadUninitializedMainDictionaries(final Context context,
@@ -491,6 +794,12 @@ public class DictionaryFacilitatorImpl implements DictionaryFacilitator {
                 }
             }
         }
+        if (mValidSpellingWordWriteCache != null) {
+            mValidSpellingWordWriteCache.evictAll();
+        }
+        if (mValidSpellingWordReadCache != null) {
+            mValidSpellingWordReadCache.evictAll();
+        }
         if (listener != null) {
             listener.onUpdateMainDictionaryAvailability(hasAtLeastOneInitializedMainDictionary());
         }
@@ -505,10 +814,9 @@ public class DictionaryFacilitatorImpl implements DictionaryFacilitator {
             mDictionaryGroups.add(new DictionaryGroup());
         }
         for (DictionaryGroup dictionaryGroup : dictionaryGroupsToClose) {
-            for (final String dictType : ALL_DICTIONARY_TYPES) {
-                dictionaryGroup.closeDict(dictType);
-            }
+            closeAllDicts(dictionaryGroup);
         }
+        closeStandbyDictionaryGroups();
     }
 
     // The main dictionaries are loaded asynchronously.  Don't cache the return value
@@ -574,8 +882,7 @@ public class DictionaryFacilitatorImpl implements DictionaryFacilitator {
 
             // remove manually entered blacklisted words from blacklist
             for (DictionaryGroup dictionaryGroup : mDictionaryGroups) {
-                if (dictionaryGroup.blacklist.remove(currentWord))
-                    removeWordFromBlacklistFile(currentWord, dictionaryGroup.blacklistFileName);
+                dictionaryGroup.blacklist.remove(currentWord);
             }
         }
     }
@@ -774,32 +1081,69 @@ public class DictionaryFacilitatorImpl implements DictionaryFacilitator {
         putWordIntoValidSpellingWordCache("unlearnFromUserHistory", word.toLowerCase());
     }
 
+    @Override
+    public void setLateSuggestionsListener(@Nullable final LateSuggestionsListener listener) {
+        mLateSuggestionsListener = listener;
+    }
+
+    @Override
+    public boolean isMissingLateSuggestions() {
+        return mIsMissingLateSuggestions;
+    }
+
     // TODO: Revise the way to fusion suggestion results.
     @Override
-    @SuppressWarnings("unchecked")
     @NonNull public SuggestionResults getSuggestionResults(ComposedData composedData,
             NgramContext ngramContext, @NonNull final Keyboard keyboard,
             SettingsValuesForSuggestion settingsValuesForSuggestion, int sessionId,
-            int inputStyle) {
-        long proximityInfoHandle = keyboard.getProximityInfo().getNativeProximityInfo();
+            int inputStyle, boolean allowLateSuggestions) {
+        final long deadline = SystemClock.uptimeMillis() + SECONDARY_SUGGESTIONS_DEADLINE_MILLIS;
+        final List<DictionaryGroup> dictionaryGroups = mDictionaryGroups;
+        // the handle is released when the proximity info is finalized, so the keyboard must be
+        // kept reachable until the native lookups are done, see keepReachable
+        final long proximityInfoHandle = keyboard.getProximityInfo().getNativeProximityInfo();
         final SuggestionResults suggestionResults = new SuggestionResults(
                 SuggestedWords.MAX_SUGGESTIONS, ngramContext.isBeginningOfSentenceContext(),
                 false /* firstSuggestionExceedsConfidenceThreshold */);
         final float[] weightOfLangModelVsSpatialModel =
                 new float[] { Dictionary.NOT_A_WEIGHT_OF_LANG_MODEL_VS_SPATIAL_MODEL };
 
+        // Only the suggestion strip update for typing can show suggestions of slow secondary
+        // locales in a follow-up update. Auto-correction, gesture input, next word predictions
+        // (which are cached) and the spell checker need complete results.
+        final boolean useLateSuggestions = allowLateSuggestions && mLateSuggestionsListener != null
+                && !composedData.mIsBatchMode && !composedData.mTypedWord.isEmpty();
+        final int requestId = useLateSuggestions ? mLateSuggestionsRequestId.incrementAndGet() : 0;
+
         // start getting suggestions for non-main locales first, but in background
-        final ArrayList<SuggestedWordInfo>[] otherDictionarySuggestions = (ArrayList<SuggestedWordInfo>[]) new ArrayList[mDictionaryGroups.size() - 1];
+        final int otherDictionaryGroupsCount = dictionaryGroups.size() - 1;
+        final AtomicReferenceArray<ArrayList<SuggestedWordInfo>> otherDictionarySuggestions =
+                new AtomicReferenceArray<>(otherDictionaryGroupsCount);
         final CountDownLatch waitForOtherDictionaries;
-        if (mDictionaryGroups.size() > 1) {
-            waitForOtherDictionaries = new CountDownLatch(mDictionaryGroups.size() - 1);
-            for (int i = 1; i < mDictionaryGroups.size(); i ++) {
-                final DictionaryGroup dictionaryGroup = mDictionaryGroups.get(i);
+        if (otherDictionaryGroupsCount > 0) {
+            waitForOtherDictionaries = new CountDownLatch(otherDictionaryGroupsCount);
+            for (int i = 1; i < dictionaryGroups.size(); i ++) {
+                final DictionaryGroup dictionaryGroup = dictionaryGroups.get(i);
                 final int index = i - 1;
-                ExecutorUtils.getBackgroundExecutor(ExecutorUtils.KEYBOARD).execute(() -> {
-                    otherDictionarySuggestions[index] = getSuggestions(composedData,
-                            ngramContext, settingsValuesForSuggestion, sessionId, proximityInfoHandle,
+                final ArrayList<SuggestedWordInfo> lateSuggestions = useLateSuggestions
+                        ? takeLateSuggestions(composedData, ngramContext, dictionaryGroup.mLocale)
+                        : null;
+                if (lateSuggestions != null) {
+                    otherDictionarySuggestions.set(index, lateSuggestions);
+                    waitForOtherDictionaries.countDown();
+                    continue;
+                }
+                // may still run after this call returned, when nothing else references the keyboard
+                ExecutorUtils.getBackgroundExecutor(ExecutorUtils.SUGGESTIONS).execute(() -> {
+                    final ArrayList<SuggestedWordInfo> suggestions = getSuggestions(composedData,
+                            ngramContext, settingsValuesForSuggestion, sessionId,
+                            keyboard.getProximityInfo().getNativeProximityInfo(),
                             weightOfLangModelVsSpatialModel, dictionaryGroup);
+                    keepReachable(keyboard);
+                    // if the requesting thread already gave up on waiting, provide them for a follow-up update
+                    if (!otherDictionarySuggestions.compareAndSet(index, null, suggestions)) {
+                        onLateSuggestions(requestId, composedData, ngramContext, dictionaryGroup.mLocale, suggestions);
+                    }
                     waitForOtherDictionaries.countDown();
                 });
             }
@@ -809,44 +1153,114 @@ public class DictionaryFacilitatorImpl implements DictionaryFacilitator {
         // get main locale suggestions
         final ArrayList<SuggestedWordInfo> dictionarySuggestions = getSuggestions(composedData,
                 ngramContext, settingsValuesForSuggestion, sessionId, proximityInfoHandle,
-                weightOfLangModelVsSpatialModel, mDictionaryGroups.get(0));
+                weightOfLangModelVsSpatialModel, dictionaryGroups.get(0));
+        keepReachable(keyboard);
         suggestionResults.addAll(dictionarySuggestions);
         if (null != suggestionResults.mRawSuggestions) {
             suggestionResults.mRawSuggestions.addAll(dictionarySuggestions);
         }
 
         // wait for other locale suggestions
+        boolean isMissingLateSuggestions = false;
         if (waitForOtherDictionaries != null) {
-            try { waitForOtherDictionaries.await(); }
-            catch (InterruptedException e) {
+            try {
+                if (useLateSuggestions) {
+                    waitForOtherDictionaries.await(Math.max(deadline - SystemClock.uptimeMillis(), 0),
+                            TimeUnit.MILLISECONDS);
+                } else {
+                    waitForOtherDictionaries.await();
+                }
+            } catch (InterruptedException e) {
                 Log.w(TAG, "Interrupted while trying to get secondary locale suggestions", e);
             }
-            for (int i = 1; i < mDictionaryGroups.size(); i ++) {
-                suggestionResults.addAll(otherDictionarySuggestions[i - 1]);
+            for (int i = 0; i < otherDictionaryGroupsCount; i ++) {
+                final ArrayList<SuggestedWordInfo> suggestions = otherDictionarySuggestions.getAndSet(i, TAKEN);
+                if (suggestions == null) { // missed the deadline
+                    isMissingLateSuggestions = true;
+                    continue;
+                }
+                suggestionResults.addAll(suggestions);
                 if (null != suggestionResults.mRawSuggestions) {
-                    suggestionResults.mRawSuggestions.addAll(otherDictionarySuggestions[i - 1]);
+                    suggestionResults.mRawSuggestions.addAll(suggestions);
                 }
             }
         }
+        if (!composedData.mIsBatchMode && !composedData.mTypedWord.isEmpty()) {
+            mIsMissingLateSuggestions = isMissingLateSuggestions;
+        }
 
         return suggestionResults;
     }
 
+    /** Makes sure the keyboard is not finalized before this is called. */
+    private static void keepReachable(@NonNull final Keyboard keyboard) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
+            Reference.reachabilityFence(keyboard);
+        } else {
+            // locking needs the object, so it stays reachable until here
+            synchronized (keyboard) { }
+        }
+    }
+
+    private void onLateSuggestions(final int requestId, final ComposedData composedData,
+            final NgramContext ngramContext, final Locale locale,
+            final ArrayList<SuggestedWordInfo> suggestions) {
+        final LateSuggestionsListener listener = mLateSuggestionsListener;
+        // not interesting any more if there is a newer request
+        if (listener == null || requestId != mLateSuggestionsRequestId.get()) return;
+        synchronized (mLateSuggestionsLock) {
+            if (mLateSuggestions == null || mLateSuggestions.mRequestId != requestId) {
+                mLateSuggestions = new LateSuggestions(requestId, composedData.mTypedWord, ngramContext);
+            }
+            mLateSuggestions.mSuggestions.put(locale, suggestions);
+        }
+        listener.onLateSuggestionsAvailable();
+    }
+
+    @Nullable
+    private ArrayList<SuggestedWordInfo> takeLateSuggestions(final ComposedData composedData,
+            final NgramContext ngramContext, final Locale locale) {
+        synchronized (mLateSuggestionsLock) {
+            if (mLateSuggestions == null
+                    || !mLateSuggestions.mTypedWord.equals(composedData.mTypedWord)
+                    || !mLateSuggestions.mNgramContext.equals(ngramContext)) {
+                return null;
+            }
+            return mLateSuggestions.mSuggestions.remove(locale);
+        }
+    }
+
     private ArrayList<SuggestedWordInfo> getSuggestions(ComposedData composedData,
                 NgramContext ngramContext, SettingsValuesForSuggestion settingsValuesForSuggestion,
                 int sessionId, long proximityInfoHandle, float[] weightOfLangModelVsSpatialModel,
                 DictionaryGroup dictGroup) {
+        // waits for a lookup with the same session that missed its deadline, see getSuggestionsLock
+        synchronized (dictGroup.getSuggestionsLock(sessionId)) {
+            return getSuggestionsLocked(composedData, ngramContext, settingsValuesForSuggestion,
+                    sessionId, proximityInfoHandle, weightOfLangModelVsSpatialModel, dictGroup);
+        }
+    }
+
+    private ArrayList<SuggestedWordInfo> getSuggestionsLocked(ComposedData composedData,
+                NgramContext ngramContext, SettingsValuesForSuggestion settingsValuesForSuggestion,
+                int sessionId, long proximityInfoHandle, float[] weightOfLangModelVsSpatialModel,
+                DictionaryGroup dictGroup) {
         final ArrayList<SuggestedWordInfo> suggestions = new ArrayList<>();
         float weightForLocale = composedData.mIsBatchMode
                 ? dictGroup.getWeightForGesturingInLocale(mDictionaryGroups)
                 : dictGroup.getWeightForTypingInLocale(mDictionaryGroups);
-        for (final String dictType : ALL_DICTIONARY_TYPES) {
+        final int groupIndex = mDictionaryGroups.indexOf(dictGroup);
+        for (int typeIndex = 0; typeIndex < ALL_DICTIONARY_TYPES.length; typeIndex++) {
+            final String dictType = ALL_DICTIONARY_TYPES[typeIndex];
             final Dictionary dictionary = dictGroup.getDict(dictType);
             if (null == dictionary) continue;
+            final long startTime = LatencyTracer.start();
             final ArrayList<SuggestedWordInfo> dictionarySuggestions =
                     dictionary.getSuggestions(composedData, ngramContext,
                             proximityInfoHandle, settingsValuesForSuggestion, sessionId,
                             weightForLocale, weightOfLangModelVsSpatialModel);
+            LatencyTracer.end(mSuggestionsLatencyStage,
+                    LatencyTracer.getDictionaryDetail(typeIndex, groupIndex), startTime);
             if (null == dictionarySuggestions) continue;
 
             // for some reason, garbage words are produced when glide typing
@@ -856,21 +1270,37 @@ public class DictionaryFacilitatorImpl implements DictionaryFacilitator {
             // pass an isInDictionary check (e.g. emojis)
             // (if the main dict contains shortcuts to non-words, this will break)
             final boolean checkForGarbage = composedData.mIsBatchMode && (dictType.equals(Dictionary.TYPE_USER_HISTORY) || dictType.equals(Dictionary.TYPE_MAIN));
-            for (SuggestedWordInfo info : dictionarySuggestions) {
-                final String word = info.getWord();
-                if (!isBlacklisted(word)) { // don't add blacklisted words
-                    if (checkForGarbage
-                            // only check history and "main main dictionary"
-                            // consider the user might use custom main dictionary containing shortcuts
-                            //  assume this is unlikely to happen, and take care about common shortcuts that are not actual words (emoji, symbols)
-                            && word.length() > 2 // should exclude most symbol shortcuts
+            final int suggestionCount = dictionarySuggestions.size();
+            final boolean[] isGarbage = new boolean[suggestionCount];
+            if (checkForGarbage) {
+                // look up all words at once, a word is in the dictionary if it has a frequency
+                final boolean[] needsCheck = new boolean[suggestionCount];
+                final PackedWords wordsToCheck = new PackedWords();
+                for (int i = 0; i < suggestionCount; i++) {
+                    final SuggestedWordInfo info = dictionarySuggestions.get(i);
+                    final String word = info.getWord();
+                    // only check history and "main main dictionary"
+                    // consider the user might use custom main dictionary containing shortcuts
+                    //  assume this is unlikely to happen, and take care about common shortcuts that are not actual words (emoji, symbols)
+                    needsCheck[i] = word.length() > 2 // should exclude most symbol shortcuts
                             && info.mSourceDict.mDictType.equals(dictType) // dictType is always main, but info.mSourceDict.mDictType contains the actual dict (main dict is a dictionary group)
-                            && !StringUtils.mightBeEmoji(word) // emojis often have more than 2 chars; simplified check for performance reasons
-                            && !dictionary.isInDictionary(word))
-                        continue;
-                    suggestions.add(info);
+                            && !StringUtils.mightBeEmoji(word); // emojis often have more than 2 chars; simplified check for performance reasons
+                    if (needsCheck[i])
+                        wordsToCheck.add(word);
+                }
+                final int[] frequencies = new int[wordsToCheck.getWordCount()];
+                dictionary.getFrequencies(wordsToCheck, frequencies);
+                int checkedIndex = 0;
+                for (int i = 0; i < suggestionCount; i++) {
+                    if (needsCheck[i])
+                        isGarbage[i] = frequencies[checkedIndex++] == Dictionary.NOT_A_PROBABILITY;
                 }
-             }
+            }
+            for (int i = 0; i < suggestionCount; i++) {
+                final SuggestedWordInfo info = dictionarySuggestions.get(i);
+                if (!isGarbage[i] && !isBlacklisted(info.getWord())) // don't add blacklisted words
+                    suggestions.add(info);
+            }
         }
         return suggestions;
     }
@@ -897,6 +1327,45 @@ public class DictionaryFacilitatorImpl implements DictionaryFacilitator {
         return result;
     }
 
+    public void isValidSpellingWords(final String[] words, final boolean[] outIsValid) {
+        final PackedWords wordsToCheck = new PackedWords();
+        final int[] indices = new int[words.length];
+        for (int i = 0; i < words.length; i++) {
+            final String word = words[i];
+            final Boolean cachedValue = mValidSpellingWordReadCache == null ? null : mValidSpellingWordReadCache.get(word);
+            if (cachedValue != null) {
+                outIsValid[i] = cachedValue;
+            } else if (TextUtils.isEmpty(word) || isBlacklisted(word)) {
+                outIsValid[i] = false;
+                if (mValidSpellingWordReadCache != null)
+                    mValidSpellingWordReadCache.put(word, false);
+            } else {
+                outIsValid[i] = false;
+                indices[wordsToCheck.getWordCount()] = i;
+                wordsToCheck.add(word);
+            }
+        }
+        final int count = wordsToCheck.getWordCount();
+        if (count == 0) return;
+        final boolean[] isValid = new boolean[count];
+        final boolean[] isValidInDictionary = new boolean[count];
+        for (DictionaryGroup dictionaryGroup : mDictionaryGroups) {
+            for (final String dictType : ALL_DICTIONARY_TYPES) {
+                final Dictionary dictionary = dictionaryGroup.getDict(dictType);
+                if (null == dictionary) continue;
+                dictionary.isValidWords(wordsToCheck, isValidInDictionary);
+                for (int i = 0; i < count; i++) {
+                    isValid[i] |= isValidInDictionary[i];
+                }
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            outIsValid[indices[i]] = isValid[i];
+            if (mValidSpellingWordReadCache != null)
+                mValidSpellingWordReadCache.put(wordsToCheck.getWord(i), isValid[i]);
+        }
+    }
+
     // this is unused, so leave it for now (redirecting to isValidWord seems to defeat the purpose...)
     public boolean isValidSuggestionWord(final String word) {
         return isValidWord(word, ALL_DICTIONARY_TYPES, mDictionaryGroups.get(0));
@@ -951,69 +1420,22 @@ public class DictionaryFacilitatorImpl implements DictionaryFacilitator {
         if (contactsDict != null) {
             if (contactsDict.isInDictionary(word)) {
                 contactsDict.removeUnigramEntryDynamically(word); // will be gone until next reload of dict
-                addToBlacklist(word, group);
+                group.blacklist.add(word);
                 return;
             }
         }
         if (!group.hasDict(Dictionary.TYPE_MAIN, null))
             return;
         if (group.getDict(Dictionary.TYPE_MAIN).isValidWord(word)) {
-            addToBlacklist(word, group);
+            group.blacklist.add(word);
             return;
         }
         final String lowercase = word.toLowerCase(group.mLocale);
         if (group.getDict(Dictionary.TYPE_MAIN).isValidWord(lowercase)) {
-            addToBlacklist(lowercase, group);
+            group.blacklist.add(lowercase);
         }
     }
 
-    private void addToBlacklist(final String word, final DictionaryGroup group) {
-        if (!group.blacklist.add(word))
-            return;
-        ExecutorUtils.getBackgroundExecutor(ExecutorUtils.KEYBOARD).execute(() -> {
-            try {
-                FileOutputStream fos = new FileOutputStream(group.blacklistFileName, true);
-                fos.write((word + "\n").getBytes(StandardCharsets.UTF_8));
-                fos.close();
-            } catch (IOException e) {
-                Log.e(TAG, "Exception while trying to write blacklist", e);
-            }
-        });
-    }
-
-    private ArrayList<String> readBlacklistFile(final String filename) {
-        final ArrayList<String> blacklist = new ArrayList<>();
-        if (filename == null) return blacklist;
-        File blacklistFile = new File(filename);
-        if (!blacklistFile.exists()) return blacklist;
-        try {
-            final Scanner scanner = new Scanner(blacklistFile, StandardCharsets.UTF_8.name()).useDelimiter("\n");
-            while (scanner.hasNext()) {
-                blacklist.add(scanner.next());
-            }
-        } catch (IOException e) {
-            Log.e(TAG, "Exception while reading blacklist", e);
-        }
-        return blacklist;
-    }
-
-    private void removeWordFromBlacklistFile(String word, String filename) {
-        ExecutorUtils.getBackgroundExecutor(ExecutorUtils.KEYBOARD).execute(() -> {
-            try {
-                ArrayList<String> blacklist = readBlacklistFile(filename);
-                blacklist.remove(word);
-                FileOutputStream fos = new FileOutputStream(filename);
-                for (String entry : blacklist) {
-                    fos.write((entry + "\n").getBytes(StandardCharsets.UTF_8));
-                }
-                fos.close();
-            } catch (IOException e) {
-                Log.e(TAG, "Exception while trying to write blacklist" + filename, e);
-            }
-        });
-
-    }
-
     @Override
     public boolean clearUserHistoryDictionary(final Context context) {
         for (DictionaryGroup dictionaryGroup : mDictionaryGroups) {
@@ -1023,6 +1445,12 @@ public class DictionaryFacilitatorImpl implements DictionaryFacilitator {
             }
             dictionary.clear();
         }
+        synchronized (mLock) {
+            for (final StandbyDictionaryGroup standbyGroup : mStandbyDictionaryGroups.values()) {
+                final ExpandableBinaryDictionary dictionary = standbyGroup.mGroup.getSubDict(Dictionary.TYPE_USER_HISTORY);
+                if (dictionary != null) dictionary.clear();
+            }
+        }
         return true;
     }
 
@@ -1063,6 +1491,15 @@ public class DictionaryFacilitatorImpl implements DictionaryFacilitator {
 
     @Override
     public String dump(final Context context) {
-        return "";
+        final StringBuilder sb = new StringBuilder("Dictionaries:\n");
+        for (final DictionaryGroup dictionaryGroup : mDictionaryGroups) {
+            for (final String dictType : DYNAMIC_DICTIONARY_TYPES) {
+                final ExpandableBinaryDictionary dictionary = dictionaryGroup.getSubDict(dictType);
+                if (dictionary != null) {
+                    sb.append("  ").append(dictionary.dumpWriteQueue()).append("\n");
+                }
+            }
+        }
+        return sb.toString();
     }
 }
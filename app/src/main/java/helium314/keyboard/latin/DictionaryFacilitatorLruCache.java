@@ -7,32 +7,60 @@
 package helium314.keyboard.latin;
 
 import android.content.Context;
+import android.util.LruCache;
+
+import androidx.annotation.Nullable;
+
 import helium314.keyboard.latin.utils.Log;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Locale;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 /**
  * Cache for dictionary facilitators of multiple locales.
- * This class automatically creates and releases up to 3 facilitator instances using LRU policy.
+ * This class automatically creates and releases up to {@link #DEFAULT_MAX_SIZE} (or the size given
+ * in the constructor) facilitator instances using LRU policy. Facilitators are closed on eviction.
+ * All cached facilitators are kept in sync with the current contacts setting, so the cache is
+ * effectively keyed by locale and contacts setting.
  */
 public class DictionaryFacilitatorLruCache {
     private static final String TAG = "DictFacilitatorLruCache";
     private static final int WAIT_FOR_LOADING_MAIN_DICT_IN_MILLISECONDS = 1000;
     private static final int MAX_RETRY_COUNT_FOR_WAITING_FOR_LOADING_DICT = 5;
+    public static final int DEFAULT_MAX_SIZE = 3;
+    private static final int VALID_SPELLING_WORD_CACHE_SIZE = 2000;
 
     private final Context mContext;
     private final String mDictionaryNamePrefix;
     private final Object mLock = new Object();
-    private final DictionaryFacilitator mDictionaryFacilitator;
+    private final int mMaxSize;
+    // access-ordered, so iteration starts at the least recently used facilitator
+    private final LinkedHashMap<Locale, DictionaryFacilitator> mCache = new LinkedHashMap<>(16, 0.75f, true);
+    // results of isValidSpellingWord, cleared by the facilitator when its dictionaries are reset
+    private final HashMap<DictionaryFacilitator, LruCache<String, Boolean>> mValidSpellingWordCaches = new HashMap<>();
     private boolean mUseContactsDictionary;
-    private Locale mLocale;
+    @Nullable private DictionaryFacilitator.DictionaryInitializationListener mListener;
+
+    private int mHitCount;
+    private int mMissCount;
+    private int mEvictionCount;
 
     public DictionaryFacilitatorLruCache(final Context context, final String dictionaryNamePrefix) {
+        this(context, dictionaryNamePrefix, DEFAULT_MAX_SIZE);
+    }
+
+    public DictionaryFacilitatorLruCache(final Context context, final String dictionaryNamePrefix, final int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize must be positive, but is " + maxSize);
+        }
         mContext = context;
         mDictionaryNamePrefix = dictionaryNamePrefix;
-        mDictionaryFacilitator = DictionaryFacilitatorProvider.getDictionaryFacilitator(
-                true /* isNeededForSpellChecking */);
+        mMaxSize = maxSize;
     }
 
     private static void waitForLoadingMainDictionary(
@@ -54,14 +82,23 @@ public class DictionaryFacilitatorLruCache {
         }
     }
 
-    private void resetDictionariesForLocaleLocked() {
-        // Nothing to do if the locale is null.  This would be the case before any get() calls.
-        if (mLocale != null) {
-          // Note: Given that personalized dictionaries are not used here; we can pass null account.
-          mDictionaryFacilitator.resetDictionaries(mContext, mLocale,
-              mUseContactsDictionary, false /* usePersonalizedDicts */,
-              false /* forceReloadMainDictionary */, null /* account */,
-              mDictionaryNamePrefix, null /* listener */);
+    private void resetDictionariesForLocaleLocked(final DictionaryFacilitator dictionaryFacilitator,
+            final Locale locale) {
+        // Note: Given that personalized dictionaries are not used here; we can pass null account.
+        dictionaryFacilitator.resetDictionaries(mContext, locale,
+                mUseContactsDictionary, false /* usePersonalizedDicts */,
+                false /* forceReloadMainDictionary */, null /* account */,
+                mDictionaryNamePrefix, mListener);
+    }
+
+    /**
+     * Sets the listener called whenever main dictionaries of a facilitator are loaded or reset,
+     * which may be on any thread.
+     */
+    public void setDictionaryInitializationListener(
+            @Nullable final DictionaryFacilitator.DictionaryInitializationListener listener) {
+        synchronized (mLock) {
+            mListener = listener;
         }
     }
 
@@ -72,25 +109,103 @@ public class DictionaryFacilitatorLruCache {
                 return;
             }
             mUseContactsDictionary = useContactsDictionary;
-            resetDictionariesForLocaleLocked();
-            waitForLoadingMainDictionary(mDictionaryFacilitator);
+            // main dictionaries are re-used, only the contacts dictionaries are added or removed
+            for (final Map.Entry<Locale, DictionaryFacilitator> entry : mCache.entrySet()) {
+                resetDictionariesForLocaleLocked(entry.getValue(), entry.getKey());
+            }
+            for (final DictionaryFacilitator dictionaryFacilitator : mCache.values()) {
+                waitForLoadingMainDictionary(dictionaryFacilitator);
+            }
         }
     }
 
     public DictionaryFacilitator get(final Locale locale) {
         synchronized (mLock) {
-            if (!mDictionaryFacilitator.isForLocale(locale)) {
-                mLocale = locale;
-                resetDictionariesForLocaleLocked();
+            DictionaryFacilitator dictionaryFacilitator = mCache.get(locale);
+            if (dictionaryFacilitator != null) {
+                mHitCount++;
+            } else {
+                mMissCount++;
+                evictLocked(mMaxSize - 1);
+                dictionaryFacilitator = DictionaryFacilitatorProvider.getDictionaryFacilitator(
+                        true /* isNeededForSpellChecking */);
+                final LruCache<String, Boolean> validSpellingWordCache = new LruCache<>(VALID_SPELLING_WORD_CACHE_SIZE);
+                dictionaryFacilitator.setValidSpellingWordReadCache(validSpellingWordCache);
+                mValidSpellingWordCaches.put(dictionaryFacilitator, validSpellingWordCache);
+                resetDictionariesForLocaleLocked(dictionaryFacilitator, locale);
+                mCache.put(locale, dictionaryFacilitator);
             }
-            waitForLoadingMainDictionary(mDictionaryFacilitator);
-            return mDictionaryFacilitator;
+            waitForLoadingMainDictionary(dictionaryFacilitator);
+            return dictionaryFacilitator;
+        }
+    }
+
+    /** Closes least recently used facilitators until at most {@code size} are left. */
+    private void evictLocked(final int size) {
+        final Iterator<DictionaryFacilitator> iterator = mCache.values().iterator();
+        while (mCache.size() > size && iterator.hasNext()) {
+            final DictionaryFacilitator dictionaryFacilitator = iterator.next();
+            iterator.remove();
+            mValidSpellingWordCaches.remove(dictionaryFacilitator);
+            dictionaryFacilitator.closeDictionaries();
+            mEvictionCount++;
         }
     }
 
     public void closeDictionaries() {
         synchronized (mLock) {
-            mDictionaryFacilitator.closeDictionaries();
+            final ArrayList<DictionaryFacilitator> dictionaryFacilitators = new ArrayList<>(mCache.values());
+            mCache.clear();
+            mValidSpellingWordCaches.clear();
+            for (final DictionaryFacilitator dictionaryFacilitator : dictionaryFacilitators) {
+                dictionaryFacilitator.closeDictionaries();
+            }
+        }
+    }
+
+    /** Forgets which words are valid, for when dictionaries changed without being reset. */
+    public void clearValidSpellingWordCaches() {
+        synchronized (mLock) {
+            for (final LruCache<String, Boolean> cache : mValidSpellingWordCaches.values()) {
+                cache.evictAll();
+            }
+        }
+    }
+
+    public int getMaxSize() {
+        return mMaxSize;
+    }
+
+    public int size() {
+        synchronized (mLock) {
+            return mCache.size();
+        }
+    }
+
+    public int getHitCount() {
+        synchronized (mLock) {
+            return mHitCount;
+        }
+    }
+
+    public int getMissCount() {
+        synchronized (mLock) {
+            return mMissCount;
+        }
+    }
+
+    /** Number of facilitators closed because the cache was full, not counting {@link #closeDictionaries()}. */
+    public int getEvictionCount() {
+        synchronized (mLock) {
+            return mEvictionCount;
+        }
+    }
+
+    @Override
+    public String toString() {
+        synchronized (mLock) {
+            return "DictionaryFacilitatorLruCache[size=" + mCache.size() + ", maxSize=" + mMaxSize
+                    + ", hits=" + mHitCount + ", misses=" + mMissCount + ", evictions=" + mEvictionCount + "]";
         }
     }
 }
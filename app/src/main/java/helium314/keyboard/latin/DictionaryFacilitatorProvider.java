@@ -11,6 +11,6 @@ package helium314.keyboard.latin;
  */
 public class DictionaryFacilitatorProvider {
     public static DictionaryFacilitator getDictionaryFacilitator(boolean isNeededForSpellChecking) {
-        return new DictionaryFacilitatorImpl();
+        return new DictionaryFacilitatorImpl(isNeededForSpellChecking);
     }
 }
@@ -9,10 +9,14 @@ import android.content.Context
 import helium314.keyboard.latin.common.FileUtils
 import helium314.keyboard.latin.common.LocaleUtils
 import helium314.keyboard.latin.common.LocaleUtils.constructLocale
+import helium314.keyboard.latin.common.WordFilter
+import helium314.keyboard.latin.makedict.DictionaryHeader
 import helium314.keyboard.latin.settings.USER_DICTIONARY_SUFFIX
 import helium314.keyboard.latin.utils.DictionaryInfoUtils
+import helium314.keyboard.latin.utils.ExecutorUtils
 import helium314.keyboard.latin.utils.Log
 import java.io.File
+import java.io.IOException
 import java.util.LinkedList
 import java.util.Locale
 
@@ -33,9 +37,9 @@ fun createMainDictionary(context: Context, locale: Locale): DictionaryCollection
     val (userDicts, extractedDicts) = DictionaryInfoUtils.getCachedDictsForLocale(locale, context)
         .partition { it.name.endsWith(USER_DICTIONARY_SUFFIX) }
     // add user dicts to list
-    userDicts.forEach { checkAndAddDictionaryToListIfNotExisting(it, dictList, locale) }
+    userDicts.forEach { checkAndAddDictionaryToListIfNotExisting(context, it, dictList, locale) }
     // add extracted dicts to list (after userDicts, to skip extracted dicts of same type)
-    extractedDicts.forEach { checkAndAddDictionaryToListIfNotExisting(it, dictList, locale) }
+    extractedDicts.forEach { checkAndAddDictionaryToListIfNotExisting(context, it, dictList, locale) }
     if (dictList.any { it.mDictType == Dictionary.TYPE_MAIN })
         return DictionaryCollection(Dictionary.TYPE_MAIN, locale, dictList)
 
@@ -47,13 +51,16 @@ fun createMainDictionary(context: Context, locale: Locale): DictionaryCollection
     dictsByType?.forEach { (dictType, dicts) ->
         val bestMatch = LocaleUtils.getBestMatch(locale, dicts) { it.substringAfter("_")
             .substringBefore(".").constructLocale() } ?: return@forEach
-        // extract dict and add extracted file
+        val assetPath = DictionaryInfoUtils.ASSETS_DICTIONARY_FOLDER + File.separator + bestMatch
+        if (addAssetsDictionaryInPlaceIfNotExisting(context, assetPath, dictList, locale))
+            return@forEach
+        // fall back to extracting the dict and adding the extracted file
         val targetFile = File(cacheDir, "$dictType.dict")
         FileUtils.copyStreamToNewFile(
-            context.assets.open(DictionaryInfoUtils.ASSETS_DICTIONARY_FOLDER + File.separator + bestMatch),
+            context.assets.open(assetPath),
             targetFile
         )
-        checkAndAddDictionaryToListIfNotExisting(targetFile, dictList, locale)
+        checkAndAddDictionaryToListIfNotExisting(context, targetFile, dictList, locale)
     }
     // If the list is empty, that means we should not use any dictionary (for example, the user
     // explicitly disabled the main dictionary), so the following is okay. dictList is never
@@ -66,7 +73,7 @@ fun createMainDictionary(context: Context, locale: Locale): DictionaryCollection
  * if [file] cannot be loaded it is deleted
  * if the dictionary type already exists in [dicts], the [file] is skipped
  */
-private fun checkAndAddDictionaryToListIfNotExisting(file: File, dicts: MutableList<Dictionary>, locale: Locale) {
+private fun checkAndAddDictionaryToListIfNotExisting(context: Context, file: File, dicts: MutableList<Dictionary>, locale: Locale) {
     if (!file.isFile) return
     val header = DictionaryInfoUtils.getDictionaryFileHeaderOrNull(file) ?: return killDictionary(file)
     val dictType = header.mIdString.split(":").first()
@@ -76,18 +83,95 @@ private fun checkAndAddDictionaryToListIfNotExisting(file: File, dicts: MutableL
     )
 
     if (readOnlyBinaryDictionary.isValidDictionary) {
-        if (locale.language == "ko") {
-            // Use KoreanDictionary for Korean locale
-            dicts.add(KoreanDictionary(readOnlyBinaryDictionary))
-        } else {
-            dicts.add(readOnlyBinaryDictionary)
-        }
+        if (dictType == Dictionary.TYPE_MAIN)
+            setWordFilter(context, readOnlyBinaryDictionary, header, file, 0, file.length())
+        dicts.add(wrapForLocale(readOnlyBinaryDictionary, locale))
     } else {
         readOnlyBinaryDictionary.close()
         killDictionary(file)
     }
 }
 
+/**
+ * add dictionary at [assetPath] to [dicts] without extracting it, by opening it at its offset inside the apk
+ * this only works if the asset is stored uncompressed, see noCompress in build.gradle
+ * if the dictionary type already exists in [dicts], the asset is skipped
+ * returns false if the dictionary could not be opened in place and needs to be extracted
+ */
+private fun addAssetsDictionaryInPlaceIfNotExisting(context: Context, assetPath: String, dicts: MutableList<Dictionary>, locale: Locale): Boolean {
+    // openFd throws if the asset is compressed
+    val (offset, length) = try {
+        context.assets.openFd(assetPath).use { it.startOffset to it.length }
+    } catch (e: IOException) {
+        return false
+    }
+    val apkFile = File(context.applicationInfo.sourceDir)
+    val header = DictionaryInfoUtils.getDictionaryFileHeaderOrNull(apkFile, offset, length) ?: return false
+    val dictType = header.mIdString.split(":").first()
+    if (dicts.any { it.mDictType == dictType }) return true
+    val readOnlyBinaryDictionary = ReadOnlyBinaryDictionary(
+        apkFile.absolutePath, offset, length, false, locale, dictType
+    )
+    if (!readOnlyBinaryDictionary.isValidDictionary) {
+        readOnlyBinaryDictionary.close()
+        return false
+    }
+    if (dictType == Dictionary.TYPE_MAIN)
+        setWordFilter(context, readOnlyBinaryDictionary, header, apkFile, offset, length)
+    dicts.add(wrapForLocale(readOnlyBinaryDictionary, locale))
+    return true
+}
+
+/**
+ * set a [WordFilter] for [dictionary], which consists of [length] bytes at [offset] in [file]
+ * filters are stored in the cache dir by [header] and file metadata, missing or unreadable filters
+ * are created in background, the dictionary is used without filter meanwhile
+ */
+private fun setWordFilter(context: Context, dictionary: ReadOnlyBinaryDictionary, header: DictionaryHeader, file: File, offset: Long, length: Long) {
+    val filterDir = File(context.cacheDir, WORD_FILTER_DIR)
+    val filterFile = File(filterDir, "${filterKey(header, file, offset, length)}.filter")
+    val storedFilter = WordFilter.read(filterFile)
+    if (storedFilter != null) {
+        filterFile.setLastModified(System.currentTimeMillis())
+        dictionary.setWordFilter(storedFilter)
+        return
+    }
+    ExecutorUtils.getBackgroundExecutor(ExecutorUtils.KEYBOARD).execute {
+        val filter = dictionary.createWordFilter() ?: return@execute // closed meanwhile
+        dictionary.setWordFilter(filter)
+        try {
+            filterDir.mkdirs()
+            filter.write(filterFile)
+        } catch (e: IOException) {
+            Log.w("DictionaryFactory", "could not store word filter for ${file.name}", e)
+        }
+        // remove filters for dictionaries that were not used recently
+        filterDir.listFiles()?.sortedByDescending { it.lastModified() }?.drop(MAX_WORD_FILTERS)?.forEach { it.delete() }
+    }
+}
+
+/**
+ * identifies the dictionary without reading it: a replaced dictionary differs in version or date,
+ * a modified file in size or modification time
+ */
+private fun filterKey(header: DictionaryHeader, file: File, offset: Long, length: Long): String {
+    val date = header.mDictionaryOptions.mAttributes[DictionaryHeader.DICTIONARY_DATE_KEY] ?: ""
+    val key = "${header.mIdString}_${header.mVersionString}_${date}_${file.lastModified()}_${offset}_$length"
+    return key.replace(UNSAFE_FILE_NAME_CHARS, "_")
+}
+
+private const val WORD_FILTER_DIR = "word_filters"
+private const val MAX_WORD_FILTERS = 20
+private val UNSAFE_FILE_NAME_CHARS = "[^A-Za-z0-9._-]".toRegex()
+
+private fun wrapForLocale(dictionary: ReadOnlyBinaryDictionary, locale: Locale): Dictionary =
+    if (locale.language == "ko") {
+        // Use KoreanDictionary for Korean locale
+        KoreanDictionary(dictionary)
+    } else {
+        dictionary
+    }
+
 private fun killDictionary(file: File) {
     Log.e("DictionaryFactory", "could not load dictionary ${file.parentFile?.name}/${file.name}, deleting")
     file.delete()
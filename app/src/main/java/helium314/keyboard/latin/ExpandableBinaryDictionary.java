@@ -17,6 +17,7 @@ import com.android.inputmethod.latin.BinaryDictionary;
 import helium314.keyboard.latin.SuggestedWords.SuggestedWordInfo;
 import helium314.keyboard.latin.common.ComposedData;
 import helium314.keyboard.latin.common.FileUtils;
+import helium314.keyboard.latin.common.PackedWords;
 import helium314.keyboard.latin.define.DecoderSpecificConstants;
 import helium314.keyboard.latin.makedict.DictionaryHeader;
 import helium314.keyboard.latin.makedict.FormatSpec;
@@ -29,11 +30,14 @@ import helium314.keyboard.latin.utils.ExecutorUtils;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
@@ -56,6 +60,12 @@ abstract public class ExpandableBinaryDictionary extends Dictionary {
 
     private static final int TIMEOUT_FOR_READ_OPS_IN_MILLISECONDS = 100;
 
+    /**
+     * The maximum number of queued write tasks executed under a single write lock acquisition.
+     * Limits the time readers have to wait for the lock.
+     */
+    private static final int MAX_WRITE_BATCH_SIZE = 32;
+
     /**
      * The maximum length of a word in this dictionary.
      */
@@ -93,6 +103,45 @@ abstract public class ExpandableBinaryDictionary extends Dictionary {
 
     private final ReentrantReadWriteLock mLock;
 
+    /**
+     * Tasks that need the write lock, in the order they were requested. They are executed in
+     * batches by a single task on the background executor, so updates are never reordered.
+     */
+    private final ConcurrentLinkedQueue<WriteTask> mWriteQueue = new ConcurrentLinkedQueue<>();
+    /** Indicates whether a task for executing the write queue has been scheduled. */
+    private final AtomicBoolean mIsWriteQueueScheduled = new AtomicBoolean();
+
+    // write queue metrics
+    private final AtomicInteger mWriteQueueDepth = new AtomicInteger();
+    private final AtomicInteger mMaxWriteQueueDepth = new AtomicInteger();
+    private final AtomicInteger mWriteBatchCount = new AtomicInteger();
+    private final AtomicInteger mWriteTaskCount = new AtomicInteger();
+    private final AtomicInteger mMaxWriteBatchSize = new AtomicInteger();
+
+    /** Listener for changes of the dictionary contents that don't come from the keyboard. */
+    public interface ContentsChangedListener {
+        /**
+         * Called on a background thread after the dictionary was loaded, or changes of its source
+         * were applied. Lookups started from now on see the new contents.
+         */
+        void onContentsChanged();
+    }
+
+    @Nullable private volatile ContentsChangedListener mContentsChangedListener;
+    // set by write tasks, and reported once the write lock is released
+    private boolean mHasContentsChanged;
+
+    private static final class WriteTask {
+        final Runnable mTask;
+        // updates are skipped if there is no binary dictionary, and need a GC check before running
+        final boolean mIsUpdate;
+
+        WriteTask(final Runnable task, final boolean isUpdate) {
+            mTask = task;
+            mIsUpdate = isUpdate;
+        }
+    }
+
     /* A extension for a binary dictionary file. */
     protected static final String DICT_FILE_EXTENSION = ".dict";
 
@@ -149,8 +198,114 @@ abstract public class ExpandableBinaryDictionary extends Dictionary {
         return dictFile != null ? dictFile.getName() : name + "." + locale.toLanguageTag();
     }
 
-    private void asyncExecuteTaskWithWriteLock(final Runnable task) {
-        asyncExecuteTaskWithLock(mLock.writeLock(), task);
+    public void setContentsChangedListener(@Nullable final ContentsChangedListener listener) {
+        mContentsChangedListener = listener;
+    }
+
+    /**
+     * Marks that the contents were changed by the current write task, so the listener is called
+     * when the write lock is released.
+     */
+    protected void onContentsChangedLocked() {
+        mHasContentsChanged = true;
+    }
+
+    protected void asyncExecuteTaskWithWriteLock(final Runnable task) {
+        enqueueWriteTask(new WriteTask(task, false));
+    }
+
+    /**
+     * Executes an update of the dictionary contents with the write lock. Consecutive updates
+     * queued together share one lock acquisition and one GC check.
+     */
+    private void asyncExecuteUpdateWithWriteLock(final Runnable update) {
+        enqueueWriteTask(new WriteTask(update, true));
+    }
+
+    private void enqueueWriteTask(final WriteTask task) {
+        mWriteQueue.offer(task);
+        final int depth = mWriteQueueDepth.incrementAndGet();
+        mMaxWriteQueueDepth.accumulateAndGet(depth, Math::max);
+        scheduleWriteQueue();
+    }
+
+    private void scheduleWriteQueue() {
+        if (mIsWriteQueueScheduled.compareAndSet(false, true)) {
+            ExecutorUtils.getBackgroundExecutor(ExecutorUtils.KEYBOARD).execute(this::executeWriteQueue);
+        }
+    }
+
+    private void executeWriteQueue() {
+        int batchSize = 0;
+        boolean hasContentsChanged = false;
+        mLock.writeLock().lock();
+        try {
+            boolean checkedForGC = false;
+            WriteTask task;
+            while (batchSize < MAX_WRITE_BATCH_SIZE && (task = mWriteQueue.poll()) != null) {
+                mWriteQueueDepth.decrementAndGet();
+                batchSize++;
+                if (task.mIsUpdate) {
+                    if (getBinaryDictionary() == null) {
+                        continue;
+                    }
+                    if (!checkedForGC) {
+                        runGCIfRequiredLocked(true /* mindsBlockByGC */);
+                        checkedForGC = true;
+                    }
+                } else {
+                    // other tasks may reload the dictionary or add to it, so the next update checks again
+                    checkedForGC = false;
+                }
+                task.mTask.run();
+            }
+        } finally {
+            hasContentsChanged = mHasContentsChanged;
+            mHasContentsChanged = false;
+            mLock.writeLock().unlock();
+            mWriteBatchCount.incrementAndGet();
+            mWriteTaskCount.addAndGet(batchSize);
+            mMaxWriteBatchSize.accumulateAndGet(batchSize, Math::max);
+            mIsWriteQueueScheduled.set(false);
+            // continue with tasks added after the last poll, or left over because of the batch size limit
+            if (!mWriteQueue.isEmpty()) {
+                scheduleWriteQueue();
+            }
+        }
+        final ContentsChangedListener listener = mContentsChangedListener;
+        if (hasContentsChanged && listener != null) {
+            listener.onContentsChanged();
+        }
+    }
+
+    /** Returns the number of write tasks waiting for execution. */
+    public int getWriteQueueDepth() {
+        return mWriteQueueDepth.get();
+    }
+
+    public int getMaxWriteQueueDepth() {
+        return mMaxWriteQueueDepth.get();
+    }
+
+    /** Returns how often the write lock was acquired for executing queued write tasks. */
+    public int getWriteBatchCount() {
+        return mWriteBatchCount.get();
+    }
+
+    /** Returns the number of executed write tasks, divide by {@link #getWriteBatchCount()} for the average batch size. */
+    public int getWriteTaskCount() {
+        return mWriteTaskCount.get();
+    }
+
+    public int getMaxWriteBatchSize() {
+        return mMaxWriteBatchSize.get();
+    }
+
+    /** Returns the write queue metrics for dumping. */
+    public String dumpWriteQueue() {
+        return mDictName + ": write queue depth " + getWriteQueueDepth() + ", max " + getMaxWriteQueueDepth()
+                + ", " + getWriteTaskCount() + " tasks in " + getWriteBatchCount() + " batches"
+                + ", max batch size " + getMaxWriteBatchSize();
     }
 
     private static void asyncExecuteTaskWithLock(final Lock lock, final Runnable task) {
@@ -255,13 +410,7 @@ abstract public class ExpandableBinaryDictionary extends Dictionary {
 
     private void updateDictionaryWithWriteLock(@NonNull final Runnable updateTask) {
         reloadDictionaryIfRequired();
-        asyncExecuteTaskWithWriteLock(() -> {
-            if (getBinaryDictionary() == null) {
-                return;
-            }
-            runGCIfRequiredLocked(true /* mindsBlockByGC */);
-            updateTask.run();
-        });
+        asyncExecuteUpdateWithWriteLock(updateTask);
     }
 
     /**
@@ -287,14 +436,8 @@ abstract public class ExpandableBinaryDictionary extends Dictionary {
      * Dynamically remove the unigram entry from the dictionary.
      */
     public void removeUnigramEntryDynamically(final String word) {
-        reloadDictionaryIfRequired();
-        asyncExecuteTaskWithWriteLock(() -> {
-            final BinaryDictionary binaryDictionary = getBinaryDictionary();
-            if (binaryDictionary == null) {
-                return;
-            }
-            runGCIfRequiredLocked(true /* mindsBlockByGC */);
-            if (!binaryDictionary.removeUnigramEntry(word)) {
+        updateDictionaryWithWriteLock(() -> {
+            if (!getBinaryDictionary().removeUnigramEntry(word)) {
                 if (DEBUG) {
                     Log.i(TAG, "Cannot remove unigram entry: " + word);
                 }
@@ -307,14 +450,7 @@ abstract public class ExpandableBinaryDictionary extends Dictionary {
      */
     public void addNgramEntry(@NonNull final NgramContext ngramContext, final String word,
             final int frequency, final int timestamp) {
-        reloadDictionaryIfRequired();
-        asyncExecuteTaskWithWriteLock(() -> {
-            if (getBinaryDictionary() == null) {
-                return;
-            }
-            runGCIfRequiredLocked(true /* mindsBlockByGC */);
-            addNgramEntryLocked(ngramContext, word, frequency, timestamp);
-        });
+        updateDictionaryWithWriteLock(() -> addNgramEntryLocked(ngramContext, word, frequency, timestamp));
     }
 
     protected void addNgramEntryLocked(@NonNull final NgramContext ngramContext, final String word,
@@ -333,11 +469,7 @@ abstract public class ExpandableBinaryDictionary extends Dictionary {
     public void updateEntriesForWord(@NonNull final NgramContext ngramContext,
             final String word, final boolean isValidWord, final int count, final int timestamp) {
         updateDictionaryWithWriteLock(() -> {
-            final BinaryDictionary binaryDictionary = getBinaryDictionary();
-            if (binaryDictionary == null) {
-                return;
-            }
-            if (!binaryDictionary.updateEntriesForWordWithNgramContext(ngramContext, word,
+            if (!getBinaryDictionary().updateEntriesForWordWithNgramContext(ngramContext, word,
                     isValidWord, count, timestamp)) {
                 if (DEBUG) {
                     Log.e(TAG, "Cannot update counter. word: " + word
@@ -405,6 +537,32 @@ abstract public class ExpandableBinaryDictionary extends Dictionary {
         return false;
     }
 
+    @Override
+    public void getFrequencies(final PackedWords words, final int[] outFrequencies) {
+        reloadDictionaryIfRequired();
+        boolean lockAcquired = false;
+        try {
+            lockAcquired = mLock.readLock().tryLock(
+                    TIMEOUT_FOR_READ_OPS_IN_MILLISECONDS, TimeUnit.MILLISECONDS);
+            if (lockAcquired && mBinaryDictionary != null) {
+                mBinaryDictionary.getFrequencies(words, outFrequencies);
+                return;
+            }
+        } catch (final InterruptedException e) {
+            Log.e(TAG, "Interrupted tryLock() in getFrequencies().", e);
+        } finally {
+            if (lockAcquired) {
+                mLock.readLock().unlock();
+            }
+        }
+        Arrays.fill(outFrequencies, 0, words.getWordCount(), NOT_A_PROBABILITY);
+    }
+
+    @Override
+    public void isValidWords(final PackedWords words, final boolean[] outIsValid) {
+        isValidWordsByFrequency(words, outIsValid);
+    }
+
     protected boolean isInDictionaryLocked(final String word) {
         if (mBinaryDictionary == null) return false;
         return mBinaryDictionary.isInDictionary(word);
@@ -538,6 +696,7 @@ abstract public class ExpandableBinaryDictionary extends Dictionary {
                     }
                 }
                 clearNeedsToRecreate();
+                onContentsChangedLocked();
             } finally {
                 isReloading.set(false);
             }
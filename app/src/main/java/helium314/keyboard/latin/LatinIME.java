@@ -82,6 +82,7 @@ import helium314.keyboard.latin.utils.ColorUtilKt;
 import helium314.keyboard.latin.utils.InlineAutofillUtils;
 import helium314.keyboard.latin.utils.InputMethodPickerKt;
 import helium314.keyboard.latin.utils.JniUtils;
+import helium314.keyboard.latin.utils.LatencyTracer;
 import helium314.keyboard.latin.utils.LeakGuardHandlerWrapper;
 import helium314.keyboard.latin.utils.Log;
 import helium314.keyboard.latin.utils.StatsUtils;
@@ -109,6 +110,7 @@ import androidx.core.content.ContextCompat;
 public class LatinIME extends InputMethodService implements
         SuggestionStripView.Listener, SuggestionStripViewAccessor,
         DictionaryFacilitator.DictionaryInitializationListener,
+        DictionaryFacilitator.LateSuggestionsListener,
         PermissionsManager.PermissionsResultCallback {
     static final String TAG = LatinIME.class.getSimpleName();
     private static final boolean TRACE = false;
@@ -201,8 +203,9 @@ public class LatinIME extends InputMethodService implements
         private static final int MSG_WAIT_FOR_DICTIONARY_LOAD = 8;
         private static final int MSG_DEALLOCATE_MEMORY = 9;
         private static final int MSG_SWITCH_LANGUAGE_AUTOMATICALLY = 10;
+        private static final int MSG_SHOW_ASYNC_SUGGESTION_STRIP = 11;
         // Update this when adding new messages
-        private static final int MSG_LAST = MSG_SWITCH_LANGUAGE_AUTOMATICALLY;
+        private static final int MSG_LAST = MSG_SHOW_ASYNC_SUGGESTION_STRIP;
 
         private static final int ARG1_NOT_GESTURE_INPUT = 0;
         private static final int ARG1_DISMISS_GESTURE_FLOATING_PREVIEW_TEXT = 1;
@@ -238,7 +241,7 @@ public class LatinIME extends InputMethodService implements
             switch (msg.what) {
                 case MSG_UPDATE_SUGGESTION_STRIP:
                     cancelUpdateSuggestionStrip();
-                    latinIme.mInputLogic.performUpdateSuggestionStripSync(
+                    latinIme.mInputLogic.performUpdateSuggestionStrip(
                             latinIme.mSettings.getCurrent(), msg.arg1 /* inputStyle */);
                     break;
                 case MSG_UPDATE_SHIFT_STATE:
@@ -293,6 +296,10 @@ public class LatinIME extends InputMethodService implements
                 case MSG_SWITCH_LANGUAGE_AUTOMATICALLY:
                     latinIme.switchToSubtype((InputMethodSubtype) msg.obj);
                     break;
+                case MSG_SHOW_ASYNC_SUGGESTION_STRIP:
+                    latinIme.mInputLogic.onAsyncSuggestionsReady((SuggestedWords) msg.obj,
+                            msg.arg1 /* sequenceNumber */);
+                    break;
             }
         }
 
@@ -403,6 +410,12 @@ public class LatinIME extends InputMethodService implements
                     ARG1_NOT_GESTURE_INPUT, ARG2_UNUSED, suggestedWords).sendToTarget();
         }
 
+        public void showAsyncSuggestionStrip(final SuggestedWords suggestedWords, final int sequenceNumber) {
+            removeMessages(MSG_SHOW_ASYNC_SUGGESTION_STRIP);
+            obtainMessage(MSG_SHOW_ASYNC_SUGGESTION_STRIP, sequenceNumber, ARG2_UNUSED,
+                    suggestedWords).sendToTarget();
+        }
+
         public void showTailBatchInputResult(final SuggestedWords suggestedWords) {
             obtainMessage(MSG_UPDATE_TAIL_BATCH_INPUT_COMPLETED, suggestedWords).sendToTarget();
         }
@@ -577,6 +590,7 @@ public class LatinIME extends InputMethodService implements
         AudioAndHapticFeedbackManager.init(this);
         AccessibilityUtils.init(this);
         mStatsUtilsManager.onCreate(this, mDictionaryFacilitator);
+        mDictionaryFacilitator.setLateSuggestionsListener(this);
         mDisplayContext = getDisplayContext();
         KeyboardSwitcher.init(this);
         super.onCreate();
@@ -654,6 +668,13 @@ public class LatinIME extends InputMethodService implements
         }
     }
 
+    // Note that this method is called from a non-UI thread.
+    @Override
+    public void onLateSuggestionsAvailable() {
+        // late suggestions are only provided when typing
+        mHandler.postUpdateSuggestionStrip(SuggestedWords.INPUT_STYLE_TYPING);
+    }
+
     void resetDictionaryFacilitatorIfNecessary() {
         final Locale subtypeSwitcherLocale = mRichImm.getCurrentSubtypeLocale();
         final Locale subtypeLocale;
@@ -1105,6 +1126,8 @@ public class LatinIME extends InputMethodService implements
                                   final int composingSpanStart, final int composingSpanEnd) {
         super.onUpdateSelection(oldSelStart, oldSelEnd, newSelStart, newSelEnd,
                 composingSpanStart, composingSpanEnd);
+        // also when the view is not shown, the connection may be used anyway
+        mInputLogic.mConnection.onSelectionUpdate(oldSelStart, oldSelEnd, newSelStart, newSelEnd);
         if (DebugFlags.DEBUG_ENABLED) {
             Log.i(TAG, "onUpdateSelection: oss=" + oldSelStart + ", ose=" + oldSelEnd
                     + ", nss=" + newSelStart + ", nse=" + newSelEnd
@@ -1492,10 +1515,12 @@ public class LatinIME extends InputMethodService implements
         // TODO: We should reconsider which coordinate system should be used to represent
         // keyboard event. Also we should pull this up -- LatinIME has no business doing
         // this transformation, it should be done already before calling onEvent.
+        final long startTime = LatencyTracer.start();
         final int keyX = mainKeyboardView.getKeyX(x);
         final int keyY = mainKeyboardView.getKeyY(y);
         final Event event = createSoftwareKeypressEvent(codePoint, metaState, keyX, keyY, isKeyRepeat);
         onEvent(event);
+        LatencyTracer.end(LatencyTracer.STAGE_CODE_INPUT, startTime);
     }
 
     // This method is public for testability of LatinIME, but also in the future it should
@@ -1504,10 +1529,12 @@ public class LatinIME extends InputMethodService implements
         if (KeyCode.VOICE_INPUT == event.getMKeyCode()) {
             mRichImm.switchToShortcutIme(this);
         }
+        final long startTime = LatencyTracer.start();
         final InputTransaction completeInputTransaction =
                 mInputLogic.onCodeInput(mSettings.getCurrent(), event,
                         mKeyboardSwitcher.getKeyboardShiftMode(),
                         mKeyboardSwitcher.getCurrentKeyboardScript(), mHandler);
+        LatencyTracer.end(LatencyTracer.STAGE_INPUT_LOGIC, startTime);
         updateStateAfterInputTransaction(completeInputTransaction);
         mKeyboardSwitcher.onEvent(event, getCurrentAutoCapsState(), getCurrentRecapitalizeState());
     }
@@ -1629,6 +1656,14 @@ public class LatinIME extends InputMethodService implements
                 mKeyboardSwitcher.getKeyboardShiftMode(), inputStyle, sequenceNumber, callback);
     }
 
+    // Called on the input logic handler thread.
+    public void prefetchNextWordSuggestions(final NgramContext ngramContext) {
+        final Keyboard keyboard = mKeyboardSwitcher.getKeyboard();
+        if (keyboard == null) return;
+        mInputLogic.mSuggest.prefetchNextWordSuggestions(ngramContext, keyboard,
+                mSettings.getCurrent().mSettingsValuesForSuggestion);
+    }
+
     @Override
     public void showSuggestionStrip(final SuggestedWords suggestedWords) {
         if (suggestedWords.isEmpty()) {
@@ -1908,9 +1943,13 @@ public class LatinIME extends InputMethodService implements
         final Keyboard keyboard = mKeyboardSwitcher.getKeyboard();
         final int keyboardMode = keyboard != null ? keyboard.mId.mMode : -1;
         p.println("  Keyboard mode = " + keyboardMode);
+        p.println("  Text cache hits = " + mInputLogic.mConnection.getTextCacheHitCount()
+                + ", misses = " + mInputLogic.mConnection.getTextCacheMissCount());
         final SettingsValues settingsValues = mSettings.getCurrent();
         p.println(settingsValues.dump());
         p.println(mDictionaryFacilitator.dump(this));
+        p.println(LatencyTracer.dump());
+        p.println(KeyboardLayoutSet.dump());
     }
 
     // slightly modified from Simple Keyboard: https://github.com/rkkr/simple-keyboard/blob/master/app/src/main/java/rkr/simplekeyboard/inputmethod/latin/LatinIME.java
@@ -219,6 +219,31 @@ public class NgramContext {
         }
     }
 
+    /**
+     * Copies the previous words into the given arrays and their code point counts into
+     * codePointCounts, so the arrays can be reused. Words that don't fit into the arrays are output
+     * as empty, like the native side does for words that are too long.
+     */
+    public void outputToArray(final int[][] codePointArrays, final int[] codePointCounts,
+            final boolean[] isBeginningOfSentenceArray) {
+        final int count = Math.min(mPrevWordsCount, codePointArrays.length);
+        for (int i = 0; i < count; i++) {
+            final WordInfo wordInfo = mPrevWordsInfo[i];
+            codePointCounts[i] = 0;
+            isBeginningOfSentenceArray[i] = false;
+            if (wordInfo == null || !wordInfo.isValid()) {
+                continue;
+            }
+            final CharSequence word = wordInfo.mWord;
+            if (Character.codePointCount(word, 0, word.length()) > codePointArrays[i].length) {
+                continue;
+            }
+            codePointCounts[i] = StringUtils.copyCodePointsAndReturnCodePointCount(codePointArrays[i],
+                    word, 0, word.length(), false);
+            isBeginningOfSentenceArray[i] = wordInfo.mIsBeginningOfSentence;
+        }
+    }
+
     public int getPrevWordCount() {
         return mPrevWordsCount;
     }
@@ -6,13 +6,18 @@
 
 package helium314.keyboard.latin;
 
+import androidx.annotation.Nullable;
+
 import com.android.inputmethod.latin.BinaryDictionary;
 
 import helium314.keyboard.latin.SuggestedWords.SuggestedWordInfo;
 import helium314.keyboard.latin.common.ComposedData;
+import helium314.keyboard.latin.common.PackedWords;
+import helium314.keyboard.latin.common.WordFilter;
 import helium314.keyboard.latin.settings.SettingsValuesForSuggestion;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Locale;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
@@ -29,10 +34,14 @@ public final class ReadOnlyBinaryDictionary extends Dictionary {
     private final ReentrantReadWriteLock mLock = new ReentrantReadWriteLock();
 
     private final BinaryDictionary mBinaryDictionary;
+    private final long mLength;
+    // words not passing the filter are not looked up in the native dictionary
+    private volatile WordFilter mWordFilter;
 
     public ReadOnlyBinaryDictionary(final String filename, final long offset, final long length,
             final boolean useFullEditDistance, final Locale locale, final String dictType) {
         super(dictType, locale);
+        mLength = length;
         mBinaryDictionary = new BinaryDictionary(filename, offset, length, useFullEditDistance,
                 locale, dictType, false /* isUpdatable */);
     }
@@ -41,6 +50,37 @@ public final class ReadOnlyBinaryDictionary extends Dictionary {
         return mBinaryDictionary.isValidDictionary();
     }
 
+    /** Returns the size of the dictionary file (or the dictionary part of it) in bytes. */
+    public long getLength() {
+        return mLength;
+    }
+
+    /**
+     * Creates a filter containing all words of this dictionary, this iterates the whole dictionary.
+     * Lookups are not blocked meanwhile, but this must not be called concurrently as the native
+     * word iteration has state. Returns null if the dictionary has been closed.
+     */
+    @Nullable
+    public WordFilter createWordFilter() {
+        mLock.readLock().lock();
+        try {
+            if (!mBinaryDictionary.isValidDictionary()) return null;
+            return WordFilter.create(mBinaryDictionary.getWordHashes());
+        } finally {
+            mLock.readLock().unlock();
+        }
+    }
+
+    /** Sets the filter used to skip lookups for words that are not in the dictionary. */
+    public void setWordFilter(final WordFilter wordFilter) {
+        mWordFilter = wordFilter;
+    }
+
+    private boolean isDefinitelyAbsent(final String word) {
+        final WordFilter wordFilter = mWordFilter;
+        return wordFilter != null && word != null && !wordFilter.mightContain(word);
+    }
+
     @Override
     public ArrayList<SuggestedWordInfo> getSuggestions(final ComposedData composedData,
             final NgramContext ngramContext, final long proximityInfoHandle,
@@ -61,6 +101,7 @@ public final class ReadOnlyBinaryDictionary extends Dictionary {
 
     @Override
     public boolean isInDictionary(final String word) {
+        if (isDefinitelyAbsent(word)) return false;
         if (mLock.readLock().tryLock()) {
             try {
                 return mBinaryDictionary.isInDictionary(word);
@@ -85,6 +126,7 @@ public final class ReadOnlyBinaryDictionary extends Dictionary {
 
     @Override
     public int getFrequency(final String word) {
+        if (isDefinitelyAbsent(word)) return NOT_A_PROBABILITY;
         if (mLock.readLock().tryLock()) {
             try {
                 return mBinaryDictionary.getFrequency(word);
@@ -95,6 +137,53 @@ public final class ReadOnlyBinaryDictionary extends Dictionary {
         return NOT_A_PROBABILITY;
     }
 
+    @Override
+    public void getFrequencies(final PackedWords words, final int[] outFrequencies) {
+        final int wordCount = words.getWordCount();
+        Arrays.fill(outFrequencies, 0, wordCount, NOT_A_PROBABILITY);
+        final WordFilter wordFilter = mWordFilter;
+        PackedWords wordsToLookUp = words;
+        int[] indices = null;
+        if (wordFilter != null) {
+            final int[] codePoints = words.getCodePoints();
+            final int[] wordStarts = words.getWordStarts();
+            indices = new int[wordCount];
+            int count = 0;
+            for (int i = 0; i < wordCount; i++) {
+                if (wordFilter.mightContain(codePoints, wordStarts[i], wordStarts[i + 1] - wordStarts[i]))
+                    indices[count++] = i;
+            }
+            if (count == 0) return;
+            if (count == wordCount) {
+                indices = null;
+            } else {
+                wordsToLookUp = new PackedWords();
+                for (int i = 0; i < count; i++) {
+                    wordsToLookUp.add(words.getWord(indices[i]));
+                }
+            }
+        }
+        if (!mLock.readLock().tryLock()) return;
+        try {
+            if (indices == null) {
+                mBinaryDictionary.getFrequencies(words, outFrequencies);
+                return;
+            }
+            final int[] frequencies = new int[wordsToLookUp.getWordCount()];
+            mBinaryDictionary.getFrequencies(wordsToLookUp, frequencies);
+            for (int i = 0; i < frequencies.length; i++) {
+                outFrequencies[indices[i]] = frequencies[i];
+            }
+        } finally {
+            mLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void isValidWords(final PackedWords words, final boolean[] outIsValid) {
+        isValidWordsByFrequency(words, outIsValid);
+    }
+
     @Override
     public int getMaxFrequencyOfExactMatches(final String word) {
         if (mLock.readLock().tryLock()) {
@@ -39,6 +39,7 @@ import helium314.keyboard.latin.inputlogic.PrivateCommandPerformer;
 import helium314.keyboard.latin.settings.SpacingAndPunctuations;
 import helium314.keyboard.latin.utils.CapsModeUtils;
 import helium314.keyboard.latin.utils.DebugLogUtils;
+import helium314.keyboard.latin.utils.LatencyTracer;
 import helium314.keyboard.latin.utils.NgramContextUtils;
 import helium314.keyboard.latin.utils.ScriptUtils;
 import helium314.keyboard.latin.utils.SpannableStringUtils;
@@ -63,6 +64,11 @@ public final class RichInputConnection implements PrivateCommandPerformer {
     private static final int NUM_CHARS_TO_GET_BEFORE_CURSOR = 40;
     private static final int NUM_CHARS_TO_GET_AFTER_CURSOR = 40;
     private static final int INVALID_CURSOR_POSITION = -1;
+    /**
+     * The cached text before the cursor is trimmed to {@link Constants#EDITOR_CONTENTS_CACHE_SIZE}
+     * once it is this long, so typing long texts neither grows it forever nor trims on every commit.
+     */
+    private static final int MAX_CACHED_CHARS_BEFORE_CURSOR = 2 * Constants.EDITOR_CONTENTS_CACHE_SIZE;
 
     /**
      * The amount of time a {@link #reloadTextCache} call needs to take for the keyboard to enter
@@ -114,6 +120,20 @@ public final class RichInputConnection implements PrivateCommandPerformer {
      * This contains the currently composing text, as LatinIME thinks the TextView is seeing it.
      */
     private final StringBuilder mComposingText = new StringBuilder();
+    /**
+     * This contains the text immediately following the selection end, or null if it's not known.
+     * It is not changed by our own edits, which only replace text before the cursor or the
+     * selection, but it is dropped whenever the cursor is moved or text after the cursor may change.
+     * It's replaced as a whole because it may be read from worker threads.
+     */
+    @Nullable private volatile TextAfterCursorCache mTextAfterCursorCache;
+    /**
+     * The composing region set by {@link #setComposingRegion} may extend after the cursor, then
+     * text after the cursor changes when the composing text is replaced.
+     */
+    private boolean mComposingRegionExtendsAfterCursor;
+    private int mTextCacheHitCount;
+    private int mTextCacheMissCount;
 
     /**
      * This variable is a temporary object used in {@link #commitText(CharSequence,int)}
@@ -151,6 +171,19 @@ public final class RichInputConnection implements PrivateCommandPerformer {
 
     public void onStartInput() {
         mLastSlowInputConnectionTime = -SLOW_INPUTCONNECTION_PERSIST_MS;
+        invalidateTextAfterCursorCache();
+        mTextCacheHitCount = 0;
+        mTextCacheMissCount = 0;
+    }
+
+    /** Returns how often text around the cursor could be taken from the caches since input started. */
+    public int getTextCacheHitCount() {
+        return mTextCacheHitCount;
+    }
+
+    /** Returns how often text around the cursor had to be requested from the editor since input started. */
+    public int getTextCacheMissCount() {
+        return mTextCacheMissCount;
     }
 
     private void checkConsistencyForDebug() {
@@ -255,6 +288,8 @@ public final class RichInputConnection implements PrivateCommandPerformer {
      */
     private boolean reloadTextCache() {
         mCommittedTextBeforeComposingText.setLength(0);
+        // reloading means the cursor may have moved, or the text was changed by someone else
+        invalidateTextAfterCursorCache();
         // Clearing composing text was not in original AOSP and OpenBoard, but why? should actually
         // be necessary when reloading text. Only when called by setSelection, mComposingText isn't
         // always empty, but looks like things still work normally
@@ -303,6 +338,8 @@ public final class RichInputConnection implements PrivateCommandPerformer {
         // it works, but it's wrong and should be fixed.
         mCommittedTextBeforeComposingText.append(mComposingText);
         mComposingText.setLength(0);
+        mComposingRegionExtendsAfterCursor = false;
+        trimTextBeforeCursorCache();
         if (isConnected()) {
             mIC.finishComposingText();
         }
@@ -322,6 +359,8 @@ public final class RichInputConnection implements PrivateCommandPerformer {
         if (DEBUG_BATCH_NESTING) checkBatchEdit();
         if (DEBUG_PREVIOUS_TEXT) checkConsistencyForDebug();
         mCommittedTextBeforeComposingText.append(text);
+        trimTextBeforeCursorCache();
+        onComposingTextReplaced();
         // TODO: the following is exceedingly error-prone. Right now when the cursor is in the
         //  middle of the composing word mComposingText only holds the part of the composing text
         //  that is before the cursor, so this actually works, but it's terribly confusing. Fix this.
@@ -350,7 +389,9 @@ public final class RichInputConnection implements PrivateCommandPerformer {
                     }
                 }
             }
+            final long startTime = LatencyTracer.start();
             mIC.commitText(mTempObjectForCommitText, newCursorPosition);
+            LatencyTracer.end(LatencyTracer.STAGE_INPUT_CONNECTION, startTime);
         }
     }
 
@@ -368,6 +409,39 @@ public final class RichInputConnection implements PrivateCommandPerformer {
         return TextUtils.isEmpty(after);
     }
 
+    // cut the start of the cached text before the cursor if it's getting too long
+    private void trimTextBeforeCursorCache() {
+        final int length = mCommittedTextBeforeComposingText.length();
+        if (length <= MAX_CACHED_CHARS_BEFORE_CURSOR) return;
+        int start = length - Constants.EDITOR_CONTENTS_CACHE_SIZE;
+        // don't split a surrogate pair
+        if (Character.isLowSurrogate(mCommittedTextBeforeComposingText.charAt(start))) start++;
+        mCommittedTextBeforeComposingText.delete(0, start);
+    }
+
+    private void invalidateTextAfterCursorCache() {
+        mTextAfterCursorCache = null;
+    }
+
+    /**
+     * Called for every selection update from the editor, before it's handled. Updates we expected
+     * from our own edits keep the text after the cursor, but if the editor moved the cursor by
+     * itself it may have changed the text too.
+     */
+    public void onSelectionUpdate(final int oldSelStart, final int oldSelEnd,
+            final int newSelStart, final int newSelEnd) {
+        if (!isBelatedExpectedUpdate(oldSelStart, newSelStart, oldSelEnd, newSelEnd)) {
+            invalidateTextAfterCursorCache();
+        }
+    }
+
+    // if the composing region reaches after the cursor, replacing the composing text changes the text after the cursor
+    private void onComposingTextReplaced() {
+        if (!mComposingRegionExtendsAfterCursor) return;
+        mComposingRegionExtendsAfterCursor = false;
+        invalidateTextAfterCursorCache();
+    }
+
     /**
      * Gets the caps modes we should be in after this specific string.
      * <p>
@@ -453,8 +527,10 @@ public final class RichInputConnection implements PrivateCommandPerformer {
             if (s.length() > n) {
                 s.delete(0, s.length() - n);
             }
+            mTextCacheHitCount++;
             return s;
         }
+        mTextCacheMissCount++;
         return getTextBeforeCursorAndDetectLaggyConnection(
                 OPERATION_GET_TEXT_BEFORE_CURSOR,
                 SLOW_INPUT_CONNECTION_ON_PARTIAL_RELOAD_MS,
@@ -468,7 +544,9 @@ public final class RichInputConnection implements PrivateCommandPerformer {
             return null;
         }
         final long startTime = SystemClock.uptimeMillis();
+        final long traceStartTime = LatencyTracer.start();
         final CharSequence result = mIC.getTextBeforeCursor(n, flags);
+        LatencyTracer.end(LatencyTracer.STAGE_INPUT_CONNECTION, traceStartTime);
         detectLaggyConnection(operation, timeout, startTime);
         // inconsistent state can occur for (at least) two reasons
         // 1. the app actively changes text field content, e.g. joplin when deleting "list markers like 2.
@@ -522,10 +600,33 @@ public final class RichInputConnection implements PrivateCommandPerformer {
     }
 
     @Nullable public CharSequence getTextAfterCursor(final int n, final int flags) {
-        return getTextAfterCursorAndDetectLaggyConnection(
+        // styled text is not cached
+        if (flags != 0) {
+            mTextCacheMissCount++;
+            return getTextAfterCursorAndDetectLaggyConnection(
+                    OPERATION_GET_TEXT_AFTER_CURSOR,
+                    SLOW_INPUT_CONNECTION_ON_PARTIAL_RELOAD_MS,
+                    n, flags);
+        }
+        final TextAfterCursorCache cache = mTextAfterCursorCache;
+        if (cache != null && (cache.mText.length() >= n || cache.mReachesEndOfText)) {
+            mTextCacheHitCount++;
+            return cache.mText.length() > n ? cache.mText.substring(0, n) : cache.mText;
+        }
+        mTextCacheMissCount++;
+        final int charsToGet = Math.max(n, NUM_CHARS_TO_GET_AFTER_CURSOR);
+        final CharSequence result = getTextAfterCursorAndDetectLaggyConnection(
                 OPERATION_GET_TEXT_AFTER_CURSOR,
                 SLOW_INPUT_CONNECTION_ON_PARTIAL_RELOAD_MS,
-                n, flags);
+                charsToGet, 0);
+        if (result == null) {
+            return null;
+        }
+        final String text = result.toString();
+        if (INVALID_CURSOR_POSITION != mExpectedSelEnd) {
+            mTextAfterCursorCache = new TextAfterCursorCache(text, text.length() < charsToGet);
+        }
+        return text.length() > n ? text.substring(0, n) : text;
     }
 
     @Nullable private CharSequence getTextAfterCursorAndDetectLaggyConnection(
@@ -535,7 +636,9 @@ public final class RichInputConnection implements PrivateCommandPerformer {
             return null;
         }
         final long startTime = SystemClock.uptimeMillis();
+        final long traceStartTime = LatencyTracer.start();
         final CharSequence result = mIC.getTextAfterCursor(n, flags);
+        LatencyTracer.end(LatencyTracer.STAGE_INPUT_CONNECTION, traceStartTime);
         detectLaggyConnection(operation, timeout, startTime);
         return result;
     }
@@ -579,7 +682,9 @@ public final class RichInputConnection implements PrivateCommandPerformer {
             mExpectedSelStart = 0;
         }
         if (isConnected()) {
+            final long startTime = LatencyTracer.start();
             mIC.deleteSurroundingText(beforeLength, 0);
+            LatencyTracer.end(LatencyTracer.STAGE_INPUT_CONNECTION, startTime);
         }
         if (DEBUG_PREVIOUS_TEXT) checkConsistencyForDebug();
     }
@@ -632,14 +737,19 @@ public final class RichInputConnection implements PrivateCommandPerformer {
                 break;
             default:
                 final int codePoint = keyEvent.getUnicodeChar();
-                if (Character.isISOControl(codePoint))
-                    break; // don't append text if there is no actual text
+                if (Character.isISOControl(codePoint)) {
+                    // don't append text if there is no actual text, but e.g. arrow keys or forward delete
+                    // may move the cursor or change the text after it
+                    invalidateTextAfterCursorCache();
+                    break;
+                }
                 final String text = StringUtils.newSingleCodePointString(codePoint);
                 mCommittedTextBeforeComposingText.append(text);
                 mExpectedSelStart += text.length();
                 mExpectedSelEnd = mExpectedSelStart;
                 break;
             }
+            trimTextBeforeCursorCache();
         }
         if (isConnected()) {
             mIC.sendKeyEvent(keyEvent);
@@ -649,6 +759,7 @@ public final class RichInputConnection implements PrivateCommandPerformer {
     public void setComposingRegion(final int start, final int end) {
         if (DEBUG_BATCH_NESTING) checkBatchEdit();
         if (DEBUG_PREVIOUS_TEXT) checkConsistencyForDebug();
+        mComposingRegionExtendsAfterCursor = end > mExpectedSelEnd;
         final int moveBy = mExpectedSelStart - start; // determine now, as mExpectedSelStart may change in getTextBeforeCursor
         final CharSequence textBeforeCursor =
                 getTextBeforeCursor(Constants.EDITOR_CONTENTS_CACHE_SIZE + (end - start), 0);
@@ -674,6 +785,7 @@ public final class RichInputConnection implements PrivateCommandPerformer {
     public boolean setComposingText(final CharSequence text, final int newCursorPosition) {
         if (DEBUG_BATCH_NESTING) checkBatchEdit();
         if (DEBUG_PREVIOUS_TEXT) checkConsistencyForDebug();
+        onComposingTextReplaced();
         mExpectedSelStart += text.length() - mComposingText.length();
         mExpectedSelEnd = mExpectedSelStart;
         mComposingText.setLength(0);
@@ -681,7 +793,9 @@ public final class RichInputConnection implements PrivateCommandPerformer {
         // TODO: support values of newCursorPosition != 1. At this time, this is never called with
         //  newCursorPosition != 1.
         if (isConnected()) {
+            final long startTime = LatencyTracer.start();
             mIC.setComposingText(text, newCursorPosition);
+            LatencyTracer.end(LatencyTracer.STAGE_INPUT_CONNECTION, startTime);
             if (!Settings.getInstance().getCurrent().mInputAttributes.mShouldShowSuggestions && text.length() > 0) {
                 // We have a field that disables suggestions, but still committed text is set.
                 // This might lead to weird bugs (e.g. https://github.com/Helium314/HeliBoard/issues/225), so better do
@@ -718,7 +832,9 @@ public final class RichInputConnection implements PrivateCommandPerformer {
         mExpectedSelStart = start;
         mExpectedSelEnd = end;
         if (isConnected()) {
+            final long startTime = LatencyTracer.start();
             final boolean isIcValid = mIC.setSelection(start, end);
+            LatencyTracer.end(LatencyTracer.STAGE_INPUT_CONNECTION, startTime);
             if (!isIcValid) {
                 return false;
             }
@@ -731,6 +847,7 @@ public final class RichInputConnection implements PrivateCommandPerformer {
         if (mExpectedSelStart != mExpectedSelEnd && mExpectedSelStart == 0 && noTextAfterCursor()) { // all text already selected
             mIC.setSelection(mExpectedSelEnd, mExpectedSelEnd);
         } else mIC.performContextMenuAction(android.R.id.selectAll);
+        invalidateTextAfterCursorCache();
     }
 
     public void selectWord(final SpacingAndPunctuations spacingAndPunctuations, final String script) {
@@ -741,6 +858,7 @@ public final class RichInputConnection implements PrivateCommandPerformer {
         }
         final TextRange range = getWordRangeAtCursor(spacingAndPunctuations, script);
         if (range == null) return;
+        invalidateTextAfterCursorCache();
         mIC.setSelection(mExpectedSelStart - range.getNumberOfCharsInWordBeforeCursor(), mExpectedSelStart + range.getNumberOfCharsInWordAfterCursor());
     }
 
@@ -785,6 +903,8 @@ public final class RichInputConnection implements PrivateCommandPerformer {
         // text should never be null, but just in case, it's better to insert nothing than to crash
         if (null == text) text = "";
         mCommittedTextBeforeComposingText.append(text);
+        trimTextBeforeCursorCache();
+        onComposingTextReplaced();
         mExpectedSelStart += text.length() - mComposingText.length();
         mExpectedSelEnd = mExpectedSelStart;
         mComposingText.setLength(0);
@@ -1246,4 +1366,15 @@ public final class RichInputConnection implements PrivateCommandPerformer {
             | (requestImmediateCallback ? InputConnection.CURSOR_UPDATE_IMMEDIATE : 0);
         return mIC.requestCursorUpdates(cursorUpdateMode);
     }
+
+    private static final class TextAfterCursorCache {
+        @NonNull final String mText;
+        // whether mText contains all text after the cursor, and not just the start of it
+        final boolean mReachesEndOfText;
+
+        TextAfterCursorCache(@NonNull final String text, final boolean reachesEndOfText) {
+            mText = text;
+            mReachesEndOfText = reachesEndOfText;
+        }
+    }
 }
@@ -31,10 +31,37 @@ import java.util.Locale
 class Suggest(private val mDictionaryFacilitator: DictionaryFacilitator) {
     private var mAutoCorrectionThreshold = 0f
     private val mPlausibilityThreshold = 0f
-    private val nextWordSuggestionsCache = HashMap<NgramContext, SuggestionResults>()
+    // accessed from the UI thread and the input logic handler thread, synchronized on the cache itself
+    private val nextWordSuggestionsCache = object : LinkedHashMap<NgramContext, SuggestionResults>(16, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<NgramContext, SuggestionResults>?) =
+            size > MAX_NEXT_WORD_SUGGESTIONS_CACHE_SIZE
+    }
 
     // cache cleared whenever LatinIME.loadSettings is called, notably on changing layout and switching input fields
-    fun clearNextWordSuggestionsCache() = nextWordSuggestionsCache.clear()
+    fun clearNextWordSuggestionsCache() = synchronized(nextWordSuggestionsCache) { nextWordSuggestionsCache.clear() }
+
+    /**
+     * Removes cached next word suggestions that may change when learning or unlearning a word after [ngramContext],
+     * i.e. all contexts with the same previous word.
+     */
+    fun invalidateNextWordSuggestions(ngramContext: NgramContext) {
+        val prevWord = ngramContext.getNthPrevWord(1)
+        val isBeginningOfSentence = ngramContext.isNthPrevWordBeginningOfSentence(1)
+        synchronized(nextWordSuggestionsCache) {
+            nextWordSuggestionsCache.keys.removeAll {
+                it.isNthPrevWordBeginningOfSentence(1) == isBeginningOfSentence && TextUtils.equals(it.getNthPrevWord(1), prevWord)
+            }
+        }
+    }
+
+    /**
+     * Computes next word suggestions for [ngramContext] so they are cached when needed.
+     * Must be called on the same thread as [getSuggestedWords], as dictionaries share a session for typing.
+     */
+    fun prefetchNextWordSuggestions(ngramContext: NgramContext, keyboard: Keyboard,
+                                    settingsValuesForSuggestion: SettingsValuesForSuggestion) {
+        getNextWordSuggestions(ngramContext, keyboard, SuggestedWords.INPUT_STYLE_TYPING, settingsValuesForSuggestion)
+    }
 
     /**
      * Set the normalized-score threshold for a suggestion to be considered strong enough that we
@@ -49,15 +76,20 @@ class Suggest(private val mDictionaryFacilitator: DictionaryFacilitator) {
         fun onGetSuggestedWords(suggestedWords: SuggestedWords?)
     }
 
+    /**
+     * @param allowLateSuggestions whether suggestions of slow secondary locales may be shown in a follow-up update,
+     * see [DictionaryFacilitator.getSuggestionResults]. Must be false if the result may be used for auto-correction.
+     */
     fun getSuggestedWords(wordComposer: WordComposer, ngramContext: NgramContext, keyboard: Keyboard,
                           settingsValuesForSuggestion: SettingsValuesForSuggestion, isCorrectionEnabled: Boolean,
-                          inputStyle: Int, sequenceNumber: Int, callback: OnGetSuggestedWordsCallback) {
+                          inputStyle: Int, sequenceNumber: Int, allowLateSuggestions: Boolean,
+                          callback: OnGetSuggestedWordsCallback) {
         if (wordComposer.isBatchMode) {
             getSuggestedWordsForBatchInput(wordComposer, ngramContext, keyboard, settingsValuesForSuggestion,
                 inputStyle, sequenceNumber, callback)
         } else {
             getSuggestedWordsForNonBatchInput(wordComposer, ngramContext, keyboard, settingsValuesForSuggestion,
-                inputStyle, isCorrectionEnabled, sequenceNumber, callback)
+                inputStyle, isCorrectionEnabled, sequenceNumber, allowLateSuggestions, callback)
         }
     }
 
@@ -65,13 +97,14 @@ class Suggest(private val mDictionaryFacilitator: DictionaryFacilitator) {
     // and calls the callback function with the suggestions.
     private fun getSuggestedWordsForNonBatchInput(wordComposer: WordComposer, ngramContext: NgramContext, keyboard: Keyboard,
                       settingsValuesForSuggestion: SettingsValuesForSuggestion, inputStyleIfNotPrediction: Int,
-                      isCorrectionEnabled: Boolean, sequenceNumber: Int, callback: OnGetSuggestedWordsCallback) {
+                      isCorrectionEnabled: Boolean, sequenceNumber: Int, allowLateSuggestions: Boolean,
+                      callback: OnGetSuggestedWordsCallback) {
         val typedWordString = wordComposer.typedWord
         val resultsArePredictions = !wordComposer.isComposingWord
         val suggestionResults = if (typedWordString.isEmpty())
                 getNextWordSuggestions(ngramContext, keyboard, inputStyleIfNotPrediction, settingsValuesForSuggestion)
             else mDictionaryFacilitator.getSuggestionResults(wordComposer.composedDataSnapshot, ngramContext, keyboard,
-                settingsValuesForSuggestion, SESSION_ID_TYPING, inputStyleIfNotPrediction)
+                settingsValuesForSuggestion, SESSION_ID_TYPING, inputStyleIfNotPrediction, allowLateSuggestions)
         val trailingSingleQuotesCount = StringUtils.getTrailingSingleQuotesCount(typedWordString)
         val suggestionsContainer = getTransformedSuggestedWordInfoList(wordComposer, suggestionResults,
             trailingSingleQuotesCount, mDictionaryFacilitator.mainLocale)
@@ -258,7 +291,7 @@ class Suggest(private val mDictionaryFacilitator: DictionaryFacilitator) {
     ) {
         val suggestionResults = mDictionaryFacilitator.getSuggestionResults(
             wordComposer.composedDataSnapshot, ngramContext, keyboard,
-            settingsValuesForSuggestion, SESSION_ID_GESTURE, inputStyle
+            settingsValuesForSuggestion, SESSION_ID_GESTURE, inputStyle, false
         )
         replaceSingleLetterFirstSuggestion(suggestionResults)
 
@@ -371,11 +404,11 @@ class Suggest(private val mDictionaryFacilitator: DictionaryFacilitator) {
     /** get suggestions based on the current ngram context, with an empty typed word (that's what next word suggestions do)  */
     private fun getNextWordSuggestions(ngramContext: NgramContext, keyboard: Keyboard, inputStyle: Int,
                                        settingsValuesForSuggestion: SettingsValuesForSuggestion): SuggestionResults {
-        val cachedResults = nextWordSuggestionsCache[ngramContext]
+        val cachedResults = synchronized(nextWordSuggestionsCache) { nextWordSuggestionsCache[ngramContext] }
         if (cachedResults != null) return cachedResults
         val newResults = mDictionaryFacilitator.getSuggestionResults(ComposedData(InputPointers(1),
-            false, ""), ngramContext, keyboard, settingsValuesForSuggestion, SESSION_ID_TYPING, inputStyle)
-        nextWordSuggestionsCache[ngramContext] = newResults
+            false, ""), ngramContext, keyboard, settingsValuesForSuggestion, SESSION_ID_TYPING, inputStyle, false)
+        synchronized(nextWordSuggestionsCache) { nextWordSuggestionsCache[ngramContext] = newResults }
         return newResults
     }
 
@@ -391,6 +424,8 @@ class Suggest(private val mDictionaryFacilitator: DictionaryFacilitator) {
         private const val SUPPRESS_SUGGEST_THRESHOLD = -2000000000
 
         private const val MAXIMUM_AUTO_CORRECT_LENGTH_FOR_GERMAN = 12
+
+        private const val MAX_NEXT_WORD_SUGGESTIONS_CACHE_SIZE = 50
         // TODO: should we add Finnish here?
         private val sLanguageToMaximumAutoCorrectionWithSpaceLength = hashMapOf(Locale.GERMAN.language to MAXIMUM_AUTO_CORRECT_LENGTH_FOR_GERMAN)
 
@@ -6,6 +6,7 @@
 
 package helium314.keyboard.latin;
 
+import android.content.ContentUris;
 import android.content.Context;
 import android.database.ContentObserver;
 import android.database.Cursor;
@@ -18,12 +19,18 @@ import androidx.annotation.Nullable;
 
 import com.android.inputmethod.latin.BinaryDictionary;
 
+import helium314.keyboard.latin.UserDictionarySnapshot.Row;
 import helium314.keyboard.latin.utils.Log;
 import helium314.keyboard.latin.utils.SubtypeLocaleUtils;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.Locale;
+import java.util.Map;
 
 /**
  * An expandable dictionary that stores the words in the user dictionary provider into a binary
@@ -39,13 +46,17 @@ public class UserBinaryDictionary extends ExpandableBinaryDictionary {
     // Shortcut frequency is 0~15, with 15 = whitelist. We don't want user dictionary entries
     // to auto-correct, so we set this to the highest frequency that won't, i.e. 14.
     private static final int USER_DICT_SHORTCUT_FREQUENCY = 14;
+    // more changes than this are applied by recreating the dictionary, e.g. when importing words
+    private static final int MAX_INCREMENTAL_CHANGES = 50;
 
     private static final String[] PROJECTION_QUERY_WITH_SHORTCUT = new String[] {
+            Words._ID,
             Words.WORD,
             Words.SHORTCUT,
             Words.FREQUENCY,
     };
     private static final String[] PROJECTION_QUERY_WITHOUT_SHORTCUT = new String[] {
+            Words._ID,
             Words.WORD,
             Words.FREQUENCY,
     };
@@ -56,6 +67,42 @@ public class UserBinaryDictionary extends ExpandableBinaryDictionary {
     // this really needs to be the locale string, as it interacts with system
     final private String mLocaleString;
     final private boolean mAlsoUseMoreRestrictiveLocales;
+    private String mLocaleSelection;
+    private String[] mLocaleSelectionArgs;
+
+    // the rows currently in the dictionary, only accessed with the write lock
+    private final UserDictionarySnapshot mSnapshot = new UserDictionarySnapshot();
+    private boolean mHasSnapshot;
+
+    // ids of changed rows that are not yet applied, synchronized using mPendingChanges
+    private final HashSet<Long> mPendingChanges = new HashSet<>();
+    private boolean mHasPendingUnknownChange;
+    private boolean mIsUpdateScheduled;
+
+    private final UserDictionarySnapshot.EntryWriter mEntryWriter = new UserDictionarySnapshot.EntryWriter() {
+        @Override
+        public void addWord(final String word, final int frequency) {
+            runGCIfRequiredLocked(true /* mindsBlockByGC */);
+            addUnigramLocked(word, frequency, null /* shortcutTarget */,
+                    0 /* shortcutFreq */, false /* isNotAWord */,
+                    false /* isPossiblyOffensive */,
+                    BinaryDictionary.NOT_A_VALID_TIMESTAMP);
+        }
+
+        @Override
+        public void addShortcut(final String shortcut, final String word, final int frequency) {
+            runGCIfRequiredLocked(true /* mindsBlockByGC */);
+            addUnigramLocked(shortcut, frequency, word,
+                    USER_DICT_SHORTCUT_FREQUENCY, true /* isNotAWord */,
+                    false /* isPossiblyOffensive */,
+                    BinaryDictionary.NOT_A_VALID_TIMESTAMP);
+        }
+
+        @Override
+        public void removeEntry(final String wordOrShortcut) {
+            getBinaryDictionary().removeUnigramEntry(wordOrShortcut);
+        }
+    };
 
     protected UserBinaryDictionary(final Context context, final Locale locale,
                                    final boolean alsoUseMoreRestrictiveLocales,
@@ -70,15 +117,33 @@ public class UserBinaryDictionary extends ExpandableBinaryDictionary {
             mLocaleString = localeStr;
         }
         mAlsoUseMoreRestrictiveLocales = alsoUseMoreRestrictiveLocales;
+        initLocaleSelection();
 
         mObserver = new ContentObserver(null) {
             @Override
             public void onChange(final boolean self, final Uri uri) {
-                setNeedsToRecreate();
+                onWordsChanged(uri);
             }
         };
         context.getContentResolver().registerContentObserver(Words.CONTENT_URI, true, mObserver);
         reloadDictionaryIfRequired();
+        // If the dictionary is loaded from file, check it contains the current rows, so later changes
+        // can be applied incrementally. This runs after loading, because write tasks are executed in order.
+        asyncExecuteTaskWithWriteLock(() -> {
+            if (mHasSnapshot || getBinaryDictionary() == null || isNeededToRecreate()) return;
+            final LinkedHashMap<Long, Row> rows = queryRows(null, null);
+            if (rows == null) return;
+            for (final Row row : rows.values()) {
+                if (!isInDictionaryLocked(row.mWord)) {
+                    // words were added while we were not observing the provider
+                    setNeedsToRecreate();
+                    reloadDictionaryIfRequired();
+                    return;
+                }
+            }
+            mSnapshot.reset(rows);
+            mHasSnapshot = true;
+        });
     }
 
     public static UserBinaryDictionary getDictionary(
@@ -98,6 +163,20 @@ public class UserBinaryDictionary extends ExpandableBinaryDictionary {
 
     @Override
     public void loadInitialContentsLocked() {
+        final LinkedHashMap<Long, Row> rows = queryRows(null, null);
+        mSnapshot.reset(Collections.emptyMap());
+        mHasSnapshot = false;
+        if (rows == null) return;
+        for (final Map.Entry<Long, Row> entry : rows.entrySet()) {
+            mSnapshot.apply(entry.getKey(), entry.getValue(), mEntryWriter);
+        }
+        mHasSnapshot = true;
+    }
+
+    /**
+     * Creates the selection for words of this dictionary's locale, including words for all locales.
+     */
+    private void initLocaleSelection() {
         // Split the locale. For example "en" => ["en"], "de_DE" => ["de", "DE"],
         // "en_US_foo_bar_qux" => ["en", "US", "foo_bar_qux"] because of the limit of 3.
         // This is correct for locale processing. (well, and it sucks e.g. for sr-Latn, resp. sr__#Latn as string)
@@ -144,25 +223,46 @@ public class UserBinaryDictionary extends ExpandableBinaryDictionary {
         } else {
             requestArguments = localeElements;
         }
-        final String requestString = request.toString();
+        mLocaleSelection = request.toString();
+        mLocaleSelectionArgs = requestArguments;
+    }
+
+    /**
+     * Returns the valid rows for this dictionary's locale, optionally restricted by an additional selection.
+     * @return the rows by id, or null if the user dictionary provider could not be queried
+     */
+    @Nullable
+    private LinkedHashMap<Long, Row> queryRows(@Nullable final String extraSelection,
+            @Nullable final String[] extraSelectionArgs) {
+        String selection = mLocaleSelection;
+        String[] selectionArgs = mLocaleSelectionArgs;
+        if (extraSelection != null) {
+            selection = "(" + selection + ") and (" + extraSelection + ")";
+            final int length = selectionArgs.length;
+            selectionArgs = Arrays.copyOf(selectionArgs, length + extraSelectionArgs.length);
+            System.arraycopy(extraSelectionArgs, 0, selectionArgs, length, extraSelectionArgs.length);
+        }
         try {
-            addWordsFromProjectionLocked(PROJECTION_QUERY_WITH_SHORTCUT, requestString, requestArguments);
+            return queryRowsWithProjection(PROJECTION_QUERY_WITH_SHORTCUT, selection, selectionArgs);
         } catch (IllegalArgumentException e) {
             // This may happen on some non-compliant devices where the declared API is JB+ but
             // the SHORTCUT column is not present for some reason.
-            addWordsFromProjectionLocked(PROJECTION_QUERY_WITHOUT_SHORTCUT, requestString, requestArguments);
+            return queryRowsWithProjection(PROJECTION_QUERY_WITHOUT_SHORTCUT, selection, selectionArgs);
         }
     }
 
-    private void addWordsFromProjectionLocked(final String[] query, String request, final String[] requestArguments)
-            throws IllegalArgumentException {
+    @Nullable
+    private LinkedHashMap<Long, Row> queryRowsWithProjection(final String[] query, final String request,
+            final String[] requestArguments) throws IllegalArgumentException {
         Cursor cursor = null;
         try {
             cursor = mContext.getContentResolver().query(
                     Words.CONTENT_URI, query, request, requestArguments, null);
-            addWordsLocked(cursor);
+            if (cursor == null) return null;
+            return readRows(cursor);
         } catch (final SQLiteException e) {
             Log.e(TAG, "SQLiteException in the remote User dictionary process.", e);
+            return null;
         } finally {
             try {
                 if (null != cursor) cursor.close();
@@ -184,35 +284,104 @@ public class UserBinaryDictionary extends ExpandableBinaryDictionary {
                 / HISTORICAL_DEFAULT_USER_DICTIONARY_FREQUENCY;
     }
 
-    private void addWordsLocked(final Cursor cursor) {
-        final boolean hasShortcutColumn = true;
-        if (cursor == null) return;
+    private static LinkedHashMap<Long, Row> readRows(final Cursor cursor) {
+        final LinkedHashMap<Long, Row> rows = new LinkedHashMap<>();
         if (cursor.moveToFirst()) {
+            final int indexId = cursor.getColumnIndex(Words._ID);
             final int indexWord = cursor.getColumnIndex(Words.WORD);
-            final int indexShortcut = hasShortcutColumn ? cursor.getColumnIndex(Words.SHORTCUT) : 0;
+            final int indexShortcut = cursor.getColumnIndex(Words.SHORTCUT);
             final int indexFrequency = cursor.getColumnIndex(Words.FREQUENCY);
             while (!cursor.isAfterLast()) {
                 final String word = cursor.getString(indexWord);
-                final String shortcut = hasShortcutColumn ? cursor.getString(indexShortcut) : null;
+                final String shortcut = indexShortcut >= 0 ? cursor.getString(indexShortcut) : null;
                 final int frequency = cursor.getInt(indexFrequency);
                 final int adjustedFrequency = scaleFrequencyFromDefaultToLatinIme(frequency);
                 // Safeguard against adding really long words.
-                if (word.length() <= MAX_WORD_LENGTH) {
-                    runGCIfRequiredLocked(true /* mindsBlockByGC */);
-                    addUnigramLocked(word, adjustedFrequency, null /* shortcutTarget */,
-                            0 /* shortcutFreq */, false /* isNotAWord */,
-                            false /* isPossiblyOffensive */,
-                            BinaryDictionary.NOT_A_VALID_TIMESTAMP);
-                    if (null != shortcut && shortcut.length() <= MAX_WORD_LENGTH) {
-                        runGCIfRequiredLocked(true /* mindsBlockByGC */);
-                        addUnigramLocked(shortcut, adjustedFrequency, word,
-                                USER_DICT_SHORTCUT_FREQUENCY, true /* isNotAWord */,
-                                false /* isPossiblyOffensive */,
-                                BinaryDictionary.NOT_A_VALID_TIMESTAMP);
-                    }
+                if (word != null && word.length() <= MAX_WORD_LENGTH) {
+                    rows.put(cursor.getLong(indexId), new Row(word,
+                            null != shortcut && shortcut.length() <= MAX_WORD_LENGTH ? shortcut : null,
+                            adjustedFrequency));
                 }
                 cursor.moveToNext();
             }
         }
+        return rows;
+    }
+
+    /**
+     * Applies changes of the user dictionary provider. Changes of single rows are applied to the
+     * dictionary directly, many changes (e.g. an import) recreate the dictionary.
+     */
+    private void applyPendingChangesLocked() {
+        final ArrayList<Long> changedIds;
+        final boolean hasUnknownChange;
+        synchronized (mPendingChanges) {
+            changedIds = new ArrayList<>(mPendingChanges);
+            hasUnknownChange = mHasPendingUnknownChange;
+            mPendingChanges.clear();
+            mHasPendingUnknownChange = false;
+            mIsUpdateScheduled = false;
+        }
+        if (getBinaryDictionary() == null || isNeededToRecreate()) {
+            return; // all words will be read when the dictionary is created
+        }
+        if (!mHasSnapshot) {
+            setNeedsToRecreate();
+            return;
+        }
+        if (!hasUnknownChange && changedIds.size() <= MAX_INCREMENTAL_CHANGES) {
+            final String[] ids = new String[changedIds.size()];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = Long.toString(changedIds.get(i));
+            }
+            final String placeholders = TextUtils.join(",", Collections.nCopies(ids.length, "?"));
+            final LinkedHashMap<Long, Row> rows = queryRows(Words._ID + " in (" + placeholders + ")", ids);
+            if (rows == null) {
+                setNeedsToRecreate();
+                return;
+            }
+            // rows that are not found were deleted, or changed to a different locale
+            for (final long id : changedIds) {
+                mSnapshot.apply(id, rows.get(id), mEntryWriter);
+            }
+            getBinaryDictionary().flushWithGCIfHasUpdated();
+            onContentsChangedLocked();
+            return;
+        }
+        final LinkedHashMap<Long, Row> rows = queryRows(null, null);
+        if (rows == null || mSnapshot.countChanges(rows) > MAX_INCREMENTAL_CHANGES) {
+            setNeedsToRecreate();
+            return;
+        }
+        mSnapshot.applyAll(rows, mEntryWriter);
+        // the file is loaded as is next time, so it must not miss the changes
+        getBinaryDictionary().flushWithGCIfHasUpdated();
+        onContentsChangedLocked();
+    }
+
+    private void onWordsChanged(@Nullable final Uri uri) {
+        synchronized (mPendingChanges) {
+            final long id = getRowId(uri);
+            if (id < 0) {
+                mHasPendingUnknownChange = true;
+            } else {
+                mPendingChanges.add(id);
+            }
+            if (mIsUpdateScheduled) return;
+            mIsUpdateScheduled = true;
+        }
+        reloadDictionaryIfRequired();
+        asyncExecuteTaskWithWriteLock(this::applyPendingChangesLocked);
+    }
+
+    // the provider notifies with the uri of the row for changes of single rows
+    private static long getRowId(@Nullable final Uri uri) {
+        if (uri == null || uri.getPathSegments().size() != Words.CONTENT_URI.getPathSegments().size() + 1)
+            return -1;
+        try {
+            return ContentUris.parseId(uri);
+        } catch (final NumberFormatException | UnsupportedOperationException e) {
+            return -1;
+        }
     }
 }
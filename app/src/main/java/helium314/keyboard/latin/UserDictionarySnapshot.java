@@ -0,0 +1,125 @@
+// SPDX-License-Identifier: GPL-3.0-only
+
+package helium314.keyboard.latin;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * The rows of the user dictionary provider that were last written to the user dictionary, used to
+ * turn changes of single rows into the minimal dictionary updates.
+ */
+class UserDictionarySnapshot {
+
+    static final class Row {
+        @NonNull final String mWord;
+        @Nullable final String mShortcut;
+        final int mFrequency;
+
+        Row(@NonNull final String word, @Nullable final String shortcut, final int frequency) {
+            mWord = word;
+            mShortcut = shortcut;
+            mFrequency = frequency;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Row)) return false;
+            final Row row = (Row) o;
+            return mFrequency == row.mFrequency && mWord.equals(row.mWord) && Objects.equals(mShortcut, row.mShortcut);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(mWord, mShortcut, mFrequency);
+        }
+    }
+
+    /** Receives the dictionary updates. */
+    interface EntryWriter {
+        void addWord(String word, int frequency);
+        void addShortcut(String shortcut, String word, int frequency);
+        void removeEntry(String wordOrShortcut);
+    }
+
+    private final HashMap<Long, Row> mRows = new HashMap<>();
+
+    int size() {
+        return mRows.size();
+    }
+
+    /** Replaces the rows without writing anything, for when the dictionary already contains them. */
+    void reset(final Map<Long, Row> rows) {
+        mRows.clear();
+        mRows.putAll(rows);
+    }
+
+    /**
+     * Sets the row with the given id, or removes it if row is null, and writes the necessary
+     * changes. Entries of the old row are removed only if no other row provides them.
+     */
+    void apply(final long id, @Nullable final Row row, final EntryWriter writer) {
+        final Row oldRow = row == null ? mRows.remove(id) : mRows.put(id, row);
+        if (Objects.equals(oldRow, row)) return;
+        if (oldRow != null) {
+            if (row == null || !oldRow.mWord.equals(row.mWord))
+                removeOrRestore(oldRow.mWord, writer);
+            if (oldRow.mShortcut != null && (row == null || !oldRow.mShortcut.equals(row.mShortcut)))
+                removeOrRestore(oldRow.mShortcut, writer);
+        }
+        if (row != null)
+            write(row, writer);
+    }
+
+    /** Returns the number of rows that differ from the given rows. */
+    int countChanges(final Map<Long, Row> rows) {
+        int changes = 0;
+        for (final Map.Entry<Long, Row> entry : rows.entrySet()) {
+            if (!entry.getValue().equals(mRows.get(entry.getKey())))
+                changes++;
+        }
+        for (final Long id : mRows.keySet()) {
+            if (!rows.containsKey(id))
+                changes++;
+        }
+        return changes;
+    }
+
+    /** Applies all differences to the given rows. */
+    void applyAll(final Map<Long, Row> rows, final EntryWriter writer) {
+        for (final Long id : new HashSet<>(mRows.keySet())) {
+            if (!rows.containsKey(id))
+                apply(id, null, writer);
+        }
+        for (final Map.Entry<Long, Row> entry : rows.entrySet()) {
+            apply(entry.getKey(), entry.getValue(), writer);
+        }
+    }
+
+    private static void write(final Row row, final EntryWriter writer) {
+        writer.addWord(row.mWord, row.mFrequency);
+        if (row.mShortcut != null)
+            writer.addShortcut(row.mShortcut, row.mWord, row.mFrequency);
+    }
+
+    // rows may share words, e.g. if the same word is added for different locales
+    private void removeOrRestore(final String wordOrShortcut, final EntryWriter writer) {
+        for (final Row other : mRows.values()) {
+            if (other.mWord.equals(wordOrShortcut)) {
+                writer.addWord(other.mWord, other.mFrequency);
+                return;
+            }
+            if (wordOrShortcut.equals(other.mShortcut)) {
+                writer.addShortcut(other.mShortcut, other.mWord, other.mFrequency);
+                return;
+            }
+        }
+        writer.removeEntry(wordOrShortcut);
+    }
+}
@@ -88,6 +88,32 @@ public final class WordComposer {
             mCombinerChain.setHangul(keyboard.mId.mSubtype.getLocale().getLanguage().equals("ko"));
     }
 
+    private WordComposer(@NonNull final WordComposer source) {
+        mCombinerChain = new CombinerChain(source.mTypedWordCache.toString());
+        mCombiningSpec = source.mCombiningSpec;
+        mEvents = new ArrayList<>(source.mEvents);
+        mInputPointers.copy(source.mInputPointers);
+        mAutoCorrection = source.mAutoCorrection;
+        mIsResumed = source.mIsResumed;
+        mIsBatchMode = source.mIsBatchMode;
+        mRejectedBatchModeSuggestion = source.mRejectedBatchModeSuggestion;
+        mCapsCount = source.mCapsCount;
+        mDigitsCount = source.mDigitsCount;
+        mCapitalizedMode = source.mCapitalizedMode;
+        mCursorPositionWithinWord = source.mCursorPositionWithinWord;
+        mIsOnlyFirstCharCapitalized = source.mIsOnlyFirstCharCapitalized;
+        refreshTypedWordCache();
+    }
+
+    /**
+     * Copy of the state suggestions are computed from, so suggestions can be looked up on another
+     * thread while this composer keeps changing. Combining state is not copied.
+     */
+    @NonNull
+    public WordComposer getSnapshot() {
+        return new WordComposer(this);
+    }
+
     public ComposedData getComposedDataSnapshot() {
         return new ComposedData(getInputPointers(), isBatchMode(), mTypedWordCache.toString());
     }
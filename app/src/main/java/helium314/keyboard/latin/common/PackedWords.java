@@ -0,0 +1,57 @@
+// SPDX-License-Identifier: GPL-3.0-only
+
+package helium314.keyboard.latin.common;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+
+/**
+ * Several words with their code points stored in a single array, for looking up many words in one
+ * dictionary call. Word i consists of the code points from getWordStarts()[i] (inclusive) to
+ * getWordStarts()[i + 1] (exclusive).
+ */
+public final class PackedWords {
+    private final ArrayList<String> mWords = new ArrayList<>();
+    private final ResizableIntArray mCodePoints = new ResizableIntArray(64);
+    private final ResizableIntArray mWordStarts = new ResizableIntArray(9);
+
+    public PackedWords() {
+        mWordStarts.add(0);
+    }
+
+    public void add(@NonNull final String word) {
+        mWords.add(word);
+        for (int i = 0; i < word.length(); i = word.offsetByCodePoints(i, 1)) {
+            mCodePoints.add(word.codePointAt(i));
+        }
+        mWordStarts.add(mCodePoints.getLength());
+    }
+
+    public int getWordCount() {
+        return mWords.size();
+    }
+
+    @NonNull
+    public String getWord(final int index) {
+        return mWords.get(index);
+    }
+
+    /** Returns the code points of all words, the array may be longer than the actual content. */
+    @NonNull
+    public int[] getCodePoints() {
+        return mCodePoints.getPrimitiveArray();
+    }
+
+    /** Returns the start offsets of the words, followed by the end offset of the last word. */
+    @NonNull
+    public int[] getWordStarts() {
+        return mWordStarts.getPrimitiveArray();
+    }
+
+    public void clear() {
+        mWords.clear();
+        mCodePoints.setLength(0);
+        mWordStarts.setLength(1);
+    }
+}
@@ -0,0 +1,159 @@
+// SPDX-License-Identifier: GPL-3.0-only
+
+package helium314.keyboard.latin.common;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Bloom filter over the words of a dictionary. If {@link #mightContain} returns false, the word is
+ * definitely not in the dictionary and the lookup can be skipped. About 1% of the words not in the
+ * dictionary are false positives.
+ */
+public final class WordFilter {
+    // increase when changing the file format or the hash function
+    private static final int VERSION = 2;
+    private static final int MIN_BITS_PER_WORD = 10;
+    private static final int HASH_COUNT = 7;
+
+    private final long[] mBits;
+    private final long mMask;
+    private final int mHashCount;
+
+    private WordFilter(final long[] bits, final int hashCount) {
+        mBits = bits;
+        mMask = bits.length * 64L - 1;
+        mHashCount = hashCount;
+    }
+
+    /** Creates a filter containing the words with the given {@link #hash hashes}. */
+    @NonNull
+    public static WordFilter create(@NonNull final long[] wordHashes) {
+        // bit count must be a power of 2 so the index can be found by masking
+        final long minBits = Math.max(64, (long) wordHashes.length * MIN_BITS_PER_WORD);
+        final int longs = (int) (Long.highestOneBit(minBits - 1) * 2 / 64);
+        final WordFilter filter = new WordFilter(new long[longs], HASH_COUNT);
+        for (final long hash : wordHashes) {
+            filter.add(hash);
+        }
+        return filter;
+    }
+
+    /**
+     * 64 bit FNV-1a over the code points of the word, must match hashWord() in
+     * com_android_inputmethod_latin_BinaryDictionary.cpp.
+     */
+    public static long hash(@NonNull final int[] codePoints, final int start, final int length) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = start; i < start + length; i++) {
+            hash ^= codePoints[i] & 0xffffffffL;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    public static long hash(@NonNull final CharSequence word) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < word.length(); i += Character.charCount(Character.codePointAt(word, i))) {
+            hash ^= Character.codePointAt(word, i) & 0xffffffffL;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    public boolean mightContain(@NonNull final CharSequence word) {
+        return mightContain(hash(word));
+    }
+
+    public boolean mightContain(@NonNull final int[] codePoints, final int start, final int length) {
+        return mightContain(hash(codePoints, start, length));
+    }
+
+    private void add(final long hash) {
+        final long h2 = secondHash(hash);
+        for (int i = 0; i < mHashCount; i++) {
+            final long index = (hash + i * h2) & mMask;
+            mBits[(int) (index >>> 6)] |= 1L << index;
+        }
+    }
+
+    private boolean mightContain(final long hash) {
+        final long h2 = secondHash(hash);
+        for (int i = 0; i < mHashCount; i++) {
+            final long index = (hash + i * h2) & mMask;
+            if ((mBits[(int) (index >>> 6)] & (1L << index)) == 0)
+                return false;
+        }
+        return true;
+    }
+
+    // odd, so double hashing visits different bits
+    private static long secondHash(final long hash) {
+        return ((hash >>> 32) | (hash << 32)) * 0x9e3779b97f4a7c15L | 1;
+    }
+
+    /**
+     * Returns the stored filter, or null if there is none or it can't be read. Truncated or
+     * otherwise corrupt files are detected by their checksum.
+     */
+    @Nullable
+    public static WordFilter read(@NonNull final File file) {
+        if (!file.isFile()) return null;
+        // the checksum must only see the bytes actually read, so it is outside the buffer
+        try (CheckedInputStream checked = new CheckedInputStream(
+                new BufferedInputStream(new FileInputStream(file)), new CRC32());
+             DataInputStream input = new DataInputStream(checked)
+        ) {
+            if (input.readInt() != VERSION) return null;
+            final int hashCount = input.readInt();
+            final int longs = input.readInt();
+            if (hashCount <= 0 || longs <= 0 || Integer.bitCount(longs) != 1
+                    || longs > file.length() / 8) return null;
+            final long[] bits = new long[longs];
+            for (int i = 0; i < longs; i++) {
+                bits[i] = input.readLong();
+            }
+            final long checksum = checked.getChecksum().getValue();
+            if (input.readLong() != checksum || input.read() != -1) return null;
+            return new WordFilter(bits, hashCount);
+        } catch (final IOException e) {
+            return null;
+        }
+    }
+
+    /** Writes the filter to a temporary file which is then renamed, so readers never see a partial file. */
+    public void write(@NonNull final File file) throws IOException {
+        final File tmp = File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+        try (CheckedOutputStream checked = new CheckedOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp)), new CRC32());
+             DataOutputStream output = new DataOutputStream(checked)
+        ) {
+            output.writeInt(VERSION);
+            output.writeInt(mHashCount);
+            output.writeInt(mBits.length);
+            for (final long bits : mBits) {
+                output.writeLong(bits);
+            }
+            output.writeLong(checked.getChecksum().getValue());
+        } catch (final IOException e) {
+            tmp.delete();
+            throw e;
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("could not rename " + tmp);
+        }
+    }
+}
@@ -49,6 +49,7 @@ import helium314.keyboard.latin.settings.SpacingAndPunctuations;
 import helium314.keyboard.latin.suggestions.SuggestionStripViewAccessor;
 import helium314.keyboard.latin.utils.AsyncResultHolder;
 import helium314.keyboard.latin.utils.InputTypeUtils;
+import helium314.keyboard.latin.utils.LatencyTracer;
 import helium314.keyboard.latin.utils.Log;
 import helium314.keyboard.latin.utils.RecapitalizeStatus;
 import helium314.keyboard.latin.utils.ScriptUtils;
@@ -572,6 +573,46 @@ public final class InputLogic {
      * earlier sequence number.
      */
     private int mAutoCommitSequenceNumber = 1;
+    // The latest request of performUpdateSuggestionStrip, null once its result is shown.
+    // Only accessed on the UI thread.
+    private SuggestionRequest mPendingSuggestionRequest;
+
+    /**
+     * The state suggestions are computed from, copied on the UI thread so the lookup on the
+     * non-UI handler thread does not read state that changes with further input.
+     */
+    static final class SuggestionRequest {
+        final WordComposer mWordComposer;
+        final NgramContext mNgramContext;
+        final Keyboard mKeyboard;
+        final SettingsValues mSettingsValues;
+        final int mInputStyle;
+        final int mSequenceNumber;
+        final OnGetSuggestedWordsCallback mCallback;
+        // Set once the suggestions are computed, so a synchronous update can wait for them
+        // instead of looking up the same suggestions again.
+        final AsyncResultHolder<SuggestedWords> mResult = new AsyncResultHolder<>("AsyncSuggest");
+
+        SuggestionRequest(final WordComposer wordComposer, final NgramContext ngramContext,
+                final Keyboard keyboard, final SettingsValues settingsValues, final int inputStyle,
+                final int sequenceNumber, final OnGetSuggestedWordsCallback callback) {
+            mWordComposer = wordComposer;
+            mNgramContext = ngramContext;
+            mKeyboard = keyboard;
+            mSettingsValues = settingsValues;
+            mInputStyle = inputStyle;
+            mSequenceNumber = sequenceNumber;
+            mCallback = callback;
+        }
+
+        /** Whether this request computes suggestions for the given state. */
+        boolean isFor(final WordComposer wordComposer, final NgramContext ngramContext,
+                final Keyboard keyboard, final SettingsValues settingsValues, final int inputStyle) {
+            return mInputStyle == inputStyle && mKeyboard == keyboard && mSettingsValues == settingsValues
+                    && mWordComposer.getTypedWord().equals(wordComposer.getTypedWord())
+                    && mNgramContext.equals(ngramContext);
+        }
+    }
     public void onUpdateBatchInput(final InputPointers batchPointers) {
         mInputLogicHandler.onUpdateBatchInput(batchPointers, mAutoCommitSequenceNumber);
     }
@@ -897,13 +938,15 @@ public final class InputLogic {
         mLastComposedWord = LastComposedWord.NOT_A_COMPOSED_WORD; // avoid storing consecutive emojis
 
         // commit emoji to dictionary, so it ends up in history and can be suggested as next word
+        final NgramContext ngramContext = mConnection.getNgramContextFromNthPreviousWord(settingsValues.mSpacingAndPunctuations, 2);
         mDictionaryFacilitator.addToUserHistory(
                 text,
                 false,
-                mConnection.getNgramContextFromNthPreviousWord(settingsValues.mSpacingAndPunctuations, 2),
+                ngramContext,
                 (int) TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()),
                 settingsValues.mBlockPotentiallyOffensive
         );
+        mSuggest.invalidateNextWordSuggestions(ngramContext);
     }
 
     /**
@@ -1370,6 +1413,7 @@ public final class InputLogic {
         final NgramContext ngramContext = mConnection.getNgramContextFromNthPreviousWord(settingsValues.mSpacingAndPunctuations, 2);
         final long timeStampInSeconds = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis());
         mDictionaryFacilitator.unlearnFromUserHistory(word, ngramContext, timeStampInSeconds, eventType);
+        mSuggest.invalidateNextWordSuggestions(ngramContext);
     }
 
     /**
@@ -1584,6 +1628,7 @@ public final class InputLogic {
         final int timeStampInSeconds = (int)TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis());
         mDictionaryFacilitator.addToUserHistory(word, wasAutoCapitalized, ngramContext,
                 timeStampInSeconds, settingsValues.mBlockPotentiallyOffensive);
+        mSuggest.invalidateNextWordSuggestions(ngramContext);
     }
 
     // strip word separators from end (may be necessary for urls, e.g. when the user has typed
@@ -1600,12 +1645,126 @@ public final class InputLogic {
         return result;
     }
 
+    /**
+     * Updates the suggestion strip without blocking the calling thread.
+     * <p>
+     * Suggestions are computed on the non-UI handler thread, and shown on the UI thread only if no
+     * newer request was made in the meantime. Requests that are superseded before they start are
+     * dropped without looking up any suggestions.
+     */
+    public void performUpdateSuggestionStrip(final SettingsValues settingsValues, final int inputStyle) {
+        if (!needsSuggestionLookup(settingsValues)) {
+            return;
+        }
+        final KeyboardSwitcher keyboardSwitcher = KeyboardSwitcher.getInstance();
+        final Keyboard keyboard = keyboardSwitcher.getKeyboard();
+        if (keyboard == null) {
+            return;
+        }
+        final InputLogicHandler inputLogicHandler = mInputLogicHandler;
+        final int sequenceNumber = inputLogicHandler.supersedeSuggestionRequests();
+        // The lookup runs on another thread, so it gets a copy of everything that changes with
+        // further input instead of reading the composer and the input connection.
+        final WordComposer wordComposer = mWordComposer.getSnapshot();
+        wordComposer.adviseCapitalizedModeBeforeFetchingSuggestions(
+                getActualCapsMode(settingsValues, keyboardSwitcher.getKeyboardShiftMode()));
+        final NgramContext ngramContext = getNgramContextFromNthPreviousWordForSuggestion(
+                settingsValues.mSpacingAndPunctuations, wordComposer.isComposingWord() ? 2 : 1);
+        mPendingSuggestionRequest = new SuggestionRequest(wordComposer, ngramContext, keyboard,
+                settingsValues, inputStyle, sequenceNumber,
+                suggestedWords -> {
+                    if (!inputLogicHandler.isSuggestionRequestCurrent(sequenceNumber)) {
+                        return;
+                    }
+                    mLatinIME.mHandler.showAsyncSuggestionStrip(suggestedWords, sequenceNumber);
+                }
+        );
+        inputLogicHandler.getSuggestedWordsAsync(mPendingSuggestionRequest);
+    }
+
+    /**
+     * Shows suggestions computed by {@link #performUpdateSuggestionStrip(SettingsValues, int)}.
+     * Called on the UI thread.
+     */
+    public void onAsyncSuggestionsReady(final SuggestedWords suggestedWords, final int sequenceNumber) {
+        if (!mInputLogicHandler.isSuggestionRequestCurrent(sequenceNumber)) {
+            // superseded while the result was being posted
+            return;
+        }
+        mPendingSuggestionRequest = null;
+        showSuggestedWords(getSuggestedWordsOrOlderSuggestions(suggestedWords));
+    }
+
+    /**
+     * Whether suggestions requested by {@link #performUpdateSuggestionStrip(SettingsValues, int)}
+     * are still being computed, or computed but not shown yet.
+     */
+    private boolean hasPendingAsyncSuggestions() {
+        final SuggestionRequest request = mPendingSuggestionRequest;
+        return request != null && mInputLogicHandler.isSuggestionRequestCurrent(request.mSequenceNumber);
+    }
+
+    /**
+     * Updates the suggestion strip and waits for the result.
+     * <p>
+     * Only use this if the suggestions are needed right away, e.g. for committing the current
+     * auto-correction. Otherwise use {@link #performUpdateSuggestionStrip(SettingsValues, int)}.
+     * If an asynchronous request for the same input is in flight, its result is used.
+     */
     public void performUpdateSuggestionStripSync(final SettingsValues settingsValues, final int inputStyle) {
         long startTimeMillis = 0;
         if (DebugFlags.DEBUG_ENABLED) {
             startTimeMillis = System.currentTimeMillis();
             Log.d(TAG, "performUpdateSuggestionStripSync()");
         }
+        if (!needsSuggestionLookup(settingsValues)) {
+            return;
+        }
+
+        SuggestedWords suggestedWords = null;
+        final SuggestionRequest pendingRequest = mPendingSuggestionRequest;
+        if (hasPendingAsyncSuggestions() && isPendingRequestForCurrentInput(pendingRequest, settingsValues, inputStyle)) {
+            // Looking up again would queue behind the request in flight, so wait for its result.
+            // This line may cause the current thread to wait.
+            final SuggestedWords asyncSuggestedWords = pendingRequest.mResult.get(null,
+                    Constants.GET_SUGGESTED_WORDS_TIMEOUT);
+            // the request may show slow secondary locales only later, but they are needed now
+            if (asyncSuggestedWords != null && !mDictionaryFacilitator.isMissingLateSuggestions()) {
+                suggestedWords = getSuggestedWordsOrOlderSuggestions(asyncSuggestedWords);
+            }
+        }
+        // results of asynchronous requests still in flight must not overwrite the ones we get here
+        mInputLogicHandler.supersedeSuggestionRequests();
+        mPendingSuggestionRequest = null;
+        if (suggestedWords == null) {
+            final AsyncResultHolder<SuggestedWords> holder = new AsyncResultHolder<>("Suggest");
+            mInputLogicHandler.getSuggestedWords(inputStyle, SuggestedWords.NOT_A_SEQUENCE_NUMBER,
+                    words -> holder.set(getSuggestedWordsOrOlderSuggestions(words))
+            );
+
+            // This line may cause the current thread to wait.
+            suggestedWords = holder.get(null, Constants.GET_SUGGESTED_WORDS_TIMEOUT);
+        }
+        if (suggestedWords != null) {
+            showSuggestedWords(suggestedWords);
+        }
+        if (DebugFlags.DEBUG_ENABLED) {
+            long runTimeMillis = System.currentTimeMillis() - startTimeMillis;
+            Log.d(TAG, "performUpdateSuggestionStripSync() : " + runTimeMillis + " ms to finish");
+        }
+    }
+
+    /** Whether the request computes suggestions for the current input, keyboard and settings. */
+    private boolean isPendingRequestForCurrentInput(final SuggestionRequest request,
+            final SettingsValues settingsValues, final int inputStyle) {
+        final NgramContext ngramContext = getNgramContextFromNthPreviousWordForSuggestion(
+                settingsValues.mSpacingAndPunctuations, mWordComposer.isComposingWord() ? 2 : 1);
+        return request.isFor(mWordComposer, ngramContext, KeyboardSwitcher.getInstance().getKeyboard(),
+                settingsValues, inputStyle);
+    }
+
+    /** Returns whether suggestions need to be looked up, and sets the suggestion strip if not. */
+    private boolean needsSuggestionLookup(final SettingsValues settingsValues) {
         // Check if we have a suggestion engine attached.
         if (!settingsValues.needsToLookupSuggestions()) {
             if (mWordComposer.isComposingWord()) {
@@ -1614,48 +1773,38 @@ public final class InputLogic {
             }
             // Clear the suggestions strip.
             mSuggestionStripViewAccessor.showSuggestionStrip(SuggestedWords.getEmptyInstance());
-            return;
+            return false;
         }
 
         if (!mWordComposer.isComposingWord() && !settingsValues.mBigramPredictionEnabled) {
             mSuggestionStripViewAccessor.setNeutralSuggestionStrip();
-            return;
+            return false;
         }
+        return true;
+    }
 
-        final AsyncResultHolder<SuggestedWords> holder = new AsyncResultHolder<>("Suggest");
-        mInputLogicHandler.getSuggestedWords(inputStyle, SuggestedWords.NOT_A_SEQUENCE_NUMBER,
-                suggestedWords -> {
-                    final String typedWordString = mWordComposer.getTypedWord();
-                    final SuggestedWordInfo typedWordInfo = new SuggestedWordInfo(
-                            typedWordString, "" /* prevWordsContext */,
-                            SuggestedWordInfo.MAX_SCORE,
-                            SuggestedWordInfo.KIND_TYPED, Dictionary.DICTIONARY_USER_TYPED,
-                            SuggestedWordInfo.NOT_AN_INDEX /* indexOfTouchPointOfSecondWord */,
-                            SuggestedWordInfo.NOT_A_CONFIDENCE);
-                    // Show new suggestions if we have at least one. Otherwise keep the old
-                    // suggestions with the new typed word. Exception: if the length of the
-                    // typed word is <= 1 (after a deletion typically) we clear old suggestions.
-                    if (suggestedWords.size() > 1 || typedWordString.length() <= 1) {
-                        holder.set(suggestedWords);
-                    } else {
-                        holder.set(retrieveOlderSuggestions(typedWordInfo, mSuggestedWords));
-                    }
-                }
-        );
-
-        // This line may cause the current thread to wait.
-        final SuggestedWords suggestedWords = holder.get(null,
-                Constants.GET_SUGGESTED_WORDS_TIMEOUT);
-        if (suggestedWords != null) {
-            // Prefer clipboard suggestions (if available and setting is enabled) over beginning of sentence predictions.
-            if (!(suggestedWords.mInputStyle == SuggestedWords.INPUT_STYLE_BEGINNING_OF_SENTENCE_PREDICTION
-                    && mLatinIME.tryShowClipboardSuggestion())) {
-                mSuggestionStripViewAccessor.showSuggestionStrip(suggestedWords);
-            }
+    private SuggestedWords getSuggestedWordsOrOlderSuggestions(final SuggestedWords suggestedWords) {
+        final String typedWordString = mWordComposer.getTypedWord();
+        // Show new suggestions if we have at least one. Otherwise keep the old
+        // suggestions with the new typed word. Exception: if the length of the
+        // typed word is <= 1 (after a deletion typically) we clear old suggestions.
+        if (suggestedWords.size() > 1 || typedWordString.length() <= 1) {
+            return suggestedWords;
         }
-        if (DebugFlags.DEBUG_ENABLED) {
-            long runTimeMillis = System.currentTimeMillis() - startTimeMillis;
-            Log.d(TAG, "performUpdateSuggestionStripSync() : " + runTimeMillis + " ms to finish");
+        final SuggestedWordInfo typedWordInfo = new SuggestedWordInfo(
+                typedWordString, "" /* prevWordsContext */,
+                SuggestedWordInfo.MAX_SCORE,
+                SuggestedWordInfo.KIND_TYPED, Dictionary.DICTIONARY_USER_TYPED,
+                SuggestedWordInfo.NOT_AN_INDEX /* indexOfTouchPointOfSecondWord */,
+                SuggestedWordInfo.NOT_A_CONFIDENCE);
+        return retrieveOlderSuggestions(typedWordInfo, mSuggestedWords);
+    }
+
+    private void showSuggestedWords(final SuggestedWords suggestedWords) {
+        // Prefer clipboard suggestions (if available and setting is enabled) over beginning of sentence predictions.
+        if (!(suggestedWords.mInputStyle == SuggestedWords.INPUT_STYLE_BEGINNING_OF_SENTENCE_PREDICTION
+                && mLatinIME.tryShowClipboardSuggestion())) {
+            mSuggestionStripViewAccessor.showSuggestionStrip(suggestedWords);
         }
     }
 
@@ -2036,6 +2185,8 @@ public final class InputLogic {
      * @param alsoResetLastComposedWord whether to also reset the last composed word.
      */
     private void resetComposingState(final boolean alsoResetLastComposedWord) {
+        // suggestions still being computed are for the old composing state
+        mInputLogicHandler.supersedeSuggestionRequests();
         mWordComposer.reset();
         if (alsoResetLastComposedWord) {
             mLastComposedWord = LastComposedWord.NOT_A_COMPOSED_WORD;
@@ -2233,8 +2384,11 @@ public final class InputLogic {
      */
     private void commitCurrentAutoCorrection(final SettingsValues settingsValues,
             final String separator, final LatinIME.UIHandler handler) {
-        // Complete any pending suggestions query first
-        if (handler.hasPendingUpdateSuggestions()) {
+        // Complete any pending suggestions query first. This includes asynchronous queries that are
+        // still being computed or not shown yet, which are waited for if they are for the current
+        // composer state, and shown suggestions that don't contain all locales yet.
+        if (handler.hasPendingUpdateSuggestions() || hasPendingAsyncSuggestions()
+                || mDictionaryFacilitator.isMissingLateSuggestions()) {
             handler.cancelUpdateSuggestionStrip();
             // To know the input style here, we should retrieve the in-flight "update suggestions"
             // message and read its arg1 member here. However, the Handler class does not let
@@ -2294,6 +2448,8 @@ public final class InputLogic {
             startTimeMillis = System.currentTimeMillis();
             Log.d(TAG, "commitChosenWord() : [" + chosenWord + "]");
         }
+        // suggestions still being computed are for the word we are committing now
+        mInputLogicHandler.supersedeSuggestionRequests();
         // b/21926256
         //      SuggestionSpanUtils.getTextWithSuggestionSpan(mLatinIME, chosenWord,
         //                suggestedWords, locale);
@@ -2324,6 +2480,11 @@ public final class InputLogic {
         }
         // Add the word to the user history dictionary
         performAdditionToUserHistoryDictionary(settingsValues, chosenWord, ngramContext);
+        // next word suggestions will very likely be needed for the word we just committed
+        if (settingsValues.mBigramPredictionEnabled && settingsValues.isSuggestionsEnabledPerUserSettings()) {
+            mInputLogicHandler.prefetchNextWordSuggestions(
+                    ngramContext.getNextNgramContext(new NgramContext.WordInfo(chosenWord)));
+        }
         if (DebugFlags.DEBUG_ENABLED) {
             long runTimeMillis = System.currentTimeMillis() - startTimeMillis;
             Log.d(TAG, "commitChosenWord() : " + runTimeMillis + " ms to run "
@@ -2374,9 +2535,24 @@ public final class InputLogic {
         return true;
     }
 
+    // Called on the non-UI handler thread, only reads the state copied into the request.
+    void getSuggestedWords(final SuggestionRequest request) {
+        final long startTime = LatencyTracer.start();
+        mSuggest.getSuggestedWords(request.mWordComposer, request.mNgramContext, request.mKeyboard,
+                request.mSettingsValues.mSettingsValuesForSuggestion,
+                request.mSettingsValues.mAutoCorrectEnabled,
+                request.mInputStyle, request.mSequenceNumber, true /* allowLateSuggestions */,
+                suggestedWords -> {
+                    request.mResult.set(suggestedWords);
+                    request.mCallback.onGetSuggestedWords(suggestedWords);
+                });
+        LatencyTracer.end(LatencyTracer.STAGE_UPDATE_SUGGESTIONS, startTime);
+    }
+
     public void getSuggestedWords(final SettingsValues settingsValues,
             final Keyboard keyboard, final int keyboardShiftMode, final int inputStyle,
             final int sequenceNumber, final OnGetSuggestedWordsCallback callback) {
+        final long startTime = LatencyTracer.start();
         mWordComposer.adviseCapitalizedModeBeforeFetchingSuggestions(
                 getActualCapsMode(settingsValues, keyboardShiftMode));
         mSuggest.getSuggestedWords(mWordComposer,
@@ -2389,7 +2565,8 @@ public final class InputLogic {
                 keyboard,
                 settingsValues.mSettingsValuesForSuggestion,
                 settingsValues.mAutoCorrectEnabled,
-                inputStyle, sequenceNumber, callback);
+                inputStyle, sequenceNumber, false /* allowLateSuggestions */, callback);
+        LatencyTracer.end(LatencyTracer.STAGE_UPDATE_SUGGESTIONS, startTime);
     }
 
     /**
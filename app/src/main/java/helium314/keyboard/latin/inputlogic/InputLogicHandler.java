@@ -9,12 +9,17 @@ package helium314.keyboard.latin.inputlogic;
 import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.Message;
+import android.os.SystemClock;
 
+import helium314.keyboard.keyboard.PointerTracker;
 import helium314.keyboard.latin.LatinIME;
+import helium314.keyboard.latin.NgramContext;
 import helium314.keyboard.latin.Suggest.OnGetSuggestedWordsCallback;
 import helium314.keyboard.latin.SuggestedWords;
 import helium314.keyboard.latin.common.InputPointers;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * A helper to manage deferred tasks for the input logic.
  */
@@ -27,6 +32,20 @@ class InputLogicHandler implements Handler.Callback {
     private boolean mInBatchInput; // synchronized using {@link #mLock}.
 
     private static final int MSG_GET_SUGGESTED_WORDS = 1;
+    private static final int MSG_GET_SUGGESTED_WORDS_ASYNC = 2;
+    private static final int MSG_PREFETCH_NEXT_WORD_SUGGESTIONS = 3;
+    private static final int MSG_UPDATE_BATCH_INPUT = 4;
+    private static final int MSG_TAIL_BATCH_INPUT = 5;
+
+    // Moving average of the time decoding a batch input takes, in milliseconds. Only accessed on
+    // the Non-UI handler thread.
+    private float mAverageBatchDecodingTime;
+    // Weight of a new decoding time in the average.
+    private static final float BATCH_DECODING_TIME_WEIGHT = 0.25f;
+
+    // Sequence number of the most recent suggestion request from the strip update. Results of
+    // requests with a different number are outdated and must not be shown.
+    private final AtomicInteger mSuggestionRequestSequenceNumber = new AtomicInteger();
 
     // A handler that never does anything. This is used for cases where events come before anything
     // is initialized, though probably only the monkey can actually do this.
@@ -48,6 +67,10 @@ class InputLogicHandler implements Handler.Callback {
         @Override
         public void getSuggestedWords(final int sessionId, final int sequenceNumber,
                 final OnGetSuggestedWordsCallback callback) {}
+        @Override
+        public void getSuggestedWordsAsync(final InputLogic.SuggestionRequest request) {}
+        @Override
+        public void prefetchNextWordSuggestions(final NgramContext ngramContext) {}
     };
 
     InputLogicHandler() {
@@ -82,8 +105,30 @@ class InputLogicHandler implements Handler.Callback {
     // Called on the Non-UI handler thread by the Handler code.
     @Override
     public boolean handleMessage(final Message msg) {
-        if (msg.what == MSG_GET_SUGGESTED_WORDS)
-            mLatinIME.getSuggestedWords(msg.arg1, msg.arg2, (OnGetSuggestedWordsCallback) msg.obj);
+        switch (msg.what) {
+            case MSG_GET_SUGGESTED_WORDS:
+                mLatinIME.getSuggestedWords(msg.arg1, msg.arg2, (OnGetSuggestedWordsCallback) msg.obj);
+                break;
+            case MSG_GET_SUGGESTED_WORDS_ASYNC:
+                // don't spend time on suggestions that will not be shown anyway
+                final InputLogic.SuggestionRequest request = (InputLogic.SuggestionRequest) msg.obj;
+                if (isSuggestionRequestCurrent(request.mSequenceNumber))
+                    mInputLogic.getSuggestedWords(request);
+                break;
+            case MSG_PREFETCH_NEXT_WORD_SUGGESTIONS:
+                mLatinIME.prefetchNextWordSuggestions((NgramContext) msg.obj);
+                break;
+            case MSG_UPDATE_BATCH_INPUT:
+                final long startTime = SystemClock.uptimeMillis();
+                mLatinIME.getSuggestedWords(msg.arg1, msg.arg2, (OnGetSuggestedWordsCallback) msg.obj);
+                onBatchInputDecoded(SystemClock.uptimeMillis() - startTime);
+                break;
+            case MSG_TAIL_BATCH_INPUT:
+                // the tail decodes the whole gesture and may take longer, but it doesn't limit the
+                // rate of updates
+                mLatinIME.getSuggestedWords(msg.arg1, msg.arg2, (OnGetSuggestedWordsCallback) msg.obj);
+                break;
+        }
         return true;
     }
 
@@ -119,11 +164,27 @@ class InputLogicHandler implements Handler.Callback {
             }
             mInputLogic.mWordComposer.setBatchInputPointers(batchPointers);
             final OnGetSuggestedWordsCallback callback = suggestedWords -> showGestureSuggestionsWithPreviewVisuals(suggestedWords, isTailBatchInput);
-            getSuggestedWords(isTailBatchInput ? SuggestedWords.INPUT_STYLE_TAIL_BATCH
-                    : SuggestedWords.INPUT_STYLE_UPDATE_BATCH, sequenceNumber, callback);
+            // Queued updates would decode the pointers set above anyway, so they are superseded
+            // by this request. The tail is what the user waits for once the finger is lifted, so
+            // it goes before anything else in the queue.
+            mNonUIThreadHandler.removeMessages(MSG_UPDATE_BATCH_INPUT);
+            if (isTailBatchInput) {
+                mNonUIThreadHandler.sendMessageAtFrontOfQueue(mNonUIThreadHandler.obtainMessage(
+                        MSG_TAIL_BATCH_INPUT, SuggestedWords.INPUT_STYLE_TAIL_BATCH, sequenceNumber, callback));
+            } else {
+                mNonUIThreadHandler.obtainMessage(MSG_UPDATE_BATCH_INPUT,
+                        SuggestedWords.INPUT_STYLE_UPDATE_BATCH, sequenceNumber, callback).sendToTarget();
+            }
         }
     }
 
+    // Called on the Non-UI handler thread after decoding an update. Gesture updates are requested
+    // only as often as they can be decoded, so slow devices don't fall behind the finger.
+    private void onBatchInputDecoded(final long decodingTime) {
+        mAverageBatchDecodingTime += (decodingTime - mAverageBatchDecodingTime) * BATCH_DECODING_TIME_WEIGHT;
+        PointerTracker.setGestureDecodingTime(Math.round(mAverageBatchDecodingTime));
+    }
+
     void showGestureSuggestionsWithPreviewVisuals(final SuggestedWords suggestedWordsForBatchInput,
             final boolean isTailBatchInput) {
         final SuggestedWords suggestedWordsToShowSuggestions;
@@ -198,4 +259,39 @@ class InputLogicHandler implements Handler.Callback {
         mNonUIThreadHandler.obtainMessage(
                 MSG_GET_SUGGESTED_WORDS, inputStyle, sequenceNumber, callback).sendToTarget();
     }
+
+    /**
+     * Fetch suggestions without any caller waiting for the result. A request that is still queued
+     * when a new one arrives is dropped.
+     * @param request the state to compute suggestions from, with a sequence number returned by
+     *     {@link #supersedeSuggestionRequests()}. Its callback is called on the Non-UI handler
+     *     thread if the request is still current.
+     */
+    // Called on the UI thread by InputLogic.
+    public void getSuggestedWordsAsync(final InputLogic.SuggestionRequest request) {
+        mNonUIThreadHandler.removeMessages(MSG_GET_SUGGESTED_WORDS_ASYNC);
+        mNonUIThreadHandler.obtainMessage(MSG_GET_SUGGESTED_WORDS_ASYNC, request).sendToTarget();
+    }
+
+    /**
+     * Computes next word suggestions for the given context in background, so they can be shown
+     * without delay once the suggestion strip is updated.
+     */
+    // Called on the UI thread by InputLogic.
+    public void prefetchNextWordSuggestions(final NgramContext ngramContext) {
+        mNonUIThreadHandler.removeMessages(MSG_PREFETCH_NEXT_WORD_SUGGESTIONS);
+        mNonUIThreadHandler.obtainMessage(MSG_PREFETCH_NEXT_WORD_SUGGESTIONS, ngramContext).sendToTarget();
+    }
+
+    /**
+     * Mark all previous suggestion requests as outdated.
+     * @return the sequence number for the new request.
+     */
+    public int supersedeSuggestionRequests() {
+        return mSuggestionRequestSequenceNumber.incrementAndGet();
+    }
+
+    public boolean isSuggestionRequestCurrent(final int sequenceNumber) {
+        return sequenceNumber == mSuggestionRequestSequenceNumber.get();
+    }
 }
@@ -15,9 +15,11 @@ import com.android.inputmethod.latin.BinaryDictionary;
 import helium314.keyboard.latin.Dictionary;
 import helium314.keyboard.latin.ExpandableBinaryDictionary;
 import helium314.keyboard.latin.NgramContext;
+import helium314.keyboard.latin.common.PackedWords;
 import helium314.keyboard.latin.makedict.DictionaryHeader;
 
 import java.io.File;
+import java.util.Arrays;
 import java.util.Locale;
 import java.util.Map;
 
@@ -90,4 +92,9 @@ public class UserHistoryDictionary extends ExpandableBinaryDictionary {
         // Strings out of this dictionary should not be considered existing words.
         return false;
     }
+
+    @Override
+    public void isValidWords(final PackedWords words, final boolean[] outIsValid) {
+        Arrays.fill(outIsValid, 0, words.getWordCount(), false);
+    }
 }
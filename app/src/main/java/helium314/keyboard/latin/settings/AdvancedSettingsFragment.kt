@@ -39,6 +39,7 @@ import helium314.keyboard.keyboard.internal.keyboard_parser.LAYOUT_SYMBOLS_SHIFT
 import helium314.keyboard.keyboard.internal.keyboard_parser.RawKeyboardParser
 import helium314.keyboard.latin.AudioAndHapticFeedbackManager
 import helium314.keyboard.latin.BuildConfig
+import helium314.keyboard.latin.ClipboardHistoryStore
 import helium314.keyboard.latin.R
 import helium314.keyboard.latin.SystemBroadcastReceiver
 import helium314.keyboard.latin.checkVersionUpgrade
@@ -91,6 +92,7 @@ class AdvancedSettingsFragment : SubScreenFragment() {
         "dicts/.*/.*user\\.dict".toRegex(),
         "UserHistoryDictionary.*/UserHistoryDictionary.*\\.(body|header)".toRegex(),
         "custom_background_image.*".toRegex(),
+        Regex.escape(ClipboardHistoryStore.FILE_NAME).toRegex(),
     ) }
 
     // is there any way to get additional information into the ActivityResult? would remove the need for 5 times the (almost) same code
@@ -14,6 +14,8 @@ public final class DebugSettings {
     public static final String PREF_FORCE_NON_DISTINCT_MULTITOUCH = "force_non_distinct_multitouch";
     public static final String PREF_SLIDING_KEY_INPUT_PREVIEW = "sliding_key_input_preview";
     public static final String PREF_SHOW_DEBUG_SETTINGS = "show_debug_settings";
+    public static final String PREF_RECORD_MOTION_EVENTS = "record_motion_events";
+    public static final String PREF_BUILT_IN_GESTURE_TYPING = "built_in_gesture_typing";
 
     public static final String PREF_SHOW_SUGGESTION_INFOS = "show_suggestion_infos";
     private DebugSettings() {
@@ -9,9 +9,12 @@ package helium314.keyboard.latin.settings;
 import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
+import android.graphics.Typeface;
 import android.os.Bundle;
+import android.widget.TextView;
 
 import androidx.annotation.NonNull;
+import androidx.appcompat.app.AlertDialog;
 import androidx.preference.Preference;
 import androidx.preference.PreferenceGroup;
 import androidx.preference.TwoStatePreference;
@@ -21,6 +24,7 @@ import helium314.keyboard.latin.BuildConfig;
 import helium314.keyboard.latin.DictionaryDumpBroadcastReceiver;
 import helium314.keyboard.latin.DictionaryFacilitator;
 import helium314.keyboard.latin.R;
+import helium314.keyboard.latin.utils.LatencyTracer;
 
 /**
  * "Debug mode" settings sub screen.
@@ -31,6 +35,7 @@ public final class DebugSettingsFragment extends SubScreenFragment
         implements Preference.OnPreferenceClickListener {
     private static final String PREF_KEY_DUMP_DICTS = "dump_dictionaries";
     private static final String PREF_KEY_DUMP_DICT_PREFIX = "dump_dictionaries";
+    private static final String PREF_KEY_LATENCY_TRACE = "latency_trace";
 
     private boolean mServiceNeedsRestart = false;
     private TwoStatePreference mDebugMode;
@@ -46,6 +51,7 @@ public final class DebugSettingsFragment extends SubScreenFragment
             pref.setOnPreferenceClickListener(this);
             dictDumpPreferenceGroup.addPreference(pref);
         }
+        findPreference(PREF_KEY_LATENCY_TRACE).setOnPreferenceClickListener(this);
         if (BuildConfig.DEBUG)
             removePreference(DebugSettings.PREF_SHOW_DEBUG_SETTINGS);
 
@@ -76,9 +82,29 @@ public final class DebugSettingsFragment extends SubScreenFragment
             pref.getContext().sendBroadcast(intent);
             return true;
         }
+        if (PREF_KEY_LATENCY_TRACE.equals(pref.getKey())) {
+            showLatencyTrace();
+            return true;
+        }
         return true;
     }
 
+    // the keyboard runs in the same process, so the trace contains the recent keystrokes
+    private void showLatencyTrace() {
+        final AlertDialog dialog = new AlertDialog.Builder(requireContext())
+                .setTitle(R.string.prefs_latency_trace)
+                .setMessage(LatencyTracer.dump())
+                .setPositiveButton(android.R.string.ok, null)
+                .setNeutralButton(R.string.prefs_latency_trace_reset, (di, i) -> LatencyTracer.clear())
+                .show();
+        final TextView message = dialog.findViewById(android.R.id.message);
+        if (message != null) {
+            // monospace for aligned columns
+            message.setTypeface(Typeface.MONOSPACE);
+            message.setTextSize(11);
+        }
+    }
+
     @Override
     public void onStop() {
         super.onStop();
@@ -94,7 +120,9 @@ public final class DebugSettingsFragment extends SubScreenFragment
             mDebugMode.setChecked(enabled);
             findPreference(DebugSettings.PREF_SHOW_SUGGESTION_INFOS).setVisible(enabled);
             mServiceNeedsRestart = true;
-        } else if (key.equals(DebugSettings.PREF_FORCE_NON_DISTINCT_MULTITOUCH)) {
+        } else if (key.equals(DebugSettings.PREF_FORCE_NON_DISTINCT_MULTITOUCH)
+                || key.equals(DebugSettings.PREF_RECORD_MOTION_EVENTS)
+                || key.equals(DebugSettings.PREF_BUILT_IN_GESTURE_TYPING)) {
             mServiceNeedsRestart = true;
         } else if (key.equals(DebugSettings.PREF_SHOW_SUGGESTION_INFOS)) {
             KeyboardSwitcher.getInstance().forceUpdateKeyboardTheme(requireContext());
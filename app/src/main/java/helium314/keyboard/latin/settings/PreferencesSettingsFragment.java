@@ -51,6 +51,7 @@ public final class PreferencesSettingsFragment extends SubScreenFragment {
         setupKeypressVibrationDurationSettings();
         setupKeypressSoundVolumeSettings();
         setupHistoryRetentionTimeSettings();
+        setupHistoryMaxEntriesSettings();
         refreshEnablingsOfKeypressSoundAndVibrationAndHistRetentionSettings();
         setLocalizedNumberRowVisibility();
         findPreference(Settings.PREF_POPUP_KEYS_LABELS_ORDER).setVisible(getSharedPreferences().getBoolean(Settings.PREF_SHOW_HINTS, false));
@@ -116,6 +117,8 @@ public final class PreferencesSettingsFragment extends SubScreenFragment {
                 Settings.readKeypressSoundEnabled(prefs, res));
         setPreferenceVisible(Settings.PREF_CLIPBOARD_HISTORY_RETENTION_TIME,
                 Settings.readClipboardHistoryEnabled(prefs));
+        setPreferenceVisible(Settings.PREF_CLIPBOARD_HISTORY_MAX_ENTRIES,
+                Settings.readClipboardHistoryEnabled(prefs));
     }
 
     private void setupKeypressVibrationDurationSettings() {
@@ -259,4 +262,46 @@ public final class PreferencesSettingsFragment extends SubScreenFragment {
             public void feedbackValue(final int value) {}
         });
     }
+
+    private void setupHistoryMaxEntriesSettings() {
+        final SharedPreferences prefs = getSharedPreferences();
+        final Resources res = getResources();
+        final SeekBarDialogPreference pref = findPreference(
+                Settings.PREF_CLIPBOARD_HISTORY_MAX_ENTRIES);
+        if (pref == null) {
+            return;
+        }
+        pref.setInterface(new SeekBarDialogPreference.ValueProxy() {
+            @Override
+            public void writeValue(final int value, final String key) {
+                prefs.edit().putInt(key, value).apply();
+            }
+
+            @Override
+            public void writeDefaultValue(final String key) {
+                prefs.edit().remove(key).apply();
+            }
+
+            @Override
+            public int readValue(final String key) {
+                return Settings.readClipboardHistoryMaxEntries(prefs, res);
+            }
+
+            @Override
+            public int readDefaultValue(final String key) {
+                return Settings.readDefaultClipboardHistoryMaxEntries(res);
+            }
+
+            @Override
+            public String getValueText(final int value) {
+                if (value <= 0) {
+                    return res.getString(R.string.settings_no_limit);
+                }
+                return Integer.toString(value);
+            }
+
+            @Override
+            public void feedbackValue(final int value) {}
+        });
+    }
 }
@@ -150,6 +150,7 @@ public final class Settings implements SharedPreferences.OnSharedPreferenceChang
 
     public static final String PREF_ENABLE_CLIPBOARD_HISTORY = "enable_clipboard_history";
     public static final String PREF_CLIPBOARD_HISTORY_RETENTION_TIME = "clipboard_history_retention_time";
+    public static final String PREF_CLIPBOARD_HISTORY_MAX_ENTRIES = "clipboard_history_max_entries";
 
     public static final String PREF_SECONDARY_LOCALES_PREFIX = "secondary_locales_";
     public static final String PREF_ADD_TO_PERSONAL_DICTIONARY = "add_to_personal_dictionary";
@@ -423,6 +424,16 @@ public final class Settings implements SharedPreferences.OnSharedPreferenceChang
         return res.getInteger(R.integer.config_clipboard_history_retention_time);
     }
 
+    public static int readClipboardHistoryMaxEntries(final SharedPreferences prefs, final Resources res) {
+        final int maxEntries = prefs.getInt(PREF_CLIPBOARD_HISTORY_MAX_ENTRIES, UNDEFINED_PREFERENCE_VALUE_INT);
+        return (maxEntries != UNDEFINED_PREFERENCE_VALUE_INT) ? maxEntries
+                : readDefaultClipboardHistoryMaxEntries(res);
+    }
+
+    public static int readDefaultClipboardHistoryMaxEntries(final Resources res) {
+        return res.getInteger(R.integer.config_clipboard_history_max_entries);
+    }
+
     public static int readHorizontalSpaceSwipe(final SharedPreferences prefs) {
         return switch (prefs.getString(PREF_SPACE_HORIZONTAL_SWIPE, "none")) {
             case "move_cursor" -> KeyboardActionListener.SWIPE_MOVE_CURSOR;
@@ -540,10 +551,11 @@ public final class Settings implements SharedPreferences.OnSharedPreferenceChang
         }
     }
 
-    public static void writePinnedClipString(final Context context, final String clips) {
+    // pinned clips are now kept in a file by ClipboardHistoryStore, this is only used after migrating them
+    public static void removePinnedClipString(final Context context) {
         try {
             final SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
-            prefs.edit().putString(PREF_PINNED_CLIPS, clips).apply();
+            prefs.edit().remove(PREF_PINNED_CLIPS).apply();
         } catch (final IllegalStateException e) {
             // SharedPreferences in credential encrypted storage are not available until after user is unlocked
         }
@@ -6,7 +6,10 @@
 
 package helium314.keyboard.latin.spellcheck;
 
+import android.content.BroadcastReceiver;
+import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.SharedPreferences;
 import android.service.textservice.SpellCheckerService;
 import android.text.InputType;
@@ -15,7 +18,9 @@ import android.view.inputmethod.InputMethodSubtype;
 import android.view.textservice.SuggestionsInfo;
 
 import androidx.annotation.NonNull;
+import androidx.core.content.ContextCompat;
 
+import helium314.keyboard.dictionarypack.DictionaryPackConstants;
 import helium314.keyboard.keyboard.Keyboard;
 import helium314.keyboard.keyboard.KeyboardId;
 import helium314.keyboard.keyboard.KeyboardLayoutSet;
@@ -31,19 +36,27 @@ import helium314.keyboard.latin.settings.Settings;
 import helium314.keyboard.latin.settings.SettingsValuesForSuggestion;
 import helium314.keyboard.latin.utils.AdditionalSubtypeUtils;
 import helium314.keyboard.latin.utils.DeviceProtectedUtils;
+import helium314.keyboard.latin.utils.ExecutorUtils;
+import helium314.keyboard.latin.utils.Log;
 import helium314.keyboard.latin.utils.SubtypeSettingsKt;
 import helium314.keyboard.latin.utils.SuggestionResults;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 import java.util.Locale;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Service for spell checking, using LatinIME's dictionaries and mechanisms.
  */
 public final class AndroidSpellCheckerService extends SpellCheckerService
         implements SharedPreferences.OnSharedPreferenceChangeListener {
+    private static final String TAG = AndroidSpellCheckerService.class.getSimpleName();
 
     public static final int SPELLCHECKER_DUMMY_KEYBOARD_WIDTH = 480;
     public static final int SPELLCHECKER_DUMMY_KEYBOARD_HEIGHT = 301;
@@ -52,7 +65,9 @@ public final class AndroidSpellCheckerService extends SpellCheckerService
 
     private static final String[] EMPTY_STRING_ARRAY = new String[0];
 
-    private final int MAX_NUM_OF_THREADS_READ_DICTIONARY = 2;
+    // the binder thread plus the threads of the spelling executor
+    private final int MAX_NUM_OF_THREADS_READ_DICTIONARY =
+            Math.max(2, Runtime.getRuntime().availableProcessors() / 2 + 1);
     private final Semaphore mSemaphore = new Semaphore(MAX_NUM_OF_THREADS_READ_DICTIONARY, true);
     // TODO: Make each spell checker session has its own session id.
     private final ConcurrentLinkedQueue<Integer> mSessionIdPool = new ConcurrentLinkedQueue<>();
@@ -60,6 +75,15 @@ public final class AndroidSpellCheckerService extends SpellCheckerService
     private final DictionaryFacilitatorLruCache mDictionaryFacilitatorCache =
             new DictionaryFacilitatorLruCache(this, DICTIONARY_NAME_PREFIX);
     private final ConcurrentHashMap<Locale, Keyboard> mKeyboardCache = new ConcurrentHashMap<>();
+    private final AndroidWordLevelSpellCheckerSession.SuggestionsCache mSuggestionsCache =
+            new AndroidWordLevelSpellCheckerSession.SuggestionsCache();
+    private final BroadcastReceiver mNewDictionaryReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(final Context context, final Intent intent) {
+            // main dictionaries are only loaded when resetting, so start over with new facilitators
+            closeDictionaries();
+        }
+    };
 
     // The threshold for a suggestion to be considered "recommended".
     private float mRecommendedThreshold;
@@ -85,6 +109,36 @@ public final class AndroidSpellCheckerService extends SpellCheckerService
         final boolean blockOffensive = Settings.readBlockPotentiallyOffensive(prefs, getResources());
         mSettingsValuesForSuggestion = new SettingsValuesForSuggestion(blockOffensive, false);
         SubtypeSettingsKt.init(this);
+        // typo suggestions must be looked up again once the dictionaries changed
+        mDictionaryFacilitatorCache.setDictionaryInitializationListener(
+                new DictionaryFacilitator.DictionaryInitializationListener() {
+                    @Override
+                    public void onUpdateMainDictionaryAvailability(final boolean isMainDictionaryAvailable) {
+                        mSuggestionsCache.clearCache();
+                    }
+
+                    @Override
+                    public void onDictionaryContentsChanged() {
+                        // only called after the change is applied, so lookups don't cache the old state
+                        clearCaches();
+                    }
+                });
+        final IntentFilter newDictFilter = new IntentFilter();
+        newDictFilter.addAction(DictionaryPackConstants.NEW_DICTIONARY_INTENT_ACTION);
+        ContextCompat.registerReceiver(this, mNewDictionaryReceiver, newDictFilter, ContextCompat.RECEIVER_NOT_EXPORTED);
+    }
+
+    @Override
+    public void onDestroy() {
+        unregisterReceiver(mNewDictionaryReceiver);
+        super.onDestroy();
+    }
+
+    @Override
+    protected void dump(final FileDescriptor fd, final PrintWriter fout, final String[] args) {
+        super.dump(fd, fout, args);
+        fout.println("AndroidSpellCheckerService state :");
+        fout.println("  " + mDictionaryFacilitatorCache);
     }
 
     public float getRecommendedThreshold() {
@@ -96,9 +150,68 @@ public final class AndroidSpellCheckerService extends SpellCheckerService
         if (Settings.PREF_USE_CONTACTS.equals(key)) {
             final boolean useContactsDictionary = prefs.getBoolean(Settings.PREF_USE_CONTACTS, true);
             mDictionaryFacilitatorCache.setUseContactsDictionary(useContactsDictionary);
+            mSuggestionsCache.clearCache();
         } else if (Settings.PREF_BLOCK_POTENTIALLY_OFFENSIVE.equals(key)) {
             final boolean blockOffensive = Settings.readBlockPotentiallyOffensive(prefs, getResources());
             mSettingsValuesForSuggestion = new SettingsValuesForSuggestion(blockOffensive, false);
+            mSuggestionsCache.clearCache();
+        }
+    }
+
+    /** Suggestions for typos, shared by all sessions. */
+    AndroidWordLevelSpellCheckerSession.SuggestionsCache getSuggestionsCache() {
+        return mSuggestionsCache;
+    }
+
+    void clearCaches() {
+        mSuggestionsCache.clearCache();
+        mDictionaryFacilitatorCache.clearValidSpellingWordCaches();
+    }
+
+    interface IndexedTask {
+        void run(int index);
+    }
+
+    /**
+     * Runs the task for all indices from 0 to count - 1 and returns when all are done. Indices
+     * are processed on the calling thread and in parallel on the spelling executor, as far as
+     * there are permits for reading the dictionaries.
+     */
+    void runInParallel(final int count, final IndexedTask task) {
+        final AtomicInteger nextIndex = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(count);
+        final Runnable worker = () -> {
+            for (int i = nextIndex.getAndIncrement(); i < count; i = nextIndex.getAndIncrement()) {
+                try {
+                    task.run(i);
+                } finally {
+                    done.countDown();
+                }
+            }
+        };
+        // the calling thread also works, so helpers that start late just find nothing to do
+        final int helpers = Math.min(count, MAX_NUM_OF_THREADS_READ_DICTIONARY) - 1;
+        for (int i = 0; i < helpers; i++) {
+            try {
+                ExecutorUtils.getBackgroundExecutor(ExecutorUtils.SPELLING).execute(worker);
+            } catch (final RejectedExecutionException e) {
+                Log.w(TAG, "could not run spell check in parallel", e);
+                break;
+            }
+        }
+        worker.run();
+        // results must be complete when returning, so wait for the helpers even when interrupted
+        boolean interrupted = false;
+        while (true) {
+            try {
+                done.await();
+                break;
+            } catch (final InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
         }
     }
 
@@ -137,6 +250,16 @@ public final class AndroidSpellCheckerService extends SpellCheckerService
         }
     }
 
+    public void isValidWords(final Locale locale, final String[] words, final boolean[] outIsValid) {
+        mSemaphore.acquireUninterruptibly();
+        try {
+            DictionaryFacilitator dictionaryFacilitatorForLocale = mDictionaryFacilitatorCache.get(locale);
+            dictionaryFacilitatorForLocale.isValidSpellingWords(words, outIsValid);
+        } finally {
+            mSemaphore.release();
+        }
+    }
+
     public SuggestionResults getSuggestionResults(final Locale locale,
             final ComposedData composedData, final NgramContext ngramContext,
             @NonNull final Keyboard keyboard) {
@@ -147,7 +270,7 @@ public final class AndroidSpellCheckerService extends SpellCheckerService
             DictionaryFacilitator dictionaryFacilitatorForLocale = mDictionaryFacilitatorCache.get(locale);
             return dictionaryFacilitatorForLocale.getSuggestionResults(composedData, ngramContext,
                     keyboard, mSettingsValuesForSuggestion,
-                    sessionId, SuggestedWords.INPUT_STYLE_TYPING);
+                    sessionId, SuggestedWords.INPUT_STYLE_TYPING, false);
         } finally {
             if (sessionId != null) {
                 mSessionIdPool.add(sessionId);
@@ -169,14 +292,19 @@ public final class AndroidSpellCheckerService extends SpellCheckerService
 
     @Override
     public boolean onUnbind(final Intent intent) {
+        closeDictionaries();
+        mKeyboardCache.clear();
+        return false;
+    }
+
+    private void closeDictionaries() {
         mSemaphore.acquireUninterruptibly(MAX_NUM_OF_THREADS_READ_DICTIONARY);
         try {
             mDictionaryFacilitatorCache.closeDictionaries();
         } finally {
             mSemaphore.release(MAX_NUM_OF_THREADS_READ_DICTIONARY);
         }
-        mKeyboardCache.clear();
-        return false;
+        mSuggestionsCache.clearCache();
     }
 
     public Keyboard getKeyboardForLocale(final Locale locale) {
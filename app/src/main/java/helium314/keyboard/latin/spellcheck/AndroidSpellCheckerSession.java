@@ -19,6 +19,9 @@ import helium314.keyboard.latin.utils.Log;
 import helium314.keyboard.latin.utils.SpannableStringUtils;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
 
 public final class AndroidSpellCheckerSession extends AndroidWordLevelSpellCheckerSession {
     private static final String TAG = AndroidSpellCheckerSession.class.getSimpleName();
@@ -32,7 +35,7 @@ public final class AndroidSpellCheckerSession extends AndroidWordLevelSpellCheck
     }
 
     private SentenceSuggestionsInfo fixWronglyInvalidatedWordWithSingleQuote(TextInfo ti,
-            SentenceSuggestionsInfo ssi) {
+            SentenceSuggestionsInfo ssi, int suggestionsLimit) {
         final CharSequence typedText = ti.getCharSequence();
         if (!typedText.toString().contains(AndroidSpellCheckerService.SINGLE_QUOTE)) {
             return null;
@@ -64,7 +67,7 @@ public final class AndroidSpellCheckerSession extends AndroidWordLevelSpellCheck
                 if (TextUtils.isEmpty(splitText)) {
                     continue;
                 }
-                if (mSuggestionsCache.getSuggestionsFromCache(splitText.toString()) == null) {
+                if (!isCachedTypo(splitText.toString())) {
                     continue;
                 }
                 final int newLength = splitText.length();
@@ -112,7 +115,7 @@ public final class AndroidSpellCheckerSession extends AndroidWordLevelSpellCheck
         }
         for (int i = 0; i < retval.length; ++i) {
             final SentenceSuggestionsInfo tempSsi =
-                    fixWronglyInvalidatedWordWithSingleQuote(textInfos[i], retval[i]);
+                    fixWronglyInvalidatedWordWithSingleQuote(textInfos[i], retval[i], suggestionsLimit);
             if (tempSsi != null) {
                 retval[i] = tempSsi;
             }
@@ -171,6 +174,14 @@ public final class AndroidSpellCheckerSession extends AndroidWordLevelSpellCheck
         return retval;
     }
 
+    private static SuggestionsInfo copy(final SuggestionsInfo suggestionsInfo) {
+        final String[] suggestions = new String[Math.max(0, suggestionsInfo.getSuggestionsCount())];
+        for (int i = 0; i < suggestions.length; i++) {
+            suggestions[i] = suggestionsInfo.getSuggestionAt(i);
+        }
+        return new SuggestionsInfo(suggestionsInfo.getSuggestionsAttributes(), suggestions);
+    }
+
     @Override
     public SuggestionsInfo[] onGetSuggestionsMultiple(TextInfo[] textInfos,
             int suggestionsLimit, boolean sequentialWords) {
@@ -178,6 +189,16 @@ public final class AndroidSpellCheckerSession extends AndroidWordLevelSpellCheck
         try {
             final int length = textInfos.length;
             final SuggestionsInfo[] retval = new SuggestionsInfo[length];
+            // the locale is updated once here, the words are checked in parallel with this locale
+            updateLocale();
+            final Locale locale = getCurrentLocale();
+            final String script = getCurrentScript();
+            final Map<String, Boolean> validWords = length > 1 ? lookUpValidWords(textInfos, locale, script) : null;
+            // each distinct word is checked once for each previous word
+            final NgramContext[] ngramContexts = new NgramContext[length];
+            final HashMap<String, Integer> firstIndices = new HashMap<>();
+            final int[] firstIndexOf = new int[length];
+            final ArrayList<Integer> distinctIndices = new ArrayList<>();
             for (int i = 0; i < length; ++i) {
                 final CharSequence prevWord;
                 if (sequentialWords && i > 0) {
@@ -189,10 +210,27 @@ public final class AndroidSpellCheckerSession extends AndroidWordLevelSpellCheck
                 } else {
                     prevWord = null;
                 }
-                final NgramContext ngramContext =
-                        new NgramContext(new NgramContext.WordInfo(prevWord));
+                ngramContexts[i] = new NgramContext(new NgramContext.WordInfo(prevWord));
+                final String key = ngramContexts[i].extractPrevWordsContext() + "\u0000" + textInfos[i].getText();
+                final Integer firstIndex = firstIndices.get(key);
+                if (firstIndex != null) {
+                    firstIndexOf[i] = firstIndex;
+                    continue;
+                }
+                firstIndices.put(key, i);
+                firstIndexOf[i] = i;
+                distinctIndices.add(i);
+            }
+            mService.runInParallel(distinctIndices.size(), index -> {
+                final int i = distinctIndices.get(index);
+                retval[i] = onGetSuggestionsInternal(textInfos[i], ngramContexts[i], suggestionsLimit, validWords,
+                        locale, script);
+            });
+            for (int i = 0; i < length; ++i) {
                 final TextInfo textInfo = textInfos[i];
-                retval[i] = onGetSuggestionsInternal(textInfo, ngramContext, suggestionsLimit);
+                if (retval[i] == null) {
+                    retval[i] = copy(retval[firstIndexOf[i]]);
+                }
                 retval[i].setCookieAndSequence(textInfo.getCookie(), textInfo.getSequence());
             }
             return retval;
@@ -6,11 +6,8 @@
 
 package helium314.keyboard.latin.spellcheck;
 
-import android.content.ContentResolver;
 import android.content.SharedPreferences;
-import android.database.ContentObserver;
 import android.os.Binder;
-import android.provider.UserDictionary.Words;
 import android.service.textservice.SpellCheckerService.Session;
 import android.text.TextUtils;
 import helium314.keyboard.latin.utils.Log;
@@ -37,6 +34,8 @@ import helium314.keyboard.latin.utils.SubtypeSettingsKt;
 import helium314.keyboard.latin.utils.SuggestionResults;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -47,13 +46,13 @@ public abstract class AndroidWordLevelSpellCheckerSession extends Session {
 
     public final static String[] EMPTY_STRING_ARRAY = new String[0];
 
-    // Immutable, but not available in the constructor.
-    private Locale mLocale;
+    // Not available in the constructor, and may change with the subtype. Only updated on the binder
+    // thread, workers checking words in parallel get locale and script as arguments.
+    private volatile Locale mLocale;
     // Cache this for performance
-    private String mScript;
-    private final AndroidSpellCheckerService mService;
-    protected final SuggestionsCache mSuggestionsCache = new SuggestionsCache();
-    private final ContentObserver mObserver;
+    private volatile String mScript;
+    protected final AndroidSpellCheckerService mService;
+    protected final SuggestionsCache mSuggestionsCache;
 
     private static final String quotesRegexp =
             "(\\u0022|\\u0027|\\u0060|\\u00B4|\\u2018|\\u2018|\\u201C|\\u201D)";
@@ -68,7 +67,7 @@ public abstract class AndroidWordLevelSpellCheckerSession extends Session {
         );
     }
 
-    private static final class SuggestionsParams {
+    static final class SuggestionsParams {
         public final String[] mSuggestions;
         public final int mFlags;
         public SuggestionsParams(String[] suggestions, int flags) {
@@ -77,46 +76,66 @@ public abstract class AndroidWordLevelSpellCheckerSession extends Session {
         }
     }
 
+    /**
+     * Suggestions for words that are not in the dictionary. Shared by all sessions of the service,
+     * so the same words in different apps are only looked up once. Thread safe.
+     */
     protected static final class SuggestionsCache {
-        private static final int MAX_CACHE_SIZE = 50;
-        private final LruCache<String, SuggestionsParams> mUnigramSuggestionsInfoCache =
+        private static final int MAX_CACHE_SIZE = 1000;
+        // suggestions depend on the previous words
+        private final LruCache<String, SuggestionsParams> mSuggestionsInfoCache =
                 new LruCache<>(MAX_CACHE_SIZE);
+        // whether a word is a typo does not
+        private final LruCache<String, Boolean> mTypoCache = new LruCache<>(MAX_CACHE_SIZE);
+
+        private static String generateKey(final Locale locale, final int suggestionsLimit,
+                final NgramContext ngramContext, final String query) {
+            return locale + "\u0000" + suggestionsLimit + "\u0000" + ngramContext.extractPrevWordsContext()
+                    + "\u0000" + query;
+        }
+
+        private static String generateTypoKey(final Locale locale, final String query) {
+            return locale + "\u0000" + query;
+        }
 
-        private static String generateKey(final String query) {
-            return query + "";
+        public SuggestionsParams getSuggestionsFromCache(final Locale locale, final int suggestionsLimit,
+                final NgramContext ngramContext, final String query) {
+            return mSuggestionsInfoCache.get(generateKey(locale, suggestionsLimit, ngramContext, query));
         }
 
-        public SuggestionsParams getSuggestionsFromCache(final String query) {
-            return mUnigramSuggestionsInfoCache.get(query);
+        /** Whether the word was found to be a typo recently, in any context. */
+        public boolean isCachedTypo(final Locale locale, final String query) {
+            return mTypoCache.get(generateTypoKey(locale, query)) != null;
         }
 
-        public void putSuggestionsToCache(
-                final String query, final String[] suggestions, final int flags) {
+        public void putSuggestionsToCache(final Locale locale, final int suggestionsLimit,
+                final NgramContext ngramContext, final String query, final String[] suggestions,
+                final int flags) {
             if (suggestions == null || TextUtils.isEmpty(query)) {
                 return;
             }
-            mUnigramSuggestionsInfoCache.put(
-                    generateKey(query),
+            mSuggestionsInfoCache.put(
+                    generateKey(locale, suggestionsLimit, ngramContext, query),
                     new SuggestionsParams(suggestions, flags));
+            mTypoCache.put(generateTypoKey(locale, query), Boolean.TRUE);
         }
 
         public void clearCache() {
-            mUnigramSuggestionsInfoCache.evictAll();
+            mSuggestionsInfoCache.evictAll();
+            mTypoCache.evictAll();
         }
     }
 
     AndroidWordLevelSpellCheckerSession(final AndroidSpellCheckerService service) {
         mService = service;
-        mObserver = new ContentObserver(null) {
-            @Override
-            public void onChange(boolean self) {
-                mSuggestionsCache.clearCache();
-            }
-        };
-        service.getContentResolver().registerContentObserver(Words.CONTENT_URI, true, mObserver);
+        mSuggestionsCache = service.getSuggestionsCache();
     }
 
-    private void updateLocale() {
+    /**
+     * Updates locale and script to the current subtype. This asks the input method manager, so
+     * call it once per request and not for every word.
+     */
+    protected void updateLocale() {
         final String localeString = getLocale();
 
         if (mLocale == null || !mLocale.toString().equals(localeString)) {
@@ -135,6 +154,16 @@ public abstract class AndroidWordLevelSpellCheckerSession extends Session {
         updateLocale();
     }
 
+    /** The locale set by the last {@link #updateLocale()}. */
+    protected Locale getCurrentLocale() {
+        return mLocale;
+    }
+
+    /** The script of {@link #getCurrentLocale()}. */
+    protected String getCurrentScript() {
+        return mScript;
+    }
+
     @Override
     public String getLocale() { // unfortunately this can only return a string, with the obvious issues for
         // This function was taken from https://github.com/LineageOS/android_frameworks_base/blob/1235c24a0f092d0e41fd8e86f332f8dc03896a7b/services/core/java/com/android/server/TextServicesManagerService.java#L544 and slightly adopted.
@@ -164,10 +193,9 @@ public abstract class AndroidWordLevelSpellCheckerSession extends Session {
         return super.getLocale();
     }
 
-    @Override
-    public void onClose() {
-        final ContentResolver cres = mService.getContentResolver();
-        cres.unregisterContentObserver(mObserver);
+    /** Whether the word was found to be a typo recently. */
+    protected boolean isCachedTypo(final String text) {
+        return mLocale != null && mSuggestionsCache.isCachedTypo(mLocale, text);
     }
 
     private static final int CHECKABILITY_CHECKABLE = 0;
@@ -234,23 +262,79 @@ public abstract class AndroidWordLevelSpellCheckerSession extends Session {
      * If the "TEXT" is fully upper case, we test the exact string "TEXT", the lower-cased
      *  version of it "text" and the capitalized version of it "Text".
      */
-    private boolean isInDictForAnyCapitalization(final String text, final int capitalizeType) {
+    private boolean isInDictForAnyCapitalization(final String text, final int capitalizeType,
+            final Map<String, Boolean> validWords, final Locale locale) {
         // If the word is in there as is, then it's in the dictionary. If not, we'll test lower
         // case versions, but only if the word is not already all-lower case or mixed case.
-        if (mService.isValidWord(mLocale, text)) return true;
+        if (isValidWord(text, validWords, locale)) return true;
         if (StringUtils.CAPITALIZE_NONE == capitalizeType) return false;
 
         // If we come here, we have a capitalized word (either First- or All-).
         // Downcase the word and look it up again. If the word is only capitalized, we
         // tested all possibilities, so if it's still negative we can return false.
-        final String lowerCaseText = text.toLowerCase(mLocale);
-        if (mService.isValidWord(mLocale, lowerCaseText)) return true;
+        final String lowerCaseText = text.toLowerCase(locale);
+        if (isValidWord(lowerCaseText, validWords, locale)) return true;
         if (StringUtils.CAPITALIZE_FIRST == capitalizeType) return false;
 
         // If the lower case version is not in the dictionary, it's still possible
         // that we have an all-caps version of a word that needs to be capitalized
         // according to the dictionary. E.g. "GERMANS" only exists in the dictionary as "Germans".
-        return mService.isValidWord(mLocale, StringUtils.capitalizeFirstAndDowncaseRest(lowerCaseText, mLocale));
+        return isValidWord(StringUtils.capitalizeFirstAndDowncaseRest(lowerCaseText, locale), validWords, locale);
+    }
+
+    private boolean isValidWord(final String text, final Map<String, Boolean> validWords, final Locale locale) {
+        final Boolean valid = validWords == null ? null : validWords.get(text);
+        if (valid != null) return valid;
+        return mService.isValidWord(locale, text);
+    }
+
+    private static String normalizeText(final String text, final String script) {
+        // It's good to keep this not local specific since the standard
+        // ones may show up in other languages also.
+        final String normalized = text
+                .replaceAll(AndroidSpellCheckerService.APOSTROPHE, AndroidSpellCheckerService.SINGLE_QUOTE)
+                .replaceAll("^" + quotesRegexp, "")
+                .replaceAll(quotesRegexp + "$", "");
+        final String localeRegex = scriptToPunctuationRegexMap.get(script);
+        return localeRegex == null ? normalized : normalized.replaceAll(localeRegex, "");
+    }
+
+    /**
+     * Checks all words that {@link #onGetSuggestionsInternal} may look up for the given texts in
+     * one go, so the dictionaries are not queried separately for every word of a sentence.
+     * @return whether the words are valid, or null if there is nothing to check
+     */
+    protected Map<String, Boolean> lookUpValidWords(final TextInfo[] textInfos, final Locale locale,
+            final String script) {
+        try {
+            if (!mService.hasMainDictionaryForLocale(locale)) return null;
+            final LinkedHashSet<String> words = new LinkedHashSet<>();
+            for (final TextInfo textInfo : textInfos) {
+                final String text = normalizeText(textInfo.getText(), script);
+                if (text.isEmpty() || CHECKABILITY_CHECKABLE != getCheckabilityInScript(text, script))
+                    continue;
+                words.add(text);
+                final int capitalizeType = StringUtils.getCapitalizationType(text);
+                if (StringUtils.CAPITALIZE_NONE == capitalizeType) continue;
+                final String lowerCaseText = text.toLowerCase(locale);
+                words.add(lowerCaseText);
+                if (StringUtils.CAPITALIZE_ALL == capitalizeType)
+                    words.add(StringUtils.capitalizeFirstAndDowncaseRest(lowerCaseText, locale));
+            }
+            if (words.isEmpty()) return null;
+            final String[] wordArray = words.toArray(new String[0]);
+            final boolean[] isValid = new boolean[wordArray.length];
+            mService.isValidWords(locale, wordArray, isValid);
+            final HashMap<String, Boolean> validWords = new HashMap<>();
+            for (int i = 0; i < wordArray.length; i++) {
+                validWords.put(wordArray[i], isValid[i]);
+            }
+            return validWords;
+        } catch (RuntimeException e) {
+            // words will be checked one by one instead
+            Log.e(TAG, "Exception while checking words", e);
+            return null;
+        }
     }
 
     // Note : this must be reentrant
@@ -266,27 +350,37 @@ public abstract class AndroidWordLevelSpellCheckerSession extends Session {
 
     protected SuggestionsInfo onGetSuggestionsInternal(
             final TextInfo textInfo, final NgramContext ngramContext, final int suggestionsLimit) {
+        return onGetSuggestionsInternal(textInfo, ngramContext, suggestionsLimit, null);
+    }
+
+    protected SuggestionsInfo onGetSuggestionsInternal(final TextInfo textInfo,
+            final NgramContext ngramContext, final int suggestionsLimit,
+            final Map<String, Boolean> validWords) {
+        updateLocale();
+        return onGetSuggestionsInternal(textInfo, ngramContext, suggestionsLimit, validWords,
+                mLocale, mScript);
+    }
+
+    /**
+     * Like {@link #onGetSuggestionsInternal(TextInfo, NgramContext, int, Map)}, but does not update
+     * the locale, so it can be called for many words in parallel.
+     * @param validWords results of {@link #lookUpValidWords}, words not contained are looked up
+     *                   separately
+     * @param locale the locale from {@link #getCurrentLocale()} after updating it
+     * @param script the script from {@link #getCurrentScript()}
+     */
+    protected SuggestionsInfo onGetSuggestionsInternal(final TextInfo textInfo,
+            final NgramContext ngramContext, final int suggestionsLimit,
+            final Map<String, Boolean> validWords, final Locale locale, final String script) {
         try {
-            updateLocale();
-            // It's good to keep this not local specific since the standard
-            // ones may show up in other languages also.
-            String text = textInfo.getText()
-                    .replaceAll(AndroidSpellCheckerService.APOSTROPHE, AndroidSpellCheckerService.SINGLE_QUOTE)
-                    .replaceAll("^" + quotesRegexp, "")
-                    .replaceAll(quotesRegexp + "$", "");
-
-            final String localeRegex = scriptToPunctuationRegexMap.get(ScriptUtils.script(mLocale));
-
-            if (localeRegex != null) {
-                text = text.replaceAll(localeRegex, "");
-            }
+            final String text = normalizeText(textInfo.getText(), script);
 
-            if (!mService.hasMainDictionaryForLocale(mLocale)) {
+            if (!mService.hasMainDictionaryForLocale(locale)) {
                 return AndroidSpellCheckerService.getNotInDictEmptySuggestions(false /* reportAsTypo */);
             }
 
             // Handle special patterns like email, URI, telephone number.
-            final int checkability = getCheckabilityInScript(text, mScript);
+            final int checkability = getCheckabilityInScript(text, script);
             if (CHECKABILITY_CHECKABLE != checkability) {
                 // CHECKABILITY_CONTAINS_PERIOD Typo should not be reported when text is a valid word followed by a single period (end of sentence).
                 boolean periodOnlyAtLastIndex = text.indexOf(Constants.CODE_PERIOD) == (text.length() - 1);
@@ -295,7 +389,7 @@ public abstract class AndroidWordLevelSpellCheckerSession extends Session {
                     boolean allWordsAreValid = true;
                     // Validate all words on both sides of periods, skip empty tokens due to periods at first/last index
                     for (final String word : splitText) {
-                        if (!word.isEmpty() && !mService.isValidWord(mLocale, word) && !mService.isValidWord(mLocale, word.toLowerCase(mLocale))) {
+                        if (!word.isEmpty() && !mService.isValidWord(locale, word) && !mService.isValidWord(locale, word.toLowerCase(locale))) {
                             allWordsAreValid = false;
                             break;
                         }
@@ -307,7 +401,7 @@ public abstract class AndroidWordLevelSpellCheckerSession extends Session {
                                         TextUtils.join(Constants.STRING_SPACE, splitText) });
                     }
                 }
-                return mService.isValidWord(mLocale, text) ?
+                return mService.isValidWord(locale, text) ?
                         AndroidSpellCheckerService.getInDictEmptySuggestions() :
                         AndroidSpellCheckerService.getNotInDictEmptySuggestions(!periodOnlyAtLastIndex);
             }
@@ -315,7 +409,7 @@ public abstract class AndroidWordLevelSpellCheckerSession extends Session {
             // Handle normal words.
             final int capitalizeType = StringUtils.getCapitalizationType(text);
 
-            if (isInDictForAnyCapitalization(text, capitalizeType)) {
+            if (isInDictForAnyCapitalization(text, capitalizeType, validWords, locale)) {
                 if (DebugFlags.DEBUG_ENABLED) {
                     Log.i(TAG, "onGetSuggestionsInternal() : [" + text + "] is a valid word");
                 }
@@ -325,9 +419,15 @@ public abstract class AndroidWordLevelSpellCheckerSession extends Session {
                 Log.i(TAG, "onGetSuggestionsInternal() : [" + text + "] is NOT a valid word");
             }
 
-            final Keyboard keyboard = mService.getKeyboardForLocale(mLocale);
+            final SuggestionsParams cachedSuggestions =
+                    mSuggestionsCache.getSuggestionsFromCache(locale, suggestionsLimit, ngramContext, text);
+            if (cachedSuggestions != null) {
+                return new SuggestionsInfo(cachedSuggestions.mFlags, cachedSuggestions.mSuggestions);
+            }
+
+            final Keyboard keyboard = mService.getKeyboardForLocale(locale);
             if (null == keyboard) {
-                Log.w(TAG, "onGetSuggestionsInternal() : No keyboard for locale: " + mLocale);
+                Log.w(TAG, "onGetSuggestionsInternal() : No keyboard for locale: " + locale);
                 // If there is no keyboard for this locale, don't do any spell-checking.
                 return AndroidSpellCheckerService.getNotInDictEmptySuggestions(false);
             }
@@ -339,8 +439,8 @@ public abstract class AndroidWordLevelSpellCheckerSession extends Session {
             composer.setComposingWord(codePoints, coordinates);
             // TODO: Don't gather suggestions if the limit is <= 0 unless necessary
             final SuggestionResults suggestionResults = mService.getSuggestionResults(
-                    mLocale, composer.getComposedDataSnapshot(), ngramContext, keyboard);
-            final Result result = getResult(capitalizeType, mLocale, suggestionsLimit,
+                    locale, composer.getComposedDataSnapshot(), ngramContext, keyboard);
+            final Result result = getResult(capitalizeType, locale, suggestionsLimit,
                     mService.getRecommendedThreshold(), text, suggestionResults);
             if (DebugFlags.DEBUG_ENABLED) {
                 if (result.mSuggestions != null && result.mSuggestions.length > 0) {
@@ -367,7 +467,8 @@ public abstract class AndroidWordLevelSpellCheckerSession extends Session {
                             ? SuggestionsInfo.RESULT_ATTR_HAS_RECOMMENDED_SUGGESTIONS
                             : 0);
             final SuggestionsInfo retval = new SuggestionsInfo(flags, result.mSuggestions);
-            mSuggestionsCache.putSuggestionsToCache(text, result.mSuggestions, flags);
+            mSuggestionsCache.putSuggestionsToCache(locale, suggestionsLimit, ngramContext, text,
+                    result.mSuggestions, flags);
             return retval;
         } catch (RuntimeException e) {
             // Don't kill the keyboard if there is a bug in the spell checker
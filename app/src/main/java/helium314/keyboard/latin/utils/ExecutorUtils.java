@@ -20,9 +20,12 @@ public class ExecutorUtils {
 
     public static final String KEYBOARD = "Keyboard";
     public static final String SPELLING = "Spelling";
+    // only for interactive suggestion lookups, so they never wait for dictionary writes or file access
+    public static final String SUGGESTIONS = "Suggestions";
 
     private static ScheduledExecutorService sKeyboardExecutorService = newExecutorService(KEYBOARD);
     private static ScheduledExecutorService sSpellingExecutorService = newExecutorService(SPELLING);
+    private static ScheduledExecutorService sSuggestionsExecutorService = newExecutorService(SUGGESTIONS);
 
     private static ScheduledExecutorService newExecutorService(final String name) {
         // use more than a single thread, to reduce the occasional wait (mostly relevant when using multiple languages)
@@ -72,6 +75,8 @@ public class ExecutorUtils {
                 return sKeyboardExecutorService;
             case SPELLING:
                 return sSpellingExecutorService;
+            case SUGGESTIONS:
+                return sSuggestionsExecutorService;
             default:
                 throw new IllegalArgumentException("Invalid executor: " + name);
         }
@@ -96,6 +101,9 @@ public class ExecutorUtils {
             case SPELLING:
                 sSpellingExecutorService = newExecutorService(SPELLING);
                 break;
+            case SUGGESTIONS:
+                sSuggestionsExecutorService = newExecutorService(SUGGESTIONS);
+                break;
             default:
                 throw new IllegalArgumentException("Invalid executor: " + name);
         }
@@ -15,6 +15,7 @@ import androidx.preference.PreferenceManager;
 
 import helium314.keyboard.latin.App;
 import helium314.keyboard.latin.BuildConfig;
+import helium314.keyboard.latin.settings.DebugSettings;
 import helium314.keyboard.latin.settings.Settings;
 
 import java.io.File;
@@ -96,9 +97,11 @@ public final class JniUtils {
             }
         }
         if (!sHaveGestureLib) {
-            // try loading built-in library
+            // try loading built-in library, its gesture suggest policy is not tuned yet and needs to be enabled
             try {
                 System.loadLibrary(JNI_LIB_NAME);
+                sHaveGestureLib = app != null && DeviceProtectedUtils.getSharedPreferences(app)
+                        .getBoolean(DebugSettings.PREF_BUILT_IN_GESTURE_TYPING, false);
             } catch (UnsatisfiedLinkError ul) {
                 Log.w(TAG, "Could not load native library " + JNI_LIB_NAME, ul);
             }
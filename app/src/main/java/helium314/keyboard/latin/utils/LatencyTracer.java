@@ -0,0 +1,211 @@
+// SPDX-License-Identifier: GPL-3.0-only
+
+package helium314.keyboard.latin.utils;
+
+import androidx.annotation.NonNull;
+
+import helium314.keyboard.latin.DictionaryFacilitator;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Records how long the stages of handling a keystroke take, for finding where slow keystrokes
+ * spend their time. Events are stored in a fixed size ring buffer, so recording does not allocate
+ * and only costs a few nanoseconds. Times are from {@link System#nanoTime}, which is monotonic.
+ * <p>
+ * Usage: {@code final long startTime = LatencyTracer.start();} and after the stage is done
+ * {@code LatencyTracer.end(LatencyTracer.STAGE_..., startTime);}
+ * <p>
+ * Dictionary lookups are recorded with a detail telling the dictionary type and group, see
+ * {@link #getDictionaryDetail}, so the dump shows which dictionary is slow.
+ * <p>
+ * Recording is not synchronized, so while events are recorded concurrently a dump may contain
+ * an event that is partially overwritten. This is acceptable for statistics.
+ */
+public final class LatencyTracer {
+    public static final int STAGE_POINTER_UP = 0;
+    public static final int STAGE_CODE_INPUT = 1;
+    public static final int STAGE_INPUT_LOGIC = 2;
+    public static final int STAGE_UPDATE_SUGGESTIONS = 3;
+    public static final int STAGE_DICTIONARY_SUGGESTIONS = 4;
+    public static final int STAGE_SUGGESTION_STRIP = 5;
+    public static final int STAGE_INPUT_CONNECTION = 6;
+    public static final int STAGE_SPELL_CHECKER_SUGGESTIONS = 7;
+    private static final String[] STAGE_NAMES = new String[] {
+            "PointerTracker up event",
+            "LatinIME.onCodeInput",
+            "InputLogic",
+            "Suggest.getSuggestedWords",
+            "Dictionary.getSuggestions",
+            "SuggestionStripView update",
+            "InputConnection call",
+            "Dictionary.getSuggestions for spell checker",
+    };
+    private static final int STAGE_COUNT = STAGE_NAMES.length;
+
+    public static final int NO_DETAIL = 0;
+    // dictionary details are 1 + type index * MAX_DICTIONARY_GROUPS + group index, and must fit in a byte
+    private static final int MAX_DICTIONARY_GROUPS = 16;
+    private static final int DETAIL_COUNT = 1 + DictionaryFacilitator.ALL_DICTIONARY_TYPES.length * MAX_DICTIONARY_GROUPS;
+
+    // must be a power of 2
+    private static final int CAPACITY = 4096;
+    private static final int MASK = CAPACITY - 1;
+    private static final long[] sStartTimes = new long[CAPACITY];
+    private static final long[] sDurations = new long[CAPACITY];
+    private static final byte[] sStages = new byte[CAPACITY];
+    private static final byte[] sDetails = new byte[CAPACITY];
+    private static final AtomicInteger sEventCount = new AtomicInteger();
+
+    private static final double[] PERCENTILES = new double[] { 50, 90, 95, 99 };
+    // upper bounds of the histogram buckets in milliseconds, last bucket is for everything slower
+    private static final int[] BUCKET_LIMITS_MS = new int[] { 1, 2, 4, 8, 16, 32, 64 };
+    private static final int RECENT_EVENTS_IN_DUMP = 30;
+
+    private LatencyTracer() {
+        // This utility class is not publicly instantiable.
+    }
+
+    /** Returns the start time to use in {@link #end}. */
+    public static long start() {
+        return System.nanoTime();
+    }
+
+    public static void end(final int stage, final long startTime) {
+        record(stage, NO_DETAIL, startTime, System.nanoTime());
+    }
+
+    public static void end(final int stage, final int detail, final long startTime) {
+        record(stage, detail, startTime, System.nanoTime());
+    }
+
+    public static void record(final int stage, final long startTime, final long endTime) {
+        record(stage, NO_DETAIL, startTime, endTime);
+    }
+
+    public static void record(final int stage, final int detail, final long startTime, final long endTime) {
+        final int index = sEventCount.getAndIncrement() & MASK;
+        sStartTimes[index] = startTime;
+        sDurations[index] = endTime - startTime;
+        sStages[index] = (byte) stage;
+        sDetails[index] = (byte) detail;
+    }
+
+    /**
+     * Returns the detail for a lookup in the dictionary at the index in
+     * {@link DictionaryFacilitator#ALL_DICTIONARY_TYPES}, in the dictionary group at the index,
+     * where 0 is the group of the main locale. Unknown or too large group indices are recorded
+     * as the last group.
+     */
+    public static int getDictionaryDetail(final int dictionaryTypeIndex, final int groupIndex) {
+        final int group = groupIndex < 0 ? MAX_DICTIONARY_GROUPS - 1 : Math.min(groupIndex, MAX_DICTIONARY_GROUPS - 1);
+        return 1 + dictionaryTypeIndex * MAX_DICTIONARY_GROUPS + group;
+    }
+
+    public static void clear() {
+        sEventCount.set(0);
+    }
+
+    /** Returns the durations in nanoseconds of the recorded events of the stage, sorted ascending. */
+    @NonNull
+    public static long[] getSortedDurations(final int stage) {
+        return getSortedDurations(stage, -1);
+    }
+
+    /** Like {@link #getSortedDurations(int)}, but only events recorded with the detail. */
+    @NonNull
+    public static long[] getSortedDurations(final int stage, final int detail) {
+        final int count = getStoredCount(sEventCount.get());
+        final long[] durations = new long[count];
+        int stageCount = 0;
+        for (int i = 0; i < count; i++) {
+            if (sStages[i] == stage && (detail < 0 || sDetails[i] == detail))
+                durations[stageCount++] = sDurations[i];
+        }
+        final long[] result = Arrays.copyOf(durations, stageCount);
+        Arrays.sort(result);
+        return result;
+    }
+
+    /** Returns the duration in nanoseconds of the given percentile of sorted durations, or 0 if there are none. */
+    public static long getPercentile(@NonNull final long[] sortedDurations, final double percentile) {
+        if (sortedDurations.length == 0) return 0;
+        final int index = (int) Math.ceil(percentile / 100 * sortedDurations.length) - 1;
+        return sortedDurations[Math.max(0, Math.min(index, sortedDurations.length - 1))];
+    }
+
+    /** Percentiles and histogram of each stage, followed by the most recent events. */
+    @NonNull
+    public static String dump() {
+        final StringBuilder sb = new StringBuilder();
+        final int eventCount = sEventCount.get();
+        sb.append("Latency trace, ").append(getStoredCount(eventCount)).append(" of ")
+                .append(eventCount & 0xffffffffL).append(" events, times in ms\n");
+        for (int stage = 0; stage < STAGE_COUNT; stage++) {
+            final long[] durations = getSortedDurations(stage);
+            sb.append("\n").append(STAGE_NAMES[stage]).append(": ").append(durations.length).append(" events\n");
+            if (durations.length == 0) continue;
+            appendPercentiles(sb, durations);
+            final int[] buckets = new int[BUCKET_LIMITS_MS.length + 1];
+            for (final long duration : durations) {
+                int bucket = 0;
+                while (bucket < BUCKET_LIMITS_MS.length && toMillis(duration) >= BUCKET_LIMITS_MS[bucket])
+                    bucket++;
+                buckets[bucket]++;
+            }
+            for (int bucket = 0; bucket < buckets.length; bucket++) {
+                if (buckets[bucket] == 0) continue;
+                final String label = bucket < BUCKET_LIMITS_MS.length
+                        ? "< " + BUCKET_LIMITS_MS[bucket] : ">= " + BUCKET_LIMITS_MS[bucket - 1];
+                sb.append(String.format(Locale.ROOT, "  %6s %5d ", label, buckets[bucket]));
+                for (int i = Math.max(1, buckets[bucket] * 40 / durations.length); i > 0; i--)
+                    sb.append('#');
+                sb.append("\n");
+            }
+            for (int detail = NO_DETAIL + 1; detail < DETAIL_COUNT; detail++) {
+                final long[] detailDurations = getSortedDurations(stage, detail);
+                if (detailDurations.length == 0) continue;
+                sb.append("  ").append(getDetailName(detail)).append(": ").append(detailDurations.length).append(" events\n  ");
+                appendPercentiles(sb, detailDurations);
+            }
+        }
+        sb.append("\nRecent events, start relative to latest event:\n");
+        final int recentCount = Math.min(getStoredCount(eventCount), RECENT_EVENTS_IN_DUMP);
+        if (recentCount == 0) return sb.toString();
+        final long latestStart = sStartTimes[(eventCount - 1) & MASK];
+        for (int i = eventCount - recentCount; i < eventCount; i++) {
+            final int index = i & MASK;
+            sb.append(String.format(Locale.ROOT, "  %9.2f %7.2f  ", toMillis(sStartTimes[index] - latestStart),
+                    toMillis(sDurations[index]))).append(STAGE_NAMES[sStages[index]]);
+            if (sDetails[index] != NO_DETAIL)
+                sb.append(", ").append(getDetailName(sDetails[index]));
+            sb.append("\n");
+        }
+        return sb.toString();
+    }
+
+    private static void appendPercentiles(@NonNull final StringBuilder sb, @NonNull final long[] sortedDurations) {
+        for (final double percentile : PERCENTILES) {
+            sb.append(String.format(Locale.ROOT, "  p%.0f %.2f", percentile, toMillis(getPercentile(sortedDurations, percentile))));
+        }
+        sb.append(String.format(Locale.ROOT, "  max %.2f\n", toMillis(sortedDurations[sortedDurations.length - 1])));
+    }
+
+    @NonNull
+    private static String getDetailName(final int detail) {
+        final int typeIndex = (detail - 1) / MAX_DICTIONARY_GROUPS;
+        final int groupIndex = (detail - 1) % MAX_DICTIONARY_GROUPS;
+        return DictionaryFacilitator.ALL_DICTIONARY_TYPES[typeIndex] + " dictionary, group " + groupIndex;
+    }
+
+    // the event count may overflow after a very long time, the buffer is full anyway then
+    private static int getStoredCount(final int eventCount) {
+        return eventCount < 0 ? CAPACITY : Math.min(eventCount, CAPACITY);
+    }
+
+    private static double toMillis(final long nanos) {
+        return nanos / 1_000_000.0;
+    }
+}
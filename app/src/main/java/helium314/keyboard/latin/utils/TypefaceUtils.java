@@ -88,11 +88,20 @@ public final class TypefaceUtils {
 
     // Working variable for the following method.
     private static final Rect sStringWidthBounds = new Rect();
+    // Number of strings measured, for checking how often text needs to be measured when drawing.
+    private static long sStringWidthCount;
 
     public static float getStringWidth(final String string, final Paint paint) {
         synchronized (sStringWidthBounds) {
+            sStringWidthCount++;
             paint.getTextBounds(string, 0, string.length(), sStringWidthBounds);
             return sStringWidthBounds.width();
         }
     }
+
+    public static long getStringWidthCount() {
+        synchronized (sStringWidthBounds) {
+            return sStringWidthCount;
+        }
+    }
 }
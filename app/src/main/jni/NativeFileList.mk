@@ -87,7 +87,14 @@ LATIN_IME_CORE_SRC_FILES := \
     $(addprefix suggest/core/result/, \
         suggestion_results.cpp \
         suggestions_output_utils.cpp) \
-    suggest/policyimpl/gesture/gesture_suggest_policy_factory.cpp \
+    $(addprefix suggest/policyimpl/gesture/, \
+        gesture_alignment_utils.cpp \
+        gesture_scoring.cpp \
+        gesture_scoring_params.cpp \
+        gesture_suggest_policy.cpp \
+        gesture_suggest_policy_factory.cpp \
+        gesture_traversal.cpp \
+        gesture_weighting.cpp) \
     $(addprefix suggest/policyimpl/typing/, \
         scoring_params.cpp \
         typing_scoring.cpp \
@@ -139,6 +146,7 @@ LATIN_IME_CORE_TEST_FILES := \
     suggest/core/dicnode/dic_node_pool_test.cpp \
     suggest/core/layout/geometry_utils_test.cpp \
     suggest/core/layout/normal_distribution_2d_test.cpp \
+    suggest/policyimpl/gesture/gesture_suggest_policy_test.cpp \
     suggest/policyimpl/utils/damerau_levenshtein_edit_distance_policy_test.cpp \
     utils/autocorrection_threshold_utils_test.cpp \
     utils/char_utils_test.cpp \
@@ -179,8 +179,9 @@ static void latinime_BinaryDictionary_getSuggestions(JNIEnv *env, jclass clazz,
         jlong proximityInfo, jlong dicTraverseSession, jintArray xCoordinatesArray,
         jintArray yCoordinatesArray, jintArray timesArray, jintArray pointerIdsArray,
         jintArray inputCodePointsArray, jint inputSize, jintArray suggestOptions,
-        jobjectArray prevWordCodePointArrays, jbooleanArray isBeginningOfSentenceArray,
-        jint prevWordCount, jintArray outSuggestionCount, jintArray outCodePointsArray,
+        jobjectArray prevWordCodePointArrays, jintArray prevWordCodePointCounts,
+        jbooleanArray isBeginningOfSentenceArray, jint prevWordCount,
+        jintArray outSuggestionCount, jintArray outCodePointsArray,
         jintArray outScoresArray, jintArray outSpaceIndicesArray, jintArray outTypesArray,
         jintArray outAutoCommitFirstWordConfidenceArray,
         jfloatArray inOutWeightOfLangModelVsSpatialModel) {
@@ -243,7 +244,8 @@ static void latinime_BinaryDictionary_getSuggestions(JNIEnv *env, jclass clazz,
             &weightOfLangModelVsSpatialModel);
     SuggestionResults suggestionResults(MAX_RESULTS);
     const NgramContext ngramContext = JniDataUtils::constructNgramContext(env,
-            prevWordCodePointArrays, isBeginningOfSentenceArray, prevWordCount);
+            prevWordCodePointArrays, prevWordCodePointCounts, isBeginningOfSentenceArray,
+            prevWordCount);
     if (givenSuggestOptions.isGesture() || inputSize > 0) {
         // TODO: Use SuggestionResults to return suggestions.
         dictionary->getSuggestions(pInfo, traverseSession, xCoordinates, yCoordinates,
@@ -261,20 +263,53 @@ static void latinime_BinaryDictionary_getSuggestions(JNIEnv *env, jclass clazz,
 }
 
 static jint latinime_BinaryDictionary_getProbability(JNIEnv *env, jclass clazz, jlong dict,
-        jintArray word) {
+        jintArray word, jint wordLength) {
     Dictionary *dictionary = reinterpret_cast<Dictionary *>(dict);
     if (!dictionary) return NOT_A_PROBABILITY;
-    const jsize codePointCount = env->GetArrayLength(word);
+    // word may be a reused buffer that is longer than the word
+    if (wordLength < 0 || wordLength > env->GetArrayLength(word)) return NOT_A_PROBABILITY;
+    const jsize codePointCount = wordLength;
     int codePoints[codePointCount];
     env->GetIntArrayRegion(word, 0, codePointCount, codePoints);
     return dictionary->getProbability(CodePointArrayView(codePoints, codePointCount));
 }
 
+// Gets the probabilities of wordCount words, word i consists of the code points from
+// wordStarts[i] to wordStarts[i + 1].
+static void latinime_BinaryDictionary_getProbabilities(JNIEnv *env, jclass clazz, jlong dict,
+        jintArray codePoints, jintArray wordStarts, jint wordCount, jintArray outProbabilities) {
+    if (wordCount <= 0 || env->GetArrayLength(wordStarts) <= wordCount
+            || env->GetArrayLength(outProbabilities) < wordCount) {
+        return;
+    }
+    Dictionary *dictionary = reinterpret_cast<Dictionary *>(dict);
+    std::vector<int> starts(wordCount + 1);
+    env->GetIntArrayRegion(wordStarts, 0, wordCount + 1, starts.data());
+    const jsize codePointCount = starts[wordCount];
+    if (codePointCount < 0 || codePointCount > env->GetArrayLength(codePoints)) {
+        return;
+    }
+    std::vector<int> codePointBuffer(codePointCount);
+    env->GetIntArrayRegion(codePoints, 0, codePointCount, codePointBuffer.data());
+    std::vector<int> probabilities(wordCount, NOT_A_PROBABILITY);
+    if (dictionary) {
+        for (int i = 0; i < wordCount; ++i) {
+            const int start = starts[i];
+            const int length = starts[i + 1] - start;
+            if (start < 0 || length <= 0 || starts[i + 1] > codePointCount) continue;
+            probabilities[i] = dictionary->getProbability(
+                    CodePointArrayView(codePointBuffer.data() + start, length));
+        }
+    }
+    env->SetIntArrayRegion(outProbabilities, 0, wordCount, probabilities.data());
+}
+
 static jint latinime_BinaryDictionary_getMaxProbabilityOfExactMatches(
-        JNIEnv *env, jclass clazz, jlong dict, jintArray word) {
+        JNIEnv *env, jclass clazz, jlong dict, jintArray word, jint wordLength) {
     Dictionary *dictionary = reinterpret_cast<Dictionary *>(dict);
     if (!dictionary) return NOT_A_PROBABILITY;
-    const jsize codePointCount = env->GetArrayLength(word);
+    if (wordLength < 0 || wordLength > env->GetArrayLength(word)) return NOT_A_PROBABILITY;
+    const jsize codePointCount = wordLength;
     int codePoints[codePointCount];
     env->GetIntArrayRegion(word, 0, codePointCount, codePoints);
     return dictionary->getMaxProbabilityOfExactMatches(
@@ -282,16 +317,17 @@ static jint latinime_BinaryDictionary_getMaxProbabilityOfExactMatches(
 }
 
 static jint latinime_BinaryDictionary_getNgramProbability(JNIEnv *env, jclass clazz,
-        jlong dict, jobjectArray prevWordCodePointArrays, jbooleanArray isBeginningOfSentenceArray,
-        jintArray word) {
+        jlong dict, jobjectArray prevWordCodePointArrays, jintArray prevWordCodePointCounts,
+        jbooleanArray isBeginningOfSentenceArray, jint prevWordCount, jintArray word,
+        jint wordLength) {
     Dictionary *dictionary = reinterpret_cast<Dictionary *>(dict);
     if (!dictionary) return JNI_FALSE;
-    const jsize wordLength = env->GetArrayLength(word);
+    if (wordLength < 0 || wordLength > env->GetArrayLength(word)) return NOT_A_PROBABILITY;
     int wordCodePoints[wordLength];
     env->GetIntArrayRegion(word, 0, wordLength, wordCodePoints);
     const NgramContext ngramContext = JniDataUtils::constructNgramContext(env,
-            prevWordCodePointArrays, isBeginningOfSentenceArray,
-            env->GetArrayLength(prevWordCodePointArrays));
+            prevWordCodePointArrays, prevWordCodePointCounts, isBeginningOfSentenceArray,
+            prevWordCount);
     return dictionary->getNgramProbability(&ngramContext,
             CodePointArrayView(wordCodePoints, wordLength));
 }
@@ -325,6 +361,38 @@ static jint latinime_BinaryDictionary_getNextWord(JNIEnv *env, jclass clazz,
     return nextToken;
 }
 
+// Must match WordFilter.hash() in Java: 64 bit FNV-1a over the code points.
+static uint64_t hashWord(const int *const codePoints, const int codePointCount) {
+    uint64_t hash = 0xcbf29ce484222325ULL;
+    for (int i = 0; i < codePointCount; ++i) {
+        hash ^= static_cast<uint64_t>(static_cast<uint32_t>(codePoints[i]));
+        hash *= 0x100000001b3ULL;
+    }
+    return hash;
+}
+
+// Returns the hashes of all words in the dictionary, for building a WordFilter.
+static jlongArray latinime_BinaryDictionary_getWordHashes(JNIEnv *env, jclass clazz, jlong dict) {
+    Dictionary *dictionary = reinterpret_cast<Dictionary *>(dict);
+    if (!dictionary) return nullptr;
+    std::vector<jlong> hashes;
+    int wordCodePoints[MAX_WORD_LENGTH];
+    int wordCodePointCount = 0;
+    int token = 0;
+    do {
+        token = dictionary->getNextWordAndNextToken(token, wordCodePoints, &wordCodePointCount);
+        if (wordCodePointCount > 0) {
+            hashes.push_back(static_cast<jlong>(hashWord(wordCodePoints, wordCodePointCount)));
+        }
+    } while (token != 0);
+    const jsize hashCount = static_cast<jsize>(hashes.size());
+    jlongArray result = env->NewLongArray(hashCount);
+    if (result) {
+        env->SetLongArrayRegion(result, 0, hashCount, hashes.data());
+    }
+    return result;
+}
+
 static void latinime_BinaryDictionary_getWordProperty(JNIEnv *env, jclass clazz,
         jlong dict, jintArray word, jboolean isBeginningOfSentence, jintArray outCodePoints,
         jbooleanArray outFlags, jintArray outProbabilityInfo, jobject outNgramPrevWordsArray,
@@ -659,22 +727,27 @@ static const JNINativeMethod sMethods[] = {
     },
     {
         const_cast<char *>("getSuggestionsNative"),
-        const_cast<char *>("(JJJ[I[I[I[I[II[I[[I[ZI[I[I[I[I[I[I[F)V"),
+        const_cast<char *>("(JJJ[I[I[I[I[II[I[[I[I[ZI[I[I[I[I[I[I[F)V"),
         reinterpret_cast<void *>(latinime_BinaryDictionary_getSuggestions)
     },
     {
         const_cast<char *>("getProbabilityNative"),
-        const_cast<char *>("(J[I)I"),
+        const_cast<char *>("(J[II)I"),
         reinterpret_cast<void *>(latinime_BinaryDictionary_getProbability)
     },
+    {
+        const_cast<char *>("getProbabilitiesNative"),
+        const_cast<char *>("(J[I[II[I)V"),
+        reinterpret_cast<void *>(latinime_BinaryDictionary_getProbabilities)
+    },
     {
         const_cast<char *>("getMaxProbabilityOfExactMatchesNative"),
-        const_cast<char *>("(J[I)I"),
+        const_cast<char *>("(J[II)I"),
         reinterpret_cast<void *>(latinime_BinaryDictionary_getMaxProbabilityOfExactMatches)
     },
     {
         const_cast<char *>("getNgramProbabilityNative"),
-        const_cast<char *>("(J[[I[Z[I)I"),
+        const_cast<char *>("(J[[I[I[ZI[II)I"),
         reinterpret_cast<void *>(latinime_BinaryDictionary_getNgramProbability)
     },
     {
@@ -689,6 +762,11 @@ static const JNINativeMethod sMethods[] = {
         const_cast<char *>("(JI[I[Z)I"),
         reinterpret_cast<void *>(latinime_BinaryDictionary_getNextWord)
     },
+    {
+        const_cast<char *>("getWordHashesNative"),
+        const_cast<char *>("(J)[J"),
+        reinterpret_cast<void *>(latinime_BinaryDictionary_getWordHashes)
+    },
     {
         const_cast<char *>("addUnigramEntryNative"),
         const_cast<char *>("(J[II[IIZZZI)Z"),
@@ -0,0 +1,79 @@
+// SPDX-License-Identifier: GPL-3.0-only
+
+#include "suggest/policyimpl/gesture/gesture_alignment_utils.h"
+
+#include "utils/char_utils.h"
+
+namespace latinime {
+
+/**
+ * Finds the sampled point the letter of dicNode is most likely aligned to, starting right after
+ * the point its parent was aligned to. Every point passed over costs its skip probability, so the
+ * search stops as soon as the skipped points alone are more expensive than the best alignment
+ * found so far, or when it gets further away than the search key sets reach.
+ */
+/* static */ float GestureAlignmentUtils::getAlignmentCost(
+        const DicTraverseSession *const traverseSession, const DicNode *const dicNode,
+        int *const outAlignedIndex) {
+    *outAlignedIndex = NOT_AN_INDEX;
+    const ProximityInfoState *const pInfoState = getProximityInfoState(traverseSession);
+    const int sampledInputSize = pInfoState->size();
+    const int keyId = traverseSession->getProximityInfo()->getKeyIndexOf(
+            CharUtils::toBaseLowerCase(dicNode->getNodeCodePoint()));
+    if (keyId == NOT_AN_INDEX) {
+        return static_cast<float>(MAX_VALUE_FOR_WEIGHTING);
+    }
+    const int firstUnalignedIndex = dicNode->getInputIndex(0);
+    // A repeated letter (e.g. the "ll" in "hello") may be aligned to the same point.
+    const int startIndex = canReuseAlignedPoint(dicNode)
+            ? firstUnalignedIndex - 1 : firstUnalignedIndex;
+    if (startIndex < 0 || startIndex >= sampledInputSize) {
+        return static_cast<float>(MAX_VALUE_FOR_WEIGHTING);
+    }
+    const int readForwardLength = getReadForwardLength(traverseSession);
+    const int startLength = pInfoState->getLengthCache(startIndex);
+    float bestCost = static_cast<float>(MAX_VALUE_FOR_WEIGHTING);
+    float skipCost = 0.0f;
+    for (int i = startIndex; i < sampledInputSize; ++i) {
+        if (skipCost >= bestCost
+                || pInfoState->getLengthCache(i) - startLength > readForwardLength) {
+            break;
+        }
+        const float cost = skipCost + pInfoState->getProbability(i, keyId);
+        if (cost < bestCost) {
+            bestCost = cost;
+            *outAlignedIndex = i;
+        }
+        if (i >= firstUnalignedIndex) {
+            skipCost += pInfoState->getProbability(i, NOT_AN_INDEX);
+        }
+    }
+    return bestCost;
+}
+
+/**
+ * Returns the cost of leaving the rest of the stroke after the last aligned letter unused.
+ */
+/* static */ float GestureAlignmentUtils::getRemainingStrokeCost(
+        const DicTraverseSession *const traverseSession, const DicNode *const dicNode) {
+    const ProximityInfoState *const pInfoState = getProximityInfoState(traverseSession);
+    float cost = 0.0f;
+    for (int i = dicNode->getInputIndex(0); i < pInfoState->size(); ++i) {
+        cost += pInfoState->getProbability(i, NOT_AN_INDEX);
+    }
+    return cost;
+}
+
+/* static */ bool GestureAlignmentUtils::canReuseAlignedPoint(const DicNode *const dicNode) {
+    // Only within a word; the first letter of a word always starts on a new point.
+    if (dicNode->getNodeCodePointCount() <= 1 || dicNode->getInputIndex(0) <= 0) {
+        return false;
+    }
+    const int prevCodePoint = dicNode->getPrevCodePointG(0);
+    if (prevCodePoint == NOT_A_CODE_POINT) {
+        return false;
+    }
+    return CharUtils::toBaseLowerCase(prevCodePoint)
+            == CharUtils::toBaseLowerCase(dicNode->getNodeCodePoint());
+}
+} // namespace latinime
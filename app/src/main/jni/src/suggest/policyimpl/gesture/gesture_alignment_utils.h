@@ -0,0 +1,62 @@
+// SPDX-License-Identifier: GPL-3.0-only
+
+#ifndef LATINIME_GESTURE_ALIGNMENT_UTILS_H
+#define LATINIME_GESTURE_ALIGNMENT_UTILS_H
+
+#include <cmath>
+
+#include "defines.h"
+#include "suggest/core/dicnode/dic_node.h"
+#include "suggest/core/layout/proximity_info.h"
+#include "suggest/core/layout/proximity_info_params.h"
+#include "suggest/core/layout/proximity_info_state.h"
+#include "suggest/core/session/dic_traverse_session.h"
+
+namespace latinime {
+
+// Aligns the letters of dictionary words to the sampled points of a gesture stroke.
+//
+// The stroke is read from the proximity info state of the pointer that drew it, while the
+// search progress is always kept in the input index of pointer 0 of the DicNode so that the core
+// traversal (completion detection, terminal insertion) keeps working. The input index of a node
+// is one past the sampled point its last letter is aligned to.
+class GestureAlignmentUtils {
+ public:
+    static AK_FORCE_INLINE const ProximityInfoState *getProximityInfoState(
+            const DicTraverseSession *const traverseSession) {
+        int pointerId = 0;
+        if (!traverseSession->isOnlyOnePointerUsed(&pointerId)) {
+            pointerId = 0;
+        }
+        return traverseSession->getProximityInfoState(pointerId);
+    }
+
+    // Same distance as the one used to build the search key sets of the sampled points, so a
+    // letter is never aligned further away than getProximityTypeG() looked.
+    static AK_FORCE_INLINE int getReadForwardLength(
+            const DicTraverseSession *const traverseSession) {
+        const ProximityInfo *const proximityInfo = traverseSession->getProximityInfo();
+        return static_cast<int>(hypotf(proximityInfo->getKeyboardWidth(),
+                proximityInfo->getKeyboardHeight()) * ProximityInfoParams::SEARCH_KEY_RADIUS_RATIO);
+    }
+
+    // Returns the sampled point the parent's last letter is aligned to, or NOT_AN_INDEX at the
+    // beginning of the stroke.
+    static AK_FORCE_INLINE int getAlignedIndex(const DicNode *const dicNode) {
+        const int inputIndex = dicNode->getInputIndex(0);
+        return inputIndex > 0 ? inputIndex - 1 : NOT_AN_INDEX;
+    }
+
+    static float getAlignmentCost(const DicTraverseSession *const traverseSession,
+            const DicNode *const dicNode, int *const outAlignedIndex);
+
+    static float getRemainingStrokeCost(const DicTraverseSession *const traverseSession,
+            const DicNode *const dicNode);
+
+ private:
+    DISALLOW_IMPLICIT_CONSTRUCTORS(GestureAlignmentUtils);
+
+    static bool canReuseAlignedPoint(const DicNode *const dicNode);
+};
+} // namespace latinime
+#endif // LATINIME_GESTURE_ALIGNMENT_UTILS_H
@@ -0,0 +1,7 @@
+// SPDX-License-Identifier: GPL-3.0-only
+
+#include "suggest/policyimpl/gesture/gesture_scoring.h"
+
+namespace latinime {
+const GestureScoring GestureScoring::sInstance;
+}  // namespace latinime
@@ -0,0 +1,67 @@
+// SPDX-License-Identifier: GPL-3.0-only
+
+#ifndef LATINIME_GESTURE_SCORING_H
+#define LATINIME_GESTURE_SCORING_H
+
+#include <algorithm>
+
+#include "defines.h"
+#include "suggest/core/dictionary/error_type_utils.h"
+#include "suggest/core/policy/scoring.h"
+#include "suggest/core/session/dic_traverse_session.h"
+#include "suggest/policyimpl/gesture/gesture_scoring_params.h"
+
+namespace latinime {
+
+class DicNode;
+class DicTraverseSession;
+
+class GestureScoring : public Scoring {
+ public:
+    static const GestureScoring *getInstance() { return &sInstance; }
+
+    AK_FORCE_INLINE void getMostProbableString(const DicTraverseSession *const traverseSession,
+            const float weightOfLangModelVsSpatialModel,
+            SuggestionResults *const outSuggestionResults) const {}
+
+    AK_FORCE_INLINE float getAdjustedWeightOfLangModelVsSpatialModel(
+            DicTraverseSession *const traverseSession, DicNode *const terminals,
+            const int size) const {
+        return 1.0f;
+    }
+
+    AK_FORCE_INLINE int calculateFinalScore(const float compoundDistance, const int inputSize,
+            const ErrorTypeUtils::ErrorType containedErrorTypes, const bool forceCommit,
+            const bool boostExactMatches, const bool hasProbabilityZero) const {
+        const float maxDistance = GestureScoringParams::DISTANCE_WEIGHT_LANGUAGE
+                + static_cast<float>(inputSize)
+                        * GestureScoringParams::GESTURE_MAX_OUTPUT_SCORE_PER_INPUT;
+        const float score = std::max(0.0f,
+                GestureScoringParams::GESTURE_BASE_OUTPUT_SCORE - compoundDistance / maxDistance);
+        return static_cast<int>(score * SUGGEST_INTERFACE_OUTPUT_SCALE);
+    }
+
+    AK_FORCE_INLINE float getDoubleLetterDemotionDistanceCost(
+            const DicNode *const terminalDicNode) const {
+        return 0.0f;
+    }
+
+    AK_FORCE_INLINE bool autoCorrectsToMultiWordSuggestionIfTop() const {
+        return false;
+    }
+
+    // There is no typed word for a gesture.
+    AK_FORCE_INLINE bool sameAsTyped(const DicTraverseSession *const traverseSession,
+            const DicNode *const dicNode) const {
+        return false;
+    }
+
+ private:
+    DISALLOW_COPY_AND_ASSIGN(GestureScoring);
+    static const GestureScoring sInstance;
+
+    GestureScoring() {}
+    ~GestureScoring() {}
+};
+} // namespace latinime
+#endif // LATINIME_GESTURE_SCORING_H
@@ -0,0 +1,26 @@
+// SPDX-License-Identifier: GPL-3.0-only
+
+#include "suggest/policyimpl/gesture/gesture_scoring_params.h"
+
+namespace latinime {
+const float GestureScoringParams::MAX_SPATIAL_DISTANCE = 1.0f;
+const int GestureScoringParams::THRESHOLD_NEXT_WORD_PROBABILITY = 40;
+const int GestureScoringParams::MAX_CACHE_DIC_NODE_SIZE = 200;
+const int GestureScoringParams::MAX_CACHE_DIC_NODE_SIZE_FOR_LOW_PROBABILITY_LOCALE = 60;
+const float GestureScoringParams::LOCALE_WEIGHT_THRESHOLD_FOR_SMALL_CACHE_SIZE = 0.99f;
+// Sampled points at the end of the stroke that may still move when the gesture continues.
+const int GestureScoringParams::CACHE_BACK_LENGTH = 3;
+
+const float GestureScoringParams::DISTANCE_WEIGHT_SPATIAL = 1.0f;
+const float GestureScoringParams::DISTANCE_WEIGHT_LANGUAGE = 4.0f;
+const float GestureScoringParams::DOUBLE_LETTER_COST = 0.1f;
+const float GestureScoringParams::INTENTIONAL_OMISSION_COST = 0.1f;
+const float GestureScoringParams::OMISSION_COST = 2.0f;
+const float GestureScoringParams::TERMINAL_INSERTION_COST = 0.5f;
+const float GestureScoringParams::SPACE_OMISSION_COST = 0.5f;
+const float GestureScoringParams::COST_FIRST_COMPLETION = 2.0f;
+const float GestureScoringParams::COST_COMPLETION = 0.5f;
+const float GestureScoringParams::HAS_MULTI_WORD_TERMINAL_COST = 0.5f;
+const float GestureScoringParams::GESTURE_BASE_OUTPUT_SCORE = 1.0f;
+const float GestureScoringParams::GESTURE_MAX_OUTPUT_SCORE_PER_INPUT = 0.3f;
+} // namespace latinime
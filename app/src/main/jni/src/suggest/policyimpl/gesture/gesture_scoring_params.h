@@ -0,0 +1,38 @@
+// SPDX-License-Identifier: GPL-3.0-only
+
+#ifndef LATINIME_GESTURE_SCORING_PARAMS_H
+#define LATINIME_GESTURE_SCORING_PARAMS_H
+
+#include "defines.h"
+
+namespace latinime {
+
+class GestureScoringParams {
+ public:
+    // Fixed model parameters
+    static const float MAX_SPATIAL_DISTANCE;
+    static const int THRESHOLD_NEXT_WORD_PROBABILITY;
+    static const int MAX_CACHE_DIC_NODE_SIZE;
+    static const int MAX_CACHE_DIC_NODE_SIZE_FOR_LOW_PROBABILITY_LOCALE;
+    static const float LOCALE_WEIGHT_THRESHOLD_FOR_SMALL_CACHE_SIZE;
+    static const int CACHE_BACK_LENGTH;
+
+    // Initial parameters, not yet tuned on recorded gestures.
+    static const float DISTANCE_WEIGHT_SPATIAL;
+    static const float DISTANCE_WEIGHT_LANGUAGE;
+    static const float DOUBLE_LETTER_COST;
+    static const float INTENTIONAL_OMISSION_COST;
+    static const float OMISSION_COST;
+    static const float TERMINAL_INSERTION_COST;
+    static const float SPACE_OMISSION_COST;
+    static const float COST_FIRST_COMPLETION;
+    static const float COST_COMPLETION;
+    static const float HAS_MULTI_WORD_TERMINAL_COST;
+    static const float GESTURE_BASE_OUTPUT_SCORE;
+    static const float GESTURE_MAX_OUTPUT_SCORE_PER_INPUT;
+
+ private:
+    DISALLOW_IMPLICIT_CONSTRUCTORS(GestureScoringParams);
+};
+} // namespace latinime
+#endif // LATINIME_GESTURE_SCORING_PARAMS_H
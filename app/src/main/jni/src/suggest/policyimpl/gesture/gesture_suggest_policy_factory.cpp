@@ -16,6 +16,14 @@
 
 #include "gesture_suggest_policy_factory.h"
 
+#include "suggest/policyimpl/gesture/gesture_suggest_policy.h"
+
 namespace latinime {
-    const SuggestPolicy *(*GestureSuggestPolicyFactory::sGestureSuggestFactoryMethod)() = 0;
+    const SuggestPolicy *(*GestureSuggestPolicyFactory::sGestureSuggestFactoryMethod)() =
+            GestureSuggestPolicyFactory::getDefaultGestureSuggestPolicy;
+
+    /* static */ const SuggestPolicy *
+            GestureSuggestPolicyFactory::getDefaultGestureSuggestPolicy() {
+        return GestureSuggestPolicy::getInstance();
+    }
 } // namespace latinime
@@ -38,6 +38,8 @@ class GestureSuggestPolicyFactory {
 
  private:
     DISALLOW_COPY_AND_ASSIGN(GestureSuggestPolicyFactory);
+    // The built-in policy, used unless another one is set.
+    static const SuggestPolicy *getDefaultGestureSuggestPolicy();
     static const SuggestPolicy *(*sGestureSuggestFactoryMethod)();
 };
 } // namespace latinime
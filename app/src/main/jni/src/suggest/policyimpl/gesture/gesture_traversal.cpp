@@ -0,0 +1,7 @@
+// SPDX-License-Identifier: GPL-3.0-only
+
+#include "suggest/policyimpl/gesture/gesture_traversal.h"
+
+namespace latinime {
+const GestureTraversal GestureTraversal::sInstance;
+}  // namespace latinime
@@ -0,0 +1,149 @@
+// SPDX-License-Identifier: GPL-3.0-only
+
+#ifndef LATINIME_GESTURE_TRAVERSAL_H
+#define LATINIME_GESTURE_TRAVERSAL_H
+
+#include <algorithm>
+
+#include "defines.h"
+#include "suggest/core/dicnode/dic_node.h"
+#include "suggest/core/dicnode/dic_node_vector.h"
+#include "suggest/core/layout/proximity_info_state.h"
+#include "suggest/core/policy/traversal.h"
+#include "suggest/core/session/dic_traverse_session.h"
+#include "suggest/core/suggest_options.h"
+#include "suggest/policyimpl/gesture/gesture_alignment_utils.h"
+#include "suggest/policyimpl/gesture/gesture_scoring_params.h"
+
+namespace latinime {
+class GestureTraversal : public Traversal {
+ public:
+    static const GestureTraversal *getInstance() { return &sInstance; }
+
+    // Note: DicTraverseSession treats the input as a gesture only when MAX_POINTER_COUNT_G is
+    // returned here.
+    AK_FORCE_INLINE int getMaxPointerCount() const {
+        return MAX_POINTER_COUNT_G;
+    }
+
+    // Skipped and misaligned points are already priced by the alignment itself, so the typing
+    // corrections (substitution, insertion, transposition) are never applied to gestures.
+    AK_FORCE_INLINE bool allowsErrorCorrections(const DicNode *const dicNode) const {
+        return false;
+    }
+
+    AK_FORCE_INLINE bool isOmission(const DicTraverseSession *const traverseSession,
+            const DicNode *const dicNode, const DicNode *const childDicNode,
+            const bool allowsErrorCorrections) const {
+        // Apostrophes and hyphens are not drawn, so they are the only letters that can be omitted.
+        return childDicNode->canBeIntentionalOmission();
+    }
+
+    AK_FORCE_INLINE bool isSpaceSubstitutionTerminal(
+            const DicTraverseSession *const traverseSession, const DicNode *const dicNode) const {
+        return false;
+    }
+
+    AK_FORCE_INLINE bool isSpaceOmissionTerminal(
+            const DicTraverseSession *const traverseSession, const DicNode *const dicNode) const {
+        if (!traverseSession->getSuggestOptions()->enableSpaceAwareGesture()) {
+            return false;
+        }
+        if (!dicNode->isTerminalDicNode()) {
+            return false;
+        }
+        // The next word needs some stroke left to be aligned to.
+        if (dicNode->isCompletion(traverseSession->getInputSize())) {
+            return false;
+        }
+        return !dicNode->isTotalInputSizeExceedingLimit()
+                && !dicNode->shouldBeFilteredBySafetyNetForBigram();
+    }
+
+    AK_FORCE_INLINE bool shouldDepthLevelCache(
+            const DicTraverseSession *const traverseSession) const {
+        return false;
+    }
+
+    // Caches the nodes whose next letter may be aligned to the end of the stroke, which can still
+    // change while the gesture goes on. The nodes below a cached node are not cached again, so the
+    // cached nodes form a frontier the next incremental search restarts from.
+    AK_FORCE_INLINE bool shouldNodeLevelCache(
+            const DicTraverseSession *const traverseSession, const DicNode *const dicNode) const {
+        if (dicNode->isCached()) {
+            return false;
+        }
+        const ProximityInfoState *const pInfoState =
+                GestureAlignmentUtils::getProximityInfoState(traverseSession);
+        const int cacheBorderIndex = pInfoState->size() - GestureScoringParams::CACHE_BACK_LENGTH;
+        const int alignedIndex = GestureAlignmentUtils::getAlignedIndex(dicNode);
+        if (alignedIndex == NOT_AN_INDEX || alignedIndex >= cacheBorderIndex) {
+            return false;
+        }
+        const int remainingLength = pInfoState->getLengthCache(cacheBorderIndex)
+                - pInfoState->getLengthCache(alignedIndex);
+        return remainingLength <= GestureAlignmentUtils::getReadForwardLength(traverseSession);
+    }
+
+    AK_FORCE_INLINE bool canDoLookAheadCorrection(
+            const DicTraverseSession *const traverseSession, const DicNode *const dicNode) const {
+        return false;
+    }
+
+    AK_FORCE_INLINE ProximityType getProximityType(
+            const DicTraverseSession *const traverseSession, const DicNode *const dicNode,
+            const DicNode *const childDicNode) const {
+        const ProximityInfoState *const pInfoState =
+                GestureAlignmentUtils::getProximityInfoState(traverseSession);
+        if (pInfoState->size() <= 0) {
+            return UNRELATED_CHAR;
+        }
+        // Start from the parent's point so that repeated letters can share it.
+        const int searchIndex = std::min(std::max(0, dicNode->getInputIndex(0) - 1),
+                pInfoState->size() - 1);
+        return pInfoState->getProximityTypeG(searchIndex, childDicNode->getNodeCodePoint());
+    }
+
+    AK_FORCE_INLINE bool needsToTraverseAllUserInput() const {
+        return true;
+    }
+
+    AK_FORCE_INLINE float getMaxSpatialDistance() const {
+        return GestureScoringParams::MAX_SPATIAL_DISTANCE;
+    }
+
+    AK_FORCE_INLINE int getDefaultExpandDicNodeSize() const {
+        return DicNodeVector::DEFAULT_NODES_SIZE_FOR_OPTIMIZATION;
+    }
+
+    AK_FORCE_INLINE int getMaxCacheSize(const int inputSize, const float weightForLocale) const {
+        if (weightForLocale < GestureScoringParams::LOCALE_WEIGHT_THRESHOLD_FOR_SMALL_CACHE_SIZE) {
+            return GestureScoringParams::MAX_CACHE_DIC_NODE_SIZE_FOR_LOW_PROBABILITY_LOCALE;
+        }
+        return GestureScoringParams::MAX_CACHE_DIC_NODE_SIZE;
+    }
+
+    AK_FORCE_INLINE int getTerminalCacheSize() const {
+        return MAX_RESULTS;
+    }
+
+    AK_FORCE_INLINE bool isPossibleOmissionChildNode(
+            const DicTraverseSession *const traverseSession, const DicNode *const parentDicNode,
+            const DicNode *const dicNode) const {
+        return getProximityType(traverseSession, parentDicNode, dicNode) == MATCH_CHAR;
+    }
+
+    AK_FORCE_INLINE bool isGoodToTraverseNextWord(const DicNode *const dicNode,
+            const int probability) const {
+        return probability >= GestureScoringParams::THRESHOLD_NEXT_WORD_PROBABILITY;
+    }
+
+ private:
+    DISALLOW_COPY_AND_ASSIGN(GestureTraversal);
+    static const GestureTraversal sInstance;
+
+    GestureTraversal() {}
+    ~GestureTraversal() {}
+};
+} // namespace latinime
+#endif // LATINIME_GESTURE_TRAVERSAL_H
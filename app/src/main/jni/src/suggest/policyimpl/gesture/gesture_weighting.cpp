@@ -0,0 +1,39 @@
+// SPDX-License-Identifier: GPL-3.0-only
+
+#include "suggest/policyimpl/gesture/gesture_weighting.h"
+
+#include "suggest/core/dicnode/dic_node.h"
+
+namespace latinime {
+
+const GestureWeighting GestureWeighting::sInstance;
+
+ErrorTypeUtils::ErrorType GestureWeighting::getErrorType(const CorrectionType correctionType,
+        const DicTraverseSession *const traverseSession, const DicNode *const parentDicNode,
+        const DicNode *const dicNode) const {
+    switch (correctionType) {
+        case CT_MATCH:
+            // A gesture never spells out a word exactly, so no match is treated as exact. This
+            // keeps exact match promotion from overriding the spatial and language model.
+            return ErrorTypeUtils::PROXIMITY_CORRECTION;
+        case CT_OMISSION:
+            if (parentDicNode->canBeIntentionalOmission()) {
+                return ErrorTypeUtils::INTENTIONAL_OMISSION;
+            } else {
+                return ErrorTypeUtils::EDIT_CORRECTION;
+            }
+            break;
+        case CT_TERMINAL_INSERTION:
+            return ErrorTypeUtils::EDIT_CORRECTION;
+        case CT_NEW_WORD_SPACE_OMISSION:
+        case CT_NEW_WORD_SPACE_SUBSTITUTION:
+            return ErrorTypeUtils::NEW_WORD;
+        case CT_TERMINAL:
+            return ErrorTypeUtils::NOT_AN_ERROR;
+        case CT_COMPLETION:
+            return ErrorTypeUtils::COMPLETION;
+        default:
+            return ErrorTypeUtils::NOT_AN_ERROR;
+    }
+}
+}  // namespace latinime
@@ -0,0 +1,139 @@
+// SPDX-License-Identifier: GPL-3.0-only
+
+#ifndef LATINIME_GESTURE_WEIGHTING_H
+#define LATINIME_GESTURE_WEIGHTING_H
+
+#include "defines.h"
+#include "suggest/core/dicnode/dic_node.h"
+#include "suggest/core/dicnode/dic_node_utils.h"
+#include "suggest/core/dictionary/error_type_utils.h"
+#include "suggest/core/policy/weighting.h"
+#include "suggest/core/session/dic_traverse_session.h"
+#include "suggest/policyimpl/gesture/gesture_alignment_utils.h"
+#include "suggest/policyimpl/gesture/gesture_scoring_params.h"
+
+namespace latinime {
+
+class DicNode;
+struct DicNode_InputStateG;
+class MultiBigramMap;
+
+class GestureWeighting : public Weighting {
+ public:
+    static const GestureWeighting *getInstance() { return &sInstance; }
+
+ protected:
+    float getTerminalSpatialCost(const DicTraverseSession *const traverseSession,
+            const DicNode *const dicNode) const {
+        return dicNode->hasMultipleWords() ? GestureScoringParams::HAS_MULTI_WORD_TERMINAL_COST
+                : 0.0f;
+    }
+
+    float getOmissionCost(const DicNode *const parentDicNode, const DicNode *const dicNode) const {
+        return parentDicNode->canBeIntentionalOmission()
+                ? GestureScoringParams::INTENTIONAL_OMISSION_COST
+                : GestureScoringParams::OMISSION_COST;
+    }
+
+    float getMatchedCost(const DicTraverseSession *const traverseSession,
+            const DicNode *const dicNode, DicNode_InputStateG *inputStateG) const {
+        int alignedIndex = NOT_AN_INDEX;
+        const float alignmentCost = GestureAlignmentUtils::getAlignmentCost(
+                traverseSession, dicNode, &alignedIndex);
+        if (alignedIndex == NOT_AN_INDEX) {
+            return static_cast<float>(MAX_VALUE_FOR_WEIGHTING);
+        }
+        float cost = alignmentCost * GestureScoringParams::DISTANCE_WEIGHT_SPATIAL;
+        if (alignedIndex < dicNode->getInputIndex(0)) {
+            cost += GestureScoringParams::DOUBLE_LETTER_COST;
+        }
+        inputStateG->mNeedsToUpdateInputStateG = true;
+        inputStateG->mPointerId = 0;
+        inputStateG->mInputIndex = static_cast<int16_t>(alignedIndex + 1);
+        inputStateG->mPrevCodePoint = dicNode->getNodeCodePoint();
+        return cost;
+    }
+
+    bool isProximityDicNode(const DicTraverseSession *const traverseSession,
+            const DicNode *const dicNode) const {
+        return false;
+    }
+
+    // Transpositions and insertions are typing corrections; GestureTraversal never asks for them.
+    float getTranspositionCost(const DicTraverseSession *const traverseSession,
+            const DicNode *const parentDicNode, const DicNode *const dicNode) const {
+        return static_cast<float>(MAX_VALUE_FOR_WEIGHTING);
+    }
+
+    float getInsertionCost(const DicTraverseSession *const traverseSession,
+            const DicNode *const parentDicNode, const DicNode *const dicNode) const {
+        return static_cast<float>(MAX_VALUE_FOR_WEIGHTING);
+    }
+
+    float getSpaceOmissionCost(const DicTraverseSession *const traverseSession,
+            const DicNode *const dicNode, DicNode_InputStateG *inputStateG) const {
+        const float cost = GestureScoringParams::SPACE_OMISSION_COST;
+        return cost * traverseSession->getMultiWordCostMultiplier();
+    }
+
+    float getNewWordBigramLanguageCost(const DicTraverseSession *const traverseSession,
+            const DicNode *const dicNode,
+            MultiBigramMap *const multiBigramMap) const {
+        return DicNodeUtils::getBigramNodeImprobability(
+                traverseSession->getDictionaryStructurePolicy(),
+                dicNode, multiBigramMap) * GestureScoringParams::DISTANCE_WEIGHT_LANGUAGE;
+    }
+
+    float getCompletionCost(const DicTraverseSession *const traverseSession,
+            const DicNode *const dicNode) const {
+        // Completions are only useful while the gesture is still being drawn.
+        const bool firstCompletion = dicNode->getInputIndex(0)
+                == traverseSession->getInputSize();
+        return firstCompletion ? GestureScoringParams::COST_FIRST_COMPLETION
+                : GestureScoringParams::COST_COMPLETION;
+    }
+
+    float getTerminalLanguageCost(const DicTraverseSession *const traverseSession,
+            const DicNode *const dicNode, const float dicNodeLanguageImprobability) const {
+        return dicNodeLanguageImprobability * GestureScoringParams::DISTANCE_WEIGHT_LANGUAGE;
+    }
+
+    float getTerminalInsertionCost(const DicTraverseSession *const traverseSession,
+            const DicNode *const dicNode) const {
+        return GestureScoringParams::TERMINAL_INSERTION_COST
+                + GestureAlignmentUtils::getRemainingStrokeCost(traverseSession, dicNode)
+                        * GestureScoringParams::DISTANCE_WEIGHT_SPATIAL;
+    }
+
+    // Words align to very different numbers of sampled points, so nodes are compared by their
+    // cost per aligned point.
+    AK_FORCE_INLINE bool needsToNormalizeCompoundDistance() const {
+        return true;
+    }
+
+    AK_FORCE_INLINE float getAdditionalProximityCost() const {
+        return static_cast<float>(MAX_VALUE_FOR_WEIGHTING);
+    }
+
+    AK_FORCE_INLINE float getSubstitutionCost() const {
+        return static_cast<float>(MAX_VALUE_FOR_WEIGHTING);
+    }
+
+    AK_FORCE_INLINE float getSpaceSubstitutionCost(const DicTraverseSession *const traverseSession,
+            const DicNode *const dicNode) const {
+        return static_cast<float>(MAX_VALUE_FOR_WEIGHTING);
+    }
+
+    ErrorTypeUtils::ErrorType getErrorType(const CorrectionType correctionType,
+            const DicTraverseSession *const traverseSession,
+            const DicNode *const parentDicNode, const DicNode *const dicNode) const;
+
+ private:
+    DISALLOW_COPY_AND_ASSIGN(GestureWeighting);
+    static const GestureWeighting sInstance;
+
+    GestureWeighting() {}
+    ~GestureWeighting() {}
+};
+} // namespace latinime
+#endif // LATINIME_GESTURE_WEIGHTING_H
@@ -17,6 +17,7 @@
 #ifndef LATINIME_JNI_DATA_UTILS_H
 #define LATINIME_JNI_DATA_UTILS_H
 
+#include <algorithm>
 #include <vector>
 
 #include "defines.h"
@@ -127,6 +128,43 @@ class JniDataUtils {
                 prevWordCount);
     }
 
+    // Same as above, but only the first prevWordCodePointCounts[i] code points of each array are
+    // used, so the arrays can be buffers that are reused for several lookups.
+    static NgramContext constructNgramContext(JNIEnv *env, jobjectArray prevWordCodePointArrays,
+            jintArray prevWordCodePointCounts, jbooleanArray isBeginningOfSentenceArray,
+            const size_t prevWordCount) {
+        int prevWordCodePoints[MAX_PREV_WORD_COUNT_FOR_N_GRAM][MAX_WORD_LENGTH];
+        int prevWordCodePointCount[MAX_PREV_WORD_COUNT_FOR_N_GRAM];
+        bool isBeginningOfSentence[MAX_PREV_WORD_COUNT_FOR_N_GRAM];
+        int givenCodePointCounts[MAX_PREV_WORD_COUNT_FOR_N_GRAM];
+        const size_t count = std::min(prevWordCount,
+                static_cast<size_t>(MAX_PREV_WORD_COUNT_FOR_N_GRAM));
+        env->GetIntArrayRegion(prevWordCodePointCounts, 0, count, givenCodePointCounts);
+        for (size_t i = 0; i < count; ++i) {
+            prevWordCodePointCount[i] = 0;
+            isBeginningOfSentence[i] = false;
+            jintArray prevWord = (jintArray)env->GetObjectArrayElement(prevWordCodePointArrays, i);
+            if (!prevWord) {
+                continue;
+            }
+            const jsize prevWordLength = givenCodePointCounts[i];
+            if (prevWordLength < 0 || prevWordLength > MAX_WORD_LENGTH
+                    || prevWordLength > env->GetArrayLength(prevWord)) {
+                env->DeleteLocalRef(prevWord);
+                continue;
+            }
+            env->GetIntArrayRegion(prevWord, 0, prevWordLength, prevWordCodePoints[i]);
+            env->DeleteLocalRef(prevWord);
+            prevWordCodePointCount[i] = prevWordLength;
+            jboolean isBeginningOfSentenceBoolean = JNI_FALSE;
+            env->GetBooleanArrayRegion(isBeginningOfSentenceArray, i, 1 /* len */,
+                    &isBeginningOfSentenceBoolean);
+            isBeginningOfSentence[i] = isBeginningOfSentenceBoolean == JNI_TRUE;
+        }
+        return NgramContext(prevWordCodePoints, prevWordCodePointCount, isBeginningOfSentence,
+                count);
+    }
+
     static void putBooleanToArray(JNIEnv *env, jbooleanArray array, const int index,
             const jboolean value) {
         env->SetBooleanArrayRegion(array, index, 1 /* len */, &value);
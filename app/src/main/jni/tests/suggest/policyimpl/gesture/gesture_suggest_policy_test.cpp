@@ -0,0 +1,39 @@
+// SPDX-License-Identifier: GPL-3.0-only
+
+#include "suggest/policyimpl/gesture/gesture_suggest_policy_factory.h"
+
+#include <gtest/gtest.h>
+
+#include "suggest/core/dictionary/error_type_utils.h"
+#include "suggest/policyimpl/gesture/gesture_suggest_policy.h"
+
+namespace latinime {
+namespace {
+
+TEST(GestureSuggestPolicyTest, TestBuiltInPolicyIsDefault) {
+    const SuggestPolicy *const policy = GestureSuggestPolicyFactory::getGestureSuggestPolicy();
+    ASSERT_NE(nullptr, policy);
+    EXPECT_EQ(GestureSuggestPolicy::getInstance(), policy);
+    // The traverse session only samples the input as a gesture for this pointer count.
+    EXPECT_EQ(MAX_POINTER_COUNT_G, policy->getTraversal()->getMaxPointerCount());
+}
+
+TEST(GestureSuggestPolicyTest, TestFinalScoreDecreasesWithDistance) {
+    const Scoring *const scoring = GestureSuggestPolicy::getInstance()->getScoring();
+    const int inputSize = 40;
+    int prevScore = scoring->calculateFinalScore(0.0f, inputSize,
+            ErrorTypeUtils::PROXIMITY_CORRECTION, false /* forceCommit */,
+            true /* boostExactMatches */, false /* hasProbabilityZero */);
+    EXPECT_GT(prevScore, 0);
+    for (float distance = 1.0f; distance < 20.0f; distance += 1.0f) {
+        const int score = scoring->calculateFinalScore(distance, inputSize,
+                ErrorTypeUtils::PROXIMITY_CORRECTION, false /* forceCommit */,
+                true /* boostExactMatches */, false /* hasProbabilityZero */);
+        EXPECT_LE(score, prevScore);
+        EXPECT_GE(score, 0);
+        prevScore = score;
+    }
+}
+
+}  // namespace
+}  // namespace latinime
@@ -13,16 +13,19 @@ import helium314.keyboard.keyboard.internal.KeyboardBuilder
 import helium314.keyboard.keyboard.internal.KeyboardParams
 import helium314.keyboard.keyboard.internal.TouchPositionCorrection
 import helium314.keyboard.keyboard.internal.UniqueKeysCache
+import helium314.keyboard.keyboard.internal.keyboard_parser.CompiledLayout
+import helium314.keyboard.keyboard.internal.keyboard_parser.CompiledLayoutCache
 import helium314.keyboard.keyboard.internal.keyboard_parser.POPUP_KEYS_NORMAL
 import helium314.keyboard.keyboard.internal.keyboard_parser.RawKeyboardParser
 import helium314.keyboard.keyboard.internal.keyboard_parser.addLocaleKeyTextsToParams
 import helium314.keyboard.keyboard.internal.keyboard_parser.floris.KeyCode
 import helium314.keyboard.latin.LatinIME
-import helium314.keyboard.latin.RichInputMethodSubtype
 import helium314.keyboard.latin.utils.AdditionalSubtypeUtils.createEmojiCapableAdditionalSubtype
 import helium314.keyboard.latin.utils.POPUP_KEYS_LAYOUT
 import helium314.keyboard.latin.utils.checkKeys
+import org.junit.Assert.assertArrayEquals
 import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
 import org.junit.Assert.assertThrows
 import org.junit.Assert.assertTrue
 import org.junit.Before
@@ -458,6 +461,27 @@ f""", // no newline at the end
         }
     }
 
+    @Test fun `compiled layouts of all assets are decoded like they were encoded`() {
+        val module = RawKeyboardParser.serializersModule
+        val layoutFiles = latinIME.assets.list("layouts")!!.filter { it.endsWith(".txt") || it.endsWith(".json") }
+        assertTrue(layoutFiles.isNotEmpty())
+        layoutFiles.forEach { fileName ->
+            val text = latinIME.assets.open("layouts/$fileName").reader().use { it.readText() }
+            val layout = RawKeyboardParser.compileLayout(fileName, text)
+            assertEquals(fileName, fileName.endsWith(".json"), layout is CompiledLayout.Json)
+            val bytes = CompiledLayoutCache.encode(layout, fileName, module)
+            val decoded = CompiledLayoutCache.decode(bytes, fileName, module)!!
+            assertEquals(fileName, layout::class, decoded::class)
+            if (layout is CompiledLayout.Simple)
+                assertEquals(fileName, layout.rows, (decoded as CompiledLayout.Simple).rows)
+            else
+                assertEquals(fileName, (layout as CompiledLayout.Json).rows.map { it.size }, (decoded as CompiledLayout.Json).rows.map { it.size })
+            // everything read from the layout is encoded again
+            assertArrayEquals(fileName, bytes, CompiledLayoutCache.encode(decoded, fileName, module))
+            assertNull(CompiledLayoutCache.decode(bytes, "other key", module))
+        }
+    }
+
     private data class Expected(val code: Int, val label: String? = null, val icon: String? = null, val text: String? = null, val popups: List<Pair<String?, Int>>? = null)
 
     private fun assertIsExpected(json: String, expected: Expected) {
@@ -481,19 +505,9 @@ f""", // no newline at the end
     }
 
     private fun buildKeyboard(editorInfo: EditorInfo, subtype: InputMethodSubtype, elementId: Int): Pair<Keyboard, List<List<KeyParams>>> {
-        val layoutParams = KeyboardLayoutSet.Params()
-        val editorInfoField = KeyboardLayoutSet.Params::class.java.getDeclaredField("mEditorInfo").apply { isAccessible = true }
-        editorInfoField.set(layoutParams, editorInfo)
-        val subtypeField = KeyboardLayoutSet.Params::class.java.getDeclaredField("mSubtype").apply { isAccessible = true }
-        subtypeField.set(layoutParams, RichInputMethodSubtype(subtype))
-        val widthField = KeyboardLayoutSet.Params::class.java.getDeclaredField("mKeyboardWidth").apply { isAccessible = true }
-        widthField.setInt(layoutParams, 500)
-        val heightField = KeyboardLayoutSet.Params::class.java.getDeclaredField("mKeyboardHeight").apply { isAccessible = true }
-        heightField.setInt(layoutParams, 300)
-
         val keysInRowsField = KeyboardBuilder::class.java.getDeclaredField("keysInRows").apply { isAccessible = true }
 
-        val id = KeyboardId(elementId, layoutParams)
+        val id = TestKeyboards.createKeyboardId(elementId, editorInfo = editorInfo, subtype = subtype)
         val builder = KeyboardBuilder(latinIME, KeyboardParams(UniqueKeysCache.NO_CACHE))
         builder.load(id)
         return builder.build() to keysInRowsField.get(builder) as ArrayList<ArrayList<KeyParams>>
@@ -0,0 +1,75 @@
+// SPDX-License-Identifier: GPL-3.0-only
+package helium314.keyboard
+
+import android.graphics.Bitmap
+import android.graphics.Canvas
+import android.view.ContextThemeWrapper
+import helium314.keyboard.keyboard.Keyboard
+import helium314.keyboard.keyboard.KeyboardId
+import helium314.keyboard.keyboard.KeyboardTheme
+import helium314.keyboard.keyboard.KeyboardView
+import helium314.keyboard.latin.LatinIME
+import helium314.keyboard.latin.utils.TypefaceUtils
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.Robolectric
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+
+@RunWith(RobolectricTestRunner::class)
+@Config(shadows = [
+    ShadowInputMethodManager2::class,
+    ShadowProximityInfo::class,
+])
+class KeyboardViewTest {
+    private lateinit var latinIME: LatinIME
+    private lateinit var view: KeyboardView
+    private lateinit var canvas: Canvas
+
+    @Before
+    fun setUp() {
+        latinIME = Robolectric.setupService(LatinIME::class.java)
+        val themeContext = ContextThemeWrapper(latinIME, KeyboardTheme.getKeyboardTheme(latinIME).mStyleId)
+        view = KeyboardView(themeContext, null)
+    }
+
+    @Test fun `full redraw does not measure text again`() {
+        val keyboard = buildKeyboard(KeyboardId.ELEMENT_ALPHABET)
+        setKeyboard(keyboard)
+        val firstDrawMeasures = countMeasuresForFullRedraw()
+        assertTrue(firstDrawMeasures > 0)
+        assertEquals(0, countMeasuresForFullRedraw())
+    }
+
+    @Test fun `showing a keyboard again does not measure text again`() {
+        val keyboard = buildKeyboard(KeyboardId.ELEMENT_ALPHABET)
+        val shiftedKeyboard = buildKeyboard(KeyboardId.ELEMENT_ALPHABET_AUTOMATIC_SHIFTED)
+        setKeyboard(keyboard)
+        countMeasuresForFullRedraw()
+        setKeyboard(shiftedKeyboard)
+        countMeasuresForFullRedraw()
+        setKeyboard(keyboard)
+        assertEquals(0, countMeasuresForFullRedraw())
+        setKeyboard(shiftedKeyboard)
+        assertEquals(0, countMeasuresForFullRedraw())
+    }
+
+    private fun setKeyboard(keyboard: Keyboard) {
+        view.setKeyboard(keyboard)
+        view.measure(0, 0)
+        view.layout(0, 0, view.measuredWidth, view.measuredHeight)
+        canvas = Canvas(Bitmap.createBitmap(view.measuredWidth, view.measuredHeight, Bitmap.Config.ARGB_8888))
+    }
+
+    private fun countMeasuresForFullRedraw(): Long {
+        val before = TypefaceUtils.getStringWidthCount()
+        view.invalidateAllKeys()
+        view.draw(canvas)
+        return TypefaceUtils.getStringWidthCount() - before
+    }
+
+    private fun buildKeyboard(elementId: Int) = TestKeyboards.buildKeyboard(latinIME, elementId)
+}
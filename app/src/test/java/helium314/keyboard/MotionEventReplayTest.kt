@@ -0,0 +1,84 @@
+// SPDX-License-Identifier: GPL-3.0-only
+package helium314.keyboard
+
+import helium314.keyboard.keyboard.Keyboard
+import helium314.keyboard.keyboard.PointerTracker
+import helium314.keyboard.keyboard.internal.MotionEventRecorder
+import helium314.keyboard.latin.LatinIME
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.Robolectric
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+import java.io.BufferedReader
+import java.io.StringReader
+
+@RunWith(RobolectricTestRunner::class)
+@Config(shadows = [
+    ShadowInputMethodManager2::class,
+    ShadowProximityInfo::class,
+])
+class MotionEventReplayTest {
+    private lateinit var latinIME: LatinIME
+    private lateinit var keyboard: Keyboard
+
+    @Before fun setUp() {
+        latinIME = Robolectric.setupService(LatinIME::class.java)
+        keyboard = TestKeyboards.buildKeyboard(latinIME, width = 1000, height = 600)
+    }
+
+    @Test fun `serialized events are the same after reading`() {
+        val events = tap('a', 1000) + swipe("qwe", 2000)
+        val trace = events.joinToString("\n") { MotionEventRecorder.serialize(it) }
+        val readEvents = MotionEventRecorder.read(BufferedReader(StringReader("# comment\n$trace")))
+        assertEquals(trace, readEvents.joinToString("\n") { MotionEventRecorder.serialize(it) })
+        assertTrue(readEvents.any { it.historySize > 0 })
+    }
+
+    @Test fun `taps input the letters`() {
+        val events = "hello".withIndex().flatMap { (i, c) -> tap(c, 1000L + i * 200) }
+        val result = MotionEventReplayer(latinIME, keyboard).replay(events)
+        assertEquals("hello".map { "code ${it.code}" }, result.events.filter { it.startsWith("code") })
+        assertTrue(result.keyDetections >= 5)
+        assertEquals(events.size, result.processingNanos.size)
+    }
+
+    @Test fun `trace is replayed with the key detector offset from its header`() {
+        val offsetX = keyboard.getKey('a'.code)!!.x - keyboard.getKey('s'.code)!!.x
+        val trace = tap('s', 1000).joinToString("\n") { MotionEventRecorder.serialize(it) }
+        val replayer = MotionEventReplayer(latinIME, keyboard)
+        val result = replayer.replay(BufferedReader(StringReader("# motion events 1\n${MotionEventRecorder.KEY_DETECTOR_OFFSET}$offsetX.0 0.0\n$trace")))
+        assertEquals(listOf("code ${'a'.code}"), result.events.filter { it.startsWith("code") })
+        // the offset is only used for the trace
+        assertEquals(listOf("code ${'s'.code}"), replayer.replay(tap('s', 2000)).events.filter { it.startsWith("code") })
+    }
+
+    @Test fun `gesture is replayed the same every time`() {
+        val events = tap('t', 1000) + swipe("hello", 3000)
+        val result = MotionEventReplayer(latinIME, keyboard).replay(events)
+        assertTrue(result.events.toString(), "start batch" in result.events)
+        assertTrue(result.events.toString(), result.events.any { it.startsWith("end batch") })
+        assertEquals(result.events, MotionEventReplayer(latinIME, keyboard).replay(events).events)
+    }
+
+    @Test fun `slow decoding results in fewer gesture updates`() {
+        val events = tap('t', 1000) + swipe("keyboards", 3000)
+        val fastUpdates = MotionEventReplayer(latinIME, keyboard).replay(events).events.count { it.startsWith("update batch") }
+        PointerTracker.setGestureDecodingTime(300)
+        try {
+            val result = MotionEventReplayer(latinIME, keyboard).replay(events)
+            val slowUpdates = result.events.count { it.startsWith("update batch") }
+            assertTrue("$slowUpdates updates with slow decoding, $fastUpdates without", slowUpdates in 1 until fastUpdates)
+            assertTrue(result.events.toString(), result.events.any { it.startsWith("end batch") })
+        } finally {
+            PointerTracker.setGestureDecodingTime(0)
+        }
+    }
+
+    private fun tap(c: Char, time: Long) = MotionEvents.tap(keyboard, c, time)
+
+    private fun swipe(word: String, time: Long) = MotionEvents.swipe(keyboard, word, time)
+}
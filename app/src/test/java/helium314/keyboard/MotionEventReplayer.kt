@@ -0,0 +1,256 @@
+// SPDX-License-Identifier: GPL-3.0-only
+package helium314.keyboard
+
+import android.content.Context
+import android.view.ContextThemeWrapper
+import android.view.MotionEvent
+import android.view.ViewConfiguration
+import helium314.keyboard.keyboard.Key
+import helium314.keyboard.keyboard.KeyDetector
+import helium314.keyboard.keyboard.Keyboard
+import helium314.keyboard.keyboard.KeyboardActionListener
+import helium314.keyboard.keyboard.KeyboardTheme
+import helium314.keyboard.keyboard.PointerTracker
+import helium314.keyboard.keyboard.PopupKeysPanel
+import helium314.keyboard.keyboard.internal.DrawingProxy
+import helium314.keyboard.keyboard.internal.MotionEventRecorder
+import helium314.keyboard.keyboard.internal.TimerProxy
+import helium314.keyboard.keyboard.internal.keyboard_parser.floris.KeyCode
+import helium314.keyboard.latin.R
+import helium314.keyboard.latin.common.InputPointers
+import helium314.keyboard.latin.utils.LatencyTracer
+import org.robolectric.shadows.ShadowSystemClock
+import java.io.BufferedReader
+import java.io.StringReader
+import java.time.Duration
+
+/**
+ * Replays [MotionEvent]s, e.g. recorded by MotionEventRecorder, on [PointerTracker] like
+ * MainKeyboardView does. Timers are fired by a fake [TimerProxy] at the time they are due according
+ * to the event times, and SystemClock is advanced along, so replaying is deterministic.
+ */
+class MotionEventReplayer(context: Context, private val keyboard: Keyboard) {
+    private val output = mutableListOf<String>()
+    private val batchUpdates = mutableListOf<InputPointers>()
+    private val batchEnds = mutableListOf<InputPointers>()
+    private val timers = FakeTimerProxy()
+    private val keyDetector: CountingKeyDetector
+    private val gestureUpdateTime: Int
+    private val typingStateTimeout: Int
+    private var now = 0L
+
+    /**
+     * Results of a replay. [events] are the calls to the [KeyboardActionListener], [batchUpdates] and
+     * [batchEnds] copies of the gesture pointers passed to it.
+     */
+    class Result(
+        val events: List<String>,
+        val processingNanos: LongArray,
+        val keyDetections: Int,
+        val batchUpdates: List<InputPointers>,
+        val batchEnds: List<InputPointers>,
+    ) {
+        override fun toString(): String {
+            val sorted = processingNanos.sortedArray()
+            return "${processingNanos.size} motion events, $keyDetections key detections, processing µs " +
+                    "p50 ${LatencyTracer.getPercentile(sorted, 50.0) / 1000} " +
+                    "p99 ${LatencyTracer.getPercentile(sorted, 99.0) / 1000} " +
+                    "max ${(sorted.lastOrNull() ?: 0) / 1000}"
+        }
+    }
+
+    init {
+        val themeContext = ContextThemeWrapper(context, KeyboardTheme.getKeyboardTheme(context).mStyleId)
+        val attr = themeContext.obtainStyledAttributes(null, R.styleable.MainKeyboardView,
+            R.attr.mainKeyboardViewStyle, R.style.MainKeyboardView)
+        gestureUpdateTime = attr.getInt(R.styleable.MainKeyboardView_gestureRecognitionUpdateTime, 0)
+        typingStateTimeout = attr.getInt(R.styleable.MainKeyboardView_ignoreAltCodeKeyTimeout, 0)
+        keyDetector = CountingKeyDetector(
+            attr.getDimension(R.styleable.MainKeyboardView_keyHysteresisDistance, 0f),
+            attr.getDimension(R.styleable.MainKeyboardView_keyHysteresisDistanceForSlidingModifier, 0f)
+        )
+        PointerTracker.init(attr, timers, NoDrawingProxy)
+        attr.recycle()
+        PointerTracker.setKeyboardActionListener(RecordingListener())
+        PointerTracker.setMainDictionaryAvailability(true)
+        PointerTracker.setGestureHandlingEnabledByUser(true)
+        keyDetector.setKeyboard(keyboard, 0f, 0f)
+        PointerTracker.setKeyDetector(keyDetector)
+    }
+
+    /** Replays a trace written by MotionEventRecorder, with the key detector offset from its header. */
+    fun replay(trace: BufferedReader): Result {
+        val text = trace.readText()
+        val offset = text.lineSequence().firstOrNull { it.startsWith(MotionEventRecorder.KEY_DETECTOR_OFFSET) }
+            ?.removePrefix(MotionEventRecorder.KEY_DETECTOR_OFFSET)?.split(" ")?.map { it.toFloat() }
+        val events = MotionEventRecorder.read(BufferedReader(StringReader(text)))
+        keyDetector.setKeyboard(keyboard, offset?.get(0) ?: 0f, offset?.get(1) ?: 0f)
+        try {
+            return replay(events)
+        } finally {
+            keyDetector.setKeyboard(keyboard, 0f, 0f)
+            events.forEach { it.recycle() }
+        }
+    }
+
+    fun replay(events: List<MotionEvent>): Result {
+        output.clear()
+        batchUpdates.clear()
+        batchEnds.clear()
+        keyDetector.count = 0
+        val processingNanos = LongArray(events.size)
+        events.forEachIndexed { i, me ->
+            // historical points are handled along with the event, at the time of the event
+            fireTimersUntil(me.eventTime)
+            advanceClockTo(me.eventTime)
+            val tracker = PointerTracker.getPointerTracker(me.getPointerId(me.actionIndex))
+            val start = System.nanoTime()
+            tracker.processMotionEvent(me, keyDetector)
+            processingNanos[i] = System.nanoTime() - start
+        }
+        timers.clear()
+        return Result(output.toList(), processingNanos, keyDetector.count, batchUpdates.toList(), batchEnds.toList())
+    }
+
+    private fun advanceClockTo(time: Long) {
+        if (now != 0L && time > now)
+            ShadowSystemClock.advanceBy(Duration.ofMillis(time - now))
+        now = time
+    }
+
+    private fun fireTimersUntil(time: Long) {
+        if (now == 0L) return
+        while (true) {
+            val timer = timers.next(time) ?: return
+            advanceClockTo(timer.due)
+            timer.action()
+        }
+    }
+
+    private class Timer(val due: Long, val tracker: PointerTracker?, val type: Int, val action: () -> Unit)
+
+    private inner class FakeTimerProxy : TimerProxy {
+        private val pending = mutableListOf<Timer>()
+        private var typingStateEnd = 0L
+        private var doubleTapEnd = 0L
+
+        fun next(time: Long): Timer? {
+            val timer = pending.filter { it.due <= time }.minByOrNull { it.due } ?: return null
+            pending.remove(timer)
+            return timer
+        }
+
+        fun clear() {
+            pending.clear()
+            typingStateEnd = 0
+            doubleTapEnd = 0
+        }
+
+        private fun start(delay: Int, tracker: PointerTracker?, type: Int, action: () -> Unit) {
+            pending.add(Timer(now + delay, tracker, type, action))
+        }
+
+        private fun cancel(tracker: PointerTracker?, vararg types: Int) {
+            pending.removeAll { (tracker == null || it.tracker == tracker) && it.type in types }
+        }
+
+        override fun startTypingStateTimer(typedKey: Key) {
+            if (!typedKey.isModifier && !typedKey.altCodeWhileTyping())
+                typingStateEnd = now + typingStateTimeout
+        }
+        override fun isTypingState() = now < typingStateEnd
+        override fun startKeyRepeatTimerOf(tracker: PointerTracker, repeatCount: Int, delay: Int) {
+            val code = tracker.key?.code ?: return
+            if (delay == 0) return
+            start(delay, tracker, REPEAT) { tracker.onKeyRepeat(code, repeatCount) }
+        }
+        override fun startLongPressTimerOf(tracker: PointerTracker, delay: Int) {
+            val key = tracker.key ?: return
+            // like TimerHandler, long pressing shift is separate because it is canceled when other keys are pressed
+            start(delay, tracker, if (key.code == KeyCode.SHIFT) LONG_PRESS_SHIFT else LONG_PRESS) {
+                cancel(null, LONG_PRESS, LONG_PRESS_SHIFT)
+                tracker.onLongPressed()
+            }
+        }
+        override fun cancelLongPressTimersOf(tracker: PointerTracker) = cancel(tracker, LONG_PRESS, LONG_PRESS_SHIFT)
+        override fun cancelLongPressShiftKeyTimer() = cancel(null, LONG_PRESS_SHIFT)
+        override fun cancelKeyTimersOf(tracker: PointerTracker) = cancel(tracker, LONG_PRESS, LONG_PRESS_SHIFT, REPEAT)
+        override fun startDoubleTapShiftKeyTimer() {
+            doubleTapEnd = now + ViewConfiguration.getDoubleTapTimeout()
+        }
+        override fun cancelDoubleTapShiftKeyTimer() {
+            doubleTapEnd = 0
+        }
+        override fun isInDoubleTapShiftKeyTimeout() = now < doubleTapEnd
+        override fun startUpdateBatchInputTimer(tracker: PointerTracker) {
+            if (gestureUpdateTime <= 0) return
+            cancel(tracker, BATCH_UPDATE)
+            start(gestureUpdateTime, tracker, BATCH_UPDATE) {
+                tracker.updateBatchInputByTimer(now)
+                startUpdateBatchInputTimer(tracker)
+            }
+        }
+        override fun cancelUpdateBatchInputTimer(tracker: PointerTracker) = cancel(tracker, BATCH_UPDATE)
+        override fun cancelAllUpdateBatchInputTimers() = cancel(null, BATCH_UPDATE)
+    }
+
+    private class CountingKeyDetector(hysteresis: Float, hysteresisForSlidingModifier: Float)
+            : KeyDetector(hysteresis, hysteresisForSlidingModifier) {
+        var count = 0
+        override fun detectHitKey(x: Int, y: Int): Key? {
+            count++
+            return super.detectHitKey(x, y)
+        }
+    }
+
+    private inner class RecordingListener : KeyboardActionListener.Adapter() {
+        override fun onPressKey(primaryCode: Int, repeatCount: Int, isSinglePointer: Boolean) {
+            output.add("press $primaryCode")
+        }
+        override fun onReleaseKey(primaryCode: Int, withSliding: Boolean) {
+            output.add("release $primaryCode")
+        }
+        override fun onCodeInput(primaryCode: Int, x: Int, y: Int, isKeyRepeat: Boolean) {
+            output.add("code $primaryCode" + if (isKeyRepeat) " repeat" else "")
+        }
+        override fun onTextInput(text: String) {
+            output.add("text $text")
+        }
+        override fun onStartBatchInput() {
+            output.add("start batch")
+        }
+        override fun onUpdateBatchInput(batchPointers: InputPointers) {
+            output.add("update batch ${batchPointers.pointerSize}")
+            batchUpdates.add(copyOf(batchPointers))
+        }
+        override fun onEndBatchInput(batchPointers: InputPointers) {
+            output.add("end batch ${batchPointers.pointerSize}")
+            batchEnds.add(copyOf(batchPointers))
+        }
+        override fun onCancelBatchInput() {
+            output.add("cancel batch")
+        }
+        override fun onCancelInput() {
+            output.add("cancel")
+        }
+    }
+
+    private object NoDrawingProxy : DrawingProxy {
+        override fun onKeyPressed(key: Key, withPreview: Boolean) {}
+        override fun onKeyReleased(key: Key, withAnimation: Boolean) {}
+        override fun showPopupKeysKeyboard(key: Key, tracker: PointerTracker): PopupKeysPanel? = null
+        override fun startWhileTypingAnimation(fadeInOrOut: Int) {}
+        override fun showSlidingKeyInputPreview(tracker: PointerTracker?) {}
+        override fun showGestureTrail(tracker: PointerTracker, showsFloatingPreviewText: Boolean) {}
+        override fun dismissGestureFloatingPreviewTextWithoutDelay() {}
+    }
+
+    companion object {
+        private fun copyOf(pointers: InputPointers) = InputPointers(pointers.pointerSize).apply { copy(pointers) }
+
+        private const val REPEAT = 0
+        private const val LONG_PRESS = 1
+        private const val LONG_PRESS_SHIFT = 2
+        private const val BATCH_UPDATE = 3
+    }
+}
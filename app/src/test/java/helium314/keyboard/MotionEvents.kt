@@ -0,0 +1,48 @@
+// SPDX-License-Identifier: GPL-3.0-only
+package helium314.keyboard
+
+import android.view.InputDevice
+import android.view.MotionEvent
+import helium314.keyboard.keyboard.Keyboard
+
+/** Creates single pointer [MotionEvent]s for tapping and swiping over the keys of a keyboard. */
+object MotionEvents {
+    fun keyCenter(keyboard: Keyboard, c: Char): Pair<Float, Float> {
+        val key = keyboard.getKey(c.code)!!
+        return (key.x + key.width / 2f) to (key.y + key.height / 2f)
+    }
+
+    fun tap(keyboard: Keyboard, c: Char, time: Long): List<MotionEvent> {
+        val point = keyCenter(keyboard, c)
+        return listOf(
+            event(time, MotionEvent.ACTION_DOWN, listOf(time to point)),
+            event(time, MotionEvent.ACTION_UP, listOf(time + 50 to point)),
+        )
+    }
+
+    // moves through the key centers, with a point every 5 ms and a motion event every 4 points
+    fun swipe(keyboard: Keyboard, word: String, time: Long): List<MotionEvent> {
+        val points = mutableListOf<Pair<Float, Float>>()
+        word.zipWithNext().forEach { (from, to) ->
+            val (x1, y1) = keyCenter(keyboard, from)
+            val (x2, y2) = keyCenter(keyboard, to)
+            for (i in 0 until 10) points.add((x1 + (x2 - x1) * i / 10) to (y1 + (y2 - y1) * i / 10))
+        }
+        points.add(keyCenter(keyboard, word.last()))
+        val timedPoints = points.mapIndexed { i, p -> time + i * 5L to p }
+        val events = mutableListOf(event(time, MotionEvent.ACTION_DOWN, timedPoints.take(1)))
+        timedPoints.drop(1).chunked(4).forEach { events.add(event(time, MotionEvent.ACTION_MOVE, it)) }
+        events.add(event(time, MotionEvent.ACTION_UP, timedPoints.takeLast(1)))
+        return events
+    }
+
+    // single pointer event at the time of the last point, earlier points are added as history
+    private fun event(downTime: Long, action: Int, points: List<Pair<Long, Pair<Float, Float>>>): MotionEvent {
+        val properties = arrayOf(MotionEvent.PointerProperties().apply { id = 0; toolType = MotionEvent.TOOL_TYPE_FINGER })
+        fun coords(point: Pair<Float, Float>) = arrayOf(MotionEvent.PointerCoords().apply { x = point.first; y = point.second; pressure = 1f; size = 1f })
+        val me = MotionEvent.obtain(downTime, points.first().first, action, 1, properties, coords(points.first().second),
+            0, 0, 1f, 1f, 0, 0, InputDevice.SOURCE_TOUCHSCREEN, 0)
+        points.drop(1).forEach { (time, point) -> me.addBatch(time, coords(point), 0) }
+        return me
+    }
+}
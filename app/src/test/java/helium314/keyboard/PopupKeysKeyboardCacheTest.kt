@@ -0,0 +1,165 @@
+// SPDX-License-Identifier: GPL-3.0-only
+package helium314.keyboard
+
+import android.graphics.Paint
+import android.os.Looper
+import android.text.InputType
+import android.view.ContextThemeWrapper
+import android.view.inputmethod.EditorInfo
+import helium314.keyboard.keyboard.Keyboard
+import helium314.keyboard.keyboard.KeyboardId
+import helium314.keyboard.keyboard.KeyboardTheme
+import helium314.keyboard.keyboard.MainKeyboardView
+import helium314.keyboard.keyboard.PointerTracker
+import helium314.keyboard.keyboard.PopupKeysKeyboardCache
+import helium314.keyboard.latin.LatinIME
+import helium314.keyboard.latin.utils.ExecutorUtils
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNotSame
+import org.junit.Assert.assertSame
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.Robolectric
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.Shadows.shadowOf
+import org.robolectric.annotation.Config
+import java.util.concurrent.Executors
+
+@RunWith(RobolectricTestRunner::class)
+@Config(shadows = [
+    ShadowInputMethodManager2::class,
+    ShadowProximityInfo::class,
+])
+class PopupKeysKeyboardCacheTest {
+    private lateinit var latinIME: LatinIME
+    private val cache = PopupKeysKeyboardCache()
+    private val paint = Paint().apply { textSize = 40f }
+    private val executor = Executors.newSingleThreadScheduledExecutor()
+
+    @Before fun setUp() {
+        latinIME = Robolectric.setupService(LatinIME::class.java)
+        ExecutorUtils.setExecutorServiceForTests(executor)
+    }
+
+    @After fun tearDown() {
+        ExecutorUtils.setExecutorServiceForTests(null)
+        executor.shutdownNow()
+    }
+
+    @Test fun `view builds popup keys keyboards once across shift toggles`() {
+        val themeContext = ContextThemeWrapper(latinIME, KeyboardTheme.getKeyboardTheme(latinIME).mStyleId)
+        val view = MainKeyboardView(themeContext, null)
+        val alphabet = buildKeyboard(KeyboardId.ELEMENT_ALPHABET, 1000)
+        val shifted = buildKeyboard(KeyboardId.ELEMENT_ALPHABET_MANUAL_SHIFTED, 1000)
+
+        // built in background when idle, and then used on long press
+        setKeyboardAndPrebuild(view, alphabet)
+        val alphabetBuilds = view.popupKeysKeyboardBuildCount
+        assertTrue(alphabetBuilds > 0)
+        showPopupKeysKeyboards(view, alphabet)
+        assertEquals(alphabetBuilds, view.popupKeysKeyboardBuildCount)
+        setKeyboardAndPrebuild(view, shifted)
+        showPopupKeysKeyboards(view, shifted)
+        val buildsAfterFirstShift = view.popupKeysKeyboardBuildCount
+        repeat(3) {
+            val reloadedAlphabet = buildKeyboard(KeyboardId.ELEMENT_ALPHABET, 1000)
+            setKeyboardAndPrebuild(view, reloadedAlphabet)
+            showPopupKeysKeyboards(view, reloadedAlphabet)
+            val reloadedShifted = buildKeyboard(KeyboardId.ELEMENT_ALPHABET_MANUAL_SHIFTED, 1000)
+            setKeyboardAndPrebuild(view, reloadedShifted)
+            showPopupKeysKeyboards(view, reloadedShifted)
+        }
+        assertEquals(buildsAfterFirstShift, view.popupKeysKeyboardBuildCount)
+
+        // built on long press before being idle, and not again in background
+        val wide = buildKeyboard(KeyboardId.ELEMENT_ALPHABET, 1200)
+        view.setKeyboard(wide)
+        showPopupKeysKeyboards(view, wide)
+        val wideBuilds = view.popupKeysKeyboardBuildCount
+        assertTrue(wideBuilds > buildsAfterFirstShift)
+        awaitPrebuild()
+        assertEquals(wideBuilds, view.popupKeysKeyboardBuildCount)
+    }
+
+    @Test fun `popup keys keyboards are built once across shift toggles`() {
+        val alphabet = buildKeyboard(KeyboardId.ELEMENT_ALPHABET, 1000)
+        val shifted = buildKeyboard(KeyboardId.ELEMENT_ALPHABET_MANUAL_SHIFTED, 1000)
+        val alphabetPopups = getPopupKeysKeyboards(alphabet)
+        assertTrue(alphabetPopups.isNotEmpty())
+        assertEquals(alphabetPopups.size, cache.buildCount)
+
+        // letters have different popup keys when shifted, but e.g. the period key has the same
+        val shiftedPopups = getPopupKeysKeyboards(shifted)
+        val buildsAfterFirstShift = cache.buildCount
+        assertTrue("$buildsAfterFirstShift builds", buildsAfterFirstShift < alphabetPopups.size + shiftedPopups.size)
+
+        repeat(3) {
+            assertEquals(alphabetPopups, getPopupKeysKeyboards(buildKeyboard(KeyboardId.ELEMENT_ALPHABET, 1000)))
+            assertEquals(shiftedPopups, getPopupKeysKeyboards(buildKeyboard(KeyboardId.ELEMENT_ALPHABET_MANUAL_SHIFTED, 1000)))
+        }
+        assertEquals(buildsAfterFirstShift, cache.buildCount)
+    }
+
+    @Test fun `popup keys keyboard is rebuilt for different geometry`() {
+        val popupKeysKeyboard = buildKeyboard(KeyboardId.ELEMENT_ALPHABET, 1000).let { keyboard ->
+            keyboard.sortedKeys.first { it.popupKeys != null }.let { cache.get(latinIME, it, keyboard, false, 0, 0, paint) }
+        }
+        val wideKeyboard = buildKeyboard(KeyboardId.ELEMENT_ALPHABET, 1200)
+        val wideKey = wideKeyboard.sortedKeys.first { it.popupKeys != null }
+        assertNotSame(popupKeysKeyboard, cache.get(latinIME, wideKey, wideKeyboard, false, 0, 0, paint))
+        assertSame(cache.get(latinIME, wideKey, wideKeyboard, false, 0, 0, paint),
+            cache.get(latinIME, wideKey, wideKeyboard, false, 0, 0, Paint().apply { textSize = 40f }))
+        assertEquals(2, cache.buildCount)
+    }
+
+    @Test fun `popup keys keyboards of a normal field are not used in a password field`() {
+        val textKeyboard = buildKeyboard(KeyboardId.ELEMENT_ALPHABET, 1000)
+        val passwordEditorInfo = EditorInfo().apply {
+            inputType = InputType.TYPE_CLASS_TEXT or InputType.TYPE_TEXT_VARIATION_PASSWORD
+        }
+        val passwordKeyboard = TestKeyboards.buildKeyboard(latinIME, KeyboardId.ELEMENT_ALPHABET, 1000, 600, passwordEditorInfo)
+        // both are text mode, only the editor info differs
+        assertEquals(textKeyboard.mId.mMode, passwordKeyboard.mId.mMode)
+        assertTrue(passwordKeyboard.mId.passwordInput())
+
+        val textPopups = getPopupKeysKeyboards(textKeyboard)
+        val passwordPopups = getPopupKeysKeyboards(passwordKeyboard)
+        assertTrue(textPopups.none { it in passwordPopups })
+        passwordKeyboard.sortedKeys.filter { it.popupKeys != null }.forEach {
+            assertTrue(cache.get(latinIME, it, passwordKeyboard, false, 0, 0, paint).mId.passwordInput())
+        }
+        textKeyboard.sortedKeys.filter { it.popupKeys != null }.forEach {
+            assertFalse(cache.get(latinIME, it, textKeyboard, false, 0, 0, paint).mId.passwordInput())
+        }
+        assertEquals(textPopups.size + passwordPopups.size, cache.buildCount)
+    }
+
+    private fun setKeyboardAndPrebuild(view: MainKeyboardView, keyboard: Keyboard) {
+        view.setKeyboard(keyboard)
+        awaitPrebuild()
+    }
+
+    // runs the idle handler and waits for the background tasks it started
+    private fun awaitPrebuild() {
+        shadowOf(Looper.getMainLooper()).idle()
+        executor.submit {}.get()
+    }
+
+    private fun showPopupKeysKeyboards(view: MainKeyboardView, keyboard: Keyboard) {
+        keyboard.sortedKeys.filter { it.popupKeys != null }.forEach {
+            view.showPopupKeysKeyboard(it, PointerTracker.getPointerTracker(0))
+            view.onDismissPopupKeysPanel()
+        }
+    }
+
+    // identity of the popup keys keyboards, so lists compare by instance
+    private fun getPopupKeysKeyboards(keyboard: Keyboard): List<Int> =
+        keyboard.sortedKeys.filter { it.popupKeys != null }
+            .map { System.identityHashCode(cache.get(latinIME, it, keyboard, false, 0, 0, paint)) }
+
+    private fun buildKeyboard(elementId: Int, width: Int) = TestKeyboards.buildKeyboard(latinIME, elementId, width, 600)
+}
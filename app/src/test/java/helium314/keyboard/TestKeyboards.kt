@@ -0,0 +1,59 @@
+// SPDX-License-Identifier: GPL-3.0-only
+package helium314.keyboard
+
+import android.content.Context
+import android.view.inputmethod.EditorInfo
+import android.view.inputmethod.InputMethodSubtype
+import helium314.keyboard.keyboard.Keyboard
+import helium314.keyboard.keyboard.KeyboardId
+import helium314.keyboard.keyboard.KeyboardLayoutSet
+import helium314.keyboard.keyboard.internal.KeyboardBuilder
+import helium314.keyboard.keyboard.internal.KeyboardParams
+import helium314.keyboard.keyboard.internal.UniqueKeysCache
+import helium314.keyboard.latin.RichInputMethodSubtype
+import helium314.keyboard.latin.utils.AdditionalSubtypeUtils.createEmojiCapableAdditionalSubtype
+import java.util.Locale
+
+/** Creates keyboards without going through [KeyboardLayoutSet], which needs a fully set up input view. */
+object TestKeyboards {
+    private val qwerty get() = createEmojiCapableAdditionalSubtype(Locale.ENGLISH, "qwerty", true)
+
+    fun createKeyboardId(
+        elementId: Int,
+        width: Int = 500,
+        height: Int = 300,
+        editorInfo: EditorInfo = EditorInfo(),
+        subtype: InputMethodSubtype = qwerty,
+    ) = KeyboardId(elementId, createLayoutParams(width, height, editorInfo, subtype))
+
+    fun createLayoutParams(
+        width: Int = 500,
+        height: Int = 300,
+        editorInfo: EditorInfo = EditorInfo(),
+        subtype: InputMethodSubtype = qwerty,
+    ): KeyboardLayoutSet.Params {
+        // the params are only set by KeyboardLayoutSet.Builder, which needs more than we want to set up
+        val layoutParams = KeyboardLayoutSet.Params()
+        val editorInfoField = KeyboardLayoutSet.Params::class.java.getDeclaredField("mEditorInfo").apply { isAccessible = true }
+        editorInfoField.set(layoutParams, editorInfo)
+        val subtypeField = KeyboardLayoutSet.Params::class.java.getDeclaredField("mSubtype").apply { isAccessible = true }
+        subtypeField.set(layoutParams, RichInputMethodSubtype(subtype))
+        val widthField = KeyboardLayoutSet.Params::class.java.getDeclaredField("mKeyboardWidth").apply { isAccessible = true }
+        widthField.setInt(layoutParams, width)
+        val heightField = KeyboardLayoutSet.Params::class.java.getDeclaredField("mKeyboardHeight").apply { isAccessible = true }
+        heightField.setInt(layoutParams, height)
+        return layoutParams
+    }
+
+    fun buildKeyboard(
+        context: Context,
+        elementId: Int = KeyboardId.ELEMENT_ALPHABET,
+        width: Int = 500,
+        height: Int = 300,
+        editorInfo: EditorInfo = EditorInfo(),
+    ): Keyboard {
+        val builder = KeyboardBuilder(context, KeyboardParams(UniqueKeysCache.NO_CACHE))
+        builder.load(createKeyboardId(elementId, width, height, editorInfo))
+        return builder.build()
+    }
+}
@@ -0,0 +1,137 @@
+// SPDX-License-Identifier: GPL-3.0-only
+package helium314.keyboard.benchmark
+
+import android.content.Context
+import helium314.keyboard.MotionEventReplayer
+import helium314.keyboard.MotionEvents
+import helium314.keyboard.keyboard.Keyboard
+import helium314.keyboard.latin.DictionaryFacilitator
+import helium314.keyboard.latin.DictionaryFacilitatorImpl
+import helium314.keyboard.latin.NgramContext
+import helium314.keyboard.latin.NgramContext.WordInfo
+import helium314.keyboard.latin.WordComposer
+import helium314.keyboard.latin.common.InputPointers
+import helium314.keyboard.latin.common.StringUtils
+import helium314.keyboard.latin.settings.Settings
+import helium314.keyboard.latin.spellcheck.AndroidSpellCheckerService
+import helium314.keyboard.latin.utils.DeviceProtectedUtils
+import org.robolectric.Robolectric
+import java.util.Locale
+import java.util.concurrent.TimeUnit
+
+/**
+ * State shared by the benchmarks. Set up once by [BenchmarkRunner] inside the Robolectric
+ * sandbox, so the JMH threads only run the code under test.
+ */
+object BenchmarkEnvironment {
+    private val mainLocale = Locale.US
+    private val secondaryLocales = listOf(Locale.GERMAN, Locale.FRENCH)
+    private val facilitators = HashMap<Int, DictionaryFacilitator>()
+
+    @JvmStatic lateinit var context: Context
+        private set
+    @JvmStatic lateinit var spellCheckerService: AndroidSpellCheckerService
+        private set
+    @JvmStatic lateinit var keyboard: Keyboard
+        private set
+    /** One entry per typed letter of the keystroke corpus, with the word typed so far. */
+    @JvmStatic lateinit var keystrokes: List<Keystroke>
+        private set
+    /** Previous words for next word predictions. */
+    @JvmStatic lateinit var nextWordContexts: List<NgramContext>
+        private set
+    /**
+     * Swipes over the words of the keystroke corpus, replayed on PointerTracker, with the pointers
+     * of each gesture update and of the completed stroke.
+     */
+    @JvmStatic lateinit var gestures: List<Gesture>
+        private set
+    /** Text for the spell checker, about 10k words. */
+    @JvmStatic lateinit var document: String
+        private set
+
+    class Keystroke(val composer: WordComposer, val ngramContext: NgramContext)
+
+    class Gesture(val updates: List<WordComposer>, val tail: WordComposer, val ngramContext: NgramContext)
+
+    @JvmStatic fun setUp() {
+        spellCheckerService = Robolectric.setupService(AndroidSpellCheckerService::class.java)
+        context = spellCheckerService
+        // also initializes Settings
+        keyboard = spellCheckerService.getKeyboardForLocale(mainLocale)
+        keystrokes = readLines("keystrokes.txt").flatMap { createKeystrokes(it) }
+        val replayer = MotionEventReplayer(context, keyboard)
+        var time = 0L
+        gestures = readLines("keystrokes.txt").flatMap { sentence ->
+            createGestures(sentence) { word ->
+                // far apart in time, so the gestures are not affected by the previous one
+                time += 10000
+                replayer.replay(MotionEvents.swipe(keyboard, word, time))
+            }
+        }
+        nextWordContexts = readLines("next_words.txt").map { line ->
+            NgramContext(*line.split(" ").reversed().map { WordInfo(it) }.toTypedArray())
+        }
+        val sentences = readLines("typos.txt")
+        document = buildString {
+            var wordCount = 0
+            var index = 0
+            while (wordCount < 10000) {
+                val sentence = sentences[index++ % sentences.size]
+                append(sentence).append(' ')
+                wordCount += sentence.split(" ").size
+            }
+        }
+    }
+
+    /** Facilitator with the dictionaries for [localeCount] locales, created on first use. */
+    @JvmStatic fun getFacilitator(localeCount: Int): DictionaryFacilitator = synchronized(facilitators) {
+        facilitators.getOrPut(localeCount) {
+            val prefs = DeviceProtectedUtils.getSharedPreferences(context)
+            Settings.setSecondaryLocales(prefs, mainLocale, secondaryLocales.take(localeCount - 1))
+            val facilitator = DictionaryFacilitatorImpl()
+            facilitator.resetDictionaries(context, mainLocale, false, false, true, null, "benchmark$localeCount", null)
+            facilitator.waitForLoadingMainDictionaries(1, TimeUnit.MINUTES)
+            facilitator
+        }
+    }
+
+    @JvmStatic fun readLines(name: String): List<String> =
+        BenchmarkEnvironment::class.java.getResourceAsStream("/benchmark/$name")!!.bufferedReader().useLines { lines ->
+            lines.map { it.trim() }.filter { it.isNotEmpty() && !it.startsWith("#") }.toList()
+        }
+
+    private fun createGestures(sentence: String, replay: (String) -> MotionEventReplayer.Result): List<Gesture> {
+        val result = mutableListOf<Gesture>()
+        var ngramContext = NgramContext.BEGINNING_OF_SENTENCE
+        sentence.split(" ").forEach { word ->
+            val swipeable = word.lowercase(mainLocale)
+            if (swipeable.length >= 2 && swipeable.all { keyboard.getKey(it.code) != null }) {
+                val replayed = replay(swipeable)
+                val tail = replayed.batchEnds.singleOrNull()
+                if (tail != null)
+                    result.add(Gesture(replayed.batchUpdates.map { createComposer(it) }, createComposer(tail), ngramContext))
+            }
+            ngramContext = ngramContext.getNextNgramContext(WordInfo(word))
+        }
+        return result
+    }
+
+    private fun createComposer(pointers: InputPointers) = WordComposer().apply { setBatchInputPointers(pointers) }
+
+    private fun createKeystrokes(sentence: String): List<Keystroke> {
+        val result = mutableListOf<Keystroke>()
+        var ngramContext = NgramContext.BEGINNING_OF_SENTENCE
+        sentence.split(" ").forEach { word ->
+            val codePoints = StringUtils.toCodePointArray(word)
+            for (i in 1..codePoints.size) {
+                val typed = codePoints.copyOf(i)
+                val composer = WordComposer()
+                composer.setComposingWord(typed, keyboard.getCoordinates(typed))
+                result.add(Keystroke(composer, ngramContext))
+            }
+            ngramContext = ngramContext.getNextNgramContext(WordInfo(word))
+        }
+        return result
+    }
+}
@@ -0,0 +1,68 @@
+// SPDX-License-Identifier: GPL-3.0-only
+package helium314.keyboard.benchmark
+
+import android.service.textservice.SpellCheckerService
+import helium314.keyboard.ShadowInputMethodManager2
+import helium314.keyboard.ShadowLocaleManagerCompat
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.profile.GCProfiler
+import org.openjdk.jmh.results.format.ResultFormatType
+import org.openjdk.jmh.runner.Runner
+import org.openjdk.jmh.runner.options.OptionsBuilder
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+import org.robolectric.annotation.Implementation
+import org.robolectric.annotation.Implements
+
+/**
+ * Runs the JMH benchmarks in this package, only included with `./gradlew testDebugUnitTest -Pbenchmark`,
+ * or `-Pbenchmark=<regex>` for running only some of them. Results are written to
+ * `app/build/reports/benchmark.json`.
+ *
+ * The benchmarks can't run in a forked JVM, as the app code needs the Robolectric sandbox of this test.
+ * The native library is built for the host by the hostJni task.
+ *
+ * Benchmarks with a latency budget in [budgetsMicros] fail the test if the 95th percentile of their
+ * sampled times is above it.
+ */
+@RunWith(RobolectricTestRunner::class)
+@Config(shadows = [
+    ShadowLocaleManagerCompat::class,
+    ShadowInputMethodManager2::class,
+    ShadowSpellCheckerSession::class,
+])
+class BenchmarkRunner {
+    @Test fun runBenchmarks() {
+        BenchmarkEnvironment.setUp()
+        val options = OptionsBuilder()
+            .include(System.getProperty("benchmark.include") ?: ".*")
+            .forks(0)
+            .addProfiler(GCProfiler::class.java)
+            .resultFormat(ResultFormatType.JSON)
+            .result(System.getProperty("benchmark.results") ?: "build/reports/benchmark.json")
+            .build()
+        val results = Runner(options).run()
+        assertTrue(results.isNotEmpty())
+        results.filter { it.params.mode == Mode.SampleTime }.forEach { result ->
+            val budget = budgetsMicros[result.params.benchmark] ?: return@forEach
+            val p95 = result.primaryResult.statistics.getPercentile(95.0)
+            assertTrue("${result.params.benchmark} p95 $p95 µs is above the budget of $budget µs", p95 <= budget)
+        }
+    }
+
+    // in microseconds, the output time unit of the benchmarks
+    private val budgetsMicros = mapOf(
+        GestureBenchmark::class.java.name + ".tail" to GestureBenchmark.TAIL_BUDGET_MICROS,
+        GestureBenchmark::class.java.name + ".update" to GestureBenchmark.UPDATE_BUDGET_MICROS,
+    )
+}
+
+// spell checker sessions are not created through the framework, so there is no internal session providing the locale
+@Implements(SpellCheckerService.Session::class)
+class ShadowSpellCheckerSession {
+    @Implementation
+    fun getLocale() = "en_US"
+}
@@ -0,0 +1,125 @@
+// SPDX-License-Identifier: GPL-3.0-only
+
+package helium314.keyboard.benchmark;
+
+import com.android.inputmethod.latin.BinaryDictionary;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import helium314.keyboard.latin.Dictionary;
+import helium314.keyboard.latin.NgramContext;
+import helium314.keyboard.latin.SuggestedWords.SuggestedWordInfo;
+import helium314.keyboard.latin.common.ComposedData;
+import helium314.keyboard.latin.settings.SettingsValuesForSuggestion;
+
+/**
+ * Native lookups in the bundled English main dictionary. Mostly interesting for the allocations
+ * per lookup, which the GC profiler of {@link BenchmarkRunner} reports as gc.alloc.rate.norm.
+ * Inputs are prepared in {@link #setUp}, so only the lookups allocate.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(0)
+public class BinaryDictionaryBenchmark {
+    private static final String DICTIONARY = "src/main/assets/dicts/main_en-US.dict";
+
+    private final SettingsValuesForSuggestion mSettingsValuesForSuggestion =
+            new SettingsValuesForSuggestion(false, false);
+    private final float[] mWeightOfLangModelVsSpatialModel = new float[1];
+    private final ArrayList<SuggestedWordInfo> mSuggestions = new ArrayList<>();
+    private BinaryDictionary mDictionary;
+    private long mProximityInfo;
+    private String[] mWords;
+    private int[][] mCodePoints;
+    private NgramContext[] mNgramContexts;
+    private ComposedData[] mComposedData;
+    private int mIndex;
+
+    @Setup
+    public void setUp() {
+        final File file = new File(DICTIONARY);
+        mDictionary = new BinaryDictionary(file.getAbsolutePath(), 0, file.length(), false,
+                Locale.US, Dictionary.TYPE_MAIN, false);
+        mProximityInfo = BenchmarkEnvironment.getKeyboard().getProximityInfo().getNativeProximityInfo();
+        final List<BenchmarkEnvironment.Keystroke> keystrokes = BenchmarkEnvironment.getKeystrokes();
+        final int count = keystrokes.size();
+        mWords = new String[count];
+        mCodePoints = new int[count][];
+        mNgramContexts = new NgramContext[count];
+        mComposedData = new ComposedData[count];
+        for (int i = 0; i < count; i++) {
+            final BenchmarkEnvironment.Keystroke keystroke = keystrokes.get(i);
+            mWords[i] = keystroke.getComposer().getTypedWord();
+            mCodePoints[i] = mWords[i].codePoints().toArray();
+            mNgramContexts[i] = keystroke.getNgramContext();
+            mComposedData[i] = keystroke.getComposer().getComposedDataSnapshot();
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        mDictionary.close();
+    }
+
+    private int nextIndex() {
+        mIndex = (mIndex + 1) % mWords.length;
+        return mIndex;
+    }
+
+    @Benchmark
+    public int frequency() {
+        return mDictionary.getFrequency(mWords[nextIndex()]);
+    }
+
+    @Benchmark
+    public int frequencyOfCodePoints() {
+        final int[] codePoints = mCodePoints[nextIndex()];
+        return mDictionary.getFrequency(codePoints, codePoints.length);
+    }
+
+    @Benchmark
+    public int ngramProbability() {
+        final int index = nextIndex();
+        return mDictionary.getNgramProbability(mNgramContexts[index], mWords[index]);
+    }
+
+    @Benchmark
+    public Object suggestions() {
+        final int index = nextIndex();
+        mWeightOfLangModelVsSpatialModel[0] = Dictionary.NOT_A_WEIGHT_OF_LANG_MODEL_VS_SPATIAL_MODEL;
+        return mDictionary.getSuggestions(mComposedData[index], mNgramContexts[index],
+                mProximityInfo, mSettingsValuesForSuggestion, 0, 1f,
+                mWeightOfLangModelVsSpatialModel);
+    }
+
+    /** Same as {@link #suggestions}, but the suggestions are added to a list kept between lookups. */
+    @Benchmark
+    public Object suggestionsIntoList() {
+        final int index = nextIndex();
+        mWeightOfLangModelVsSpatialModel[0] = Dictionary.NOT_A_WEIGHT_OF_LANG_MODEL_VS_SPATIAL_MODEL;
+        mSuggestions.clear();
+        mDictionary.getSuggestions(mComposedData[index], mNgramContexts[index],
+                mProximityInfo, mSettingsValuesForSuggestion, 0, 1f,
+                mWeightOfLangModelVsSpatialModel, mSuggestions);
+        return mSuggestions;
+    }
+}
@@ -0,0 +1,97 @@
+// SPDX-License-Identifier: GPL-3.0-only
+
+package helium314.keyboard.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import helium314.keyboard.latin.Dictionary;
+import helium314.keyboard.latin.ReadOnlyBinaryDictionary;
+import helium314.keyboard.latin.common.PackedWords;
+
+/**
+ * Word lookups in the bundled English main dictionary, with and without the word filter
+ * skipping the native lookup for words that are not in the dictionary.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(0)
+public class DictionaryLookupBenchmark {
+    private static final String DICTIONARY = "src/main/assets/dicts/main_en-US.dict";
+
+    @Param({"false", "true"})
+    public boolean wordFilter;
+
+    private ReadOnlyBinaryDictionary mDictionary;
+    private final List<String> mValidWords = new ArrayList<>();
+    private final List<String> mInvalidWords = new ArrayList<>();
+    private final PackedWords mPackedWords = new PackedWords();
+    private int[] mFrequencies;
+    private int mIndex;
+
+    @Setup
+    public void setUp() {
+        final File file = new File(DICTIONARY);
+        mDictionary = new ReadOnlyBinaryDictionary(file.getAbsolutePath(), 0, file.length(),
+                false, Locale.US, Dictionary.TYPE_MAIN);
+        if (wordFilter)
+            mDictionary.setWordFilter(mDictionary.createWordFilter());
+        for (final String line : BenchmarkEnvironment.readLines("keystrokes.txt")) {
+            for (final String word : line.split(" ")) {
+                (mDictionary.isInDictionary(word) ? mValidWords : mInvalidWords).add(word);
+            }
+        }
+        for (final String line : BenchmarkEnvironment.readLines("typos.txt")) {
+            for (final String word : line.split("[ .,!?]+")) {
+                if (!word.isEmpty() && !mDictionary.isInDictionary(word))
+                    mInvalidWords.add(word);
+            }
+        }
+        for (final String word : mValidWords) mPackedWords.add(word);
+        for (final String word : mInvalidWords) mPackedWords.add(word);
+        mFrequencies = new int[mPackedWords.getWordCount()];
+    }
+
+    @TearDown
+    public void tearDown() {
+        mDictionary.close();
+    }
+
+    @Benchmark
+    public int validWord() {
+        mIndex = (mIndex + 1) % mValidWords.size();
+        return mDictionary.getFrequency(mValidWords.get(mIndex));
+    }
+
+    @Benchmark
+    public int invalidWord() {
+        mIndex = (mIndex + 1) % mInvalidWords.size();
+        return mDictionary.getFrequency(mInvalidWords.get(mIndex));
+    }
+
+    /** All words of the corpus in a single batch. */
+    @Benchmark
+    public int[] batch() {
+        mDictionary.getFrequencies(mPackedWords, mFrequencies);
+        return mFrequencies;
+    }
+}
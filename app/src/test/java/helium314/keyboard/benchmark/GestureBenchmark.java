@@ -0,0 +1,105 @@
+// SPDX-License-Identifier: GPL-3.0-only
+
+package helium314.keyboard.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import helium314.keyboard.keyboard.Keyboard;
+import helium314.keyboard.latin.DictionaryFacilitator;
+import helium314.keyboard.latin.NgramContext;
+import helium314.keyboard.latin.SuggestedWords;
+import helium314.keyboard.latin.common.ComposedData;
+import helium314.keyboard.latin.settings.SettingsValuesForSuggestion;
+
+/**
+ * Latency of decoding swipes over the words of the keystroke corpus, for the updates while
+ * swiping and for the completed stroke. The native library decodes them with the built-in
+ * gesture suggest policy, so this measures the actual decoding.
+ * <p>
+ * {@link BenchmarkRunner} fails if the 95th percentile of the sampled times exceeds
+ * {@link #TAIL_BUDGET_MICROS} or {@link #UPDATE_BUDGET_MICROS}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.SampleTime, Mode.Throughput})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(0)
+public class GestureBenchmark {
+    /**
+     * Budget for decoding the completed stroke on the host, in microseconds. The suggestions are
+     * shown after lifting the finger, so this should stay well below a noticeable delay.
+     */
+    public static final double TAIL_BUDGET_MICROS = 30_000;
+    /** Budget for decoding an update while swiping, about one frame at 60 Hz. */
+    public static final double UPDATE_BUDGET_MICROS = 16_000;
+
+    private final SettingsValuesForSuggestion mSettingsValuesForSuggestion =
+            new SettingsValuesForSuggestion(false, false);
+    private DictionaryFacilitator mFacilitator;
+    private Keyboard mKeyboard;
+    // per gesture, the updates followed by the tail
+    private ComposedData[][] mComposedData;
+    private NgramContext[] mNgramContexts;
+    private int mGestureIndex;
+    private int mUpdateIndex;
+
+    @Setup
+    public void setUp() {
+        mFacilitator = BenchmarkEnvironment.getFacilitator(1);
+        mKeyboard = BenchmarkEnvironment.getKeyboard();
+        final List<BenchmarkEnvironment.Gesture> gestures = BenchmarkEnvironment.getGestures();
+        mComposedData = new ComposedData[gestures.size()][];
+        mNgramContexts = new NgramContext[gestures.size()];
+        for (int i = 0; i < gestures.size(); i++) {
+            final BenchmarkEnvironment.Gesture gesture = gestures.get(i);
+            final int updateCount = gesture.getUpdates().size();
+            mComposedData[i] = new ComposedData[updateCount + 1];
+            for (int j = 0; j < updateCount; j++) {
+                mComposedData[i][j] = gesture.getUpdates().get(j).getComposedDataSnapshot();
+            }
+            mComposedData[i][updateCount] = gesture.getTail().getComposedDataSnapshot();
+            mNgramContexts[i] = gesture.getNgramContext();
+        }
+    }
+
+    /** The completed stroke, as decoded after lifting the finger. */
+    @Benchmark
+    public Object tail() {
+        final ComposedData[] composedData = mComposedData[mGestureIndex];
+        final NgramContext ngramContext = mNgramContexts[mGestureIndex];
+        mGestureIndex = (mGestureIndex + 1) % mComposedData.length;
+        return decode(composedData[composedData.length - 1], ngramContext, SuggestedWords.INPUT_STYLE_TAIL_BATCH);
+    }
+
+    /** Each update while swiping, and the completed stroke, as decoded for the floating preview. */
+    @Benchmark
+    public Object update() {
+        final ComposedData[] composedData = mComposedData[mGestureIndex];
+        final NgramContext ngramContext = mNgramContexts[mGestureIndex];
+        final ComposedData update = composedData[mUpdateIndex++];
+        if (mUpdateIndex >= composedData.length) {
+            mUpdateIndex = 0;
+            mGestureIndex = (mGestureIndex + 1) % mComposedData.length;
+        }
+        return decode(update, ngramContext, SuggestedWords.INPUT_STYLE_UPDATE_BATCH);
+    }
+
+    private Object decode(final ComposedData composedData, final NgramContext ngramContext,
+            final int inputStyle) {
+        return mFacilitator.getSuggestionResults(composedData, ngramContext, mKeyboard,
+                mSettingsValuesForSuggestion, 0, inputStyle, false);
+    }
+}
@@ -0,0 +1,96 @@
+// SPDX-License-Identifier: GPL-3.0-only
+
+package helium314.keyboard.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import helium314.keyboard.keyboard.Keyboard;
+import helium314.keyboard.latin.DictionaryFacilitator;
+import helium314.keyboard.latin.NgramContext;
+import helium314.keyboard.latin.Suggest;
+import helium314.keyboard.latin.SuggestedWords;
+import helium314.keyboard.latin.WordComposer;
+import helium314.keyboard.latin.settings.SettingsValuesForSuggestion;
+
+/**
+ * Latency of getting suggestions for each keystroke of the keystroke corpus, and of next word
+ * predictions, with dictionaries for 1 to 3 locales. SampleTime gives the percentiles per keystroke.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.SampleTime, Mode.Throughput})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(0)
+public class SuggestionBenchmark {
+    @Param({"1", "2", "3"})
+    public int locales;
+
+    private final SettingsValuesForSuggestion mSettingsValuesForSuggestion =
+            new SettingsValuesForSuggestion(false, false);
+    private DictionaryFacilitator mFacilitator;
+    private Suggest mSuggest;
+    private Keyboard mKeyboard;
+    private List<BenchmarkEnvironment.Keystroke> mKeystrokes;
+    private List<NgramContext> mNextWordContexts;
+    private int mKeystrokeIndex;
+    private int mNextWordIndex;
+
+    @Setup
+    public void setUp() {
+        mFacilitator = BenchmarkEnvironment.getFacilitator(locales);
+        mSuggest = new Suggest(mFacilitator);
+        mKeyboard = BenchmarkEnvironment.getKeyboard();
+        mKeystrokes = BenchmarkEnvironment.getKeystrokes();
+        mNextWordContexts = BenchmarkEnvironment.getNextWordContexts();
+    }
+
+    private BenchmarkEnvironment.Keystroke nextKeystroke() {
+        final BenchmarkEnvironment.Keystroke keystroke = mKeystrokes.get(mKeystrokeIndex);
+        mKeystrokeIndex = (mKeystrokeIndex + 1) % mKeystrokes.size();
+        return keystroke;
+    }
+
+    /** Raw suggestions from the dictionaries. */
+    @Benchmark
+    public Object typing() {
+        final BenchmarkEnvironment.Keystroke keystroke = nextKeystroke();
+        return mFacilitator.getSuggestionResults(keystroke.getComposer().getComposedDataSnapshot(),
+                keystroke.getNgramContext(), mKeyboard, mSettingsValuesForSuggestion, 0,
+                SuggestedWords.INPUT_STYLE_TYPING, false);
+    }
+
+    /** Suggestions as shown in the suggestion strip, including autocorrect decision. */
+    @Benchmark
+    public Object suggestedWords() {
+        final BenchmarkEnvironment.Keystroke keystroke = nextKeystroke();
+        final WordComposer composer = keystroke.getComposer();
+        final SuggestedWords[] result = new SuggestedWords[1];
+        mSuggest.getSuggestedWords(composer, keystroke.getNgramContext(), mKeyboard,
+                mSettingsValuesForSuggestion, true, SuggestedWords.INPUT_STYLE_TYPING,
+                SuggestedWords.NOT_A_SEQUENCE_NUMBER, false, suggestedWords -> result[0] = suggestedWords);
+        return result[0];
+    }
+
+    @Benchmark
+    public Object nextWord() {
+        final NgramContext ngramContext = mNextWordContexts.get(mNextWordIndex);
+        mNextWordIndex = (mNextWordIndex + 1) % mNextWordContexts.size();
+        return mFacilitator.getSuggestionResults(new WordComposer().getComposedDataSnapshot(),
+                ngramContext, mKeyboard, mSettingsValuesForSuggestion, 0,
+                SuggestedWords.INPUT_STYLE_PREDICTION, false);
+    }
+}
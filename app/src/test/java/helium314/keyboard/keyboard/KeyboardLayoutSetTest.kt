@@ -0,0 +1,74 @@
+// SPDX-License-Identifier: GPL-3.0-only
+package helium314.keyboard.keyboard
+
+import android.os.Looper
+import helium314.keyboard.ShadowInputMethodManager2
+import helium314.keyboard.ShadowProximityInfo
+import helium314.keyboard.TestKeyboards
+import helium314.keyboard.latin.LatinIME
+import helium314.keyboard.latin.utils.ExecutorUtils
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertSame
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.Robolectric
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.Shadows.shadowOf
+import org.robolectric.annotation.Config
+import java.util.concurrent.Executors
+
+@RunWith(RobolectricTestRunner::class)
+@Config(shadows = [
+    ShadowInputMethodManager2::class,
+    ShadowProximityInfo::class,
+])
+class KeyboardLayoutSetTest {
+    private lateinit var latinIME: LatinIME
+    private val executor = Executors.newSingleThreadScheduledExecutor()
+
+    @Before fun setUp() {
+        latinIME = Robolectric.setupService(LatinIME::class.java)
+        ExecutorUtils.setExecutorServiceForTests(executor)
+        KeyboardLayoutSet.onKeyboardThemeChanged() // clears the keyboard cache
+    }
+
+    @After fun tearDown() {
+        ExecutorUtils.setExecutorServiceForTests(null)
+        executor.shutdownNow()
+    }
+
+    @Test fun `keyboard is taken from the cache`() {
+        val layoutSet = KeyboardLayoutSet(latinIME, TestKeyboards.createLayoutParams(1000, 600))
+        val misses = KeyboardLayoutSet.getCacheMissCount()
+        val hits = KeyboardLayoutSet.getCacheHitCount()
+        val keyboard = layoutSet.getKeyboard(KeyboardId.ELEMENT_ALPHABET)
+        assertEquals(misses + 1, KeyboardLayoutSet.getCacheMissCount())
+        assertSame(keyboard, layoutSet.getKeyboard(KeyboardId.ELEMENT_ALPHABET))
+        assertEquals(hits + 1, KeyboardLayoutSet.getCacheHitCount())
+        assertEquals(misses + 1, KeyboardLayoutSet.getCacheMissCount())
+    }
+
+    @Test fun `prewarmed keyboard is taken from the cache`() {
+        val layoutSet = KeyboardLayoutSet(latinIME, TestKeyboards.createLayoutParams(1000, 600))
+        layoutSet.getKeyboard(KeyboardId.ELEMENT_ALPHABET)
+        val prewarmed = KeyboardLayoutSet.getPrewarmedCount()
+        layoutSet.prewarmKeyboards()
+        shadowOf(Looper.getMainLooper()).idle() // prewarming starts when the main thread is idle
+        // symbols are prewarmed first
+        val deadline = System.currentTimeMillis() + 10000
+        while (KeyboardLayoutSet.getPrewarmedCount() == prewarmed) {
+            assertTrue("keyboards not prewarmed", System.currentTimeMillis() < deadline)
+            Thread.sleep(10)
+        }
+
+        val misses = KeyboardLayoutSet.getCacheMissCount()
+        val hits = KeyboardLayoutSet.getCacheHitCount()
+        layoutSet.getKeyboard(KeyboardId.ELEMENT_SYMBOLS)
+        assertEquals(hits + 1, KeyboardLayoutSet.getCacheHitCount())
+        assertEquals(misses, KeyboardLayoutSet.getCacheMissCount())
+        assertTrue(KeyboardLayoutSet.dump().contains("prewarmed"))
+    }
+}
@@ -0,0 +1,144 @@
+// SPDX-License-Identifier: GPL-3.0-only
+package helium314.keyboard.latin
+
+import android.content.ClipData
+import android.content.ClipDescription
+import android.content.ClipboardManager
+import android.content.Context
+import android.os.Looper
+import helium314.keyboard.ShadowInputMethodManager2
+import helium314.keyboard.latin.utils.ExecutorUtils
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.Robolectric
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.Shadows.shadowOf
+import org.robolectric.annotation.Config
+import java.io.File
+import java.util.concurrent.Executors
+
+@RunWith(RobolectricTestRunner::class)
+@Config(shadows = [
+    ShadowInputMethodManager2::class,
+])
+class ClipboardHistoryManagerTest {
+    private lateinit var latinIME: LatinIME
+    private lateinit var clipboardManager: ClipboardManager
+    private val manager get() = latinIME.clipboardHistoryManager
+    private val executor = Executors.newSingleThreadScheduledExecutor()
+    private val file get() = File(latinIME.filesDir, ClipboardHistoryStore.FILE_NAME)
+    private var timeStamp = 1000L
+
+    @Before fun setUp() {
+        // history is kept in the companion object, so it survives the service
+        resetHistory()
+        ExecutorUtils.setExecutorServiceForTests(executor)
+        latinIME = Robolectric.setupService(LatinIME::class.java)
+        file.delete()
+        clipboardManager = latinIME.getSystemService(Context.CLIPBOARD_SERVICE) as ClipboardManager
+        awaitStore()
+    }
+
+    @After fun tearDown() {
+        ExecutorUtils.setExecutorServiceForTests(null)
+        executor.shutdownNow()
+    }
+
+    @Test fun `copying existing content again moves the entry`() {
+        copy("a")
+        copy("b")
+        copy("c")
+        assertEquals(listOf("c", "b", "a"), historyContents())
+        copy("a")
+        assertEquals(listOf("a", "c", "b"), historyContents())
+        // content of pinned entries is found too, and stays pinned
+        togglePinned("b")
+        copy("b")
+        assertEquals(listOf("b", "a", "c"), historyContents())
+        assertTrue(manager.getHistoryEntry(0).isPinned)
+    }
+
+    @Test fun `history is trimmed by size in UTF-8`() {
+        // 800 kB each in UTF-8, but 400 k chars in UTF-16
+        val large = List(3) { i -> "$i" + "ä".repeat(400_000) }
+        large.forEach { copy(it) }
+        assertEquals(listOf(large[2], large[1]), historyContents())
+
+        // pinned entries don't count
+        togglePinned(large[1])
+        copy(large[0])
+        assertEquals(listOf(large[1], large[0], large[2]), historyContents())
+
+        // the most recent entry is always kept
+        val huge = "x".repeat(3_000_000)
+        copy(huge)
+        assertEquals(listOf(large[1], huge), historyContents())
+    }
+
+    @Test fun `only pinned entries are written to disk`() {
+        copy("unpinned")
+        copy("secret")
+        togglePinned("secret")
+        awaitStore()
+        assertTrue(file.readText().contains("secret"))
+        assertFalse(file.readText().contains("unpinned"))
+
+        togglePinned("secret")
+        awaitStore()
+        assertFalse(file.readText().contains("secret"))
+    }
+
+    @Test fun `pinned entries are loaded again`() {
+        copy("pinned")
+        copy("unpinned")
+        copy("pinned and unpinned")
+        togglePinned("pinned and unpinned")
+        togglePinned("pinned and unpinned")
+        togglePinned("pinned")
+        awaitStore()
+
+        clipboardManager.clearPrimaryClip()
+        resetHistory()
+        latinIME = Robolectric.setupService(LatinIME::class.java)
+        awaitStore()
+        assertEquals(listOf("pinned"), historyContents())
+        assertTrue(manager.getHistoryEntry(0).isPinned)
+    }
+
+    private fun copy(text: String) {
+        val clip = ClipData.newPlainText("", text)
+        // the timestamp is set by the system clipboard service
+        ClipDescription::class.java.getMethod("setTimestamp", Long::class.javaPrimitiveType)
+            .invoke(clip.description, ++timeStamp)
+        clipboardManager.setPrimaryClip(clip)
+        manager.onPrimaryClipChanged()
+    }
+
+    // pinning changes the timestamp to the current time, so only one entry should be pinned at once
+    private fun togglePinned(content: String) {
+        val index = historyContents().indexOf(content)
+        manager.toggleClipPinned(manager.getHistoryEntry(index).timeStamp)
+    }
+
+    private fun historyContents() = List(manager.getHistorySize()) { manager.getHistoryEntry(it).content.toString() }
+
+    // waits for file access in background, and for loaded entries posted to the main thread
+    private fun awaitStore() {
+        executor.submit {}.get()
+        shadowOf(Looper.getMainLooper()).idle()
+    }
+
+    private fun resetHistory() {
+        val historyClass = ClipboardHistoryManager::class.java
+        (historyClass.getDeclaredField("historyEntries").apply { isAccessible = true }.get(null) as MutableList<*>).clear()
+        (historyClass.getDeclaredField("entriesByContent").apply { isAccessible = true }.get(null) as MutableMap<*, *>).clear()
+        historyClass.getDeclaredField("unpinnedBytes").apply { isAccessible = true }.setLong(null, 0L)
+        historyClass.getDeclaredField("pinnedClipsLoaded").apply { isAccessible = true }.setBoolean(null, false)
+        historyClass.getDeclaredField("sharedStore").apply { isAccessible = true }.set(null, null)
+    }
+}
@@ -0,0 +1,185 @@
+// SPDX-License-Identifier: GPL-3.0-only
+package helium314.keyboard.latin
+
+import android.content.ContentProvider
+import android.content.ContentValues
+import android.database.Cursor
+import android.database.MatrixCursor
+import android.net.Uri
+import android.provider.ContactsContract
+import android.provider.ContactsContract.DeletedContacts
+import androidx.test.core.app.ApplicationProvider
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import org.junit.runner.RunWith
+import org.robolectric.Robolectric
+import org.robolectric.RobolectricTestRunner
+import java.io.DataOutputStream
+import java.io.File
+
+@RunWith(RobolectricTestRunner::class)
+class ContactsSyncStateTest {
+    @get:Rule val folder = TemporaryFolder()
+
+    private val now = System.currentTimeMillis()
+
+    @Test fun `added contact adds its name`() {
+        val state = ContactsSyncState(now - 1000)
+        val changes = state.applyChanges(emptyList(), listOf(contact(1, "Anna Smith")), now, 10)
+        assertEquals(listOf("Anna Smith"), changes.mAddedNames)
+        assertTrue(changes.mRemovedNames.isEmpty())
+        assertEquals("Anna Smith", state.get(1)?.mName)
+        assertEquals(now, state.checkpoint)
+    }
+
+    @Test fun `updated contact with same name changes nothing`() {
+        val state = ContactsSyncState(now - 1000)
+        state.put(1, "Anna Smith", 0.5f)
+        val changes = state.applyChanges(emptyList(), listOf(contact(1, "Anna Smith", timesContacted = 3)), now, 10)
+        assertTrue(changes.isEmpty)
+        assertEquals("Anna Smith", state.get(1)?.mName)
+    }
+
+    @Test fun `renamed contact replaces its name`() {
+        val state = ContactsSyncState(now - 1000)
+        state.put(1, "Anna Smith", 0.5f)
+        val changes = state.applyChanges(emptyList(), listOf(contact(1, "Anna Jones")), now, 10)
+        assertEquals(listOf("Anna Smith"), changes.mRemovedNames)
+        assertEquals(listOf("Anna Jones"), changes.mAddedNames)
+        assertEquals("Anna Jones", state.get(1)?.mName)
+    }
+
+    @Test fun `contact renamed to invalid name is removed`() {
+        val state = ContactsSyncState(now - 1000)
+        state.put(1, "Anna Smith", 0.5f)
+        val changes = state.applyChanges(emptyList(), listOf(contact(1, "anna@example.com")), now, 10)
+        assertEquals(listOf("Anna Smith"), changes.mRemovedNames)
+        assertTrue(changes.mAddedNames.isEmpty())
+        assertNull(state.get(1))
+    }
+
+    @Test fun `deleted contact removes its name`() {
+        val state = ContactsSyncState(now - 1000)
+        state.put(1, "Anna Smith", 0.5f)
+        state.put(2, "Bob Brown", 0.5f)
+        val changes = state.applyChanges(listOf(1L, 5L), emptyList(), now, 10)
+        assertEquals(listOf("Anna Smith"), changes.mRemovedNames)
+        assertNull(state.get(1))
+        assertEquals(listOf("Bob Brown"), state.contacts.map { it.mName })
+    }
+
+    @Test fun `name stays tracked while another contact has it`() {
+        val state = ContactsSyncState(now - 1000)
+        state.put(1, "Anna Smith", 0.5f)
+        state.put(2, "Anna Smith", 0.2f)
+        state.applyChanges(listOf(1L), emptyList(), now, 10)
+        // the dictionary keeps words of tracked contacts when removing names
+        assertEquals(listOf("Anna Smith"), state.contacts.map { it.mName })
+        state.applyChanges(listOf(2L), emptyList(), now, 10)
+        assertTrue(state.contacts.isEmpty())
+    }
+
+    @Test fun `all contacts of a name are tracked on initial load`() {
+        Robolectric.setupContentProvider(FakeContactsProvider::class.java, ContactsContract.AUTHORITY)
+        FakeContactsProvider.rows = listOf(
+            arrayOf<Any?>(1L, "Anna Smith", 5, now, 1),
+            arrayOf<Any?>(2L, "Anna Smith", 0, 0L, 1),
+            arrayOf<Any?>(3L, "Bob Brown", 1, now, 1),
+            arrayOf<Any?>(4L, "not-a-name", 9, now, 1),
+        )
+        val contacts = ContactsManager(ApplicationProvider.getApplicationContext())
+            .getValidContacts(ContactsContract.Contacts.CONTENT_URI, IntArray(1))
+        assertEquals(listOf(1L, 2L, 3L), contacts.map { it.mId }.sorted())
+    }
+
+    @Test fun `names with lowest affinity are trimmed with all their contacts`() {
+        val state = ContactsSyncState(now - 1000)
+        state.put(1, "Anna Smith", 0.1f)
+        state.put(2, "Anna Smith", 0.9f)
+        state.put(3, "Bob Brown", 0.5f)
+        state.put(4, "Bob Brown", 0.4f)
+        state.put(5, "Carl Clark", 0.6f)
+        val removed = state.trimToNameCount(2)
+        assertEquals(listOf("Bob Brown", "Bob Brown"), removed.map { it.mName })
+        assertEquals(setOf(1L, 2L, 5L), setOf(1L, 2L, 3L, 4L, 5L).filter { state.get(it) != null }.toSet())
+    }
+
+    @Test fun `added contact evicted by trimming is not added`() {
+        val state = ContactsSyncState(now - 1000)
+        state.put(1, "Anna Smith", Float.MAX_VALUE)
+        val changes = state.applyChanges(emptyList(), listOf(contact(2, "Bob Brown")), now, 1)
+        assertEquals(listOf("Bob Brown"), changes.mRemovedNames)
+        assertTrue(changes.mAddedNames.isEmpty())
+        assertNull(state.get(2))
+    }
+
+    @Test fun `falls back to full rebuild for unusable checkpoints`() {
+        assertTrue(ContactsSyncState(now - 1000).canSyncChangesAt(now))
+        // deleted contacts may have been purged by the provider
+        assertFalse(ContactsSyncState(now - DeletedContacts.DAYS_KEPT_MILLISECONDS - 1).canSyncChangesAt(now))
+        // clock was set back
+        assertFalse(ContactsSyncState(now + 1000).canSyncChangesAt(now))
+    }
+
+    @Test fun `missing or broken state file falls back to full rebuild`() {
+        assertNull(ContactsSyncState.load(File(folder.root, "missing")))
+        val broken = folder.newFile("broken")
+        broken.writeBytes(byteArrayOf(1, 2, 3))
+        assertNull(ContactsSyncState.load(broken))
+        // states of older versions may not track all contacts
+        val old = File(folder.root, "old")
+        DataOutputStream(old.outputStream()).use {
+            it.writeInt(1)
+            it.writeLong(now)
+            it.writeInt(0)
+            it.writeInt(0)
+        }
+        assertNull(ContactsSyncState.load(old))
+    }
+
+    @Test fun `state survives save and load`() {
+        val state = ContactsSyncState(now)
+        state.put(1, "Anna Smith", 0.5f)
+        state.put(2, "Anna Smith", 0.2f)
+        state.setMaxTimesContacted(7)
+        val file = File(folder.root, "state")
+        state.save(file)
+        val loaded = ContactsSyncState.load(file)
+        assertNotNull(loaded!!)
+        assertEquals(now, loaded.checkpoint)
+        assertEquals(7, loaded.maxTimesContacted)
+        assertEquals("Anna Smith", loaded.get(1)?.mName)
+        assertEquals(0.2f, loaded.get(2)!!.mAffinity, 0f)
+    }
+
+    private fun contact(id: Long, name: String, timesContacted: Int = 0): ContactsManager.RankedContact {
+        val cursor = MatrixCursor(ContactsDictionaryConstants.PROJECTION)
+        cursor.addRow(arrayOf<Any?>(id, name, timesContacted, now, 1))
+        cursor.moveToFirst()
+        return ContactsManager.RankedContact(cursor)
+    }
+
+    class FakeContactsProvider : ContentProvider() {
+        override fun onCreate() = true
+        override fun query(uri: Uri, projection: Array<out String>?, selection: String?,
+                           selectionArgs: Array<out String>?, sortOrder: String?): Cursor {
+            val cursor = MatrixCursor(ContactsDictionaryConstants.PROJECTION)
+            rows.forEach { cursor.addRow(it) }
+            return cursor
+        }
+        override fun getType(uri: Uri): String? = null
+        override fun insert(uri: Uri, values: ContentValues?): Uri? = null
+        override fun delete(uri: Uri, selection: String?, selectionArgs: Array<out String>?) = 0
+        override fun update(uri: Uri, values: ContentValues?, selection: String?, selectionArgs: Array<out String>?) = 0
+
+        companion object {
+            var rows = emptyList<Array<Any?>>()
+        }
+    }
+}
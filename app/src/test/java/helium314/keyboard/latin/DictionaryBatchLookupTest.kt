@@ -0,0 +1,49 @@
+// SPDX-License-Identifier: GPL-3.0-only
+package helium314.keyboard.latin
+
+import helium314.keyboard.latin.SuggestedWords.SuggestedWordInfo
+import helium314.keyboard.latin.common.ComposedData
+import helium314.keyboard.latin.common.PackedWords
+import helium314.keyboard.latin.settings.SettingsValuesForSuggestion
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import java.util.Locale
+
+class DictionaryBatchLookupTest {
+    @Test fun `packed words store offsets`() {
+        val words = PackedWords()
+        words.add("ab")
+        words.add("😀c")
+        words.add("")
+        assertEquals(3, words.wordCount)
+        assertArrayEquals(intArrayOf(0, 2, 4, 4), words.wordStarts.copyOf(4))
+        assertArrayEquals(intArrayOf('a'.code, 'b'.code, 0x1F600, 'c'.code), words.codePoints.copyOf(4))
+        words.clear()
+        assertEquals(0, words.wordCount)
+        words.add("x")
+        assertArrayEquals(intArrayOf(0, 1), words.wordStarts.copyOf(2))
+    }
+
+    @Test fun `collection returns highest frequency of all dictionaries`() {
+        val collection = DictionaryCollection(Dictionary.TYPE_MAIN, Locale.ENGLISH,
+            FakeDictionary(mapOf("hello" to 10, "world" to 50)),
+            FakeDictionary(mapOf("hello" to 30)))
+        val words = PackedWords()
+        listOf("hello", "world", "nope").forEach { words.add(it) }
+        val frequencies = IntArray(3)
+        collection.getFrequencies(words, frequencies)
+        assertArrayEquals(intArrayOf(30, 50, Dictionary.NOT_A_PROBABILITY), frequencies)
+        val valid = BooleanArray(3)
+        collection.isValidWords(words, valid)
+        assertArrayEquals(booleanArrayOf(true, true, false), valid)
+    }
+
+    private class FakeDictionary(private val words: Map<String, Int>) : Dictionary(Dictionary.TYPE_MAIN, Locale.ENGLISH) {
+        override fun getSuggestions(composedData: ComposedData, ngramContext: NgramContext, proximityInfoHandle: Long,
+                settingsValuesForSuggestion: SettingsValuesForSuggestion, sessionId: Int, weightForLocale: Float,
+                inOutWeightOfLangModelVsSpatialModel: FloatArray): ArrayList<SuggestedWordInfo>? = null
+        override fun isInDictionary(word: String) = word in words
+        override fun getFrequency(word: String) = words[word] ?: NOT_A_PROBABILITY
+    }
+}
@@ -0,0 +1,95 @@
+// SPDX-License-Identifier: GPL-3.0-only
+package helium314.keyboard.latin
+
+import android.content.Context
+import androidx.test.core.app.ApplicationProvider
+import helium314.keyboard.latin.utils.ExecutorUtils
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertNotSame
+import org.junit.Assert.assertSame
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import java.io.File
+import java.util.Locale
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+
+@RunWith(RobolectricTestRunner::class)
+class DictionaryFacilitatorImplTest {
+    private val context: Context = ApplicationProvider.getApplicationContext()
+    private val executor = Executors.newSingleThreadScheduledExecutor()
+    // background tasks wait until released, dictionaries can't be loaded without the native library anyway
+    private val blocker = CountDownLatch(1)
+
+    @Before fun setUp() {
+        ExecutorUtils.setExecutorServiceForTests(executor)
+        executor.execute { blocker.await() }
+    }
+
+    @After fun tearDown() {
+        ExecutorUtils.setExecutorServiceForTests(null)
+        executor.shutdownNow()
+    }
+
+    @Test fun `dictionaries of recently used locales are re-used`() {
+        val facilitator = DictionaryFacilitatorImpl()
+        reset(facilitator, Locale.ENGLISH)
+        val english = facilitator.getSubDictForTests(Locale.ENGLISH, Dictionary.TYPE_USER)
+        assertNotNull(english)
+        reset(facilitator, Locale.GERMAN)
+        reset(facilitator, Locale.ENGLISH)
+        assertSame(english, facilitator.getSubDictForTests(Locale.ENGLISH, Dictionary.TYPE_USER))
+
+        // force reloading discards standby dictionaries
+        val german = facilitator.getSubDictForTests(Locale.GERMAN, Dictionary.TYPE_USER)
+        facilitator.resetDictionaries(context, Locale.FRENCH, false, false, true, null, "test", null)
+        reset(facilitator, Locale.ENGLISH)
+        assertNotSame(english, facilitator.getSubDictForTests(Locale.ENGLISH, Dictionary.TYPE_USER))
+        reset(facilitator, Locale.GERMAN)
+        assertNotSame(german, facilitator.getSubDictForTests(Locale.GERMAN, Dictionary.TYPE_USER))
+        facilitator.closeDictionaries()
+    }
+
+    @Test fun `oldest standby dictionaries are closed`() {
+        val facilitator = DictionaryFacilitatorImpl()
+        val locales = listOf(Locale.ENGLISH, Locale.GERMAN, Locale.FRENCH, Locale.ITALIAN, Locale.JAPANESE)
+        val dictionaries = locales.map { locale ->
+            reset(facilitator, locale)
+            facilitator.getSubDictForTests(locale, Dictionary.TYPE_USER)
+        }
+        // the 3 most recent of the 4 inactive locales are kept
+        reset(facilitator, Locale.ITALIAN)
+        assertSame(dictionaries[3], facilitator.getSubDictForTests(Locale.ITALIAN, Dictionary.TYPE_USER))
+        reset(facilitator, Locale.GERMAN)
+        assertSame(dictionaries[1], facilitator.getSubDictForTests(Locale.GERMAN, Dictionary.TYPE_USER))
+        reset(facilitator, Locale.ENGLISH)
+        assertNotSame(dictionaries[0], facilitator.getSubDictForTests(Locale.ENGLISH, Dictionary.TYPE_USER))
+        facilitator.closeDictionaries()
+    }
+
+    @Test fun `blacklist changes wait for loading`() {
+        val file = File(context.filesDir, "blacklists/test.txt")
+        file.parentFile!!.mkdirs()
+        file.writeText("removed\nkept\n")
+        val blacklist = DictionaryFacilitatorImpl.Blacklist(file.absolutePath)
+        blacklist.loadAsync()
+        blacklist.remove("removed")
+        blacklist.add("added")
+        blocker.countDown()
+        executor.submit {}.get()
+
+        assertFalse(blacklist.contains("removed"))
+        assertTrue(blacklist.contains("kept"))
+        assertTrue(blacklist.contains("added"))
+        assertEquals(listOf("kept", "added"), file.readLines())
+    }
+
+    private fun reset(facilitator: DictionaryFacilitatorImpl, locale: Locale) =
+        facilitator.resetDictionaries(context, locale, false, false, false, null, "test", null)
+}
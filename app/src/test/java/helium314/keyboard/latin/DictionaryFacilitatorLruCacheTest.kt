@@ -0,0 +1,63 @@
+// SPDX-License-Identifier: GPL-3.0-only
+package helium314.keyboard.latin
+
+import androidx.test.core.app.ApplicationProvider
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotSame
+import org.junit.Assert.assertSame
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.mockito.ArgumentMatchers.anyBoolean
+import org.mockito.MockedStatic
+import org.mockito.Mockito
+import org.robolectric.RobolectricTestRunner
+import java.util.Locale
+
+@RunWith(RobolectricTestRunner::class)
+class DictionaryFacilitatorLruCacheTest {
+    private lateinit var provider: MockedStatic<DictionaryFacilitatorProvider>
+    private lateinit var cache: DictionaryFacilitatorLruCache
+
+    @Before fun setUp() {
+        // the real facilitators need the native library for loading dictionaries
+        provider = Mockito.mockStatic(DictionaryFacilitatorProvider::class.java)
+        provider.`when`<DictionaryFacilitator> { DictionaryFacilitatorProvider.getDictionaryFacilitator(anyBoolean()) }
+            .thenAnswer { Mockito.mock(DictionaryFacilitator::class.java) }
+        cache = DictionaryFacilitatorLruCache(ApplicationProvider.getApplicationContext(), "test", 2)
+    }
+
+    @After fun tearDown() {
+        provider.close()
+    }
+
+    @Test fun `least recently used facilitator is evicted and closed`() {
+        val english = cache.get(Locale.ENGLISH)
+        val german = cache.get(Locale.GERMAN)
+        // using english again makes german the least recently used
+        assertSame(english, cache.get(Locale.ENGLISH))
+        val french = cache.get(Locale.FRENCH)
+        assertEquals(2, cache.size())
+        assertEquals(1, cache.evictionCount)
+        Mockito.verify(german).closeDictionaries()
+        Mockito.verify(english, Mockito.never()).closeDictionaries()
+
+        assertSame(english, cache.get(Locale.ENGLISH))
+        assertSame(french, cache.get(Locale.FRENCH))
+        assertNotSame(german, cache.get(Locale.GERMAN))
+        Mockito.verify(english).closeDictionaries()
+        assertEquals(3, cache.hitCount)
+        assertEquals(4, cache.missCount)
+        assertEquals(2, cache.evictionCount)
+    }
+
+    @Test fun `closing is not counted as eviction`() {
+        val english = cache.get(Locale.ENGLISH)
+        cache.closeDictionaries()
+        Mockito.verify(english).closeDictionaries()
+        assertEquals(0, cache.size())
+        assertEquals(0, cache.evictionCount)
+        assertNotSame(english, cache.get(Locale.ENGLISH))
+    }
+}
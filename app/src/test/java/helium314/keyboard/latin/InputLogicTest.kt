@@ -596,6 +596,39 @@ class InputLogicTest {
         assertEquals("{\"label\": \"c", text)
     }
 
+    @Test fun `text after cursor is reloaded after unexpected selection update`() {
+        reset()
+        setText("hello world")
+        setCursorPosition(5)
+        assertEquals(" world", connection.getTextAfterCursor(6, 0).toString())
+        // editor changes text after the cursor and moves the cursor
+        text = "hello there"
+        selectionStart = 6
+        selectionEnd = 6
+        latinIME.onUpdateSelection(5, 5, 6, 6, composingStart, composingEnd)
+        handleMessages()
+        assertEquals("there", connection.getTextAfterCursor(5, 0).toString())
+    }
+
+    @Test fun `text after cursor is cached while typing`() {
+        reset()
+        setText("hello world")
+        setCursorPosition(5)
+        assertEquals(" world", connection.getTextAfterCursor(6, 0).toString())
+        val misses = connection.textCacheMissCount
+        val hits = connection.textCacheHitCount
+        "abc".forEach {
+            val oldCursor = selectionStart
+            input(it)
+            // the editor reports the cursor position after our own edit
+            latinIME.onUpdateSelection(oldCursor, oldCursor, selectionStart, selectionEnd, composingStart, composingEnd)
+            handleMessages()
+            assertEquals(" world", connection.getTextAfterCursor(6, 0).toString())
+        }
+        assertEquals(misses, connection.textCacheMissCount)
+        assert(connection.textCacheHitCount >= hits + 3)
+    }
+
     // ------- helper functions ---------
 
     // should be called before every test, so the same state is guaranteed
@@ -0,0 +1,54 @@
+// SPDX-License-Identifier: GPL-3.0-only
+package helium314.keyboard.latin
+
+import helium314.keyboard.latin.utils.LatencyTracer
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+
+class LatencyTracerTest {
+    @Before fun setUp() {
+        LatencyTracer.clear()
+    }
+
+    @Test fun `percentiles per stage`() {
+        for (i in 1..100) {
+            LatencyTracer.record(LatencyTracer.STAGE_INPUT_LOGIC, 0, i * 1_000_000L)
+            LatencyTracer.record(LatencyTracer.STAGE_SUGGESTION_STRIP, 0, 5)
+        }
+        val durations = LatencyTracer.getSortedDurations(LatencyTracer.STAGE_INPUT_LOGIC)
+        assertEquals(100, durations.size)
+        assertEquals(50_000_000L, LatencyTracer.getPercentile(durations, 50.0))
+        assertEquals(99_000_000L, LatencyTracer.getPercentile(durations, 99.0))
+        assertEquals(1_000_000L, LatencyTracer.getPercentile(durations, 0.0))
+        assertEquals(0, LatencyTracer.getSortedDurations(LatencyTracer.STAGE_POINTER_UP).size)
+    }
+
+    @Test fun `buffer keeps latest events`() {
+        for (i in 1..10000) {
+            LatencyTracer.record(LatencyTracer.STAGE_CODE_INPUT, i.toLong(), i + i.toLong())
+        }
+        val durations = LatencyTracer.getSortedDurations(LatencyTracer.STAGE_CODE_INPUT)
+        assertEquals(4096, durations.size)
+        assertEquals(10000L - 4095, durations.first())
+        assertEquals(10000L, durations.last())
+        val dump = LatencyTracer.dump()
+        assertTrue(dump, dump.startsWith("Latency trace, 4096 of 10000 events"))
+    }
+
+    @Test fun `dictionary lookups are shown per type and group`() {
+        val mainDetail = LatencyTracer.getDictionaryDetail(0, 0)
+        val secondaryUserDetail = LatencyTracer.getDictionaryDetail(3, 1)
+        for (i in 1..10) {
+            LatencyTracer.record(LatencyTracer.STAGE_DICTIONARY_SUGGESTIONS, mainDetail, 0, 1_000_000L)
+        }
+        LatencyTracer.record(LatencyTracer.STAGE_DICTIONARY_SUGGESTIONS, secondaryUserDetail, 0, 20_000_000L)
+        assertEquals(11, LatencyTracer.getSortedDurations(LatencyTracer.STAGE_DICTIONARY_SUGGESTIONS).size)
+        assertEquals(10, LatencyTracer.getSortedDurations(LatencyTracer.STAGE_DICTIONARY_SUGGESTIONS, mainDetail).size)
+        assertEquals(listOf(20_000_000L), LatencyTracer.getSortedDurations(LatencyTracer.STAGE_DICTIONARY_SUGGESTIONS, secondaryUserDetail).toList())
+        val dump = LatencyTracer.dump()
+        assertTrue(dump, dump.contains("main dictionary, group 0: 10 events"))
+        assertTrue(dump, dump.contains("user dictionary, group 1: 1 events"))
+    }
+}
@@ -0,0 +1,91 @@
+// SPDX-License-Identifier: GPL-3.0-only
+package helium314.keyboard.latin
+
+import helium314.keyboard.latin.UserDictionarySnapshot.Row
+import org.junit.Assert.assertEquals
+import org.junit.Before
+import org.junit.Test
+
+class UserDictionarySnapshotTest {
+    private val writer = CountingWriter()
+    private val snapshot = UserDictionarySnapshot()
+
+    @Before fun setUp() {
+        for (i in 0L until 1000L)
+            snapshot.apply(i, Row("word$i", if (i % 2 == 0L) "w$i" else null, 100), writer)
+        writer.entries.clear()
+        writer.operations = 0
+    }
+
+    @Test fun `adding a word touches only its entries`() {
+        snapshot.apply(1000, Row("hello", null, 120), writer)
+        assertEquals(1, writer.operations)
+        assertEquals(120, writer.entries["hello"])
+    }
+
+    @Test fun `changing the frequency of a word touches only its entries`() {
+        snapshot.apply(2, Row("word2", "w2", 200), writer)
+        assertEquals(2, writer.operations)
+        assertEquals(200, writer.entries["word2"])
+    }
+
+    @Test fun `deleting a word touches only its entries`() {
+        snapshot.apply(4, null, writer)
+        assertEquals(2, writer.operations)
+        assertEquals(listOf("word4", "w4"), writer.removed)
+    }
+
+    @Test fun `renaming a word removes the old one`() {
+        snapshot.apply(3, Row("other", null, 100), writer)
+        assertEquals(2, writer.operations)
+        assertEquals(listOf("word3"), writer.removed)
+        assertEquals(100, writer.entries["other"])
+    }
+
+    @Test fun `unchanged row is not written`() {
+        snapshot.apply(5, Row("word5", null, 100), writer)
+        assertEquals(0, writer.operations)
+    }
+
+    @Test fun `word shared by another row is kept`() {
+        snapshot.apply(1000, Row("word7", null, 50), writer)
+        writer.removed.clear()
+        snapshot.apply(7, null, writer)
+        assertEquals(listOf<String>(), writer.removed)
+        assertEquals(50, writer.entries["word7"])
+    }
+
+    @Test fun `full diff applies only changed rows`() {
+        val rows = HashMap<Long, Row>()
+        for (i in 0L until 1000L)
+            rows[i] = Row("word$i", if (i % 2 == 0L) "w$i" else null, 100)
+        rows.remove(1)
+        rows[1000] = Row("new", null, 100)
+        assertEquals(2, snapshot.countChanges(rows))
+        snapshot.applyAll(rows, writer)
+        assertEquals(2, writer.operations)
+        assertEquals(listOf("word1"), writer.removed)
+    }
+
+    private class CountingWriter : UserDictionarySnapshot.EntryWriter {
+        val entries = HashMap<String, Int>()
+        val removed = ArrayList<String>()
+        var operations = 0
+
+        override fun addWord(word: String, frequency: Int) {
+            operations++
+            entries[word] = frequency
+        }
+
+        override fun addShortcut(shortcut: String, word: String, frequency: Int) {
+            operations++
+            entries[shortcut] = frequency
+        }
+
+        override fun removeEntry(wordOrShortcut: String) {
+            operations++
+            entries.remove(wordOrShortcut)
+            removed.add(wordOrShortcut)
+        }
+    }
+}
@@ -0,0 +1,63 @@
+// SPDX-License-Identifier: GPL-3.0-only
+package helium314.keyboard.latin
+
+import helium314.keyboard.latin.common.StringUtils
+import helium314.keyboard.latin.common.WordFilter
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.io.File
+import java.nio.file.Files
+
+class WordFilterTest {
+    private val words = (0 until 50000).map { "word$it" } + listOf("Hello", "straße", "😀smile", "")
+    private val filter = WordFilter.create(words.map { WordFilter.hash(it) }.toLongArray())
+
+    @Test fun `contains all words`() {
+        words.forEach { assertTrue(it, filter.mightContain(it)) }
+    }
+
+    @Test fun `code point hash matches string hash`() {
+        listOf("Hello", "straße", "😀smile", "").forEach {
+            val codePoints = intArrayOf(1, 2) + StringUtils.toCodePointArray(it)
+            assertEquals(WordFilter.hash(it), WordFilter.hash(codePoints, 2, codePoints.size - 2))
+        }
+    }
+
+    @Test fun `few false positives`() {
+        val falsePositives = (0 until 50000).count { filter.mightContain("other$it") }
+        assertTrue("$falsePositives false positives", falsePositives < 1000)
+    }
+
+    @Test fun `stored filter is the same`() {
+        val dir = Files.createTempDirectory("filter").toFile()
+        val file = File(dir, "test.filter")
+        filter.write(file)
+        val storedFilter = WordFilter.read(file)
+        assertNotNull(storedFilter)
+        words.forEach { assertTrue(it, storedFilter!!.mightContain(it)) }
+        assertEquals(
+            (0 until 50000).count { filter.mightContain("other$it") },
+            (0 until 50000).count { storedFilter!!.mightContain("other$it") }
+        )
+        dir.deleteRecursively()
+    }
+
+    @Test fun `corrupt filter is not read`() {
+        val dir = Files.createTempDirectory("filter").toFile()
+        val file = File(dir, "test.filter")
+        filter.write(file)
+        val bytes = file.readBytes()
+        file.writeBytes(bytes.copyOf(bytes.size - 100))
+        assertNull(WordFilter.read(file))
+        file.writeBytes(bytes.copyOf().also { it[bytes.size / 2] = (it[bytes.size / 2] + 1).toByte() })
+        assertNull(WordFilter.read(file))
+        file.writeBytes(bytes + 0)
+        assertNull(WordFilter.read(file))
+        file.writeBytes(bytes)
+        assertNotNull(WordFilter.read(file))
+        dir.deleteRecursively()
+    }
+}
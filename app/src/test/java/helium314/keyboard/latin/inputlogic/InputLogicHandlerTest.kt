@@ -0,0 +1,82 @@
+// SPDX-License-Identifier: GPL-3.0-only
+package helium314.keyboard.latin.inputlogic
+
+import helium314.keyboard.ShadowInputMethodManager2
+import helium314.keyboard.ShadowLocaleManagerCompat
+import helium314.keyboard.latin.DictionaryFacilitatorImpl
+import helium314.keyboard.latin.LatinIME
+import helium314.keyboard.latin.Suggest.OnGetSuggestedWordsCallback
+import helium314.keyboard.latin.SuggestedWords
+import helium314.keyboard.latin.common.InputPointers
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.Robolectric
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+import java.util.Collections
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+@RunWith(RobolectricTestRunner::class)
+@Config(shadows = [
+    ShadowLocaleManagerCompat::class,
+    ShadowInputMethodManager2::class,
+])
+class InputLogicHandlerTest {
+    private lateinit var latinIME: DecodeCountingLatinIME
+    private lateinit var handler: InputLogicHandler
+
+    @Before fun setUp() {
+        latinIME = Robolectric.setupService(DecodeCountingLatinIME::class.java)
+        handler = InputLogicHandler(latinIME, InputLogic(latinIME, latinIME, DictionaryFacilitatorImpl()))
+    }
+
+    @After fun tearDown() {
+        handler.destroy()
+    }
+
+    @Test fun `only the tail is decoded if updates are still queued`() {
+        val pointers = InputPointers(10).apply { for (i in 0 until 10) addPointer(i * 10, 100, 0, i * 5) }
+        val unblock = CountDownLatch(1)
+        handler.mNonUIThreadHandler.post { unblock.await() }
+
+        handler.onStartBatchInput()
+        for (i in 1..3) handler.onUpdateBatchInput(pointers, i)
+        handler.updateTailBatchInput(pointers, 4)
+        unblock.countDown()
+        awaitHandlerThread()
+
+        assertEquals(listOf(SuggestedWords.INPUT_STYLE_TAIL_BATCH), latinIME.decodedInputStyles)
+    }
+
+    @Test fun `updates are decoded when not superseded`() {
+        val pointers = InputPointers(10).apply { for (i in 0 until 10) addPointer(i * 10, 100, 0, i * 5) }
+        handler.onStartBatchInput()
+        handler.onUpdateBatchInput(pointers, 1)
+        awaitHandlerThread()
+        handler.updateTailBatchInput(pointers, 2)
+        awaitHandlerThread()
+
+        assertEquals(listOf(SuggestedWords.INPUT_STYLE_UPDATE_BATCH, SuggestedWords.INPUT_STYLE_TAIL_BATCH),
+            latinIME.decodedInputStyles)
+    }
+
+    private fun awaitHandlerThread() {
+        val done = CountDownLatch(1)
+        handler.mNonUIThreadHandler.post { done.countDown() }
+        assertTrue(done.await(5, TimeUnit.SECONDS))
+    }
+}
+
+class DecodeCountingLatinIME : LatinIME() {
+    val decodedInputStyles: MutableList<Int> = Collections.synchronizedList(mutableListOf())
+
+    override fun getSuggestedWords(inputStyle: Int, sequenceNumber: Int, callback: OnGetSuggestedWordsCallback) {
+        decodedInputStyles.add(inputStyle)
+        callback.onGetSuggestedWords(SuggestedWords.getEmptyInstance())
+    }
+}
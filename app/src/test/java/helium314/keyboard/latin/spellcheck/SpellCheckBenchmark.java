@@ -0,0 +1,68 @@
+// SPDX-License-Identifier: GPL-3.0-only
+
+package helium314.keyboard.latin.spellcheck;
+
+import android.service.textservice.SpellCheckerService;
+import android.view.textservice.SentenceSuggestionsInfo;
+import android.view.textservice.TextInfo;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import helium314.keyboard.benchmark.BenchmarkEnvironment;
+
+/**
+ * Spell checking a document of 10k words, sent as one text per sentence like editors do.
+ * With cold caches every word is looked up, with warm caches the document was checked before.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 20)
+@Fork(0)
+public class SpellCheckBenchmark {
+    private static final int SUGGESTIONS_LIMIT = 5;
+
+    @Param({"false", "true"})
+    public boolean warmCaches;
+
+    private AndroidSpellCheckerService mService;
+    private SpellCheckerService.Session mSession;
+    private TextInfo[] mTextInfos;
+
+    @Setup
+    public void setUp() {
+        mService = BenchmarkEnvironment.getSpellCheckerService();
+        mSession = mService.createSession();
+        mSession.onCreate();
+        final String[] sentences = BenchmarkEnvironment.getDocument().split("(?<=[.!?]) ");
+        mTextInfos = new TextInfo[sentences.length];
+        for (int i = 0; i < sentences.length; i++) {
+            mTextInfos[i] = new TextInfo(sentences[i], i, i);
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void prepareCaches() {
+        if (!warmCaches)
+            mService.clearCaches();
+    }
+
+    @Benchmark
+    public SentenceSuggestionsInfo[] checkDocument() {
+        return mSession.onGetSentenceSuggestionsMultiple(mTextInfos, SUGGESTIONS_LIMIT);
+    }
+}
@@ -0,0 +1,55 @@
+// SPDX-License-Identifier: GPL-3.0-only
+package helium314.keyboard.latin.spellcheck
+
+import org.junit.Assert.assertArrayEquals
+import helium314.keyboard.latin.NgramContext
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import java.util.Locale
+
+@RunWith(RobolectricTestRunner::class)
+class SuggestionsCacheTest {
+    private val cache = AndroidWordLevelSpellCheckerSession.SuggestionsCache()
+    private val noContext = NgramContext(NgramContext.WordInfo(null))
+
+    @Test fun `entries are separated by previous word, typos are not`() {
+        val afterSay = NgramContext(NgramContext.WordInfo("say"))
+        cache.putSuggestionsToCache(Locale.ENGLISH, 3, afterSay, "helo", arrayOf("hello"), 1)
+        assertArrayEquals(arrayOf("hello"), cache.getSuggestionsFromCache(Locale.ENGLISH, 3, afterSay, "helo").mSuggestions)
+        assertNull(cache.getSuggestionsFromCache(Locale.ENGLISH, 3, noContext, "helo"))
+        assertNull(cache.getSuggestionsFromCache(Locale.ENGLISH, 3, NgramContext(NgramContext.WordInfo("can")), "helo"))
+        assertTrue(cache.isCachedTypo(Locale.ENGLISH, "helo"))
+        assertFalse(cache.isCachedTypo(Locale.GERMAN, "helo"))
+        cache.clearCache()
+        assertFalse(cache.isCachedTypo(Locale.ENGLISH, "helo"))
+    }
+
+    @Test fun `entries are separated by locale and limit`() {
+        cache.putSuggestionsToCache(Locale.ENGLISH, 3, noContext, "helo", arrayOf("hello", "help"), 1)
+        assertArrayEquals(arrayOf("hello", "help"), cache.getSuggestionsFromCache(Locale.ENGLISH, 3, noContext, "helo").mSuggestions)
+        assertEquals(1, cache.getSuggestionsFromCache(Locale.ENGLISH, 3, noContext, "helo").mFlags)
+        assertNull(cache.getSuggestionsFromCache(Locale.GERMAN, 3, noContext, "helo"))
+        assertNull(cache.getSuggestionsFromCache(Locale.ENGLISH, 5, noContext, "helo"))
+    }
+
+    @Test fun `cache is usable from several threads`() {
+        val threads = (0 until 4).map { t ->
+            Thread {
+                for (i in 0 until 500) {
+                    cache.putSuggestionsToCache(Locale.ENGLISH, 3, noContext, "word$t-$i", arrayOf("w$i"), 0)
+                    cache.getSuggestionsFromCache(Locale.ENGLISH, 3, noContext, "word$t-${i / 2}")
+                }
+            }
+        }
+        threads.forEach { it.start() }
+        threads.forEach { it.join() }
+        assertArrayEquals(arrayOf("w499"), cache.getSuggestionsFromCache(Locale.ENGLISH, 3, noContext, "word3-499").mSuggestions)
+        cache.clearCache()
+        assertNull(cache.getSuggestionsFromCache(Locale.ENGLISH, 3, noContext, "word3-499"))
+    }
+}